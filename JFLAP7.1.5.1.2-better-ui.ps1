@@ -162,7 +162,25 @@ try {
       @{ Class = "patch.CurvedArrowPatcher"; Target = "gui/viewer/CurvedArrow.class" },
       @{ Class = "patch.AutomatonDrawerPatcher"; Target = "gui/viewer/AutomatonDrawer.class" },
       @{ Class = "patch.SelectionDrawerPatcher"; Target = "gui/viewer/SelectionDrawer.class" },
-      @{ Class = "patch.StateDrawerPatcher"; Target = "gui/viewer/StateDrawer.class" }
+      @{ Class = "patch.StateDrawerPatcher"; Target = "gui/viewer/StateDrawer.class" },
+      @{ Class = "patch.UndoKeeperPatcher"; Target = "gui/editor/UndoKeeper.class" },
+      @{ Class = "patch.FSASimulatorPatcher"; Target = "automata/fsa/FSAStepByStateSimulator.class" },
+      @{ Class = "patch.NFAToDFAPatcher"; Target = "automata/fsa/NFAToDFA.class" },
+      @{ Class = "patch.ConversionCheckpointPatcher"; Target = "automata/fsa/NFAToDFA.class" },
+      @{ Class = "patch.ConversionCheckpointPatcher"; Target = "automata/fsa/Minimizer.class" },
+      @{ Class = "patch.ConversionCheckpointPatcher"; Target = "automata/fsa/FSAToRegularExpressionConverter.class" },
+      @{ Class = "patch.ConversionCheckpointPatcher"; Target = "automata/pda/PDAToCFGConverter.class" },
+      @{ Class = "patch.ConversionCheckpointPatcher"; Target = "grammar/CNFConverter.class" },
+      @{ Class = "patch.MultipleSimulatePatcher"; Target = 'gui/action/MultipleSimulateAction$2.class' },
+      @{ Class = "patch.MultipleSimulatePatcher"; Target = 'gui/action/BatchMultipleSimulateAction$2.class' },
+      @{ Class = "patch.PDAAcceptancePatcher"; Target = "automata/pda/PDAStepByStateSimulator.class" },
+      @{ Class = "patch.NondeterminismDetectorPatcher"; Target = "automata/NondeterminismDetector.class" },
+      @{ Class = "patch.XMLCodecPatcher"; Target = "file/XMLCodec.class" },
+      @{ Class = "patch.BulkImportPatcher"; Target = "gui/action/OpenAction.class" },
+      @{ Class = "patch.BulkImportPatcher"; Target = "gui/action/TestAction.class" },
+      @{ Class = "patch.AutosavePatcher"; Target = "gui/environment/Universe.class" },
+      @{ Class = "patch.GEMLayoutPatcher"; Target = "automata/graph/layout/GEMLayoutAlgorithm.class" },
+      @{ Class = "patch.TwoCircleLayoutPatcher"; Target = "automata/graph/layout/TwoCircleLayoutAlgorithm.class" }
     )
 
     foreach ($t in $patchTargets) {
@@ -0,0 +1,231 @@
+package automata;
+
+import automata.event.AutomataStateEvent;
+import automata.event.AutomataStateListener;
+import automata.event.AutomataTransitionEvent;
+import automata.event.AutomataTransitionListener;
+import launcher.IdentityKey;
+
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-state edit versions of an {@link Automaton}, kept up to date by its state and transition
+ * listeners.
+ *
+ * <p>{@link Automaton} only tells its readers that something changed, so a reader that derives
+ * something per state (the arrows a drawer lays out between two states, whether a state is
+ * nondeterministic) recomputes it for every state after each click. Every event here bumps a
+ * version counter and stamps the states it touches: both ends of an added, removed or replaced
+ * transition, or the state that was added, removed, moved or relabelled. A reader that remembers
+ * {@link #getVersion()} can ask {@link #changedSince(long)} which states to redo.</p>
+ *
+ * <p>Only the most recent {@value #LOG_LIMIT} stamps are kept; a reader that falls further behind
+ * gets {@code null} and starts over. Disable with {@code -Djflap.incrementalIndexes=false}.</p>
+ */
+public final class StateVersions implements AutomataStateListener, AutomataTransitionListener {
+  private static final String ENABLED_PROPERTY = "jflap.incrementalIndexes";
+  private static final int LOG_LIMIT = 1 << 14;
+
+  private static final Map<IdentityKey<Automaton>, StateVersions> REGISTRY = new HashMap<>();
+  private static final ReferenceQueue<Automaton> STALE = new ReferenceQueue<>();
+
+  private long version;
+  /** Versions before this may have been dropped from {@link #log}. */
+  private long floor;
+  private final Map<State, Long> stateVersions = new IdentityHashMap<>();
+  private final ArrayDeque<Stamp> log = new ArrayDeque<>();
+  private final Map<Class<?>, Nondeterminism> nondeterminism = new HashMap<>();
+
+  private StateVersions() {
+  }
+
+  public static boolean isEnabled() {
+    return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+  }
+
+  /**
+   * Returns the versions of {@code automaton}, registering the listeners on first use. Edits made
+   * before that are not recorded; {@link #getVersion()} starts at 0.
+   */
+  public static StateVersions of(Automaton automaton) {
+    synchronized (REGISTRY) {
+      Object stale;
+      while ((stale = STALE.poll()) != null) {
+        REGISTRY.remove(stale);
+      }
+      StateVersions versions = REGISTRY.get(new IdentityKey<Automaton>(automaton, null));
+      if (versions == null) {
+        versions = new StateVersions();
+        REGISTRY.put(new IdentityKey<Automaton>(automaton, STALE), versions);
+        automaton.addStateListener(versions);
+        automaton.addTransitionListener(versions);
+      }
+      return versions;
+    }
+  }
+
+  public synchronized long getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns the version of the last edit that touched {@code state}, or 0 if none was recorded.
+   */
+  public synchronized long getVersion(State state) {
+    Long stamped = stateVersions.get(state);
+    return (stamped == null) ? 0 : stamped;
+  }
+
+  /**
+   * Returns the states touched by edits after {@code since}, a value {@link #getVersion()} returned
+   * earlier, or {@code null} if those edits are no longer all recorded. Removed states are included.
+   */
+  public synchronized Set<State> changedSince(long since) {
+    if (since < floor) {
+      return null;
+    }
+    Set<State> changed = Collections.newSetFromMap(new IdentityHashMap<State, Boolean>());
+    Iterator<Stamp> newestFirst = log.descendingIterator();
+    while (newestFirst.hasNext()) {
+      Stamp stamp = newestFirst.next();
+      if (stamp.version <= since) {
+        break;
+      }
+      changed.add(stamp.state);
+    }
+    return changed;
+  }
+
+  @Override
+  public synchronized void automataStateChange(AutomataStateEvent e) {
+    version++;
+    stamp(e.getState());
+  }
+
+  @Override
+  public synchronized void automataTransitionChange(AutomataTransitionEvent e) {
+    version++;
+    Transition transition = e.getTransition();
+    stamp(transition.getFromState());
+    stamp(transition.getToState());
+  }
+
+  private void stamp(State state) {
+    if (state == null) {
+      return;
+    }
+    stateVersions.put(state, version);
+    log.addLast(new Stamp(version, state));
+    if (log.size() > LOG_LIMIT) {
+      floor = log.removeFirst().version;
+    }
+  }
+
+  /**
+   * Hook for {@code NondeterminismDetector.getNondeterministicStates(Automaton)}: the same states in
+   * the same order, rechecking only the states edited since the last call with the same kind of
+   * detector.
+   *
+   * @return the nondeterministic states, or {@code null} to run the original detector
+   */
+  public static State[] nondeterministicStates(NondeterminismDetector detector, Automaton automaton) {
+    if (!isEnabled() || detector == null || automaton == null) {
+      return null;
+    }
+    StateVersions versions = of(automaton);
+    synchronized (versions) {
+      Nondeterminism cache = versions.nondeterminism.get(detector.getClass());
+      if (cache == null) {
+        cache = new Nondeterminism();
+        versions.nondeterminism.put(detector.getClass(), cache);
+      }
+      return cache.update(versions, detector, automaton);
+    }
+  }
+
+  /**
+   * Whether each state had two transitions the detector calls nondeterministic, or a lambda
+   * transition, as of {@link #version}.
+   */
+  private static final class Nondeterminism {
+    private final Map<State, Boolean> byState = new IdentityHashMap<>();
+    private long version = -1;
+    private State[] result;
+
+    State[] update(StateVersions versions, NondeterminismDetector detector, Automaton automaton) {
+      Set<State> changed = (version < 0) ? null : versions.changedSince(version);
+      if (changed != null && changed.isEmpty() && result != null) {
+        return result.clone();
+      }
+      LambdaTransitionChecker lambda = LambdaCheckerFactory.getLambdaChecker(automaton);
+      boolean dirty = (changed == null);
+      if (changed == null) {
+        byState.clear();
+      } else {
+        for (State state : changed) {
+          if (byState.remove(state) != null) {
+            dirty = true;
+          }
+        }
+      }
+
+      State[] states = automaton.getStates();
+      List<State> found = new ArrayList<>();
+      for (int i = 0; i < states.length; i++) {
+        Boolean nondeterministic = byState.get(states[i]);
+        if (nondeterministic == null) {
+          nondeterministic = check(detector, lambda, automaton, states[i]);
+          byState.put(states[i], nondeterministic);
+          dirty = true;
+        }
+        if (nondeterministic) {
+          found.add(states[i]);
+        }
+      }
+      if (dirty || result == null) {
+        result = found.toArray(new State[0]);
+      }
+      version = versions.version;
+      return result.clone();
+    }
+
+    private static boolean check(
+      NondeterminismDetector detector,
+      LambdaTransitionChecker lambda,
+      Automaton automaton,
+      State state
+    ) {
+      Transition[] from = automaton.getTransitionsFromState(state);
+      for (int i = 0; i < from.length; i++) {
+        if (lambda.isLambdaTransition(from[i])) {
+          return true;
+        }
+        for (int j = i + 1; j < from.length; j++) {
+          if (detector.areNondeterministic(from[i], from[j])) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final class Stamp {
+    final long version;
+    final State state;
+
+    Stamp(long version, State state) {
+      this.version = version;
+      this.state = state;
+    }
+  }
+}
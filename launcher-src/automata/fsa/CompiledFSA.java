@@ -0,0 +1,422 @@
+package automata.fsa;
+
+import automata.Automaton;
+import automata.ClosureTaker;
+import automata.State;
+import automata.Transition;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A {@link FiniteStateAutomaton} lowered to int-indexed tables for fast acceptance checks.
+ *
+ * <p>States are numbered {@code 0..n-1}, input characters are mapped to dense symbol ids and every
+ * (state, symbol) pair owns a slice of a flat successor array that already contains the lambda
+ * closure of each target (computed once with {@link ClosureTaker}). Multi-character labels are
+ * expanded into chains of anonymous intermediate states and {@code [a-z]} range labels are expanded
+ * per character, matching {@link FSAStepByStateSimulator}.</p>
+ *
+ * <p>Instances are immutable and may be shared between threads. {@link #accepts(CharSequence)} does
+ * not allocate per input symbol; when the lowered machine is deterministic it walks a single int
+ * table, otherwise it steps a sparse state set held in per-call scratch arrays.</p>
+ */
+public final class CompiledFSA {
+  private static final int ASCII_LIMIT = 128;
+  private static final int NO_STATE = -1;
+
+  private final int stateCount;
+  private final int[] chainOrigin;
+  private final char[] symbols;
+  private final int[] asciiSymbols;
+  private final int[] successorStart;
+  private final int[] successors;
+  private final int[] initialStates;
+  private final boolean[] accepting;
+  private final int[] deterministicTable;
+
+  private CompiledFSA(
+    int stateCount,
+    int[] chainOrigin,
+    char[] symbols,
+    int[] successorStart,
+    int[] successors,
+    int[] initialStates,
+    boolean[] accepting
+  ) {
+    this.stateCount = stateCount;
+    this.chainOrigin = chainOrigin;
+    this.symbols = symbols;
+    this.successorStart = successorStart;
+    this.successors = successors;
+    this.initialStates = initialStates;
+    this.accepting = accepting;
+
+    this.asciiSymbols = new int[ASCII_LIMIT];
+    Arrays.fill(asciiSymbols, NO_STATE);
+    for (int i = 0; i < symbols.length; i++) {
+      if (symbols[i] < ASCII_LIMIT) {
+        asciiSymbols[symbols[i]] = i;
+      }
+    }
+
+    this.deterministicTable = buildDeterministicTable();
+  }
+
+  /**
+   * Returns whether {@code automaton} can be lowered by {@link #compile(Automaton)}.
+   */
+  public static boolean canCompile(Automaton automaton) {
+    if (!(automaton instanceof FiniteStateAutomaton) || automaton.getInitialState() == null) {
+      return false;
+    }
+    Transition[] transitions = automaton.getTransitions();
+    for (int i = 0; i < transitions.length; i++) {
+      if (!(transitions[i] instanceof FSATransition)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Lowers {@code automaton} into a compiled table.
+   *
+   * @throws IllegalArgumentException if {@link #canCompile(Automaton)} is {@code false}
+   */
+  public static CompiledFSA compile(Automaton automaton) {
+    if (!canCompile(automaton)) {
+      throw new IllegalArgumentException("Automaton is not a finite state automaton with an initial state.");
+    }
+    return compile(automaton, automaton.getStates());
+  }
+
+  /**
+   * Lowers {@code automaton} so that compiled state {@code i} is {@code states[i]} for every
+   * {@code i < states.length}.
+   */
+  static CompiledFSA compile(Automaton automaton, State[] states) {
+    Map<State, Integer> index = new HashMap<>();
+    for (int i = 0; i < states.length; i++) {
+      index.put(states[i], i);
+    }
+
+    // Lower every labelled transition into single-character edges (from, symbol, to).
+    EdgeList edges = new EdgeList();
+    IntList origins = new IntList();
+    TreeSet<Character> alphabet = new TreeSet<>();
+    int stateCount = states.length;
+    Transition[] transitions = automaton.getTransitions();
+    for (int i = 0; i < transitions.length; i++) {
+      FSATransition t = (FSATransition) transitions[i];
+      String label = t.getLabel();
+      if (label == null || label.isEmpty()) {
+        continue;
+      }
+      int from = index.get(t.getFromState());
+      int to = index.get(t.getToState());
+
+      int bracket = label.indexOf('[');
+      if (bracket >= 0 && bracket + 3 < label.length()) {
+        char lo = label.charAt(bracket + 1);
+        char hi = label.charAt(bracket + 3);
+        for (char c = lo; c <= hi; c++) {
+          edges.add(from, c, to);
+          alphabet.add(c);
+          if (c == Character.MAX_VALUE) {
+            break;
+          }
+        }
+        continue;
+      }
+
+      int current = from;
+      for (int j = 0; j < label.length(); j++) {
+        char c = label.charAt(j);
+        alphabet.add(c);
+        int next = to;
+        if (j < label.length() - 1) {
+          next = stateCount++;
+          origins.add(from);
+        }
+        edges.add(current, c, next);
+        current = next;
+      }
+    }
+
+    char[] symbols = new char[alphabet.size()];
+    int s = 0;
+    for (Character c : alphabet) {
+      symbols[s++] = c;
+    }
+
+    int[][] closures = new int[stateCount][];
+    for (int i = 0; i < states.length; i++) {
+      State[] closure = ClosureTaker.getClosure(states[i], automaton);
+      int[] ids = new int[closure.length];
+      for (int j = 0; j < closure.length; j++) {
+        ids[j] = index.get(closure[j]);
+      }
+      closures[i] = ids;
+    }
+    for (int i = states.length; i < stateCount; i++) {
+      closures[i] = new int[] {i};
+    }
+
+    boolean[] accepting = new boolean[stateCount];
+    State[] finals = automaton.getFinalStates();
+    for (int i = 0; i < finals.length; i++) {
+      Integer id = index.get(finals[i]);
+      if (id != null) {
+        accepting[id] = true;
+      }
+    }
+
+    int symbolCount = symbols.length;
+    int[] successorStart = new int[stateCount * symbolCount + 1];
+    int[] successors = buildSuccessors(edges, symbols, closures, stateCount, successorStart);
+    int[] initialStates = closures[index.get(automaton.getInitialState())].clone();
+    Arrays.sort(initialStates);
+
+    return new CompiledFSA(stateCount, origins.toArray(), symbols, successorStart, successors, initialStates, accepting);
+  }
+
+  private static int[] buildSuccessors(
+    EdgeList edges,
+    char[] symbols,
+    int[][] closures,
+    int stateCount,
+    int[] successorStart
+  ) {
+    int symbolCount = symbols.length;
+
+    // Bucket edges by (from, symbol) using a counting sort.
+    int[] bucketStart = new int[stateCount * symbolCount + 1];
+    int[] edgeKey = new int[edges.size];
+    for (int e = 0; e < edges.size; e++) {
+      int key = edges.from[e] * symbolCount + Arrays.binarySearch(symbols, edges.symbol[e]);
+      edgeKey[e] = key;
+      bucketStart[key + 1]++;
+    }
+    for (int k = 0; k < bucketStart.length - 1; k++) {
+      bucketStart[k + 1] += bucketStart[k];
+    }
+    int[] fill = Arrays.copyOf(bucketStart, bucketStart.length);
+    int[] bucketTargets = new int[edges.size];
+    for (int e = 0; e < edges.size; e++) {
+      bucketTargets[fill[edgeKey[e]]++] = edges.to[e];
+    }
+
+    // Union the closures of every target, de-duplicated with a stamp array.
+    IntList out = new IntList();
+    int[] stamp = new int[stateCount];
+    int generation = 0;
+    for (int key = 0; key < stateCount * symbolCount; key++) {
+      successorStart[key] = out.size;
+      generation++;
+      int begin = out.size;
+      for (int b = bucketStart[key]; b < bucketStart[key + 1]; b++) {
+        int[] closure = closures[bucketTargets[b]];
+        for (int c = 0; c < closure.length; c++) {
+          int target = closure[c];
+          if (stamp[target] != generation) {
+            stamp[target] = generation;
+            out.add(target);
+          }
+        }
+      }
+      Arrays.sort(out.values, begin, out.size);
+    }
+    successorStart[stateCount * symbolCount] = out.size;
+    return out.toArray();
+  }
+
+  private int[] buildDeterministicTable() {
+    if (initialStates.length != 1) {
+      return null;
+    }
+    int cells = successorStart.length - 1;
+    int[] table = new int[cells];
+    for (int key = 0; key < cells; key++) {
+      int count = successorStart[key + 1] - successorStart[key];
+      if (count > 1) {
+        return null;
+      }
+      table[key] = (count == 0) ? NO_STATE : successors[successorStart[key]];
+    }
+    return table;
+  }
+
+  /**
+   * Returns the number of compiled states, including intermediate states from multi-character labels.
+   */
+  public int getStateCount() {
+    return stateCount;
+  }
+
+  /**
+   * Returns the number of states that correspond to states of the source automaton; ids at or
+   * above this value are intermediate states.
+   */
+  public int getOriginalStateCount() {
+    return stateCount - chainOrigin.length;
+  }
+
+  /**
+   * Maps a compiled state id to the id of the source state it belongs to. Intermediate states
+   * created for a multi-character label map to the label's source state.
+   */
+  public int originalState(int state) {
+    int original = getOriginalStateCount();
+    return (state < original) ? state : chainOrigin[state - original];
+  }
+
+  /**
+   * Returns the sorted input alphabet; symbol ids are indices into this array.
+   */
+  public char[] getSymbols() {
+    return symbols.clone();
+  }
+
+  /**
+   * Returns whether every (state, symbol) pair has at most one successor after closure.
+   */
+  public boolean isDeterministic() {
+    return deterministicTable != null;
+  }
+
+  /**
+   * Returns the dense symbol id for {@code c}, or {@code -1} if it is not in the alphabet.
+   */
+  public int symbolId(char c) {
+    if (c < ASCII_LIMIT) {
+      return asciiSymbols[c];
+    }
+    int found = Arrays.binarySearch(symbols, c);
+    return (found >= 0) ? found : NO_STATE;
+  }
+
+  int[] initialStates() {
+    return initialStates;
+  }
+
+  int[] successorStart() {
+    return successorStart;
+  }
+
+  int[] successors() {
+    return successors;
+  }
+
+  boolean isAccepting(int state) {
+    return accepting[state];
+  }
+
+  public boolean accepts(char[] input) {
+    return accepts(CharBuffer.wrap(input));
+  }
+
+  public boolean accepts(CharSequence input) {
+    if (deterministicTable != null) {
+      return acceptsDeterministic(input);
+    }
+
+    int symbolCount = symbols.length;
+    int[] current = Arrays.copyOf(initialStates, stateCount);
+    int currentSize = initialStates.length;
+    int[] next = new int[stateCount];
+    int[] stamp = new int[stateCount];
+    int generation = 0;
+
+    int length = input.length();
+    for (int i = 0; i < length; i++) {
+      int symbol = symbolId(input.charAt(i));
+      if (symbol < 0) {
+        return false;
+      }
+
+      generation++;
+      int nextSize = 0;
+      for (int j = 0; j < currentSize; j++) {
+        int key = current[j] * symbolCount + symbol;
+        for (int p = successorStart[key]; p < successorStart[key + 1]; p++) {
+          int target = successors[p];
+          if (stamp[target] != generation) {
+            stamp[target] = generation;
+            next[nextSize++] = target;
+          }
+        }
+      }
+      if (nextSize == 0) {
+        return false;
+      }
+
+      int[] swap = current;
+      current = next;
+      next = swap;
+      currentSize = nextSize;
+    }
+
+    for (int j = 0; j < currentSize; j++) {
+      if (accepting[current[j]]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean acceptsDeterministic(CharSequence input) {
+    int symbolCount = symbols.length;
+    int state = initialStates[0];
+    int length = input.length();
+    for (int i = 0; i < length; i++) {
+      int symbol = symbolId(input.charAt(i));
+      if (symbol < 0) {
+        return false;
+      }
+      state = deterministicTable[state * symbolCount + symbol];
+      if (state < 0) {
+        return false;
+      }
+    }
+    return accepting[state];
+  }
+
+  private static final class EdgeList {
+    int[] from = new int[16];
+    char[] symbol = new char[16];
+    int[] to = new int[16];
+    int size;
+
+    void add(int f, char c, int t) {
+      if (size == from.length) {
+        from = Arrays.copyOf(from, size * 2);
+        symbol = Arrays.copyOf(symbol, size * 2);
+        to = Arrays.copyOf(to, size * 2);
+      }
+      from[size] = f;
+      symbol[size] = c;
+      to[size] = t;
+      size++;
+    }
+  }
+
+  private static final class IntList {
+    int[] values = new int[16];
+    int size;
+
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+  }
+}
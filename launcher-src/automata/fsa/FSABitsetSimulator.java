@@ -0,0 +1,262 @@
+package automata.fsa;
+
+import automata.Automaton;
+import automata.AutomatonSimulator;
+import automata.Configuration;
+import automata.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * An FSA simulator that advances the whole set of active states one input symbol at a time.
+ *
+ * <p>Unlike {@link FSAStepWithClosureSimulator}, which expands one configuration per (state,
+ * remaining input) pair, this simulator keeps a single {@link FSASubsetConfiguration} whose active
+ * states are a {@code long[]} bitset. Each step ORs together precomputed per-symbol successor rows
+ * (lambda closures already applied), so time and memory are linear in input length times
+ * {@code states / 64} no matter how nondeterministic the automaton is.</p>
+ *
+ * <p>The automaton is compiled when the simulator is created; create a new simulator after editing
+ * the automaton.</p>
+ */
+public class FSABitsetSimulator extends AutomatonSimulator {
+  /** Upper bound, in {@code long}s, for the dense per-symbol successor rows. */
+  private static final long MAX_ROW_WORDS = 1L << 22;
+
+  private final State[] states;
+  private final CompiledFSA compiled;
+  private final int words;
+  private final int symbolCount;
+  /** {@code rows[symbol]} holds {@code words} longs per state, or {@code null} when too large. */
+  private final long[][] rows;
+  private final long[] initialBits;
+  private final long[] acceptingBits;
+
+  public FSABitsetSimulator(Automaton automaton) {
+    super(automaton);
+    if (!CompiledFSA.canCompile(automaton)) {
+      throw new IllegalArgumentException("FSABitsetSimulator requires a finite state automaton with an initial state.");
+    }
+
+    states = automaton.getStates();
+    compiled = CompiledFSA.compile(automaton, states);
+    int stateCount = compiled.getStateCount();
+    words = Math.max(1, (stateCount + 63) >>> 6);
+    symbolCount = compiled.getSymbols().length;
+
+    initialBits = new long[words];
+    int[] initial = compiled.initialStates();
+    for (int i = 0; i < initial.length; i++) {
+      set(initialBits, initial[i]);
+    }
+
+    acceptingBits = new long[words];
+    for (int s = 0; s < stateCount; s++) {
+      if (compiled.isAccepting(s)) {
+        set(acceptingBits, s);
+      }
+    }
+
+    rows = ((long) stateCount * words * symbolCount <= MAX_ROW_WORDS) ? buildRows(stateCount) : null;
+  }
+
+  private long[][] buildRows(int stateCount) {
+    int[] start = compiled.successorStart();
+    int[] successors = compiled.successors();
+    long[][] result = new long[symbolCount][stateCount * words];
+    for (int s = 0; s < stateCount; s++) {
+      for (int symbol = 0; symbol < symbolCount; symbol++) {
+        int key = s * symbolCount + symbol;
+        long[] row = result[symbol];
+        int base = s * words;
+        for (int p = start[key]; p < start[key + 1]; p++) {
+          int target = successors[p];
+          row[base + (target >>> 6)] |= 1L << target;
+        }
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Configuration[] getInitialConfigurations(String input) {
+    long[] bits = initialBits.clone();
+    return new Configuration[] {configuration(null, input, input, bits)};
+  }
+
+  @Override
+  public ArrayList<Configuration> stepConfiguration(Configuration config) {
+    ArrayList<Configuration> list = new ArrayList<>();
+    FSASubsetConfiguration configuration = (FSASubsetConfiguration) config;
+    String unprocessed = configuration.getUnprocessedInput();
+    if (unprocessed.length() == 0) {
+      return list;
+    }
+
+    long[] next = new long[words];
+    if (advance(configuration.activeBits(), unprocessed.charAt(0), next)) {
+      list.add(configuration(configuration, configuration.getInput(), unprocessed.substring(1), next));
+    }
+    return list;
+  }
+
+  @Override
+  public boolean isAccepted() {
+    for (Configuration configuration : myConfigurations) {
+      if (configuration.isAccept()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean simulateInput(String input) {
+    myConfigurations.clear();
+    long[] bits = run(input);
+    if (bits == null) {
+      return false;
+    }
+    FSASubsetConfiguration last = configuration(null, input, "", bits);
+    myConfigurations.add(last);
+    return last.isAccept();
+  }
+
+  /**
+   * Returns whether the compiled automaton, multi-character labels expanded and lambda closures
+   * applied, has at most one successor per state and symbol; {@link CompiledFSA} then walks a plain
+   * table faster than this simulator steps a set.
+   */
+  public boolean isDeterministic() {
+    return compiled.isDeterministic();
+  }
+
+  /**
+   * Runs {@code input} to completion using two scratch bitsets and no configuration objects. Safe to
+   * call from several threads at once.
+   */
+  public boolean accepts(CharSequence input) {
+    long[] bits = run(input);
+    return bits != null && intersects(bits, acceptingBits);
+  }
+
+  private long[] run(CharSequence input) {
+    long[] current = initialBits.clone();
+    long[] next = new long[words];
+    int length = input.length();
+    for (int i = 0; i < length; i++) {
+      if (!advance(current, input.charAt(i), next)) {
+        return null;
+      }
+      long[] swap = current;
+      current = next;
+      next = swap;
+    }
+    return current;
+  }
+
+  /**
+   * Returns the source automaton states that are active in {@code configuration}. Intermediate
+   * states of a partially read multi-character label are reported as the label's source state.
+   */
+  public State[] getActiveStates(FSASubsetConfiguration configuration) {
+    long[] bits = configuration.activeBits();
+    boolean[] seen = new boolean[states.length];
+    ArrayList<State> result = new ArrayList<>();
+    for (int w = 0; w < bits.length; w++) {
+      long word = bits[w];
+      while (word != 0) {
+        int s = (w << 6) + Long.numberOfTrailingZeros(word);
+        word &= word - 1;
+        int original = compiled.originalState(s);
+        if (!seen[original]) {
+          seen[original] = true;
+          result.add(states[original]);
+        }
+      }
+    }
+    return result.toArray(new State[0]);
+  }
+
+  /**
+   * Computes the successors of {@code current} on {@code c} into {@code next}.
+   *
+   * @return {@code false} if no state is active afterwards
+   */
+  private boolean advance(long[] current, char c, long[] next) {
+    Arrays.fill(next, 0L);
+    int symbol = compiled.symbolId(c);
+    if (symbol < 0) {
+      return false;
+    }
+
+    long[] row = (rows != null) ? rows[symbol] : null;
+    int[] start = compiled.successorStart();
+    int[] successors = compiled.successors();
+    long any = 0L;
+    for (int w = 0; w < current.length; w++) {
+      long word = current[w];
+      while (word != 0) {
+        int s = (w << 6) + Long.numberOfTrailingZeros(word);
+        word &= word - 1;
+        if (row != null) {
+          int base = s * words;
+          for (int i = 0; i < words; i++) {
+            next[i] |= row[base + i];
+          }
+        } else {
+          int key = s * symbolCount + symbol;
+          for (int p = start[key]; p < start[key + 1]; p++) {
+            int target = successors[p];
+            next[target >>> 6] |= 1L << target;
+          }
+        }
+      }
+    }
+    for (int i = 0; i < words; i++) {
+      any |= next[i];
+    }
+    return any != 0L;
+  }
+
+  private FSASubsetConfiguration configuration(
+    FSASubsetConfiguration parent,
+    String input,
+    String unprocessed,
+    long[] bits
+  ) {
+    int first = firstSet(bits);
+    State representative = (first < 0) ? myAutomaton.getInitialState() : states[compiled.originalState(first)];
+    return new FSASubsetConfiguration(
+      representative,
+      parent,
+      input,
+      unprocessed,
+      bits,
+      intersects(bits, acceptingBits)
+    );
+  }
+
+  private static void set(long[] bits, int index) {
+    bits[index >>> 6] |= 1L << index;
+  }
+
+  private static boolean intersects(long[] a, long[] b) {
+    for (int i = 0; i < a.length; i++) {
+      if ((a[i] & b[i]) != 0L) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int firstSet(long[] bits) {
+    for (int w = 0; w < bits.length; w++) {
+      if (bits[w] != 0L) {
+        return (w << 6) + Long.numberOfTrailingZeros(bits[w]);
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,72 @@
+package automata.fsa;
+
+import automata.State;
+
+import java.util.Arrays;
+
+/**
+ * A configuration of {@link FSABitsetSimulator}: the complete set of active states after reading a
+ * prefix of the input, stored as a bitset over compiled state ids.
+ *
+ * <p>{@link #getCurrentState()} reports the lowest-numbered active state so that views written for
+ * {@link FSAConfiguration} still have a state to highlight; use
+ * {@link FSABitsetSimulator#getActiveStates(FSASubsetConfiguration)} for the whole set.</p>
+ */
+public class FSASubsetConfiguration extends FSAConfiguration {
+  private final long[] active;
+  private final boolean accepting;
+  private final int hash;
+
+  FSASubsetConfiguration(
+    State representative,
+    FSASubsetConfiguration parent,
+    String input,
+    String unprocessed,
+    long[] active,
+    boolean accepting
+  ) {
+    super(representative, parent, input, unprocessed);
+    this.active = active;
+    this.accepting = accepting;
+    this.hash = Arrays.hashCode(active) ^ unprocessed.length();
+  }
+
+  long[] activeBits() {
+    return active;
+  }
+
+  /**
+   * Returns the number of active compiled states.
+   */
+  public int getActiveCount() {
+    int count = 0;
+    for (int i = 0; i < active.length; i++) {
+      count += Long.bitCount(active[i]);
+    }
+    return count;
+  }
+
+  @Override
+  public boolean isAccept() {
+    return accepting && getUnprocessedInput().length() == 0;
+  }
+
+  @Override
+  public boolean equals(Object configuration) {
+    if (configuration == this) {
+      return true;
+    }
+    if (!(configuration instanceof FSASubsetConfiguration)) {
+      return false;
+    }
+    FSASubsetConfiguration other = (FSASubsetConfiguration) configuration;
+    return hash == other.hash
+      && getUnprocessedInput().equals(other.getUnprocessedInput())
+      && Arrays.equals(active, other.active);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+}
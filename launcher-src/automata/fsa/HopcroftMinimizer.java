@@ -0,0 +1,474 @@
+package automata.fsa;
+
+import automata.Automaton;
+import automata.State;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Headless DFA minimization by Hopcroft's partition refinement.
+ *
+ * <p>Works on int state ids from {@link CompiledFSA} and runs in {@code O(n k log n)} for
+ * {@code n} states and {@code k} input symbols, without the {@code DefaultTreeModel} that
+ * {@link Minimizer} maintains for the step-by-step view. Use {@link Minimizer} when the user should
+ * see the distinguishable-groups tree, and this class otherwise.</p>
+ */
+public class HopcroftMinimizer {
+  public HopcroftMinimizer() {
+  }
+
+  /**
+   * Returns whether {@code automaton} is a deterministic FSA this minimizer can handle.
+   */
+  public boolean canMinimize(Automaton automaton) {
+    return CompiledFSA.canCompile(automaton) && CompiledFSA.compile(automaton).isDeterministic();
+  }
+
+  /**
+   * Returns a minimal DFA accepting the same language as {@code dfa}.
+   *
+   * <p>Unreachable states are dropped. If {@code dfa} is missing transitions, the states that are
+   * equivalent to the implicit trap state are dropped too, so the result is minimal among partial
+   * DFAs; a complete input yields a complete result. Every resulting state is labelled with the
+   * names of the states it replaces and placed at their centroid.</p>
+   *
+   * @throws IllegalArgumentException if {@code dfa} is not deterministic
+   */
+  public FiniteStateAutomaton getMinimumDfa(Automaton dfa) {
+    if (!CompiledFSA.canCompile(dfa)) {
+      throw new IllegalArgumentException("The automaton should have an initial state.");
+    }
+    State[] states = dfa.getStates();
+    CompiledFSA compiled = CompiledFSA.compile(dfa, states);
+    if (!compiled.isDeterministic()) {
+      throw new IllegalArgumentException("This isn't a DFA!");
+    }
+
+    int symbolCount = compiled.getSymbols().length;
+    int[] reachable = reachableStates(compiled);
+    DfaTable table = DfaTable.of(compiled, reachable);
+    int[] block = refine(table.stateCount, symbolCount, table.delta, table.accepting);
+
+    return buildAutomaton(dfa, states, compiled, table, block);
+  }
+
+  /**
+   * Returns whether two DFAs accept the same language, by refining their disjoint union and
+   * comparing the blocks of the two initial states.
+   *
+   * @throws IllegalArgumentException if either automaton is not deterministic
+   */
+  public boolean equivalent(Automaton first, Automaton second) {
+    if (!CompiledFSA.canCompile(first) || !CompiledFSA.canCompile(second)) {
+      throw new IllegalArgumentException("Both automata need an initial state.");
+    }
+    CompiledFSA a = CompiledFSA.compile(first);
+    CompiledFSA b = CompiledFSA.compile(second);
+    if (!a.isDeterministic() || !b.isDeterministic()) {
+      throw new IllegalArgumentException("Both automata must be deterministic.");
+    }
+
+    char[] symbols = mergeAlphabets(a.getSymbols(), b.getSymbols());
+    int k = symbols.length;
+    int na = a.getStateCount();
+    int nb = b.getStateCount();
+    int sink = na + nb;
+    int n = sink + 1;
+
+    int[] delta = new int[n * k];
+    boolean[] accepting = new boolean[n];
+    Arrays.fill(delta, sink);
+    fillUnion(a, 0, symbols, delta, accepting);
+    fillUnion(b, na, symbols, delta, accepting);
+
+    int[] block = refine(n, k, delta, accepting);
+    return block[a.initialStates()[0]] == block[na + b.initialStates()[0]];
+  }
+
+  private static void fillUnion(CompiledFSA fsa, int offset, char[] symbols, int[] delta, boolean[] accepting) {
+    int[] start = fsa.successorStart();
+    int[] successors = fsa.successors();
+    int ownSymbols = fsa.getSymbols().length;
+    int k = symbols.length;
+    for (int s = 0; s < fsa.getStateCount(); s++) {
+      accepting[offset + s] = fsa.isAccepting(s);
+      for (int c = 0; c < k; c++) {
+        int own = fsa.symbolId(symbols[c]);
+        if (own < 0) {
+          continue;
+        }
+        int key = s * ownSymbols + own;
+        if (start[key] < start[key + 1]) {
+          delta[(offset + s) * k + c] = offset + successors[start[key]];
+        }
+      }
+    }
+  }
+
+  private static char[] mergeAlphabets(char[] a, char[] b) {
+    char[] merged = new char[a.length + b.length];
+    int i = 0;
+    int j = 0;
+    int n = 0;
+    while (i < a.length || j < b.length) {
+      char next;
+      if (j >= b.length || (i < a.length && a[i] < b[j])) {
+        next = a[i++];
+      } else if (i >= a.length || b[j] < a[i]) {
+        next = b[j++];
+      } else {
+        next = a[i++];
+        j++;
+      }
+      merged[n++] = next;
+    }
+    return Arrays.copyOf(merged, n);
+  }
+
+  /**
+   * Returns compiled state ids reachable from the initial state, in BFS order.
+   */
+  private static int[] reachableStates(CompiledFSA compiled) {
+    int n = compiled.getStateCount();
+    int k = compiled.getSymbols().length;
+    int[] start = compiled.successorStart();
+    int[] successors = compiled.successors();
+
+    boolean[] seen = new boolean[n];
+    int[] order = new int[n];
+    int size = 0;
+    int initial = compiled.initialStates()[0];
+    seen[initial] = true;
+    order[size++] = initial;
+    for (int head = 0; head < size; head++) {
+      int s = order[head];
+      for (int c = 0; c < k; c++) {
+        int key = s * k + c;
+        if (start[key] < start[key + 1]) {
+          int t = successors[start[key]];
+          if (!seen[t]) {
+            seen[t] = true;
+            order[size++] = t;
+          }
+        }
+      }
+    }
+    return Arrays.copyOf(order, size);
+  }
+
+  /**
+   * Hopcroft partition refinement over a complete transition table.
+   *
+   * @param n number of states
+   * @param k number of symbols
+   * @param delta {@code delta[s * k + c]} is the successor of {@code s} on symbol {@code c}
+   * @param accepting accepting flag per state
+   * @return the block id of every state; equal ids mean equivalent states
+   * @throws CancellationException if the calling thread is interrupted
+   */
+  static int[] refine(int n, int k, int[] delta, boolean[] accepting) {
+    // Inverse transitions per symbol, in CSR form: predecessors of t on c are
+    // inverse[inverseStart[c * (n + 1) + t] .. inverseStart[c * (n + 1) + t + 1]).
+    int[] inverseStart = new int[k * (n + 1)];
+    for (int s = 0; s < n; s++) {
+      for (int c = 0; c < k; c++) {
+        inverseStart[c * (n + 1) + delta[s * k + c] + 1]++;
+      }
+    }
+    for (int c = 0; c < k; c++) {
+      int base = c * (n + 1);
+      for (int t = 0; t < n; t++) {
+        inverseStart[base + t + 1] += inverseStart[base + t];
+      }
+    }
+    int[] inverse = new int[n * k];
+    int[] fill = new int[k * (n + 1)];
+    for (int c = 0; c < k; c++) {
+      int base = c * (n + 1);
+      for (int t = 0; t <= n; t++) {
+        fill[base + t] = inverseStart[base + t] + c * n;
+      }
+    }
+    for (int s = 0; s < n; s++) {
+      for (int c = 0; c < k; c++) {
+        inverse[fill[c * (n + 1) + delta[s * k + c]]++] = s;
+      }
+    }
+
+    // Blocks are contiguous ranges of `elements`; marked states are swapped to the front.
+    int[] elements = new int[n];
+    int[] location = new int[n];
+    int[] block = new int[n];
+    int[] blockStart = new int[n + 1];
+    int[] blockEnd = new int[n + 1];
+    int[] marked = new int[n + 1];
+    int blocks = 0;
+
+    int acceptingCount = 0;
+    for (int s = 0; s < n; s++) {
+      if (accepting[s]) {
+        acceptingCount++;
+      }
+    }
+    int front = 0;
+    int back = acceptingCount;
+    for (int s = 0; s < n; s++) {
+      int position = accepting[s] ? front++ : back++;
+      elements[position] = s;
+      location[s] = position;
+    }
+
+    int[] work = new int[n + 1];
+    boolean[] inWork = new boolean[n + 1];
+    int workSize = 0;
+
+    if (acceptingCount > 0) {
+      blockStart[blocks] = 0;
+      blockEnd[blocks] = acceptingCount;
+      blocks++;
+    }
+    if (acceptingCount < n) {
+      blockStart[blocks] = acceptingCount;
+      blockEnd[blocks] = n;
+      blocks++;
+    }
+    for (int b = 0; b < blocks; b++) {
+      for (int p = blockStart[b]; p < blockEnd[b]; p++) {
+        block[elements[p]] = b;
+      }
+    }
+    if (blocks == 2) {
+      int smaller = (acceptingCount <= n - acceptingCount) ? 0 : 1;
+      work[workSize++] = smaller;
+      inWork[smaller] = true;
+    }
+
+    int[] splitter = new int[n];
+    int[] touched = new int[n + 1];
+    while (workSize > 0) {
+      if (Thread.currentThread().isInterrupted()) {
+        throw new CancellationException();
+      }
+      int b = work[--workSize];
+      inWork[b] = false;
+      int splitterSize = blockEnd[b] - blockStart[b];
+      System.arraycopy(elements, blockStart[b], splitter, 0, splitterSize);
+
+      for (int c = 0; c < k; c++) {
+        int touchedCount = 0;
+        int base = c * (n + 1);
+        for (int i = 0; i < splitterSize; i++) {
+          int t = splitter[i];
+          for (int p = inverseStart[base + t] + c * n; p < inverseStart[base + t + 1] + c * n; p++) {
+            int s = inverse[p];
+            int x = block[s];
+            int firstUnmarked = blockStart[x] + marked[x];
+            if (location[s] < firstUnmarked) {
+              continue;
+            }
+            if (marked[x] == 0) {
+              touched[touchedCount++] = x;
+            }
+            int other = elements[firstUnmarked];
+            elements[location[s]] = other;
+            location[other] = location[s];
+            elements[firstUnmarked] = s;
+            location[s] = firstUnmarked;
+            marked[x]++;
+          }
+        }
+
+        for (int i = 0; i < touchedCount; i++) {
+          int x = touched[i];
+          int m = marked[x];
+          marked[x] = 0;
+          int size = blockEnd[x] - blockStart[x];
+          if (m == size) {
+            continue;
+          }
+
+          int y = blocks++;
+          if (m <= size - m) {
+            blockStart[y] = blockStart[x];
+            blockEnd[y] = blockStart[x] + m;
+            blockStart[x] = blockEnd[y];
+          } else {
+            blockStart[y] = blockStart[x] + m;
+            blockEnd[y] = blockEnd[x];
+            blockEnd[x] = blockStart[y];
+          }
+          for (int p = blockStart[y]; p < blockEnd[y]; p++) {
+            block[elements[p]] = y;
+          }
+          // The new block is always the smaller half, which is enough whether or not x is queued.
+          work[workSize++] = y;
+          inWork[y] = true;
+        }
+      }
+    }
+    return block;
+  }
+
+  private FiniteStateAutomaton buildAutomaton(
+    Automaton dfa,
+    State[] states,
+    CompiledFSA compiled,
+    DfaTable table,
+    int[] block
+  ) {
+    int n = table.stateCount;
+    int k = compiled.getSymbols().length;
+    char[] symbols = compiled.getSymbols();
+    int dropped = table.hasSink ? block[table.sink] : -1;
+
+    if (dropped >= 0 && block[0] == dropped) {
+      // The initial state is dead, so the language is empty.
+      FiniteStateAutomaton empty = new FiniteStateAutomaton();
+      Point origin = states[compiled.originalState(table.compiledIds[0])].getPoint();
+      empty.setInitialState(empty.createState(origin == null ? new Point() : new Point(origin)));
+      return empty;
+    }
+
+    // Renumber surviving blocks in order of first appearance (BFS order from the initial state).
+    int[] blockToState = new int[n];
+    Arrays.fill(blockToState, -1);
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      int b = block[i];
+      if (b != dropped && blockToState[b] < 0) {
+        blockToState[b] = count++;
+      }
+    }
+
+    long[] sumX = new long[count];
+    long[] sumY = new long[count];
+    int[] points = new int[count];
+    int[] firstMember = new int[count];
+    Arrays.fill(firstMember, -1);
+    ArrayList<ArrayList<State>> members = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      members.add(new ArrayList<State>());
+    }
+    int original = compiled.getOriginalStateCount();
+    for (int i = 0; i < n; i++) {
+      int target = (block[i] == dropped) ? -1 : blockToState[block[i]];
+      if (target < 0 || i == table.sink) {
+        continue;
+      }
+      int compiledId = table.compiledIds[i];
+      if (firstMember[target] < 0) {
+        firstMember[target] = compiledId;
+      }
+      if (compiledId < original) {
+        State s = states[compiledId];
+        members.get(target).add(s);
+        Point p = s.getPoint();
+        if (p != null) {
+          sumX[target] += p.x;
+          sumY[target] += p.y;
+          points[target]++;
+        }
+      }
+    }
+
+    FiniteStateAutomaton result = new FiniteStateAutomaton();
+    Minimizer labeller = new Minimizer();
+    State[] created = new State[count];
+    for (int i = 0; i < count; i++) {
+      Point point;
+      if (points[i] > 0) {
+        point = new Point((int) (sumX[i] / points[i]), (int) (sumY[i] / points[i]));
+      } else {
+        Point origin = states[compiled.originalState(firstMember[i])].getPoint();
+        point = (origin == null) ? new Point() : new Point(origin.x + 20, origin.y + 20);
+      }
+      created[i] = result.createState(point);
+      if (!members.get(i).isEmpty()) {
+        created[i].setLabel(labeller.getString(members.get(i).toArray(new State[0])));
+      }
+    }
+
+    result.setInitialState(created[blockToState[block[0]]]);
+    boolean[] emitted = new boolean[count];
+    for (int i = 0; i < n; i++) {
+      int from = (block[i] == dropped) ? -1 : blockToState[block[i]];
+      if (from < 0 || emitted[from]) {
+        continue;
+      }
+      emitted[from] = true;
+      if (table.accepting[i]) {
+        result.addFinalState(created[from]);
+      }
+      for (int c = 0; c < k; c++) {
+        int t = table.delta[i * k + c];
+        int to = (block[t] == dropped) ? -1 : blockToState[block[t]];
+        if (to >= 0) {
+          result.addTransition(new FSATransition(created[from], created[to], String.valueOf(symbols[c])));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The reachable part of a compiled DFA renumbered densely (BFS order, so the initial state is
+   * 0), completed with a sink state when any transition is missing.
+   */
+  private static final class DfaTable {
+    int stateCount;
+    int[] delta;
+    boolean[] accepting;
+    int[] compiledIds;
+    boolean hasSink;
+    int sink = -1;
+
+    static DfaTable of(CompiledFSA compiled, int[] reachable) {
+      int k = compiled.getSymbols().length;
+      int[] start = compiled.successorStart();
+      int[] successors = compiled.successors();
+
+      int[] dense = new int[compiled.getStateCount()];
+      Arrays.fill(dense, -1);
+      for (int i = 0; i < reachable.length; i++) {
+        dense[reachable[i]] = i;
+      }
+
+      DfaTable table = new DfaTable();
+      int n = reachable.length;
+      int sink = n;
+      int[] delta = new int[(n + 1) * k];
+      boolean missing = false;
+      for (int i = 0; i < n; i++) {
+        int s = reachable[i];
+        for (int c = 0; c < k; c++) {
+          int key = s * k + c;
+          if (start[key] < start[key + 1]) {
+            delta[i * k + c] = dense[successors[start[key]]];
+          } else {
+            delta[i * k + c] = sink;
+            missing = true;
+          }
+        }
+      }
+
+      table.hasSink = missing;
+      table.stateCount = missing ? n + 1 : n;
+      if (missing) {
+        table.sink = sink;
+        for (int c = 0; c < k; c++) {
+          delta[sink * k + c] = sink;
+        }
+      }
+      table.delta = missing ? delta : Arrays.copyOf(delta, n * k);
+      table.accepting = new boolean[table.stateCount];
+      table.compiledIds = Arrays.copyOf(reachable, table.stateCount);
+      for (int i = 0; i < n; i++) {
+        table.accepting[i] = compiled.isAccepting(reachable[i]);
+      }
+      return table;
+    }
+  }
+}
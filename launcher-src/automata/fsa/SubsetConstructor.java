@@ -0,0 +1,380 @@
+package automata.fsa;
+
+import automata.Automaton;
+import automata.AutomatonChecker;
+import automata.State;
+import automata.Transition;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Headless NFA to DFA conversion by a worklist-driven subset construction.
+ *
+ * <p>{@link NFAToDFA#convertToDFA(Automaton)} creates a GUI {@link State} with a placed
+ * {@link Point} for every subset and finds existing subsets by comparing {@code State[]} arrays
+ * one by one. This class numbers the NFA states by id, precomputes the lambda-closed successors of
+ * every (state, label) pair, and interns each subset as a sorted {@code int[]} in a hash map, so
+ * every subset is expanded exactly once. The DFA is only materialized, laid out on a grid, once the
+ * transition table is complete.</p>
+ *
+ * <p>The result matches {@link NFAToDFA}: each DFA state is labelled with the comma-separated ids
+ * of its NFA states, no trap state is added, and labels are treated as atomic terminals.</p>
+ */
+public class SubsetConstructor {
+  private static final int GRID_SPACING = 90;
+  private static final int GRID_MARGIN = 60;
+
+  public SubsetConstructor() {
+  }
+
+  /**
+   * Returns whether {@code automaton} is an FSA with an initial state.
+   */
+  public boolean canConvert(Automaton automaton) {
+    return CompiledFSA.canCompile(automaton);
+  }
+
+  /**
+   * Returns a DFA equivalent to {@code automaton}, or a copy of it if it is already deterministic.
+   *
+   * <p>Like {@link NFAToDFA#convertToDFA(Automaton)}, multi-character labels are first split in
+   * place with {@link FSALabelHandler#removeMultipleCharacterLabelsFromAutomaton(Automaton)}.</p>
+   *
+   * @throws IllegalArgumentException if {@link #canConvert(Automaton)} is {@code false}
+   * @throws CancellationException if the calling thread is interrupted
+   */
+  public FiniteStateAutomaton convertToDFA(Automaton automaton) {
+    if (!canConvert(automaton)) {
+      throw new IllegalArgumentException("The automaton needs an initial state.");
+    }
+    if (!new AutomatonChecker().isNFA(automaton)) {
+      return (FiniteStateAutomaton) automaton.clone();
+    }
+    if (FSALabelHandler.hasMultipleCharacterLabels(automaton)) {
+      FSALabelHandler.removeMultipleCharacterLabelsFromAutomaton(automaton);
+    }
+
+    State[] states = automaton.getStates();
+    Arrays.sort(states, new Comparator<State>() {
+      @Override
+      public int compare(State a, State b) {
+        return Integer.compare(a.getID(), b.getID());
+      }
+    });
+    Nfa nfa = Nfa.of(automaton, states);
+    Table table = explore(nfa);
+    return materialize(nfa, states, table);
+  }
+
+  private static Table explore(Nfa nfa) {
+    int symbolCount = nfa.symbols.length;
+    Map<Subset, Integer> ids = new HashMap<>();
+    ArrayList<int[]> subsets = new ArrayList<>();
+    IntList delta = new IntList();
+
+    Subset initial = new Subset(nfa.closures[nfa.initial]);
+    ids.put(initial, 0);
+    subsets.add(initial.members);
+
+    int[] stamp = new int[nfa.stateCount];
+    int[] scratch = new int[nfa.stateCount];
+    int generation = 0;
+
+    // Subsets are numbered in discovery order, so the list itself is the BFS worklist.
+    for (int current = 0; current < subsets.size(); current++) {
+      if (Thread.currentThread().isInterrupted()) {
+        throw new CancellationException();
+      }
+      int[] members = subsets.get(current);
+      for (int symbol = 0; symbol < symbolCount; symbol++) {
+        generation++;
+        int size = 0;
+        for (int m = 0; m < members.length; m++) {
+          int key = members[m] * symbolCount + symbol;
+          for (int p = nfa.successorStart[key]; p < nfa.successorStart[key + 1]; p++) {
+            int target = nfa.successors[p];
+            if (stamp[target] != generation) {
+              stamp[target] = generation;
+              scratch[size++] = target;
+            }
+          }
+        }
+        if (size == 0) {
+          delta.add(-1);
+          continue;
+        }
+
+        int[] next = Arrays.copyOf(scratch, size);
+        Arrays.sort(next);
+        Subset subset = new Subset(next);
+        Integer id = ids.get(subset);
+        if (id == null) {
+          id = subsets.size();
+          ids.put(subset, id);
+          subsets.add(next);
+        }
+        delta.add(id);
+      }
+    }
+
+    return new Table(subsets, delta.toArray());
+  }
+
+  private static FiniteStateAutomaton materialize(Nfa nfa, State[] states, Table table) {
+    FiniteStateAutomaton dfa = new FiniteStateAutomaton();
+    int count = table.subsets.size();
+    int columns = Math.max(1, (int) Math.ceil(Math.sqrt(count)));
+    State[] created = new State[count];
+    StringBuilder label = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      Point point = new Point(GRID_MARGIN + (i % columns) * GRID_SPACING, GRID_MARGIN + (i / columns) * GRID_SPACING);
+      State state = dfa.createStateWithId(point, i);
+      int[] members = table.subsets.get(i);
+      label.setLength(0);
+      boolean accepting = false;
+      for (int m = 0; m < members.length; m++) {
+        if (m > 0) {
+          label.append(',');
+        }
+        label.append(states[members[m]].getID());
+        accepting |= nfa.accepting[members[m]];
+      }
+      state.setLabel(label.toString());
+      if (accepting) {
+        dfa.addFinalState(state);
+      }
+      created[i] = state;
+    }
+    dfa.setInitialState(created[0]);
+
+    int symbolCount = nfa.symbols.length;
+    for (int i = 0; i < count; i++) {
+      for (int symbol = 0; symbol < symbolCount; symbol++) {
+        int target = table.delta[i * symbolCount + symbol];
+        if (target >= 0) {
+          dfa.addTransition(new FSATransition(created[i], created[target], nfa.symbols[symbol]));
+        }
+      }
+    }
+    return dfa;
+  }
+
+  /**
+   * The NFA with states numbered by position in the id-sorted state array and every successor
+   * list already closed under lambda transitions.
+   */
+  private static final class Nfa {
+    final int stateCount;
+    final int initial;
+    final String[] symbols;
+    final int[][] closures;
+    final int[] successorStart;
+    final int[] successors;
+    final boolean[] accepting;
+
+    private Nfa(
+      int stateCount,
+      int initial,
+      String[] symbols,
+      int[][] closures,
+      int[] successorStart,
+      int[] successors,
+      boolean[] accepting
+    ) {
+      this.stateCount = stateCount;
+      this.initial = initial;
+      this.symbols = symbols;
+      this.closures = closures;
+      this.successorStart = successorStart;
+      this.successors = successors;
+      this.accepting = accepting;
+    }
+
+    static Nfa of(Automaton automaton, State[] states) {
+      int n = states.length;
+      Map<State, Integer> index = new HashMap<>();
+      for (int i = 0; i < n; i++) {
+        index.put(states[i], i);
+      }
+
+      TreeSet<String> alphabet = new TreeSet<>();
+      Transition[] transitions = automaton.getTransitions();
+      for (int i = 0; i < transitions.length; i++) {
+        String label = ((FSATransition) transitions[i]).getLabel();
+        if (label != null && !label.isEmpty()) {
+          alphabet.add(label);
+        }
+      }
+      String[] symbols = alphabet.toArray(new String[0]);
+      Map<String, Integer> symbolIds = new HashMap<>();
+      for (int i = 0; i < symbols.length; i++) {
+        symbolIds.put(symbols[i], i);
+      }
+
+      // Split the edges into lambda edges and labelled edges, both bucketed by source state.
+      IntList[] lambda = new IntList[n];
+      IntList[] labelled = new IntList[n];
+      for (int i = 0; i < transitions.length; i++) {
+        FSATransition t = (FSATransition) transitions[i];
+        int from = index.get(t.getFromState());
+        int to = index.get(t.getToState());
+        String label = t.getLabel();
+        if (label == null || label.isEmpty()) {
+          if (lambda[from] == null) {
+            lambda[from] = new IntList();
+          }
+          lambda[from].add(to);
+        } else {
+          if (labelled[from] == null) {
+            labelled[from] = new IntList();
+          }
+          labelled[from].add(symbolIds.get(label));
+          labelled[from].add(to);
+        }
+      }
+
+      int[][] closures = closures(n, lambda);
+
+      int symbolCount = symbols.length;
+      int[] successorStart = new int[n * symbolCount + 1];
+      IntList out = new IntList();
+      int[] stamp = new int[n];
+      int generation = 0;
+      for (int s = 0; s < n; s++) {
+        // Edges are packed as (symbol << 32 | target) and sorted, so each symbol is one run.
+        long[] edges = new long[0];
+        if (labelled[s] != null) {
+          edges = new long[labelled[s].size / 2];
+          for (int e = 0; e < edges.length; e++) {
+            edges[e] = ((long) labelled[s].values[2 * e] << 32) | labelled[s].values[2 * e + 1];
+          }
+          Arrays.sort(edges);
+        }
+        int e = 0;
+        for (int symbol = 0; symbol < symbolCount; symbol++) {
+          successorStart[s * symbolCount + symbol] = out.size;
+          generation++;
+          int begin = out.size;
+          for (; e < edges.length && (int) (edges[e] >>> 32) == symbol; e++) {
+            int[] closure = closures[(int) edges[e]];
+            for (int c = 0; c < closure.length; c++) {
+              if (stamp[closure[c]] != generation) {
+                stamp[closure[c]] = generation;
+                out.add(closure[c]);
+              }
+            }
+          }
+          Arrays.sort(out.values, begin, out.size);
+        }
+      }
+      successorStart[n * symbolCount] = out.size;
+
+      boolean[] accepting = new boolean[n];
+      State[] finals = automaton.getFinalStates();
+      for (int i = 0; i < finals.length; i++) {
+        Integer id = index.get(finals[i]);
+        if (id != null) {
+          accepting[id] = true;
+        }
+      }
+
+      int initial = index.get(automaton.getInitialState());
+      return new Nfa(n, initial, symbols, closures, successorStart, out.toArray(), accepting);
+    }
+
+    private static int[][] closures(int n, IntList[] lambda) {
+      int[][] closures = new int[n][];
+      int[] stamp = new int[n];
+      int[] stack = new int[n];
+      for (int s = 0; s < n; s++) {
+        int generation = s + 1;
+        IntList reached = new IntList();
+        stamp[s] = generation;
+        reached.add(s);
+        int top = 0;
+        stack[top++] = s;
+        while (top > 0) {
+          IntList next = lambda[stack[--top]];
+          if (next == null) {
+            continue;
+          }
+          for (int i = 0; i < next.size; i++) {
+            int target = next.values[i];
+            if (stamp[target] != generation) {
+              stamp[target] = generation;
+              reached.add(target);
+              stack[top++] = target;
+            }
+          }
+        }
+        int[] closure = reached.toArray();
+        Arrays.sort(closure);
+        closures[s] = closure;
+      }
+      return closures;
+    }
+  }
+
+  private static final class Table {
+    final ArrayList<int[]> subsets;
+    final int[] delta;
+
+    Table(ArrayList<int[]> subsets, int[] delta) {
+      this.subsets = subsets;
+      this.delta = delta;
+    }
+  }
+
+  /**
+   * Hash key for a sorted array of NFA state numbers.
+   */
+  private static final class Subset {
+    final int[] members;
+    private final int hash;
+
+    Subset(int[] members) {
+      this.members = members;
+      this.hash = Arrays.hashCode(members);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Subset)) {
+        return false;
+      }
+      Subset subset = (Subset) other;
+      return hash == subset.hash && Arrays.equals(members, subset.members);
+    }
+  }
+
+  private static final class IntList {
+    int[] values = new int[8];
+    int size;
+
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package automata.graph;
+
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Int-indexed view of a {@link Graph}, for the layout algorithms.
+ *
+ * <p>{@link Graph} keeps its vertices as {@code Object} keys, with a {@code HashSet} of neighbours
+ * and a {@code Point2D} for each, so every edge test and every coordinate read is a hash lookup.
+ * Here the vertices are numbered {@code 0 .. size() - 1}, their coordinates are the arrays
+ * {@link #x} and {@link #y}, and their neighbours are sorted runs of one {@code int[]}
+ * (compressed sparse rows), so {@link #hasEdge(int, int)} is a binary search.</p>
+ *
+ * <p>{@link #of(Graph)} builds the view of a graph once and hands the same view to every later
+ * caller until a vertex or an edge of the graph is added or removed (see
+ * {@code Graph.modifications}); moving vertices, as the layouts do, keeps it. The coordinates are
+ * those of the graph when the view was built:
+ * {@link #readPoints(Graph)} reads them again and {@link #writePoints(Graph)} moves the graph's
+ * vertices to them, after which {@link AutomatonGraph#moveAutomatonStates()} carries them to the
+ * states as before.</p>
+ */
+public final class CompactGraph {
+  private static final Map<Graph, CompactGraph> VIEWS = new WeakHashMap<>();
+
+  /** The graph's {@code modifications} when the view was built. */
+  private final int modifications;
+  private final Object[] vertices;
+  private final Map<Object, Integer> numbers;
+  /** Neighbours of vertex {@code i}: {@code neighbors[start[i] .. start[i + 1])}, sorted. */
+  private final int[] start;
+  private final int[] neighbors;
+
+  public final double[] x;
+  public final double[] y;
+
+  private CompactGraph(Graph graph) {
+    modifications = graph.modifications;
+    vertices = graph.vertices();
+    int n = vertices.length;
+    numbers = new HashMap<>(n * 2);
+    for (int i = 0; i < n; i++) {
+      numbers.put(vertices[i], i);
+    }
+
+    start = new int[n + 1];
+    int[][] adjacent = new int[n][];
+    int total = 0;
+    for (int i = 0; i < n; i++) {
+      Set<Object> around = graph.adjacent(vertices[i]);
+      int[] list = new int[around.size()];
+      int count = 0;
+      for (Object other : around) {
+        // Neighbours that were never added as vertices have no number and no point.
+        Integer j = numbers.get(other);
+        if (j != null) {
+          list[count++] = j;
+        }
+      }
+      Arrays.sort(list, 0, count);
+      adjacent[i] = list;
+      start[i] = total;
+      total += count;
+      start[i + 1] = total;
+    }
+    neighbors = new int[total];
+    for (int i = 0; i < n; i++) {
+      System.arraycopy(adjacent[i], 0, neighbors, start[i], start[i + 1] - start[i]);
+    }
+
+    x = new double[n];
+    y = new double[n];
+    readPoints(graph);
+  }
+
+  /**
+   * The view of {@code graph}, built on the first call for it and again after it is edited.
+   */
+  public static CompactGraph of(Graph graph) {
+    synchronized (VIEWS) {
+      CompactGraph view = VIEWS.get(graph);
+      if (view == null || view.modifications != graph.modifications) {
+        view = new CompactGraph(graph);
+        VIEWS.put(graph, view);
+      }
+      return view;
+    }
+  }
+
+  public int size() {
+    return vertices.length;
+  }
+
+  public Object vertex(int i) {
+    return vertices[i];
+  }
+
+  /**
+   * The number of {@code vertex}, or -1 if it is not a vertex of the graph.
+   */
+  public int index(Object vertex) {
+    Integer i = numbers.get(vertex);
+    return i == null ? -1 : i;
+  }
+
+  /**
+   * As {@link Graph#degree(Object)}: the number of neighbours, with {@code i} itself if it has a loop.
+   */
+  public int degree(int i) {
+    return start[i + 1] - start[i];
+  }
+
+  /** The first position of {@code i}'s neighbours in {@link #neighbor(int)}. */
+  public int neighborStart(int i) {
+    return start[i];
+  }
+
+  /** One past the last position of {@code i}'s neighbours in {@link #neighbor(int)}. */
+  public int neighborEnd(int i) {
+    return start[i + 1];
+  }
+
+  public int neighbor(int position) {
+    return neighbors[position];
+  }
+
+  /**
+   * As {@link Graph#hasEdge(Object, Object)}; {@code false} if either is -1.
+   */
+  public boolean hasEdge(int i, int j) {
+    if (i < 0 || j < 0) {
+      return false;
+    }
+    return Arrays.binarySearch(neighbors, start[i], start[i + 1], j) >= 0;
+  }
+
+  /**
+   * Sets {@link #x} and {@link #y} to the points of {@code graph}'s vertices.
+   */
+  public void readPoints(Graph graph) {
+    for (int i = 0; i < vertices.length; i++) {
+      Point2D point = graph.pointForVertex(vertices[i]);
+      x[i] = point.getX();
+      y[i] = point.getY();
+    }
+  }
+
+  /**
+   * Moves the vertices of {@code graph} whose points differ from {@link #x} and {@link #y}.
+   */
+  public void writePoints(Graph graph) {
+    for (int i = 0; i < vertices.length; i++) {
+      Point2D point = graph.pointForVertex(vertices[i]);
+      if (point == null || point.getX() != x[i] || point.getY() != y[i]) {
+        graph.moveVertex(vertices[i], new Point2D.Double(x[i], y[i]));
+      }
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package automata.graph;
+
+import automata.fsa.FiniteStateAutomaton;
+import automata.fsa.HopcroftMinimizer;
+import automata.fsa.NFAToDFA;
+import launcher.DecodeCache;
+
+/**
+ * Replacement for JFLAP's {@code FSAEqualityChecker}.
+ *
+ * <p>Both automata are still converted with {@link NFAToDFA}, but instead of building two
+ * tree-based minimal DFAs and comparing them with {@link DFAEqualityChecker}, the DFAs are compared
+ * directly with {@link HopcroftMinimizer#equivalent}, which refines their disjoint union once. A
+ * DFA opened unchanged from the decode cache is taken as the minimal DFA its entry records (see
+ * {@link DecodeCache.Facts}) instead of being converted.</p>
+ */
+public class FSAEqualityChecker {
+  private static NFAToDFA nfaConverter = new NFAToDFA();
+  private static HopcroftMinimizer minimizer = new HopcroftMinimizer();
+
+  public FSAEqualityChecker() {
+  }
+
+  /**
+   * Returns whether {@code fa1} and {@code fa2} accept the same language.
+   */
+  public boolean equals(FiniteStateAutomaton fa1, FiniteStateAutomaton fa2) {
+    return minimizer.equivalent(toDfa(fa1), toDfa(fa2));
+  }
+
+  private static FiniteStateAutomaton toDfa(FiniteStateAutomaton automaton) {
+    DecodeCache.Facts facts = DecodeCache.facts(automaton);
+    FiniteStateAutomaton minimal = (facts == null) ? null : facts.minimalDfa();
+    if (minimal != null) {
+      return minimal;
+    }
+    return nfaConverter.convertToDFA((FiniteStateAutomaton) automaton.clone());
+  }
+}
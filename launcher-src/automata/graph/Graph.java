@@ -0,0 +1,184 @@
+package automata.graph;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replacement for JFLAP's {@code Graph}, the undirected graph the layout algorithms work on.
+ *
+ * <p>This version behaves as the original and only adds a count of its modifications, so that
+ * {@link CompactGraph#of(Graph)} can tell when its view is out of date. Adding or removing a vertex
+ * or an edge counts, and so does any change to a set returned by {@link #adjacent(Object)}, which
+ * {@code AutomatonDirectedGraph} edits directly; moving a vertex does not.</p>
+ */
+public class Graph {
+  protected Map<Object, Object> verticesToPoints = new HashMap<Object, Object>();
+  protected Map<Object, HashSet<Object>> verticesToNeighbors = new HashMap<Object, HashSet<Object>>();
+
+  /** Incremented on every change to the vertices or edges. */
+  int modifications;
+
+  public Graph() {
+  }
+
+  public void clear() {
+    verticesToPoints.clear();
+    verticesToNeighbors.clear();
+    modifications++;
+  }
+
+  public int degree(Object vertex) {
+    return adjacent(vertex).size();
+  }
+
+  public int numberOfVertices() {
+    return verticesToPoints.size();
+  }
+
+  public Set<Object> adjacent(Object vertex) {
+    if (!verticesToNeighbors.containsKey(vertex)) {
+      verticesToNeighbors.put(vertex, new Neighbors());
+    }
+    return verticesToNeighbors.get(vertex);
+  }
+
+  public void addEdge(Object vertex1, Object vertex2) {
+    adjacent(vertex1).add(vertex2);
+    adjacent(vertex2).add(vertex1);
+  }
+
+  public void removeEdge(Object vertex1, Object vertex2) {
+    adjacent(vertex1).remove(vertex2);
+    adjacent(vertex2).remove(vertex1);
+  }
+
+  public boolean hasEdge(Object vertex1, Object vertex2) {
+    return adjacent(vertex1).contains(vertex2);
+  }
+
+  public void addVertex(Object vertex, Point2D point) {
+    if (verticesToPoints.put(vertex, point.clone()) == null) {
+      modifications++;
+    }
+  }
+
+  public void removeVertex(Object vertex) {
+    Set<Object> around = adjacent(vertex);
+    Iterator<Object> it = around.iterator();
+    while (it.hasNext()) {
+      adjacent(it.next()).remove(vertex);
+    }
+    verticesToNeighbors.remove(vertex);
+    verticesToPoints.remove(vertex);
+    modifications++;
+  }
+
+  public void moveVertex(Object vertex, Point2D point) {
+    addVertex(vertex, point);
+  }
+
+  public Point2D pointForVertex(Object vertex) {
+    return (Point2D) verticesToPoints.get(vertex);
+  }
+
+  public Object[] vertices() {
+    return verticesToPoints.keySet().toArray();
+  }
+
+  public Point2D[] points() {
+    return (Point2D[]) verticesToPoints.values().toArray(new Point2D[0]);
+  }
+
+  public void moveWithinFrame(Rectangle2D bounds) {
+    Object[] vertices = vertices();
+    if (vertices.length == 0) {
+      return;
+    }
+    Point2D point = pointForVertex(vertices[0]);
+    double minX = point.getX();
+    double minY = point.getY();
+    double maxX = minX;
+    double maxY = minY;
+    for (int i = 1; i < vertices.length; i++) {
+      point = pointForVertex(vertices[i]);
+      minX = Math.min(minX, point.getX());
+      minY = Math.min(minY, point.getY());
+      maxX = Math.max(maxX, point.getX());
+      maxY = Math.max(maxY, point.getY());
+    }
+    for (int i = 0; i < vertices.length; i++) {
+      point = pointForVertex(vertices[i]);
+      point = new Point2D.Double(
+        (point.getX() - minX) * bounds.getWidth() / (maxX - minX) + bounds.getX(),
+        (point.getY() - minY) * bounds.getHeight() / (maxY - minY) + bounds.getY()
+      );
+      moveVertex(vertices[i], point);
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuffer buffer = new StringBuffer();
+    buffer.append(super.toString() + "\n");
+    buffer.append(verticesToPoints);
+    return buffer.toString();
+  }
+
+  /**
+   * The neighbours of one vertex, counting changes as modifications of the graph.
+   */
+  private final class Neighbors extends HashSet<Object> {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public boolean add(Object vertex) {
+      boolean added = super.add(vertex);
+      if (added) {
+        modifications++;
+      }
+      return added;
+    }
+
+    @Override
+    public boolean remove(Object vertex) {
+      boolean removed = super.remove(vertex);
+      if (removed) {
+        modifications++;
+      }
+      return removed;
+    }
+
+    @Override
+    public void clear() {
+      super.clear();
+      modifications++;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+      final Iterator<Object> it = super.iterator();
+      return new Iterator<Object>() {
+        @Override
+        public boolean hasNext() {
+          return it.hasNext();
+        }
+
+        @Override
+        public Object next() {
+          return it.next();
+        }
+
+        @Override
+        public void remove() {
+          it.remove();
+          modifications++;
+        }
+      };
+    }
+  }
+}
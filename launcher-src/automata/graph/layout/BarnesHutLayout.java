@@ -0,0 +1,480 @@
+package automata.graph.layout;
+
+import automata.graph.CompactGraph;
+import automata.graph.Graph;
+import automata.graph.LayoutAlgorithm;
+import launcher.Daemons;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * {@link GEMLayoutAlgorithm} for large graphs, with repulsion summed over a Barnes-Hut quadtree.
+ *
+ * <p>{@code GEMLayoutAlgorithm.layout} moves one random vertex at a time, {@code 120} times per
+ * movable vertex, and each move sums the repulsion of every other vertex through
+ * {@link Graph#pointForVertex(Object)} and {@link Graph#hasEdge(Object, Object)}: quadratic in the
+ * number of vertices, with two map lookups per pair. On the DFA of a large subset construction that
+ * does not finish.</p>
+ *
+ * <p>Here the layout runs on the graph's {@link CompactGraph}, with the coordinates in
+ * {@code double[]} arrays and the neighbours in an {@code int[]} adjacency list. The {@code 120}
+ * moves per vertex become {@code 120} sweeps: each sweep builds a quadtree over the current
+ * coordinates, computes every movable vertex's impulse from it, and then moves them all. The forces are those of GEM: gravity
+ * toward the barycenter weighted by degree, repulsion {@code L^2/d} from every vertex, attraction
+ * {@code d^2/(L^2 * mass)} along edges, a little random jitter, and a step of {@code 3} in the
+ * direction of the impulse. A cell of the quadtree whose size is under {@value #THETA} times its
+ * distance counts as one vertex of its weight at its center of mass. Impulses are summed in
+ * parallel on large graphs ({@code -Djflap.parallelLayout=false} turns that off), and the sweeps
+ * stop early once the mean impulse has not dropped by {@value #PLATEAU_DROP} in
+ * {@value #PLATEAU_SWEEPS} sweeps.</p>
+ *
+ * <p>{@code GEMLayoutAlgorithm} is patched at build time (see
+ * {@code tools-src/patch/GEMLayoutPatcher.java}) to use this for graphs of at least
+ * {@value #MIN_VERTICES} vertices; smaller ones keep the original. Disable with
+ * {@code -Djflap.barnesHutLayout=false}.</p>
+ */
+public final class BarnesHutLayout {
+  private static final String ENABLED_PROPERTY = "jflap.barnesHutLayout";
+  private static final String PARALLEL_PROPERTY = "jflap.parallelLayout";
+  private static final int MIN_VERTICES = 150;
+  private static final int PARALLEL_MIN_VERTICES = 2000;
+
+  /** The constants of {@link GEMLayoutAlgorithm}. */
+  private static final int SWEEPS = 120;
+  private static final double TEMPERATURE = 3.0;
+  private static final double OPTIMAL_EDGE_LENGTH = 100.0;
+  private static final double GRAVITATIONAL_CONSTANT = 0.0625;
+  private static final double JITTER = 10.0;
+
+  private static final double THETA = 0.75;
+  private static final int MIN_SWEEPS = 20;
+  private static final int PLATEAU_SWEEPS = 10;
+  private static final double PLATEAU_DROP = 0.01;
+
+  private static final Random RANDOM = new Random();
+
+  private BarnesHutLayout() {
+  }
+
+  public static boolean isEnabled() {
+    return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+  }
+
+  /**
+   * Hook prepended to {@code GEMLayoutAlgorithm.layout(Graph, Set)}, with the algorithm's
+   * {@code size} and {@code vertexDim}.
+   *
+   * @return {@code true} if {@code graph} was laid out, {@code false} to run the original
+   * @throws CancellationException if the calling thread is interrupted
+   */
+  public static boolean layout(Graph graph, Set<Object> notMoving, Dimension size, Dimension vertexDim) {
+    if (!isEnabled() || graph == null || graph.numberOfVertices() < MIN_VERTICES) {
+      return false;
+    }
+    if (notMoving == null) {
+      notMoving = new HashSet<>();
+    }
+    List<Object> movable = LayoutAlgorithm.getMovableVertices(graph, notMoving);
+    if (movable.isEmpty()) {
+      return true;
+    }
+    Layout layout = new Layout(graph, notMoving, movable);
+    layout.run();
+    layout.store(graph);
+    LayoutAlgorithm.shiftOntoScreen(graph, size, vertexDim, true);
+    return true;
+  }
+
+  /**
+   * One run over a numbered copy of the graph.
+   */
+  private static final class Layout {
+    final CompactGraph view;
+    final double[] xs;
+    final double[] ys;
+    final double[] mass;
+    /** The vertices that move, by number. */
+    final int[] moving;
+    final double edgeLength;
+
+    final double[] impulseX;
+    final double[] impulseY;
+    /** The size of each impulse before jitter, for the convergence test. */
+    final double[] force;
+    final double[] jitterX;
+    final double[] jitterY;
+
+    Layout(Graph graph, Set<Object> notMoving, List<Object> movable) {
+      view = CompactGraph.of(graph);
+      view.readPoints(graph);
+      xs = view.x;
+      ys = view.y;
+      int n = view.size();
+
+      mass = new double[n];
+      for (int i = 0; i < n; i++) {
+        double degree = view.degree(i);
+        mass[i] = degree * (1 + degree / 2);
+      }
+
+      moving = new int[movable.size()];
+      for (int i = 0; i < moving.length; i++) {
+        moving[i] = view.index(movable.get(i));
+      }
+      edgeLength = edgeLength(notMoving);
+
+      impulseX = new double[moving.length];
+      impulseY = new double[moving.length];
+      force = new double[moving.length];
+      jitterX = new double[moving.length];
+      jitterY = new double[moving.length];
+    }
+
+    /**
+     * The mean length of the edges among the vertices that stay, as GEM takes it; 100 if there are
+     * none.
+     */
+    private double edgeLength(Set<Object> notMoving) {
+      double sum = 0;
+      int count = 0;
+      for (Object vertex : notMoving) {
+        int i = view.index(vertex);
+        if (i < 0) {
+          continue;
+        }
+        for (int k = view.neighborStart(i); k < view.neighborEnd(i); k++) {
+          int j = view.neighbor(k);
+          if (j > i && notMoving.contains(view.vertex(j))) {
+            sum += Math.hypot(xs[i] - xs[j], ys[i] - ys[j]);
+            count++;
+          }
+        }
+      }
+      return count > 0 ? sum / count : OPTIMAL_EDGE_LENGTH;
+    }
+
+    void run() {
+      boolean parallel = !"false".equalsIgnoreCase(System.getProperty(PARALLEL_PROPERTY))
+        && moving.length >= PARALLEL_MIN_VERTICES && Holder.THREADS > 1;
+      double best = Double.MAX_VALUE;
+      int sinceBest = 0;
+      for (int sweep = 0; sweep < SWEEPS; sweep++) {
+        if (Thread.currentThread().isInterrupted()) {
+          throw new CancellationException();
+        }
+        final QuadTree tree = new QuadTree(xs, ys);
+        double sumX = 0;
+        double sumY = 0;
+        for (int i = 0; i < xs.length; i++) {
+          sumX += xs[i];
+          sumY += ys[i];
+        }
+        final double centerX = sumX / xs.length;
+        final double centerY = sumY / ys.length;
+        for (int m = 0; m < moving.length; m++) {
+          jitterX[m] = RANDOM.nextDouble() * JITTER - JITTER / 2;
+          jitterY[m] = RANDOM.nextDouble() * JITTER - JITTER / 2;
+        }
+
+        if (parallel) {
+          impulsesInParallel(tree, centerX, centerY);
+        } else {
+          impulses(tree, centerX, centerY, 0, moving.length);
+        }
+
+        double sum = 0;
+        for (int m = 0; m < moving.length; m++) {
+          sum += force[m];
+          double x = impulseX[m] + jitterX[m];
+          double y = impulseY[m] + jitterY[m];
+          if (x != 0 || y != 0) {
+            double scale = TEMPERATURE / Math.sqrt(x * x + y * y);
+            xs[moving[m]] += x * scale;
+            ys[moving[m]] += y * scale;
+          }
+        }
+
+        double mean = sum / moving.length;
+        if (mean < best * (1 - PLATEAU_DROP)) {
+          best = mean;
+          sinceBest = 0;
+        } else if (++sinceBest >= PLATEAU_SWEEPS && sweep + 1 >= MIN_SWEEPS) {
+          break;
+        }
+      }
+    }
+
+    private void impulsesInParallel(final QuadTree tree, final double centerX, final double centerY) {
+      int chunks = Holder.THREADS * 4;
+      int chunk = (moving.length + chunks - 1) / chunks;
+      List<Callable<Void>> tasks = new ArrayList<>(chunks);
+      for (int from = 0; from < moving.length; from += chunk) {
+        final int start = from;
+        final int end = Math.min(moving.length, from + chunk);
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            impulses(tree, centerX, centerY, start, end);
+            return null;
+          }
+        });
+      }
+      try {
+        List<Future<Void>> futures = Holder.EXECUTOR.invokeAll(tasks);
+        for (Future<Void> future : futures) {
+          future.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CancellationException();
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new IllegalStateException(cause);
+      }
+    }
+
+    /**
+     * Fills in the impulses of {@code moving[from .. to)} from the coordinates as of this sweep.
+     */
+    void impulses(QuadTree tree, double centerX, double centerY, int from, int to) {
+      double length2 = edgeLength * edgeLength;
+      double[] repulsion = new double[2];
+      int[] stack = tree.newStack();
+      for (int m = from; m < to; m++) {
+        int i = moving[m];
+        double x = xs[i];
+        double y = ys[i];
+        double weight = mass[i];
+        double fx = (centerX - x) * GRAVITATIONAL_CONSTANT * weight;
+        double fy = (centerY - y) * GRAVITATIONAL_CONSTANT * weight;
+
+        tree.repulsion(i, x, y, length2, repulsion, stack);
+        fx += repulsion[0];
+        fy += repulsion[1];
+
+        for (int k = view.neighborStart(i); k < view.neighborEnd(i); k++) {
+          int j = view.neighbor(k);
+          double dx = x - xs[j];
+          double dy = y - ys[j];
+          double d2 = dx * dx + dy * dy;
+          fx -= dx * d2 / (length2 * weight);
+          fy -= dy * d2 / (length2 * weight);
+        }
+        impulseX[m] = fx;
+        impulseY[m] = fy;
+        force[m] = Math.sqrt(fx * fx + fy * fy);
+      }
+    }
+
+    void store(Graph graph) {
+      view.writePoints(graph);
+    }
+  }
+
+  /**
+   * A point quadtree in flat arrays: every node is a square cell that knows how many points it
+   * holds and their coordinate sums. Points at the same place, or past the depth limit, share a
+   * leaf as a linked list.
+   */
+  static final class QuadTree {
+    private static final int MAX_DEPTH = 40;
+
+    private final double[] xs;
+    private final double[] ys;
+    /** Next point in the same leaf, or -1. */
+    private final int[] next;
+
+    private double[] minX;
+    private double[] minY;
+    private double[] size;
+    private double[] sumX;
+    private double[] sumY;
+    private int[] count;
+    /** First of the four children, or -1 for a leaf. */
+    private int[] child;
+    /** First point of a leaf, or -1. */
+    private int[] first;
+    private int nodes;
+
+    QuadTree(double[] xs, double[] ys) {
+      this.xs = xs;
+      this.ys = ys;
+      int n = xs.length;
+      next = new int[n];
+      allocate(Math.max(16, n * 2));
+
+      double lowX = Double.MAX_VALUE;
+      double lowY = Double.MAX_VALUE;
+      double highX = -Double.MAX_VALUE;
+      double highY = -Double.MAX_VALUE;
+      for (int i = 0; i < n; i++) {
+        lowX = Math.min(lowX, xs[i]);
+        lowY = Math.min(lowY, ys[i]);
+        highX = Math.max(highX, xs[i]);
+        highY = Math.max(highY, ys[i]);
+      }
+      double side = Math.max(highX - lowX, highY - lowY) + 1;
+      node(lowX, lowY, side);
+      for (int i = 0; i < n; i++) {
+        insert(i);
+      }
+    }
+
+    private void allocate(int capacity) {
+      minX = grow(minX, capacity);
+      minY = grow(minY, capacity);
+      size = grow(size, capacity);
+      sumX = grow(sumX, capacity);
+      sumY = grow(sumY, capacity);
+      count = grow(count, capacity);
+      child = grow(child, capacity);
+      first = grow(first, capacity);
+    }
+
+    private static double[] grow(double[] array, int capacity) {
+      double[] grown = new double[capacity];
+      if (array != null) {
+        System.arraycopy(array, 0, grown, 0, array.length);
+      }
+      return grown;
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+      int[] grown = new int[capacity];
+      if (array != null) {
+        System.arraycopy(array, 0, grown, 0, array.length);
+      }
+      return grown;
+    }
+
+    private int node(double x, double y, double side) {
+      if (nodes == minX.length) {
+        allocate(nodes * 2);
+      }
+      minX[nodes] = x;
+      minY[nodes] = y;
+      size[nodes] = side;
+      sumX[nodes] = 0;
+      sumY[nodes] = 0;
+      count[nodes] = 0;
+      child[nodes] = -1;
+      first[nodes] = -1;
+      return nodes++;
+    }
+
+    private int quadrant(int node, double x, double y) {
+      double half = size[node] / 2;
+      int quadrant = (x >= minX[node] + half) ? 1 : 0;
+      return (y >= minY[node] + half) ? quadrant + 2 : quadrant;
+    }
+
+    private void insert(int i) {
+      double x = xs[i];
+      double y = ys[i];
+      int node = 0;
+      int depth = 0;
+      while (true) {
+        sumX[node] += x;
+        sumY[node] += y;
+        count[node]++;
+        if (child[node] >= 0) {
+          node = child[node] + quadrant(node, x, y);
+          depth++;
+          continue;
+        }
+        int head = first[node];
+        if (head < 0 || depth >= MAX_DEPTH || (xs[head] == x && ys[head] == y)) {
+          next[i] = head;
+          first[node] = i;
+          return;
+        }
+        // Split the leaf; the points already in it are all at one place, so they go down together.
+        double half = size[node] / 2;
+        int children = node(minX[node], minY[node], half);
+        node(minX[node] + half, minY[node], half);
+        node(minX[node], minY[node] + half, half);
+        node(minX[node] + half, minY[node] + half, half);
+        child[node] = children;
+        first[node] = -1;
+        int below = children + quadrant(node, xs[head], ys[head]);
+        first[below] = head;
+        for (int p = head; p >= 0; p = next[p]) {
+          sumX[below] += xs[p];
+          sumY[below] += ys[p];
+          count[below]++;
+        }
+        node = children + quadrant(node, x, y);
+        depth++;
+      }
+    }
+
+    int[] newStack() {
+      return new int[3 * MAX_DEPTH + 8];
+    }
+
+    /**
+     * Stores in {@code out} the repulsion {@code (p - q) * L^2 / |p - q|^2} on vertex {@code i} at
+     * {@code (x, y)}, summed over every other vertex {@code q}, with far cells taken as one.
+     */
+    void repulsion(int i, double x, double y, double length2, double[] out, int[] stack) {
+      double fx = 0;
+      double fy = 0;
+      int top = 0;
+      stack[top++] = 0;
+      while (top > 0) {
+        int node = stack[--top];
+        if (count[node] == 0) {
+          continue;
+        }
+        if (child[node] < 0) {
+          for (int p = first[node]; p >= 0; p = next[p]) {
+            double dx = x - xs[p];
+            double dy = y - ys[p];
+            double d2 = dx * dx + dy * dy;
+            if (p != i && d2 > 0) {
+              fx += dx * length2 / d2;
+              fy += dy * length2 / d2;
+            }
+          }
+          continue;
+        }
+        double weight = count[node];
+        double dx = x - sumX[node] / weight;
+        double dy = y - sumY[node] / weight;
+        double d2 = dx * dx + dy * dy;
+        boolean inside = x >= minX[node] && x < minX[node] + size[node]
+          && y >= minY[node] && y < minY[node] + size[node];
+        if (!inside && d2 > 0 && size[node] * size[node] < THETA * THETA * d2) {
+          fx += dx * length2 * weight / d2;
+          fy += dy * length2 * weight / d2;
+          continue;
+        }
+        int children = child[node];
+        stack[top++] = children;
+        stack[top++] = children + 1;
+        stack[top++] = children + 2;
+        stack[top++] = children + 3;
+      }
+      out[0] = fx;
+      out[1] = fy;
+    }
+  }
+
+  private static final class Holder {
+    static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    static final ExecutorService EXECUTOR = Daemons.pool("jflap-layout", THREADS);
+  }
+}
@@ -0,0 +1,220 @@
+package automata.graph.layout;
+
+import automata.graph.CompactGraph;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The bodies of {@code TwoCircleLayoutAlgorithm.assignToCircles()} and
+ * {@code createOuterCircleChains()}, on the graph's {@link CompactGraph}.
+ *
+ * <p>Both originals ask {@code Graph.hasEdge} of every pair of an outer and an inner vertex: the
+ * first once per pass until no vertex moves to the inner circle, the second to hang every outer
+ * vertex on the chains of its inner neighbours. Here each outer vertex looks only at its own
+ * neighbours, with the inner circle and the chains' members kept in arrays indexed by vertex
+ * number. The circles and chains come out the same as the originals'.</p>
+ *
+ * <p>{@code TwoCircleLayoutAlgorithm} is patched at build time (see
+ * {@code tools-src/patch/TwoCircleLayoutPatcher.java}) to call these instead.</p>
+ */
+public final class TwoCircleAssignment {
+  private TwoCircleAssignment() {
+  }
+
+  /**
+   * Puts the vertices of degree above 2 on the inner circle, then moves every outer vertex with at
+   * least two inner neighbours in, pass after pass, until none moves.
+   */
+  public static void assignToCircles(TwoCircleLayoutAlgorithm algorithm) {
+    CompactGraph view = CompactGraph.of(algorithm.graph);
+    ArrayList<Object> vertices = algorithm.vertices;
+    ArrayList<Object> inner = algorithm.innerCircle;
+    ArrayList<Object> outer = algorithm.outerCircle;
+    for (int i = 0; i < vertices.size(); i++) {
+      Object vertex = vertices.get(i);
+      if (degree(view, vertex) > 2) {
+        inner.add(vertex);
+      } else {
+        outer.add(vertex);
+      }
+    }
+    if (inner.size() == 0) {
+      algorithm.innerCircle = outer;
+      algorithm.outerCircle = new ArrayList<>();
+      return;
+    }
+
+    // How many times each vertex is on the inner circle, so counting a vertex's inner neighbours
+    // is a walk over its own neighbours.
+    int[] innerTimes = new int[view.size()];
+    for (int j = 0; j < inner.size(); j++) {
+      int number = view.index(inner.get(j));
+      if (number >= 0) {
+        innerTimes[number]++;
+      }
+    }
+    boolean changed;
+    do {
+      changed = false;
+      for (int i = 0; i < outer.size(); i++) {
+        int number = view.index(outer.get(i));
+        if (number < 0) {
+          continue;
+        }
+        int count = 0;
+        for (int k = view.neighborStart(number); k < view.neighborEnd(number); k++) {
+          count += innerTimes[view.neighbor(k)];
+        }
+        if (count >= 2) {
+          inner.add(outer.get(i));
+          innerTimes[number]++;
+          // As in the original, the vertex after the one moved is not looked at in this pass.
+          outer.remove(i);
+          changed = true;
+        }
+      }
+    } while (changed);
+  }
+
+  /**
+   * Makes a chain of outer vertices for each inner vertex: first the neighbours of that inner
+   * vertex, then, pass after pass, the vertices next to exactly one chain (or to the shorter of the
+   * first and last chains they touch), and the rest on the shortest chain.
+   */
+  public static void createOuterCircleChains(TwoCircleLayoutAlgorithm algorithm, Dimension vertexDim, double vertexBuffer) {
+    CompactGraph view = CompactGraph.of(algorithm.graph);
+    ArrayList<Object> inner = algorithm.innerCircle;
+    ArrayList<Object> outer = algorithm.outerCircle;
+    CircleChain[] chains = new CircleChain[inner.size()];
+    algorithm.outerCircleChains = chains;
+    int[] assigned = new int[outer.size()];
+    for (int j = 0; j < chains.length; j++) {
+      chains[j] = new CircleChain(algorithm.graph, vertexDim, vertexBuffer);
+    }
+
+    // The chains each vertex has been added to, in order: chainsOf[v][0 .. chainCount[v]).
+    int[][] chainsOf = new int[view.size()][];
+    int[] chainCount = new int[view.size()];
+    int[][] innerAt = positions(view, inner);
+    for (int i = 0; i < outer.size(); i++) {
+      assigned[i] = -1;
+      int number = view.index(outer.get(i));
+      if (number < 0) {
+        continue;
+      }
+      int[] found = new int[4];
+      int count = 0;
+      for (int k = view.neighborStart(number); k < view.neighborEnd(number); k++) {
+        int[] at = innerAt[view.neighbor(k)];
+        if (at == null) {
+          continue;
+        }
+        for (int p = 0; p < at.length; p++) {
+          if (count == found.length) {
+            found = Arrays.copyOf(found, count * 2);
+          }
+          found[count++] = at[p];
+        }
+      }
+      Arrays.sort(found, 0, count);
+      for (int p = 0; p < count; p++) {
+        chains[found[p]].addVertex(outer.get(i));
+        joined(chainsOf, chainCount, number, found[p]);
+        assigned[i] = found[p];
+      }
+    }
+
+    boolean changed;
+    do {
+      changed = false;
+      for (int i = 0; i < outer.size(); i++) {
+        if (assigned[i] != -1) {
+          continue;
+        }
+        int number = view.index(outer.get(i));
+        if (number < 0) {
+          continue;
+        }
+        // The first and last chain with a member next to this vertex, as the original's scan of
+        // every chain finds them.
+        int first = -1;
+        int last = -1;
+        for (int k = view.neighborStart(number); k < view.neighborEnd(number); k++) {
+          int neighbor = view.neighbor(k);
+          if (neighbor == number) {
+            continue;
+          }
+          for (int p = 0; p < chainCount[neighbor]; p++) {
+            int chain = chainsOf[neighbor][p];
+            first = first == -1 ? chain : Math.min(first, chain);
+            last = Math.max(last, chain);
+          }
+        }
+        int chain;
+        if (first > -1 && last == first) {
+          chain = first;
+        } else if (first > -1) {
+          chain = chains[first].size() < chains[last].size() ? first : last;
+        } else {
+          continue;
+        }
+        chains[chain].addVertex(outer.get(i));
+        joined(chainsOf, chainCount, number, chain);
+        assigned[i] = chain;
+        changed = true;
+      }
+    } while (changed);
+
+    int smallest = 0;
+    for (int j = 0; j < chains.length; j++) {
+      if (chains[smallest].getVertices().size() > chains[j].getVertices().size()) {
+        smallest = j;
+      }
+    }
+    for (int i = 0; i < outer.size(); i++) {
+      if (assigned[i] == -1) {
+        chains[smallest].addVertex(outer.get(i));
+      }
+    }
+  }
+
+  private static int degree(CompactGraph view, Object vertex) {
+    int number = view.index(vertex);
+    return number < 0 ? 0 : view.degree(number);
+  }
+
+  /**
+   * The positions of each vertex in {@code list}, by vertex number; {@code null} for those not in it.
+   */
+  private static int[][] positions(CompactGraph view, ArrayList<Object> list) {
+    int[][] positions = new int[view.size()][];
+    for (int j = 0; j < list.size(); j++) {
+      int number = view.index(list.get(j));
+      if (number < 0) {
+        continue;
+      }
+      int[] at = positions[number];
+      if (at == null) {
+        at = new int[] {j};
+      } else {
+        at = Arrays.copyOf(at, at.length + 1);
+        at[at.length - 1] = j;
+      }
+      positions[number] = at;
+    }
+    return positions;
+  }
+
+  private static void joined(int[][] chainsOf, int[] chainCount, int vertex, int chain) {
+    int[] chainList = chainsOf[vertex];
+    if (chainList == null) {
+      chainList = new int[2];
+    } else if (chainCount[vertex] == chainList.length) {
+      chainList = Arrays.copyOf(chainList, chainList.length * 2);
+    }
+    chainList[chainCount[vertex]++] = chain;
+    chainsOf[vertex] = chainList;
+  }
+}
@@ -0,0 +1,343 @@
+package automata.graph.layout;
+
+import automata.graph.CompactGraph;
+import automata.graph.Graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Replacement for JFLAP's {@code VertexChain}, the ordering of vertices that the circle, two-circle,
+ * tree and spiral layouts place side by side.
+ *
+ * <p>The original asks {@link Graph#hasEdge(Object, Object)} of every member of the chain to find
+ * where a vertex goes, and again of every member to count a vertex's neighbours in the chain, so
+ * building a chain of {@code n} vertices takes on the order of {@code n}&sup3; hash lookups. This
+ * one keeps the chain's vertex numbers in the graph's {@link CompactGraph} next to the vertices,
+ * and the members as a sorted array: edges are tested on the numbers, and a vertex's neighbours in
+ * the chain are counted over its neighbours in the graph. The order of the chain is the same as the
+ * original's.</p>
+ */
+public class VertexChain {
+  ArrayList<Object> vertices;
+  Graph graph;
+
+  /** Chains shorter than this test edges by searching the neighbours rather than marking them. */
+  private static final int MARK_THRESHOLD = 64;
+
+  private final CompactGraph view;
+  /** The number of each vertex in {@link #vertices}, in the same order. */
+  private int[] order = new int[4];
+  /** The numbers in {@link #order}, sorted. */
+  private int[] members = new int[4];
+  private int memberCount;
+  /** Whether every member is a vertex of the graph and in the chain once. */
+  private boolean distinct = true;
+  /** {@code marks[u] == stamp} for the neighbours of the vertex being added to a long chain. */
+  private int[] marks;
+  private int stamp;
+
+  public VertexChain(Graph graph) {
+    this.vertices = new ArrayList<>();
+    this.graph = graph;
+    this.view = CompactGraph.of(graph);
+  }
+
+  public Object get(int index) {
+    return vertices.get(index);
+  }
+
+  public ArrayList<Object> getVertices() {
+    return vertices;
+  }
+
+  public int size() {
+    return vertices.size();
+  }
+
+  public boolean isEdgeToChainMember(Object vertex) {
+    return getDegreeInChain(vertex) > 0;
+  }
+
+  /**
+   * The number of members of the chain, other than {@code vertex}, that it has an edge to.
+   */
+  public int getDegreeInChain(Object vertex) {
+    return degreeInChain(view.index(vertex));
+  }
+
+  private int degreeInChain(int vertex) {
+    if (vertex < 0 || memberCount == 0) {
+      return 0;
+    }
+    int degree = 0;
+    for (int k = view.neighborStart(vertex); k < view.neighborEnd(vertex); k++) {
+      int other = view.neighbor(k);
+      if (other != vertex) {
+        degree += occurrences(other);
+      }
+    }
+    return degree;
+  }
+
+  private int occurrences(int vertex) {
+    int at = Arrays.binarySearch(members, 0, memberCount, vertex);
+    if (at < 0) {
+      return 0;
+    }
+    int first = at;
+    while (first > 0 && members[first - 1] == vertex) {
+      first--;
+    }
+    int last = at;
+    while (last + 1 < memberCount && members[last + 1] == vertex) {
+      last++;
+    }
+    return last - first + 1;
+  }
+
+  /**
+   * Moves positions {@code start .. end} of the chain next to position {@code target}, turned
+   * around or not according to {@code flipFrom} and {@code after}, exactly as the original does.
+   */
+  public void orientSubChain(int target, int flipFrom, int start, int end, boolean after) {
+    int length = end - start + 1;
+    Object[] sub = new Object[length];
+    int[] subOrder = new int[length];
+    int size = size();
+    int at;
+    if (target > 0 && target >= start) {
+      at = target + start - end - 1;
+    } else {
+      at = target;
+    }
+    for (int i = start; i <= end; i++) {
+      sub[i - start] = get(i);
+      subOrder[i - start] = order[i];
+    }
+    if (distinct) {
+      // Each of them is only at its own position, which is where removing it by value finds it.
+      cut(start, length);
+    } else {
+      for (int i = 0; i < length; i++) {
+        int index = vertices.indexOf(sub[i]);
+        if (index >= 0) {
+          cut(index, 1);
+        }
+      }
+    }
+
+    // The original adds them one by one, always at the same place or at the end; they are put in
+    // that order in a block that can grow at both ends, and the block is added at once.
+    Object[] block = new Object[2 * length + 1];
+    int[] blockOrder = new int[block.length];
+    int head = length;
+    int tail = length;
+    int blockStart = 0;
+    for (int i = 0; i < length; i++) {
+      int last = length - 1 - i;
+      int current = size() + tail - head;
+      int index;
+      int piece;
+      if (after) {
+        index = (target == size || at == current) ? current : at + 1;
+        piece = flipFrom == start ? last : i;
+      } else {
+        index = at;
+        piece = flipFrom == start ? i : last;
+      }
+      if (tail > head && (index < blockStart || index > blockStart + tail - head)) {
+        place(blockStart, block, blockOrder, head, tail);
+        head = length;
+        tail = length;
+      }
+      if (tail == head) {
+        blockStart = index;
+      }
+      int offset = index - blockStart;
+      if (offset == 0) {
+        head--;
+        block[head] = sub[piece];
+        blockOrder[head] = subOrder[piece];
+      } else {
+        int into = head + offset;
+        System.arraycopy(block, into, block, into + 1, tail - into);
+        System.arraycopy(blockOrder, into, blockOrder, into + 1, tail - into);
+        block[into] = sub[piece];
+        blockOrder[into] = subOrder[piece];
+        tail++;
+      }
+    }
+    place(blockStart, block, blockOrder, head, tail);
+  }
+
+  /**
+   * Puts {@code vertex} next to its first neighbour in the chain, and turns the run of the chain
+   * around its next neighbour to follow it; at the end if it has no neighbour in the chain.
+   */
+  public void addVertex(Object vertex) {
+    int number = view.index(vertex);
+    if (degreeInChain(number) == 0 && !view.hasEdge(number, number)) {
+      // No member is a neighbour, so the scan below would not find one.
+      add(vertex, number);
+      return;
+    }
+    markNeighbors(number);
+    for (int i = 0; i < size(); i++) {
+      if (!isNeighbor(number, order[i])) {
+        continue;
+      }
+      int position;
+      if (i == size() - 1 || !view.hasEdge(order[i], order[i + 1])) {
+        position = i + 1;
+      } else {
+        position = i;
+      }
+      insert(position, vertex, number);
+      for (int j = i + 2; j < size(); j++) {
+        if (isNeighbor(number, order[j]) && degreeInChain(order[j]) <= 2) {
+          if (j < size() - 1 && view.hasEdge(order[j], order[j + 1])) {
+            orientSubChain(position, j, j, size() - 1, position == i + 1);
+          } else {
+            int k = j;
+            while (k > i + 2 && view.hasEdge(order[k - 1], order[k])) {
+              k--;
+            }
+            orientSubChain(position, j, k, j, position == i + 1);
+          }
+          return;
+        }
+      }
+      return;
+    }
+    add(vertex, number);
+  }
+
+  /**
+   * Finds the first pair of ends, one of each chain, with an edge between them, and turns the runs
+   * they are in so that they face each other.
+   */
+  public static void alignTwoChains(VertexChain first, VertexChain second, Graph graph) {
+    CompactGraph view = CompactGraph.of(graph);
+    int[] a = new int[first.size()];
+    for (int i = 0; i < a.length; i++) {
+      a[i] = view.index(first.get(i));
+    }
+    int[] b = new int[second.size()];
+    boolean[] open = new boolean[b.length];
+    for (int j = 0; j < b.length; j++) {
+      b[j] = view.index(second.get(j));
+      open[j] = second.getDegreeInChain(second.get(j)) < 2;
+    }
+    for (int i = 0; i < a.length; i++) {
+      if (first.getDegreeInChain(first.get(i)) >= 2) {
+        continue;
+      }
+      for (int j = 0; j < b.length; j++) {
+        if (!open[j] || !view.hasEdge(a[i], b[j])) {
+          continue;
+        }
+        int firstStart = i;
+        int firstEnd = i;
+        int secondStart = j;
+        int secondEnd = j;
+        while (firstStart > 0 && view.hasEdge(a[firstStart], a[firstStart - 1])) {
+          firstStart--;
+        }
+        while (firstEnd < a.length - 1 && view.hasEdge(a[firstEnd], a[firstEnd + 1])) {
+          firstEnd++;
+        }
+        while (secondStart > 0 && view.hasEdge(b[secondStart], b[secondStart - 1])) {
+          secondStart--;
+        }
+        while (secondEnd < b.length - 1 && view.hasEdge(b[secondEnd], b[secondEnd + 1])) {
+          secondEnd++;
+        }
+        first.orientSubChain(first.size() - 1, firstStart + firstEnd - i, firstStart, firstEnd, true);
+        second.orientSubChain(0, secondStart + secondEnd - j, secondStart, secondEnd, false);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Marks the neighbours of {@code vertex} for {@link #isNeighbor}, if the chain is long enough
+   * for an array read to beat a search of its neighbours.
+   */
+  private void markNeighbors(int vertex) {
+    if (vertex < 0 || size() < MARK_THRESHOLD) {
+      return;
+    }
+    if (marks == null) {
+      marks = new int[view.size()];
+    }
+    if (++stamp == 0) {
+      Arrays.fill(marks, 0);
+      stamp = 1;
+    }
+    for (int k = view.neighborStart(vertex); k < view.neighborEnd(vertex); k++) {
+      marks[view.neighbor(k)] = stamp;
+    }
+  }
+
+  /**
+   * {@code view.hasEdge(vertex, other)}, for the {@code vertex} last given to {@link #markNeighbors}.
+   */
+  private boolean isNeighbor(int vertex, int other) {
+    if (vertex < 0 || other < 0) {
+      return false;
+    }
+    if (marks == null || size() <= MARK_THRESHOLD) {
+      return view.hasEdge(vertex, other);
+    }
+    return marks[other] == stamp;
+  }
+
+  private void add(Object vertex, int number) {
+    insert(size(), vertex, number);
+  }
+
+  /**
+   * Adds {@code vertex} to the chain at {@code index}.
+   */
+  private void insert(int index, Object vertex, int number) {
+    if (number < 0 || occurrences(number) > 0) {
+      distinct = false;
+    }
+    if (number >= 0) {
+      if (members.length == memberCount) {
+        members = Arrays.copyOf(members, members.length * 2);
+      }
+      int at = Arrays.binarySearch(members, 0, memberCount, number);
+      if (at < 0) {
+        at = -at - 1;
+      }
+      System.arraycopy(members, at, members, at + 1, memberCount - at);
+      members[at] = number;
+      memberCount++;
+    }
+    place(index, new Object[] {vertex}, new int[] {number}, 0, 1);
+  }
+
+  /**
+   * Puts {@code items[from .. to)} in the order at {@code index}; the members stay as they are.
+   */
+  private void place(int index, Object[] items, int[] numbers, int from, int to) {
+    int count = to - from;
+    vertices.addAll(index, Arrays.asList(items).subList(from, to));
+    int size = vertices.size();
+    if (order.length < size) {
+      order = Arrays.copyOf(order, Math.max(order.length * 2, size));
+    }
+    System.arraycopy(order, index, order, index + count, size - count - index);
+    System.arraycopy(numbers, from, order, index, count);
+  }
+
+  /**
+   * Takes positions {@code index .. index + count} out of the order; the members stay as they are.
+   */
+  private void cut(int index, int count) {
+    vertices.subList(index, index + count).clear();
+    System.arraycopy(order, index + count, order, index, vertices.size() - index);
+  }
+}
@@ -0,0 +1,180 @@
+package automata.pda;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Replacement for JFLAP's {@code CharacterStack}, the stack of a {@link PDAConfiguration}.
+ *
+ * <p>JFLAP kept the stack in a {@code StringBuffer} with the top at index 0, so copying a
+ * configuration's stack for every branch cost O(height), and every push or pop shifted the whole
+ * buffer. This version keeps the same API and string form, but stores the contents as immutable
+ * linked nodes with the top first. The copy constructor shares the other stack's nodes, push and pop
+ * move the top pointer, and sibling configurations share their common tail. Every node caches the
+ * height and {@code String.hashCode()} of the stack below it, so {@link #hashCode()} is O(1) and
+ * {@link #equals(Object)} stops at the first shared node.</p>
+ */
+public class CharacterStack implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private transient Node top;
+  /** Cached {@link #toString()}; cleared whenever the top moves. */
+  private transient String text;
+
+  public CharacterStack() {
+  }
+
+  /**
+   * Creates a stack with the same contents as {@code copy}, sharing its nodes.
+   */
+  public CharacterStack(CharacterStack copy) {
+    this.top = copy.top;
+    this.text = copy.text;
+  }
+
+  public void push(char c) {
+    top = new Node(c, top);
+    text = null;
+  }
+
+  /**
+   * Pushes {@code string} so that its first character ends up on top.
+   */
+  public void push(String string) {
+    for (int i = string.length() - 1; i >= 0; i--) {
+      top = new Node(string.charAt(i), top);
+    }
+    if (string.length() > 0) {
+      text = null;
+    }
+  }
+
+  public void clear() {
+    top = null;
+    text = null;
+  }
+
+  public int height() {
+    return (top == null) ? 0 : top.height;
+  }
+
+  /**
+   * @throws StringIndexOutOfBoundsException if the stack is empty
+   */
+  public char pop() {
+    if (top == null) {
+      throw new StringIndexOutOfBoundsException("The stack is empty.");
+    }
+    char c = top.symbol;
+    top = top.next;
+    text = null;
+    return c;
+  }
+
+  /**
+   * Pops {@code count} characters and returns them top first, or returns {@code null} and leaves
+   * the stack unchanged if it holds fewer than {@code count}.
+   */
+  public String pop(int count) {
+    if (height() < count) {
+      return null;
+    }
+    char[] popped = new char[count];
+    for (int i = 0; i < count; i++) {
+      popped[i] = top.symbol;
+      top = top.next;
+    }
+    if (count > 0) {
+      text = null;
+    }
+    return new String(popped);
+  }
+
+  /**
+   * Returns up to {@code count} characters from the top, top first, without popping them.
+   */
+  public String peek(int count) {
+    int length = Math.min(count, height());
+    char[] window = new char[length];
+    Node node = top;
+    for (int i = 0; i < length; i++) {
+      window[i] = node.symbol;
+      node = node.next;
+    }
+    return new String(window);
+  }
+
+  /**
+   * Returns the contents, top first.
+   */
+  @Override
+  public String toString() {
+    if (text == null) {
+      text = peek(height());
+    }
+    return text;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof CharacterStack)) {
+      return false;
+    }
+    Node a = top;
+    Node b = ((CharacterStack) other).top;
+    if (height() != ((CharacterStack) other).height()) {
+      return false;
+    }
+    while (a != b) {
+      if (a.hash != b.hash || a.symbol != b.symbol) {
+        return false;
+      }
+      a = a.next;
+      b = b.next;
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return (top == null) ? 0 : top.hash;
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeUTF(toString());
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    push(in.readUTF());
+  }
+
+  /**
+   * One immutable stack cell. {@code hash} equals {@code String.hashCode()} of the stack from this
+   * cell down, and {@code power} is {@code 31^(height - 1)}, so pushing extends both in O(1).
+   */
+  private static final class Node {
+    final char symbol;
+    final Node next;
+    final int height;
+    final int hash;
+    final int power;
+
+    Node(char symbol, Node next) {
+      this.symbol = symbol;
+      this.next = next;
+      if (next == null) {
+        this.height = 1;
+        this.power = 1;
+        this.hash = symbol;
+      } else {
+        this.height = next.height + 1;
+        this.power = next.power * 31;
+        this.hash = symbol * power + next.hash;
+      }
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package automata.pda;
+
+import automata.Automaton;
+
+import javax.swing.JOptionPane;
+import java.awt.GraphicsEnvironment;
+
+/**
+ * Chooses the acceptance mode of a new {@link PDAStepByStateSimulator}.
+ *
+ * <p>JFLAP's constructor always asks "Accept by Final State / Empty Stack" in a modal dialog, which
+ * cannot work on a worker thread or a headless grading node. The constructor is patched at build
+ * time (see {@code tools-src/patch/PDAAcceptancePatcher.java}) to call {@link #chooseMode()}
+ * instead, which uses a mode preset for the next simulator on this thread, or the same dialog as
+ * before, or {@link #FINAL_STATE} when headless.</p>
+ */
+public final class PDAAcceptance {
+  /** Matches {@code PDAStepByStateSimulator.EMPTY_STACK}. */
+  public static final int EMPTY_STACK = 0;
+  /** Matches {@code PDAStepByStateSimulator.FINAL_STATE}. */
+  public static final int FINAL_STATE = 1;
+
+  private static final ThreadLocal<Integer> NEXT = new ThreadLocal<>();
+
+  private PDAAcceptance() {
+  }
+
+  /**
+   * Makes the next PDA simulator created on this thread use {@code mode} without asking.
+   *
+   * @return {@code automaton}, so this can be called inside a {@code super(...)} argument list
+   */
+  public static Automaton presetNext(Automaton automaton, int mode) {
+    if (mode != EMPTY_STACK && mode != FINAL_STATE) {
+      throw new IllegalArgumentException("Unknown acceptance mode: " + mode);
+    }
+    NEXT.set(mode);
+    return automaton;
+  }
+
+  /**
+   * Returns the acceptance mode {@code simulator} was created with, or last set to.
+   */
+  public static int modeOf(PDAStepByStateSimulator simulator) {
+    return simulator.myAcceptance;
+  }
+
+  /**
+   * Called from the patched {@code PDAStepByStateSimulator} constructor.
+   */
+  public static int chooseMode() {
+    Integer preset = NEXT.get();
+    if (preset != null) {
+      NEXT.remove();
+      return preset;
+    }
+    if (GraphicsEnvironment.isHeadless()) {
+      return FINAL_STATE;
+    }
+
+    Object[] options = {"Final State", "Empty Stack"};
+    Object choice = JOptionPane.showInputDialog(
+      null,
+      "Accept by",
+      "Input",
+      JOptionPane.QUESTION_MESSAGE,
+      null,
+      options,
+      options[0]
+    );
+    // A dismissed dialog leaves JFLAP's field at its default, which is empty stack.
+    return options[0].equals(choice) ? FINAL_STATE : EMPTY_STACK;
+  }
+}
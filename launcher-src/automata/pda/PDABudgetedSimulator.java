@@ -0,0 +1,270 @@
+package automata.pda;
+
+import automata.Automaton;
+import automata.Configuration;
+import automata.State;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A nondeterministic PDA simulator that always terminates.
+ *
+ * <p>{@link PDAStepWithClosureSimulator} explores configurations breadth first with no bound, so a
+ * lambda transition that pushes onto the stack makes the frontier grow forever; the GUI only stops
+ * it by asking the user every {@code WARNING_STEP} configurations. This simulator runs the same
+ * steps under three limits:</p>
+ *
+ * <ul>
+ *   <li>a step budget (configurations expanded) and a configuration budget (configurations kept);</li>
+ *   <li>memoization keyed on (state, input position, stack), so a configuration is dropped if an
+ *     identical one was already seen; with a {@link #setStackWindow(int) stack window}, only that
+ *     many symbols from the top of the stack take part in the key;</li>
+ *   <li>an optional frontier width: each breadth-first level keeps only its first
+ *     {@link #setFrontierWidth(int) width} configurations, in generation order.</li>
+ * </ul>
+ *
+ * <p>By default the key holds the whole stack, which {@link CharacterStack} hashes and compares
+ * cheaply, so the search is exact and a lambda push loop ends at the configuration budget. With a
+ * window, deeper configurations that agree on the window are merged, which cuts such loops short
+ * but may drop the only path to acceptance; {@link Result#getMergedConfigurations()} reports how
+ * often it happened. An accepting result is always genuine. A run that merged anything and found
+ * no acceptance ends in {@link Verdict#BUDGET_EXHAUSTED}, never {@link Verdict#REJECTED}.</p>
+ */
+public class PDABudgetedSimulator extends PDAStepWithClosureSimulator {
+  public static final int DEFAULT_STEP_BUDGET = 1000000;
+  public static final int DEFAULT_CONFIGURATION_BUDGET = 100000;
+  /** The whole stack takes part in the memoization key. */
+  public static final int DEFAULT_STACK_WINDOW = 0;
+
+  /** Outcome of {@link #run(String)}. */
+  public enum Verdict {
+    ACCEPTED,
+    REJECTED,
+    /**
+     * A budget ran out, the frontier was truncated, or configurations were merged, before an
+     * accepting configuration was found.
+     */
+    BUDGET_EXHAUSTED
+  }
+
+  private int stepBudget = DEFAULT_STEP_BUDGET;
+  private int configurationBudget = DEFAULT_CONFIGURATION_BUDGET;
+  private int stackWindow = DEFAULT_STACK_WINDOW;
+  private int frontierWidth;
+
+  /**
+   * Creates a simulator whose acceptance mode is chosen by {@link PDAAcceptance#chooseMode()}.
+   */
+  public PDABudgetedSimulator(Automaton automaton) {
+    super(automaton);
+  }
+
+  /**
+   * Creates a simulator with the given {@link PDAAcceptance} mode, without asking.
+   */
+  public PDABudgetedSimulator(Automaton automaton, int acceptance) {
+    super(PDAAcceptance.presetNext(automaton, acceptance));
+  }
+
+  /**
+   * Sets the maximum number of configurations expanded by one run.
+   */
+  public void setStepBudget(int stepBudget) {
+    this.stepBudget = positive(stepBudget);
+  }
+
+  /**
+   * Sets the maximum number of distinct configurations one run may keep.
+   */
+  public void setConfigurationBudget(int configurationBudget) {
+    this.configurationBudget = positive(configurationBudget);
+  }
+
+  /**
+   * Sets how many symbols from the top of the stack take part in the memoization key, or 0 for the
+   * whole stack.
+   */
+  public void setStackWindow(int stackWindow) {
+    if (stackWindow < 0) {
+      throw new IllegalArgumentException("Stack window must not be negative.");
+    }
+    this.stackWindow = stackWindow;
+  }
+
+  /**
+   * Sets the maximum number of configurations kept per breadth-first level, or 0 for no limit.
+   */
+  public void setFrontierWidth(int frontierWidth) {
+    if (frontierWidth < 0) {
+      throw new IllegalArgumentException("Frontier width must not be negative.");
+    }
+    this.frontierWidth = frontierWidth;
+  }
+
+  @Override
+  public boolean simulateInput(String input) {
+    return run(input).getVerdict() == Verdict.ACCEPTED;
+  }
+
+  /**
+   * Simulates {@code input} within the budgets.
+   *
+   * @throws CancellationException if the calling thread is interrupted
+   */
+  public Result run(String input) {
+    Configuration[] initial = getInitialConfigurations(input);
+    Set<Key> seen = new HashSet<>();
+    List<Configuration> frontier = new ArrayList<>();
+    int steps = 0;
+    int kept = 0;
+    int merged = 0;
+    boolean truncated = false;
+    Configuration last = null;
+
+    for (int i = 0; i < initial.length; i++) {
+      if (seen.add(key((PDAConfiguration) initial[i]))) {
+        frontier.add(initial[i]);
+        kept++;
+      }
+    }
+
+    while (!frontier.isEmpty()) {
+      if (Thread.currentThread().isInterrupted()) {
+        throw new CancellationException();
+      }
+      List<Configuration> next = new ArrayList<>();
+      for (int i = 0; i < frontier.size(); i++) {
+        Configuration configuration = frontier.get(i);
+        last = configuration;
+        if (configuration.isAccept()) {
+          return new Result(Verdict.ACCEPTED, configuration, steps, kept, merged);
+        }
+        if (steps >= stepBudget) {
+          return new Result(Verdict.BUDGET_EXHAUSTED, configuration, steps, kept, merged);
+        }
+        steps++;
+
+        List<Configuration> successors = stepConfiguration(configuration);
+        for (int s = 0; s < successors.size(); s++) {
+          PDAConfiguration successor = (PDAConfiguration) successors.get(s);
+          if (!seen.add(key(successor))) {
+            if (stackWindow > 0 && successor.getStack().height() > stackWindow) {
+              merged++;
+            }
+            continue;
+          }
+          if (kept >= configurationBudget) {
+            return new Result(Verdict.BUDGET_EXHAUSTED, configuration, steps, kept, merged);
+          }
+          kept++;
+          next.add(successor);
+        }
+      }
+
+      if (frontierWidth > 0 && next.size() > frontierWidth) {
+        next = new ArrayList<>(next.subList(0, frontierWidth));
+        truncated = true;
+      }
+      frontier = next;
+    }
+
+    // A merged configuration may have been the only way to accept, so the rejection is not exact.
+    boolean exact = !truncated && merged == 0;
+    return new Result(exact ? Verdict.REJECTED : Verdict.BUDGET_EXHAUSTED, last, steps, kept, merged);
+  }
+
+  private Key key(PDAConfiguration configuration) {
+    CharacterStack stack = configuration.getStack();
+    // The copy shares the stack's nodes, so the key does not change if the stack is later popped.
+    Object contents = (stackWindow == 0 || stack.height() <= stackWindow)
+      ? new CharacterStack(stack) : stack.peek(stackWindow);
+    int position = configuration.getInput().length() - configuration.getUnprocessedInput().length();
+    return new Key(configuration.getCurrentState(), position, contents);
+  }
+
+  private static int positive(int value) {
+    if (value <= 0) {
+      throw new IllegalArgumentException("Budget must be positive.");
+    }
+    return value;
+  }
+
+  /**
+   * The verdict of one run and how much of the budgets it used.
+   */
+  public static final class Result {
+    private final Verdict verdict;
+    private final Configuration configuration;
+    private final int steps;
+    private final int configurations;
+    private final int mergedConfigurations;
+
+    Result(Verdict verdict, Configuration configuration, int steps, int configurations, int mergedConfigurations) {
+      this.verdict = verdict;
+      this.configuration = configuration;
+      this.steps = steps;
+      this.configurations = configurations;
+      this.mergedConfigurations = mergedConfigurations;
+    }
+
+    public Verdict getVerdict() {
+      return verdict;
+    }
+
+    /**
+     * Returns the accepting configuration, or the last one examined, or {@code null} if there was none.
+     */
+    public Configuration getConfiguration() {
+      return configuration;
+    }
+
+    public int getSteps() {
+      return steps;
+    }
+
+    public int getConfigurations() {
+      return configurations;
+    }
+
+    /**
+     * Returns how many configurations with a stack deeper than the window were dropped as already
+     * seen; always 0 without a window. A run with merges never ends in {@link Verdict#REJECTED}.
+     */
+    public int getMergedConfigurations() {
+      return mergedConfigurations;
+    }
+  }
+
+  private static final class Key {
+    final State state;
+    final int position;
+    /** The whole stack as a {@link CharacterStack}, or the window as a {@code String}. */
+    final Object stack;
+    private final int hash;
+
+    Key(State state, int position, Object stack) {
+      this.state = state;
+      this.position = position;
+      this.stack = stack;
+      this.hash = (System.identityHashCode(state) * 31 + position) * 31 + stack.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return state == key.state && position == key.position && stack.equals(key.stack);
+    }
+  }
+}
@@ -0,0 +1,527 @@
+package automata.turing;
+
+import automata.Automaton;
+import automata.State;
+import automata.Transition;
+import gui.environment.Universe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A {@link TuringMachine} lowered to int-indexed tables for running an input to halt.
+ *
+ * <p>{@link TMSimulator} builds a {@link TMConfiguration} per step, copies every tape and matches
+ * each transition's read strings against the tapes. This class numbers the states, maps tape
+ * symbols to dense ids and precomputes, for every state and tuple of symbol ids under the heads,
+ * which transition {@link TMSimulator} would take: the first one in
+ * {@link Automaton#getTransitionsFromState(State)} order whose reads match, with {@code ~} matching
+ * any symbol. A {@link Run} then steps plain {@code char} arrays in place.</p>
+ *
+ * <p>Building blocks are {@link FlatTM inlined} first, so a block machine runs at the speed of a flat
+ * one while {@link Run#getState()} still reports the original nested state. Machines with a block
+ * that lacks an initial state, and on one tape {@code a,b}w} variable or {@code !a} negated reads,
+ * do not compile. Instances are immutable and may be shared between threads; each {@link Run}
+ * belongs to one.</p>
+ */
+public final class CompiledTM {
+  private static final int ASCII_LIMIT = 128;
+  /** Symbol id of every character that no transition reads or writes. */
+  private static final int OTHER = 0;
+  private static final int NO_TRANSITION = -1;
+  /** Largest (state, symbol tuple) table; bigger machines scan their transitions per step. */
+  private static final int MAX_TABLE_SIZE = 1 << 20;
+  private static final int INTERRUPT_CHECK_MASK = (1 << 16) - 1;
+  /** Read as "any symbol", written as "leave the symbol". */
+  private static final char ANY = '~';
+
+  private final FlatTM flat;
+  private final int stateCount;
+  private final int tapes;
+  private final int initialState;
+  private final boolean[] accepting;
+
+  private final char[] symbols;
+  private final int[] asciiSymbols;
+  private final int symbolCount;
+
+  /** Per transition: target state, then per tape the symbol id read (-1 for any), write and move. */
+  private final int[] toState;
+  private final int[] readIds;
+  private final char[] writes;
+  private final int[] moves;
+  private final int[] transitionStart;
+  /** {@code state * tuples + tuple} to transition, or {@code null} if it would be too large. */
+  private final int[] table;
+  private final int tuples;
+
+  private CompiledTM(
+    FlatTM flat,
+    int tapes,
+    int initialState,
+    boolean[] accepting,
+    char[] symbols,
+    int[] toState,
+    int[] readIds,
+    char[] writes,
+    int[] moves,
+    int[] transitionStart
+  ) {
+    this.flat = flat;
+    this.stateCount = flat.getStateCount();
+    this.tapes = tapes;
+    this.initialState = initialState;
+    this.accepting = accepting;
+    this.symbols = symbols;
+    this.symbolCount = symbols.length + 1;
+    this.toState = toState;
+    this.readIds = readIds;
+    this.writes = writes;
+    this.moves = moves;
+    this.transitionStart = transitionStart;
+
+    this.asciiSymbols = new int[ASCII_LIMIT];
+    for (int i = 0; i < symbols.length; i++) {
+      if (symbols[i] < ASCII_LIMIT) {
+        asciiSymbols[symbols[i]] = i + 1;
+      }
+    }
+
+    long size = stateCount;
+    for (int k = 0; k < tapes && size <= MAX_TABLE_SIZE; k++) {
+      size *= symbolCount;
+    }
+    if (size <= MAX_TABLE_SIZE) {
+      this.tuples = (int) (size / Math.max(1, stateCount));
+      this.table = buildTable();
+    } else {
+      this.tuples = 0;
+      this.table = null;
+    }
+  }
+
+  /**
+   * Returns whether {@code automaton} can be lowered by {@link #compile(Automaton)}.
+   */
+  public static boolean canCompile(Automaton automaton) {
+    if (!(automaton instanceof TuringMachine) || automaton.getInitialState() == null) {
+      return false;
+    }
+    int tapes = ((TuringMachine) automaton).tapes();
+    List<TuringMachine> machines = FlatTM.machines((TuringMachine) automaton);
+    if (machines == null) {
+      return false;
+    }
+    for (int m = 0; m < machines.size(); m++) {
+      Transition[] transitions = machines.get(m).getTransitions();
+      for (int i = 0; i < transitions.length; i++) {
+        TMTransition t = (TMTransition) transitions[i];
+        if (t.tapes() != tapes) {
+          return false;
+        }
+        for (int k = 0; k < tapes; k++) {
+          String read = t.getRead(k);
+          String write = t.getWrite(k);
+          if (read.isEmpty() || write.isEmpty() || move(t.getDirection(k)) == null) {
+            return false;
+          }
+          if (tapes == 1 && (read.indexOf('}') >= 0 || read.indexOf('!') >= 0)) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Lowers {@code automaton}, with its building blocks {@link FlatTM inlined}, into a compiled table.
+   *
+   * @throws IllegalArgumentException if {@link #canCompile(Automaton)} is {@code false}
+   */
+  public static CompiledTM compile(Automaton automaton) {
+    if (!canCompile(automaton)) {
+      throw new IllegalArgumentException("Automaton is not a Turing machine this table can run.");
+    }
+    FlatTM flat = FlatTM.flatten((TuringMachine) automaton);
+    int tapes = ((TuringMachine) automaton).tapes();
+    int stateCount = flat.getStateCount();
+
+    TreeSet<Character> alphabet = new TreeSet<>();
+    alphabet.add(Tape.BLANK);
+    List<TuringMachine> machines = flat.getMachines();
+    for (int m = 0; m < machines.size(); m++) {
+      Transition[] all = machines.get(m).getTransitions();
+      for (int i = 0; i < all.length; i++) {
+        TMTransition t = (TMTransition) all[i];
+        for (int k = 0; k < tapes; k++) {
+          alphabet.add(t.getRead(k).charAt(0));
+          alphabet.add(t.getWrite(k).charAt(0));
+        }
+      }
+    }
+    alphabet.remove(ANY);
+    char[] symbols = new char[alphabet.size()];
+    int s = 0;
+    for (Character c : alphabet) {
+      symbols[s++] = c;
+    }
+
+    List<TMTransition> ordered = new ArrayList<>();
+    int[] transitionStart = new int[stateCount + 1];
+    boolean[] accepting = new boolean[stateCount];
+    for (int i = 0; i < stateCount; i++) {
+      transitionStart[i] = ordered.size();
+      ordered.addAll(Arrays.asList(flat.getTransitions(i)));
+      accepting[i] = flat.isAccepting(i);
+    }
+    transitionStart[stateCount] = ordered.size();
+
+    int count = ordered.size();
+    int[] toState = new int[count];
+    int[] readIds = new int[count * tapes];
+    char[] writes = new char[count * tapes];
+    int[] moves = new int[count * tapes];
+    for (int i = 0; i < count; i++) {
+      TMTransition t = ordered.get(i);
+      toState[i] = flat.indexOf(t.getToState());
+      for (int k = 0; k < tapes; k++) {
+        char read = t.getRead(k).charAt(0);
+        readIds[i * tapes + k] = (read == ANY) ? -1 : Arrays.binarySearch(symbols, read) + 1;
+        writes[i * tapes + k] = t.getWrite(k).charAt(0);
+        moves[i * tapes + k] = move(t.getDirection(k));
+      }
+    }
+
+    return new CompiledTM(
+      flat,
+      tapes,
+      flat.getInitialState(),
+      accepting,
+      symbols,
+      toState,
+      readIds,
+      writes,
+      moves,
+      transitionStart
+    );
+  }
+
+  private static Integer move(String direction) {
+    if (direction == null || direction.isEmpty()) {
+      return null;
+    }
+    switch (direction.charAt(0)) {
+      case 'L':
+        return -1;
+      case 'R':
+        return 1;
+      case 'S':
+        return 0;
+      default:
+        return null;
+    }
+  }
+
+  private int[] buildTable() {
+    int[] built = new int[stateCount * tuples];
+    Arrays.fill(built, NO_TRANSITION);
+    for (int state = 0; state < stateCount; state++) {
+      // Fill from the last transition back, so the first matching one wins as in TMSimulator.
+      for (int t = transitionStart[state + 1] - 1; t >= transitionStart[state]; t--) {
+        fill(built, state * tuples, t, 0, 0, 1);
+      }
+    }
+    return built;
+  }
+
+  private void fill(int[] built, int base, int transition, int tape, int tuple, int weight) {
+    if (tape == tapes) {
+      built[base + tuple] = transition;
+      return;
+    }
+    int read = readIds[transition * tapes + tape];
+    if (read >= 0) {
+      fill(built, base, transition, tape + 1, tuple + read * weight, weight * symbolCount);
+      return;
+    }
+    for (int id = 0; id < symbolCount; id++) {
+      fill(built, base, transition, tape + 1, tuple + id * weight, weight * symbolCount);
+    }
+  }
+
+  public int getTapeCount() {
+    return tapes;
+  }
+
+  public int getStateCount() {
+    return stateCount;
+  }
+
+  /**
+   * Returns the flattened machine this table was built from, which maps state indices back to the
+   * original, possibly nested, states.
+   */
+  public FlatTM getFlatMachine() {
+    return flat;
+  }
+
+  /**
+   * Returns whether steps are looked up in a (state, symbol tuple) table rather than by scanning
+   * the state's transitions.
+   */
+  public boolean isTabulated() {
+    return table != null;
+  }
+
+  int symbolId(char c) {
+    if (c < ASCII_LIMIT) {
+      return asciiSymbols[c];
+    }
+    int found = Arrays.binarySearch(symbols, c);
+    return (found >= 0) ? found + 1 : OTHER;
+  }
+
+  /**
+   * Starts a run on {@code input}, one string per tape, accepting as the current profile's
+   * Turing machine settings say.
+   */
+  public Run start(String[] input) {
+    return start(input, Universe.curProfile.getAcceptByFinalState(), Universe.curProfile.getAcceptByHalting());
+  }
+
+  public Run start(String[] input, boolean acceptByFinalState, boolean acceptByHalting) {
+    if (input.length != tapes) {
+      throw new IllegalArgumentException("Expected " + tapes + " input string(s), got " + input.length + ".");
+    }
+    return new Run(input, acceptByFinalState, acceptByHalting);
+  }
+
+  /** What {@link Run#advance(long)} stopped at. */
+  public enum Status {
+    /** The step allowance ran out. */
+    RUNNING,
+    ACCEPTED,
+    REJECTED
+  }
+
+  /**
+   * One input being run. The tapes are {@code char} arrays grown in place as the heads move off
+   * either end; {@link #getTapes()} converts them back to {@link Tape}s.
+   */
+  public final class Run {
+    private final boolean acceptByFinalState;
+    private final boolean acceptByHalting;
+    private final char[][] cells;
+    private final int[] heads;
+    /** Per tape, the array range JFLAP's tape buffer would cover. */
+    private final int[] lows;
+    private final int[] highs;
+
+    private int state = initialState;
+    private boolean halted;
+    private Status status = Status.RUNNING;
+    private long steps;
+    private long nanos;
+
+    Run(String[] input, boolean acceptByFinalState, boolean acceptByHalting) {
+      this.acceptByFinalState = acceptByFinalState;
+      this.acceptByHalting = acceptByHalting;
+      cells = new char[tapes][];
+      heads = new int[tapes];
+      lows = new int[tapes];
+      highs = new int[tapes];
+      for (int k = 0; k < tapes; k++) {
+        String contents = input[k].isEmpty() ? String.valueOf(Tape.BLANK) : input[k];
+        int margin = Math.max(16, contents.length() / 2);
+        char[] tape = new char[contents.length() + 2 * margin];
+        Arrays.fill(tape, Tape.BLANK);
+        contents.getChars(0, contents.length(), tape, margin);
+        cells[k] = tape;
+        heads[k] = margin;
+        lows[k] = margin;
+        highs[k] = margin + contents.length();
+      }
+    }
+
+    /**
+     * Runs at most {@code maxSteps} more steps, or until the machine accepts or halts.
+     *
+     * @throws CancellationException if the calling thread is interrupted
+     */
+    public Status advance(long maxSteps) {
+      if (status != Status.RUNNING) {
+        return status;
+      }
+      long begin = System.nanoTime();
+      try {
+        return status = advanceUnchecked(maxSteps);
+      } finally {
+        nanos += System.nanoTime() - begin;
+      }
+    }
+
+    private Status advanceUnchecked(long maxSteps) {
+      final int[] table = CompiledTM.this.table;
+      final int tuples = CompiledTM.this.tuples;
+      final int symbolCount = CompiledTM.this.symbolCount;
+      final int tapes = CompiledTM.this.tapes;
+      int state = this.state;
+      long done = 0;
+      try {
+        while (true) {
+          if (acceptByFinalState && accepting[state]) {
+            return Status.ACCEPTED;
+          }
+          if (done >= maxSteps) {
+            return Status.RUNNING;
+          }
+          if ((done & INTERRUPT_CHECK_MASK) == INTERRUPT_CHECK_MASK && Thread.currentThread().isInterrupted()) {
+            throw new CancellationException();
+          }
+
+          int transition;
+          if (table != null) {
+            int tuple = 0;
+            int weight = 1;
+            for (int k = 0; k < tapes; k++) {
+              tuple += symbolId(cells[k][heads[k]]) * weight;
+              weight *= symbolCount;
+            }
+            transition = table[state * tuples + tuple];
+          } else {
+            transition = scan(state);
+          }
+          if (transition == NO_TRANSITION) {
+            halted = true;
+            return acceptByHalting ? Status.ACCEPTED : Status.REJECTED;
+          }
+
+          int base = transition * tapes;
+          for (int k = 0; k < tapes; k++) {
+            char write = writes[base + k];
+            if (write != ANY) {
+              cells[k][heads[k]] = write;
+            }
+            int move = moves[base + k];
+            if (move != 0) {
+              moveHead(k, move);
+            }
+          }
+          state = toState[transition];
+          done++;
+        }
+      } finally {
+        this.state = state;
+        steps += done;
+      }
+    }
+
+    private int scan(int state) {
+      for (int t = transitionStart[state]; t < transitionStart[state + 1]; t++) {
+        boolean matches = true;
+        for (int k = 0; k < tapes && matches; k++) {
+          int read = readIds[t * tapes + k];
+          matches = read < 0 || read == symbolId(cells[k][heads[k]]);
+        }
+        if (matches) {
+          return t;
+        }
+      }
+      return NO_TRANSITION;
+    }
+
+    private void moveHead(int k, int move) {
+      int head = heads[k] + move;
+      char[] tape = cells[k];
+      if (head < 0 || head >= tape.length) {
+        int shift = (head < 0) ? tape.length : 0;
+        char[] grown = new char[tape.length * 2];
+        Arrays.fill(grown, Tape.BLANK);
+        System.arraycopy(tape, 0, grown, shift, tape.length);
+        cells[k] = grown;
+        head += shift;
+        lows[k] += shift;
+        highs[k] += shift;
+      }
+      heads[k] = head;
+      if (head < lows[k]) {
+        lows[k] = head;
+      } else if (head >= highs[k]) {
+        highs[k] = head + 1;
+      }
+    }
+
+    public Status getStatus() {
+      return status;
+    }
+
+    /**
+     * Returns whether the machine stopped because no transition applied.
+     */
+    public boolean isHalted() {
+      return halted;
+    }
+
+    public State getState() {
+      return flat.getState(state);
+    }
+
+    /**
+     * Returns the current state's name prefixed by its enclosing block states.
+     */
+    public String getStatePath() {
+      return flat.getName(state);
+    }
+
+    public long getSteps() {
+      return steps;
+    }
+
+    /**
+     * Returns the time spent inside {@link #advance(long)}.
+     */
+    public long getElapsedNanos() {
+      return nanos;
+    }
+
+    public double getStepsPerSecond() {
+      return (nanos == 0) ? 0.0 : steps * 1e9 / nanos;
+    }
+
+    /**
+     * Returns the tapes as JFLAP would hold them after the same steps.
+     */
+    public Tape[] getTapes() {
+      Tape[] result = new Tape[tapes];
+      for (int k = 0; k < tapes; k++) {
+        result[k] = new Tape(new String(cells[k], lows[k], highs[k] - lows[k]), heads[k] - lows[k]);
+      }
+      return result;
+    }
+
+    /**
+     * Returns the current configuration, marked halted if the machine halted.
+     */
+    public TMConfiguration toConfiguration() {
+      List<AcceptanceFilter> filters = new ArrayList<>();
+      if (acceptByFinalState) {
+        filters.add(new AcceptByFinalStateFilter());
+      }
+      if (acceptByHalting) {
+        filters.add(new AcceptByHaltingFilter());
+      }
+      TMConfiguration configuration = new TMConfiguration(
+        getState(),
+        null,
+        getTapes(),
+        filters.toArray(new AcceptanceFilter[0])
+      );
+      configuration.setHalted(halted);
+      return configuration;
+    }
+  }
+}
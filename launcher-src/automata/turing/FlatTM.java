@@ -0,0 +1,219 @@
+package automata.turing;
+
+import automata.Automaton;
+import automata.State;
+import automata.Transition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link TuringMachine} with its building blocks inlined into one transition list per state.
+ *
+ * <p>{@link TMSimulator} runs a block by descending, at the start of every step, from a block state
+ * through the initial states of the inner machines to a plain state, and when no transition of that
+ * state matches it retries with the transitions of each enclosing block state in turn. Which
+ * transition it takes therefore depends only on the current state object, so this class walks every
+ * nested machine once and gives each state the list {@link TMSimulator} would scan: the transitions
+ * of the plain state it descends to, then those of each enclosing block, in order. The first match
+ * in that list is the step {@link TMSimulator} takes, and its target is the original target
+ * state.</p>
+ *
+ * <p>States keep their identity, so a run on the flat lists can be traced in the original block
+ * structure; {@link #getName(int)} names a state by its path of block states.</p>
+ */
+public final class FlatTM {
+  private final TuringMachine machine;
+  private final List<TuringMachine> machines;
+  private final State[] states;
+  private final String[] names;
+  private final Map<State, Integer> index;
+  private final TMTransition[][] transitions;
+  private final boolean[] accepting;
+
+  private FlatTM(TuringMachine machine, List<TuringMachine> machines, List<State> states) {
+    this.machine = machine;
+    this.machines = machines;
+    this.states = states.toArray(new State[0]);
+    this.names = new String[this.states.length];
+    this.index = new IdentityHashMap<>();
+    for (int i = 0; i < this.states.length; i++) {
+      index.put(this.states[i], i);
+    }
+    this.transitions = new TMTransition[this.states.length][];
+    this.accepting = new boolean[this.states.length];
+    for (int i = 0; i < this.states.length; i++) {
+      TMState state = (TMState) this.states[i];
+      names[i] = path(state);
+      transitions[i] = scanOrder(state);
+      // JFLAP only accepts by final state in the outermost machine.
+      Automaton owner = state.getAutomaton();
+      accepting[i] = ((TuringMachine) owner).getParent() == null && owner.isFinalState(state);
+    }
+  }
+
+  /**
+   * Returns whether every state and transition of {@code machine} and its blocks is a
+   * {@link TMState} or {@link TMTransition} and every block with states has an initial state, so
+   * that {@link #flatten(TuringMachine)} succeeds.
+   */
+  public static boolean canFlatten(TuringMachine machine) {
+    return machines(machine) != null;
+  }
+
+  /**
+   * Inlines the building blocks of {@code machine}.
+   *
+   * @throws IllegalArgumentException if {@link #canFlatten(TuringMachine)} is {@code false}
+   */
+  public static FlatTM flatten(TuringMachine machine) {
+    List<TuringMachine> machines = machines(machine);
+    if (machines == null) {
+      throw new IllegalArgumentException("A building block, possibly nested, lacks an initial state.");
+    }
+    List<State> states = new ArrayList<>();
+    for (int i = 0; i < machines.size(); i++) {
+      states.addAll(Arrays.asList(machines.get(i).getStates()));
+    }
+    return new FlatTM(machine, machines, states);
+  }
+
+  /**
+   * Returns {@code machine} followed by the machines of its blocks, depth first and each once even
+   * if several block states share it, or {@code null} if it cannot be flattened.
+   */
+  static List<TuringMachine> machines(TuringMachine machine) {
+    List<TuringMachine> machines = new ArrayList<>();
+    return collect(machine, machines) ? machines : null;
+  }
+
+  private static boolean collect(TuringMachine machine, List<TuringMachine> machines) {
+    for (int i = 0; i < machines.size(); i++) {
+      if (machines.get(i) == machine) {
+        return true;
+      }
+    }
+    machines.add(machine);
+    State[] own = machine.getStates();
+    for (int i = 0; i < own.length; i++) {
+      if (!(own[i] instanceof TMState)) {
+        return false;
+      }
+    }
+    Transition[] transitions = machine.getTransitions();
+    for (int i = 0; i < transitions.length; i++) {
+      if (!(transitions[i] instanceof TMTransition)) {
+        return false;
+      }
+    }
+    for (int i = 0; i < own.length; i++) {
+      TuringMachine inner = ((TMState) own[i]).getInnerTM();
+      if (inner == null || inner.getStates().length == 0) {
+        continue;
+      }
+      if (inner.getInitialState() == null || !collect(inner, machines)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The transitions {@link TMSimulator#stepConfiguration} tries from {@code state}, in order.
+   */
+  private static TMTransition[] scanOrder(TMState state) {
+    while (hasBlock(state)) {
+      state = (TMState) state.getInnerTM().getInitialState();
+    }
+    List<TMTransition> order = new ArrayList<>();
+    while (true) {
+      Transition[] from = state.getAutomaton().getTransitionsFromState(state);
+      for (int i = 0; i < from.length; i++) {
+        order.add((TMTransition) from[i]);
+      }
+      TMState parent = ((TuringMachine) state.getAutomaton()).getParent();
+      if (parent == null) {
+        return order.toArray(new TMTransition[0]);
+      }
+      state = parent;
+    }
+  }
+
+  private static boolean hasBlock(TMState state) {
+    TuringMachine inner = state.getInnerTM();
+    return inner != null && inner.getStates().length > 0;
+  }
+
+  private static String path(TMState state) {
+    StringBuilder path = new StringBuilder(state.getName());
+    for (TMState block = ((TuringMachine) state.getAutomaton()).getParent(); block != null;
+        block = ((TuringMachine) block.getAutomaton()).getParent()) {
+      path.insert(0, block.getName() + "/");
+    }
+    return path.toString();
+  }
+
+  public TuringMachine getMachine() {
+    return machine;
+  }
+
+  /**
+   * Returns the outermost machine followed by the machines of its blocks, each once.
+   */
+  public List<TuringMachine> getMachines() {
+    return machines;
+  }
+
+  /**
+   * Returns whether any state is a block with states of its own.
+   */
+  public boolean hasBlocks() {
+    return machines.size() > 1;
+  }
+
+  public int getStateCount() {
+    return states.length;
+  }
+
+  public State getState(int state) {
+    return states[state];
+  }
+
+  /**
+   * Returns the index of {@code state}, or -1 if it is not in this machine or its blocks.
+   */
+  public int indexOf(State state) {
+    Integer found = index.get(state);
+    return (found == null) ? -1 : found;
+  }
+
+  public int getInitialState() {
+    return indexOf(machine.getInitialState());
+  }
+
+  /**
+   * Returns the name of {@code state} prefixed by the names of its enclosing block states, such as
+   * {@code q2/q0}.
+   */
+  public String getName(int state) {
+    return names[state];
+  }
+
+  /**
+   * Returns the transitions tried from {@code state}, first match wins. The array is shared; do not
+   * modify it.
+   */
+  public TMTransition[] getTransitions(int state) {
+    return transitions[state];
+  }
+
+  /**
+   * Returns whether {@code state} is final in the outermost machine.
+   */
+  public boolean isAccepting(int state) {
+    return accepting[state];
+  }
+}
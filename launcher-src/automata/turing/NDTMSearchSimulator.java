@@ -0,0 +1,359 @@
+package automata.turing;
+
+import automata.Automaton;
+import automata.Configuration;
+import automata.State;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A nondeterministic Turing machine simulator that collapses duplicate branches and always
+ * terminates.
+ *
+ * <p>{@link NDTMSimulator} keeps every branch alive, so two branches that reach the same state with
+ * the same tapes are both expanded from then on, and a machine that loops doubles its frontier
+ * until the heap runs out. This simulator steps with {@link #stepConfiguration(Configuration)} as
+ * before, but:</p>
+ *
+ * <ul>
+ *   <li>drops a configuration whose {@link #fingerprint(TMConfiguration) fingerprint} (state and
+ *     tapes, as compared by {@link Tape#equals(Object)}) was already seen, unless
+ *     {@link #setVisitedSet(boolean) disabled};</li>
+ *   <li>searches {@link Strategy#BREADTH_FIRST breadth first}, {@link Strategy#DEPTH_FIRST depth
+ *     first} or by {@link Strategy#ITERATIVE_DEEPENING iterative deepening};</li>
+ *   <li>stops with {@link Verdict#BUDGET_EXHAUSTED} after a step budget, or once the configurations
+ *     it holds (frontier and visited set) reach a configuration budget, the memory cap.</li>
+ * </ul>
+ *
+ * <p>Two configurations with equal fingerprints have the same future, so collapsing them never
+ * changes the verdict. A rejection is exact whenever the search ends without hitting a budget or a
+ * depth limit.</p>
+ */
+public class NDTMSearchSimulator extends NDTMSimulator {
+  public static final int DEFAULT_STEP_BUDGET = 1000000;
+  public static final int DEFAULT_CONFIGURATION_BUDGET = 100000;
+  public static final int DEFAULT_MAX_DEPTH = 1 << 20;
+
+  /** Order in which configurations are expanded. */
+  public enum Strategy {
+    BREADTH_FIRST,
+    DEPTH_FIRST,
+    /** Depth-first passes with a depth limit that doubles until nothing is cut off. */
+    ITERATIVE_DEEPENING
+  }
+
+  /** Outcome of {@link #run(String[])}. */
+  public enum Verdict {
+    ACCEPTED,
+    REJECTED,
+    /** A budget or the depth limit ran out before an accepting configuration was found. */
+    BUDGET_EXHAUSTED
+  }
+
+  private Strategy strategy = Strategy.BREADTH_FIRST;
+  private boolean visitedSet = true;
+  private int stepBudget = DEFAULT_STEP_BUDGET;
+  private int configurationBudget = DEFAULT_CONFIGURATION_BUDGET;
+  private int maxDepth = DEFAULT_MAX_DEPTH;
+
+  public NDTMSearchSimulator(Automaton automaton) {
+    super(automaton);
+  }
+
+  public void setStrategy(Strategy strategy) {
+    if (strategy == null) {
+      throw new IllegalArgumentException("Strategy must not be null.");
+    }
+    this.strategy = strategy;
+  }
+
+  /**
+   * Sets whether configurations with an already seen fingerprint are dropped.
+   */
+  public void setVisitedSet(boolean visitedSet) {
+    this.visitedSet = visitedSet;
+  }
+
+  /**
+   * Sets the maximum number of configurations expanded by one run, over all deepening passes.
+   */
+  public void setStepBudget(int stepBudget) {
+    this.stepBudget = positive(stepBudget);
+  }
+
+  /**
+   * Sets the maximum number of configurations one run may hold at once in its frontier and
+   * visited set.
+   */
+  public void setConfigurationBudget(int configurationBudget) {
+    this.configurationBudget = positive(configurationBudget);
+  }
+
+  /**
+   * Sets the deepest level depth-first and iterative deepening searches descend to.
+   */
+  public void setMaxDepth(int maxDepth) {
+    this.maxDepth = positive(maxDepth);
+  }
+
+  @Override
+  public boolean simulateInput(String input) {
+    return run(new String[] {input}).getVerdict() == Verdict.ACCEPTED;
+  }
+
+  /**
+   * Simulates {@code input}, one string per tape, within the budgets.
+   *
+   * @throws CancellationException if the calling thread is interrupted
+   */
+  public Result run(String[] input) {
+    Configuration[] initial = getInitialConfigurations(input);
+    Search search = new Search();
+    switch (strategy) {
+      case DEPTH_FIRST:
+        return search.depthFirst(initial, maxDepth);
+      case ITERATIVE_DEEPENING:
+        for (int limit = 1; ; limit = (int) Math.min(2L * limit, maxDepth)) {
+          Result result = search.depthFirst(initial, limit);
+          // Only a pass cut off by its depth limit is worth repeating deeper.
+          if (result.getVerdict() != Verdict.BUDGET_EXHAUSTED || search.exhausted || limit == maxDepth) {
+            return result;
+          }
+        }
+      default:
+        return search.breadthFirst(initial);
+    }
+  }
+
+  /**
+   * Returns a key that is equal for two configurations exactly when they are in the same state
+   * with equal tapes. It holds copies of the tapes, which share their cells, and not the
+   * configuration's ancestors.
+   */
+  public static Object fingerprint(TMConfiguration configuration) {
+    return new Fingerprint(configuration.getCurrentState(), configuration.getTapes());
+  }
+
+  private static int positive(int value) {
+    if (value <= 0) {
+      throw new IllegalArgumentException("Budget must be positive.");
+    }
+    return value;
+  }
+
+  /**
+   * The counters of one run; shared by the passes of an iterative deepening search.
+   */
+  private final class Search {
+    int steps;
+    int duplicates;
+    /** Whether the last depth-first pass left a configuration unexpanded at its depth limit. */
+    boolean cutOff;
+    /** Whether a step or configuration budget ran out. */
+    boolean exhausted;
+    int peak;
+
+    Result breadthFirst(Configuration[] initial) {
+      Set<Object> seen = new HashSet<>();
+      Deque<Configuration> frontier = new ArrayDeque<>();
+      for (int i = 0; i < initial.length; i++) {
+        if (!visitedSet || seen.add(fingerprint((TMConfiguration) initial[i]))) {
+          frontier.add(initial[i]);
+        }
+      }
+
+      Configuration last = null;
+      while (!frontier.isEmpty()) {
+        checkInterrupted();
+        Configuration configuration = frontier.poll();
+        last = configuration;
+        if (configuration.isAccept()) {
+          return result(Verdict.ACCEPTED, configuration);
+        }
+        if (steps >= stepBudget) {
+          return exhausted(configuration);
+        }
+        steps++;
+
+        List<Configuration> successors = stepConfiguration(configuration);
+        for (int i = 0; i < successors.size(); i++) {
+          Configuration successor = successors.get(i);
+          if (visitedSet && !seen.add(fingerprint((TMConfiguration) successor))) {
+            duplicates++;
+            continue;
+          }
+          frontier.add(successor);
+        }
+        if (!holds(seen.size() + frontier.size())) {
+          return exhausted(configuration);
+        }
+      }
+      return result(Verdict.REJECTED, last);
+    }
+
+    /**
+     * One depth-first pass to {@code limit}. A configuration is skipped only if it was already
+     * reached at the same or a shallower depth in this pass, so a shorter path is still explored.
+     */
+    Result depthFirst(Configuration[] initial, int limit) {
+      cutOff = false;
+      Map<Object, Integer> seen = new HashMap<>();
+      Deque<Configuration> stack = new ArrayDeque<>();
+      Deque<Integer> depths = new ArrayDeque<>();
+      for (int i = initial.length - 1; i >= 0; i--) {
+        if (!visitedSet || seen.put(fingerprint((TMConfiguration) initial[i]), 0) == null) {
+          stack.push(initial[i]);
+          depths.push(0);
+        }
+      }
+
+      Configuration last = null;
+      while (!stack.isEmpty()) {
+        checkInterrupted();
+        Configuration configuration = stack.pop();
+        int depth = depths.pop();
+        last = configuration;
+        if (configuration.isAccept()) {
+          return result(Verdict.ACCEPTED, configuration);
+        }
+        if (depth >= limit) {
+          cutOff = true;
+          continue;
+        }
+        if (steps >= stepBudget) {
+          return exhausted(configuration);
+        }
+        steps++;
+
+        List<Configuration> successors = stepConfiguration(configuration);
+        // Push in reverse, so the first transition is explored first.
+        for (int i = successors.size() - 1; i >= 0; i--) {
+          Configuration successor = successors.get(i);
+          if (visitedSet) {
+            Object key = fingerprint((TMConfiguration) successor);
+            Integer previous = seen.get(key);
+            if (previous != null && previous <= depth + 1) {
+              duplicates++;
+              continue;
+            }
+            seen.put(key, depth + 1);
+          }
+          stack.push(successor);
+          depths.push(depth + 1);
+        }
+        if (!holds(seen.size() + stack.size())) {
+          return exhausted(configuration);
+        }
+      }
+      return result(cutOff ? Verdict.BUDGET_EXHAUSTED : Verdict.REJECTED, last);
+    }
+
+    private boolean holds(int held) {
+      peak = Math.max(peak, held);
+      return held <= configurationBudget;
+    }
+
+    private Result exhausted(Configuration configuration) {
+      exhausted = true;
+      return result(Verdict.BUDGET_EXHAUSTED, configuration);
+    }
+
+    private Result result(Verdict verdict, Configuration configuration) {
+      return new Result(verdict, configuration, steps, peak, duplicates);
+    }
+
+    private void checkInterrupted() {
+      if (Thread.currentThread().isInterrupted()) {
+        throw new CancellationException();
+      }
+    }
+  }
+
+  /**
+   * The verdict of one run and how much of the budgets it used.
+   */
+  public static final class Result {
+    private final Verdict verdict;
+    private final Configuration configuration;
+    private final int steps;
+    private final int peakConfigurations;
+    private final int duplicates;
+
+    Result(Verdict verdict, Configuration configuration, int steps, int peakConfigurations, int duplicates) {
+      this.verdict = verdict;
+      this.configuration = configuration;
+      this.steps = steps;
+      this.peakConfigurations = peakConfigurations;
+      this.duplicates = duplicates;
+    }
+
+    public Verdict getVerdict() {
+      return verdict;
+    }
+
+    /**
+     * Returns the accepting configuration, or the last one examined, or {@code null} if there was none.
+     */
+    public Configuration getConfiguration() {
+      return configuration;
+    }
+
+    public int getSteps() {
+      return steps;
+    }
+
+    /**
+     * Returns the most configurations held at once, frontier and visited set together.
+     */
+    public int getPeakConfigurations() {
+      return peakConfigurations;
+    }
+
+    /**
+     * Returns how many successors were dropped because their fingerprint was already seen.
+     */
+    public int getDuplicates() {
+      return duplicates;
+    }
+  }
+
+  private static final class Fingerprint {
+    private final State state;
+    private final Tape[] tapes;
+    private final int hash;
+
+    Fingerprint(State state, Tape[] tapes) {
+      this.state = state;
+      this.tapes = new Tape[tapes.length];
+      int h = System.identityHashCode(state);
+      for (int i = 0; i < tapes.length; i++) {
+        this.tapes[i] = new Tape(tapes[i]);
+        // Tape.hashCode() leaves out the head, which is most of what changes between steps.
+        h = (h * 31 + this.tapes[i].hashCode()) * 31 + this.tapes[i].headOffset();
+      }
+      this.hash = h;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Fingerprint)) {
+        return false;
+      }
+      Fingerprint fingerprint = (Fingerprint) other;
+      return state == fingerprint.state && hash == fingerprint.hash && Arrays.equals(tapes, fingerprint.tapes);
+    }
+  }
+}
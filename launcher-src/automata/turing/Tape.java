@@ -0,0 +1,391 @@
+package automata.turing;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Replacement for JFLAP's {@code Tape}, one tape of a Turing machine configuration.
+ *
+ * <p>JFLAP kept the tape in a {@code StringBuffer}, so the copy every simulator step makes of every
+ * tape, padding the tape when the head ran off either end, and each {@link #hashCode()} after a write
+ * all cost O(tape length). This version keeps the same API and buffer coordinates, but stores the
+ * cells in two persistent 32-way tries (cells at and right of the first input character, and cells
+ * left of it) whose missing leaves read as {@link #BLANK}. Copies share the tries, a write copies
+ * only the path to one leaf, and moving past either end only widens the reported bounds.</p>
+ *
+ * <p>The hash is maintained as {@code sum(c * B^position)} over the non-blank cells and rescaled to
+ * the first non-blank cell on demand, so it is updated in O(1) per write and, like JFLAP's, ignores
+ * surrounding blanks and the head position.</p>
+ */
+public class Tape implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  public static final char BLANK = '\u25a1';
+
+  private static final int BITS = 5;
+  private static final int WIDTH = 1 << BITS;
+  private static final int MASK = WIDTH - 1;
+
+  /** Odd hash base, so it has an inverse modulo 2^32. */
+  private static final int BASE = 0x01000193;
+  private static final int INVERSE = inverse(BASE);
+
+  /** Cells at positions {@code >= 0}; position 0 is the first cell of the initial input. */
+  private transient Side right;
+  /** Cells at positions {@code < 0}, stored at index {@code -position - 1}. */
+  private transient Side left;
+  /** Leftmost position of the buffer JFLAP would hold; buffer index 0. */
+  private transient int low;
+  /** One past the rightmost buffer position. */
+  private transient int high;
+  private transient int head;
+  /** {@code BASE^head}, kept in step with the head. */
+  private transient int headWeight;
+
+  private transient int nonBlank;
+  private transient int first;
+  private transient int last;
+  private transient int weightedSum;
+
+  public Tape() {
+    this("");
+  }
+
+  public Tape(String input) {
+    if (input.equals("")) {
+      input = String.valueOf(BLANK);
+    }
+    load(input, 0);
+  }
+
+  /**
+   * Creates a tape holding {@code contents} with the head at buffer index {@code head}.
+   */
+  Tape(String contents, int head) {
+    load(contents, head);
+  }
+
+  /**
+   * Creates a copy of {@code tape} that shares its cells until either is written.
+   */
+  public Tape(Tape tape) {
+    right = tape.right;
+    left = tape.left;
+    low = tape.low;
+    high = tape.high;
+    head = tape.head;
+    headWeight = tape.headWeight;
+    nonBlank = tape.nonBlank;
+    first = tape.first;
+    last = tape.last;
+    weightedSum = tape.weightedSum;
+  }
+
+  private void load(String contents, int headIndex) {
+    right = Side.EMPTY;
+    left = Side.EMPTY;
+    low = 0;
+    high = contents.length();
+    nonBlank = 0;
+    weightedSum = 0;
+    head = 0;
+    headWeight = 1;
+    for (int i = 0; i < contents.length(); i++) {
+      set(i, contents.charAt(i), pow(BASE, i));
+    }
+    head = headIndex;
+    headWeight = pow(BASE, head);
+  }
+
+  public void writeChar(char c) {
+    set(head, c, headWeight);
+  }
+
+  /**
+   * Replaces the cell under the head with {@code string}, which is normally one character.
+   */
+  public void write(String string) {
+    if (string.length() == 1) {
+      writeChar(string.charAt(0));
+      return;
+    }
+    // Longer or empty writes shift the rest of the tape, as StringBuffer.insert did.
+    String contents = getContents();
+    int index = getTapeHead();
+    load(contents.substring(0, index) + string + contents.substring(index + 1), index);
+  }
+
+  public char readChar() {
+    return get(head);
+  }
+
+  public String read() {
+    return String.valueOf(readChar());
+  }
+
+  public void moveHead(String direction) {
+    if (direction.isEmpty()) {
+      throw new IllegalArgumentException("Tape direction is empty string!");
+    }
+    switch (direction.charAt(0)) {
+      case 'L':
+        head--;
+        headWeight *= INVERSE;
+        break;
+      case 'R':
+        head++;
+        headWeight *= BASE;
+        break;
+      case 'S':
+        break;
+      default:
+        throw new IllegalArgumentException("Bad tape direction " + direction);
+    }
+    if (head >= high) {
+      high = head + 1;
+    } else if (head < low) {
+      low = head;
+    }
+  }
+
+  public String getContents() {
+    char[] contents = new char[high - low];
+    for (int i = 0; i < contents.length; i++) {
+      contents[i] = get(low + i);
+    }
+    return new String(contents);
+  }
+
+  /**
+   * Returns the cells from the head up to, not including, the next blank.
+   */
+  public String getOutput() {
+    StringBuilder output = new StringBuilder();
+    for (int position = head; position < high; position++) {
+      char c = get(position);
+      if (c == BLANK) {
+        break;
+      }
+      output.append(c);
+    }
+    return output.toString();
+  }
+
+  public int getTapeHead() {
+    return head - low;
+  }
+
+  @Override
+  public String toString() {
+    return "[" + getContents() + "] TAPE HEAD AT " + getTapeHead();
+  }
+
+  /**
+   * Tapes are equal if their non-blank regions match and their heads sit at the same offset from
+   * the start of that region.
+   */
+  @Override
+  public boolean equals(Object object) {
+    if (object == this) {
+      return true;
+    }
+    if (!(object instanceof Tape)) {
+      return false;
+    }
+    Tape tape = (Tape) object;
+    if (nonBlank != tape.nonBlank || last - first != tape.last - tape.first) {
+      return false;
+    }
+    if (headOffset() != tape.headOffset()) {
+      return false;
+    }
+    if (nonBlank == 0) {
+      return true;
+    }
+    if (hashCode() != tape.hashCode()) {
+      return false;
+    }
+    int offset = tape.first - first;
+    for (int position = first; position <= last; position++) {
+      if (get(position) != tape.get(position + offset)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return (nonBlank == 0) ? 0 : weightedSum * pow(INVERSE, first);
+  }
+
+  /**
+   * Returns the head position relative to the first non-blank cell, which {@link #equals(Object)}
+   * compares but {@link #hashCode()} leaves out.
+   */
+  int headOffset() {
+    return head - regionStart();
+  }
+
+  /**
+   * Where JFLAP's {@code nonTrivial} region starts: the first non-blank cell, or buffer index 0 if
+   * the tape is blank.
+   */
+  private int regionStart() {
+    return (nonBlank == 0) ? low : first;
+  }
+
+  private char get(int position) {
+    return (position >= 0) ? right.get(position) : left.get(-position - 1);
+  }
+
+  private void set(int position, char c, int weight) {
+    char old = get(position);
+    if (old == c) {
+      return;
+    }
+    if (position >= 0) {
+      right = right.set(position, c);
+    } else {
+      left = left.set(-position - 1, c);
+    }
+
+    if (old != BLANK) {
+      weightedSum -= old * weight;
+      nonBlank--;
+    }
+    if (c != BLANK) {
+      weightedSum += c * weight;
+      nonBlank++;
+    }
+
+    if (nonBlank == 0) {
+      first = 0;
+      last = 0;
+    } else if (c != BLANK) {
+      if (nonBlank == 1) {
+        first = position;
+        last = position;
+      } else {
+        first = Math.min(first, position);
+        last = Math.max(last, position);
+      }
+    } else if (position == first) {
+      first = scan(position + 1, 1);
+    } else if (position == last) {
+      last = scan(position - 1, -1);
+    }
+  }
+
+  /**
+   * Returns the nearest non-blank position from {@code position} in direction {@code step}. Only
+   * called when one is known to exist.
+   */
+  private int scan(int position, int step) {
+    while (get(position) == BLANK) {
+      position += step;
+    }
+    return position;
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeUTF(getContents());
+    out.writeInt(getTapeHead());
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    String contents = in.readUTF();
+    load(contents, in.readInt());
+  }
+
+  private static int pow(int base, int exponent) {
+    if (exponent < 0) {
+      base = (base == BASE) ? INVERSE : inverse(base);
+      exponent = -exponent;
+    }
+    int result = 1;
+    while (exponent != 0) {
+      if ((exponent & 1) != 0) {
+        result *= base;
+      }
+      base *= base;
+      exponent >>>= 1;
+    }
+    return result;
+  }
+
+  /**
+   * Multiplicative inverse of an odd number modulo 2^32, by Newton's iteration.
+   */
+  private static int inverse(int odd) {
+    int x = odd;
+    for (int i = 0; i < 5; i++) {
+      x *= 2 - odd * x;
+    }
+    return x;
+  }
+
+  /**
+   * One half of the tape: an immutable 32-way trie from index to cell. A {@code null} child is a
+   * run of blanks.
+   */
+  private static final class Side {
+    static final Side EMPTY = new Side(null, 0);
+
+    /** A {@code char[WIDTH]} leaf when {@code shift} is 0, otherwise an {@code Object[WIDTH]}. */
+    final Object root;
+    final int shift;
+
+    Side(Object root, int shift) {
+      this.root = root;
+      this.shift = shift;
+    }
+
+    char get(int index) {
+      if ((index >>> shift) >= WIDTH) {
+        return BLANK;
+      }
+      Object node = root;
+      for (int level = shift; level > 0 && node != null; level -= BITS) {
+        node = ((Object[]) node)[(index >>> level) & MASK];
+      }
+      return (node == null) ? BLANK : ((char[]) node)[index & MASK];
+    }
+
+    Side set(int index, char c) {
+      Object newRoot = root;
+      int newShift = shift;
+      while ((index >>> newShift) >= WIDTH) {
+        if (newRoot != null) {
+          Object[] grown = new Object[WIDTH];
+          grown[0] = newRoot;
+          newRoot = grown;
+        }
+        newShift += BITS;
+      }
+      return new Side(set(newRoot, newShift, index, c), newShift);
+    }
+
+    private static Object set(Object node, int level, int index, char c) {
+      if (level == 0) {
+        char[] leaf;
+        if (node == null) {
+          leaf = new char[WIDTH];
+          java.util.Arrays.fill(leaf, BLANK);
+        } else {
+          leaf = ((char[]) node).clone();
+        }
+        leaf[index & MASK] = c;
+        return leaf;
+      }
+      Object[] children = (node == null) ? new Object[WIDTH] : ((Object[]) node).clone();
+      int slot = (index >>> level) & MASK;
+      children[slot] = set(children[slot], level - BITS, index, c);
+      return children;
+    }
+  }
+}
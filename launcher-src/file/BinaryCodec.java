@@ -0,0 +1,703 @@
+package file;
+
+import automata.Automaton;
+import automata.Note;
+import automata.State;
+import automata.Transition;
+import automata.fsa.FSATransition;
+import automata.fsa.FiniteStateAutomaton;
+import automata.mealy.MealyMachine;
+import automata.mealy.MealyTransition;
+import automata.mealy.MooreMachine;
+import automata.mealy.MooreTransition;
+import automata.pda.PDATransition;
+import automata.pda.PushdownAutomaton;
+import automata.turing.TMState;
+import automata.turing.TMTransition;
+import automata.turing.TuringMachine;
+import automata.turing.TuringMachineBuildingBlocks;
+import grammar.Grammar;
+import grammar.Production;
+import grammar.UnboundGrammar;
+import regular.RegularExpression;
+
+import java.awt.Point;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary format ({@code .jffb}) for automata, grammars and regular expressions, as an
+ * alternative to {@link SerializedCodec}'s Java serialization that does not depend on the class
+ * layout of the version that wrote it.
+ *
+ * <p>A file is the magic {@code JFFB}, a version byte, a table of every distinct string in the
+ * file (names, labels, tape symbols, note texts) and then the structure, with every string given as
+ * an index into the table. Numbers are unsigned LEB128 varints, zigzag encoded where they can be
+ * negative. An automaton is written column by column: all state ids, then all names, labels,
+ * coordinates and flags, then the transitions' source and target state positions and each label
+ * field as its own column, then notes. A Turing machine with building blocks writes each block's
+ * machine in place after its states.</p>
+ *
+ * <p>Files are read whole into one heap buffer through a channel, rather than mapped, so the
+ * file is not held open (and, on Windows, locked) once decoding is done. Registered in
+ * {@code Universe.CODEC_REGISTRY} after the XML codec, which stays the default format.</p>
+ */
+public class BinaryCodec extends Codec {
+  public static final String SUFFIX = ".jffb";
+
+  /** The first four bytes of every file, "JFFB". */
+  public static final int MAGIC = 0x4A464642;
+  private static final int VERSION = 1;
+
+  private static final int FSA = 1;
+  private static final int PDA = 2;
+  private static final int MEALY = 3;
+  private static final int MOORE = 4;
+  private static final int TM = 5;
+  private static final int TM_BLOCKS = 6;
+  private static final int GRAMMAR = 7;
+  private static final int REGULAR_EXPRESSION = 8;
+
+  private static final int FINAL = 1;
+  private static final int INITIAL = 2;
+  private static final int BLOCK_TRANSITION = 1;
+  private static final int CONTROL = 2;
+
+  @Override
+  public boolean accept(File file) {
+    return file.isDirectory() || file.getName().endsWith(SUFFIX);
+  }
+
+  @Override
+  public Serializable decode(File file, Map<?, ?> parameters) {
+    FileChannel channel = null;
+    try {
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new ParseException("The file is too large to read!");
+      }
+      ByteBuffer buffer = ByteBuffer.allocate((int) size);
+      while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        // A file cut short while it is read ends in a BufferUnderflowException below.
+      }
+      buffer.flip();
+      return new Reader(buffer).read();
+    } catch (IOException e) {
+      throw new ParseException("Could not open file to read!");
+    } catch (BufferUnderflowException e) {
+      throw new ParseException("The file ends before the structure does!");
+    } catch (IndexOutOfBoundsException e) {
+      throw new ParseException("The file refers to a state or string it does not have!");
+    } catch (IllegalArgumentException e) {
+      // A transition JFLAP refuses, such as a Turing move other than L, R or S.
+      throw new ParseException("The file holds a transition JFLAP cannot use: " + e.getMessage());
+    } finally {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+  }
+
+  @Override
+  public File encode(Serializable structure, File file, Map<?, ?> parameters) {
+    if (kind(structure) == 0) {
+      throw new EncodeException("No binary format available for this structure!");
+    }
+    Writer writer = new Writer();
+    writer.write(structure);
+    OutputStream out = null;
+    try {
+      out = new FileOutputStream(file);
+      writer.writeTo(out);
+      return file;
+    } catch (IOException e) {
+      throw new EncodeException("Could not open file to write!");
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+  }
+
+  @Override
+  public boolean canEncode(Serializable structure) {
+    return kind(structure) != 0;
+  }
+
+  @Override
+  public String getDescription() {
+    return "JFLAP Binary File (*.jffb)";
+  }
+
+  @Override
+  public String proposeFilename(String filename, Serializable structure) {
+    return filename.endsWith(SUFFIX) ? filename : filename + SUFFIX;
+  }
+
+  /**
+   * The kind written for {@code structure}, or 0 if this format has no room for it.
+   */
+  private static int kind(Object structure) {
+    if (structure instanceof TuringMachineBuildingBlocks) {
+      return TM_BLOCKS;
+    }
+    if (structure instanceof TuringMachine) {
+      return TM;
+    }
+    if (structure instanceof MooreMachine) {
+      return MOORE;
+    }
+    if (structure instanceof MealyMachine) {
+      return MEALY;
+    }
+    if (structure instanceof PushdownAutomaton) {
+      return PDA;
+    }
+    if (structure instanceof FiniteStateAutomaton) {
+      return FSA;
+    }
+    if (structure instanceof Grammar) {
+      return GRAMMAR;
+    }
+    if (structure instanceof RegularExpression) {
+      return REGULAR_EXPRESSION;
+    }
+    return 0;
+  }
+
+  /**
+   * Lays out one file: the body is written first while its strings are interned, then the header
+   * and string table go in front of it.
+   */
+  private static final class Writer {
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final List<String> table = new ArrayList<>();
+    private final Bytes body = new Bytes();
+
+    void write(Serializable structure) {
+      int kind = kind(structure);
+      body.writeByte(kind);
+      if (structure instanceof Automaton) {
+        writeAutomaton((Automaton) structure, kind);
+      } else if (structure instanceof Grammar) {
+        Production[] productions = ((Grammar) structure).getProductions();
+        body.writeVarint(productions.length);
+        for (int i = 0; i < productions.length; i++) {
+          writeString(productions[i].getLHS());
+        }
+        for (int i = 0; i < productions.length; i++) {
+          writeString(productions[i].getRHS());
+        }
+      } else {
+        writeString(((RegularExpression) structure).asString());
+      }
+    }
+
+    private void writeAutomaton(Automaton automaton, int kind) {
+      int tapes = 1;
+      if (automaton instanceof TuringMachine) {
+        tapes = ((TuringMachine) automaton).tapes();
+        body.writeVarint(tapes);
+      }
+
+      State[] states = automaton.getStates();
+      Map<State, Integer> positions = new HashMap<>();
+      body.writeVarint(states.length);
+      for (int i = 0; i < states.length; i++) {
+        positions.put(states[i], i);
+        body.writeVarint(states[i].getID());
+      }
+      for (int i = 0; i < states.length; i++) {
+        writeString(states[i].getName());
+      }
+      for (int i = 0; i < states.length; i++) {
+        writeString(states[i].getLabel());
+      }
+      for (int i = 0; i < states.length; i++) {
+        body.writeSigned(states[i].getPoint().x);
+      }
+      for (int i = 0; i < states.length; i++) {
+        body.writeSigned(states[i].getPoint().y);
+      }
+      State initial = automaton.getInitialState();
+      for (int i = 0; i < states.length; i++) {
+        int flags = automaton.isFinalState(states[i]) ? FINAL : 0;
+        body.writeByte(states[i] == initial ? flags | INITIAL : flags);
+      }
+      if (kind == MOORE) {
+        for (int i = 0; i < states.length; i++) {
+          writeString(((MooreMachine) automaton).getOutput(states[i]));
+        }
+      }
+      if (kind == TM_BLOCKS) {
+        for (int i = 0; i < states.length; i++) {
+          writeString(((TMState) states[i]).getInternalName());
+        }
+        for (int i = 0; i < states.length; i++) {
+          TuringMachineBuildingBlocks inner = ((TMState) states[i]).getInnerTM();
+          body.writeByte(inner == null ? 0 : 1);
+          if (inner != null) {
+            body.writeByte(TM_BLOCKS);
+            writeAutomaton(inner, TM_BLOCKS);
+          }
+        }
+      }
+
+      Transition[] transitions = automaton.getTransitions();
+      body.writeVarint(transitions.length);
+      for (int i = 0; i < transitions.length; i++) {
+        body.writeVarint(positions.get(transitions[i].getFromState()));
+      }
+      for (int i = 0; i < transitions.length; i++) {
+        body.writeVarint(positions.get(transitions[i].getToState()));
+      }
+      switch (kind) {
+        case FSA:
+          for (int i = 0; i < transitions.length; i++) {
+            writeString(((FSATransition) transitions[i]).getLabel());
+          }
+          break;
+        case PDA:
+          for (int i = 0; i < transitions.length; i++) {
+            writeString(((PDATransition) transitions[i]).getInputToRead());
+          }
+          for (int i = 0; i < transitions.length; i++) {
+            writeString(((PDATransition) transitions[i]).getStringToPop());
+          }
+          for (int i = 0; i < transitions.length; i++) {
+            writeString(((PDATransition) transitions[i]).getStringToPush());
+          }
+          break;
+        case MEALY:
+        case MOORE:
+          for (int i = 0; i < transitions.length; i++) {
+            writeString(((MealyTransition) transitions[i]).getLabel());
+          }
+          if (kind == MEALY) {
+            for (int i = 0; i < transitions.length; i++) {
+              writeString(((MealyTransition) transitions[i]).getOutput());
+            }
+          }
+          break;
+        default:
+          for (int tape = 0; tape < tapes; tape++) {
+            for (int i = 0; i < transitions.length; i++) {
+              writeString(((TMTransition) transitions[i]).getRead(tape));
+            }
+            for (int i = 0; i < transitions.length; i++) {
+              writeString(((TMTransition) transitions[i]).getWrite(tape));
+            }
+            for (int i = 0; i < transitions.length; i++) {
+              writeString(((TMTransition) transitions[i]).getDirection(tape));
+            }
+          }
+          break;
+      }
+      for (int i = 0; i < transitions.length; i++) {
+        int flags = transitions[i].getControl() != null ? CONTROL : 0;
+        if (transitions[i] instanceof TMTransition && ((TMTransition) transitions[i]).isBlockTransition()) {
+          flags |= BLOCK_TRANSITION;
+        }
+        body.writeByte(flags);
+      }
+      for (int i = 0; i < transitions.length; i++) {
+        Point control = transitions[i].getControl();
+        if (control != null) {
+          body.writeSigned(control.x);
+          body.writeSigned(control.y);
+        }
+      }
+
+      List<Note> notes = automaton.getNotes();
+      body.writeVarint(notes.size());
+      for (int i = 0; i < notes.size(); i++) {
+        Note note = notes.get(i);
+        writeString(note.getText());
+        body.writeSigned(note.getLocation().x);
+        body.writeSigned(note.getLocation().y);
+      }
+    }
+
+    /**
+     * Writes {@code value} as its position in the string table plus one, or 0 for {@code null}.
+     */
+    private void writeString(String value) {
+      if (value == null) {
+        body.writeVarint(0);
+        return;
+      }
+      Integer index = strings.get(value);
+      if (index == null) {
+        index = table.size();
+        strings.put(value, index);
+        table.add(value);
+      }
+      body.writeVarint(index + 1);
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+      Bytes head = new Bytes();
+      head.writeByte(MAGIC >>> 24);
+      head.writeByte(MAGIC >>> 16);
+      head.writeByte(MAGIC >>> 8);
+      head.writeByte(MAGIC);
+      head.writeByte(VERSION);
+      head.writeVarint(table.size());
+      for (String value : table) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        head.writeVarint(bytes.length);
+        head.write(bytes);
+      }
+      out.write(head.bytes, 0, head.size);
+      out.write(body.bytes, 0, body.size);
+    }
+  }
+
+  /**
+   * A growable byte array with varint writes.
+   */
+  private static final class Bytes {
+    byte[] bytes = new byte[256];
+    int size;
+
+    void writeByte(int value) {
+      if (size == bytes.length) {
+        bytes = Arrays.copyOf(bytes, size * 2);
+      }
+      bytes[size++] = (byte) value;
+    }
+
+    void writeVarint(int value) {
+      while ((value & ~0x7F) != 0) {
+        writeByte((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      writeByte(value);
+    }
+
+    void writeSigned(int value) {
+      writeVarint((value << 1) ^ (value >> 31));
+    }
+
+    void write(byte[] values) {
+      if (size + values.length > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + values.length));
+      }
+      System.arraycopy(values, 0, bytes, size, values.length);
+      size += values.length;
+    }
+  }
+
+  /**
+   * Reads one file straight from the mapped buffer.
+   */
+  private static final class Reader {
+    private final ByteBuffer in;
+    private String[] table;
+    /** Reused for each string's UTF-8 bytes. */
+    private byte[] scratch = new byte[64];
+
+    Reader(ByteBuffer in) {
+      this.in = in;
+    }
+
+    Serializable read() {
+      if (in.remaining() < 5 || in.getInt() != MAGIC) {
+        throw new ParseException("This is not a JFLAP binary file!");
+      }
+      int version = in.get() & 0xFF;
+      if (version > VERSION) {
+        throw new ParseException("This file was written by a newer version of JFLAP (format " + version + ")!");
+      }
+      table = new String[readCount()];
+      for (int i = 0; i < table.length; i++) {
+        int length = readCount();
+        if (scratch.length < length) {
+          scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        in.get(scratch, 0, length);
+        table[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+      }
+
+      int kind = in.get();
+      switch (kind) {
+        case GRAMMAR:
+          Grammar grammar = new UnboundGrammar();
+          String[] left = new String[readCount()];
+          for (int i = 0; i < left.length; i++) {
+            left[i] = readString();
+          }
+          for (int i = 0; i < left.length; i++) {
+            String right = readString();
+            grammar.addProduction(new Production(left[i] == null ? "" : left[i], right == null ? "" : right));
+          }
+          return grammar;
+        case REGULAR_EXPRESSION:
+          String expression = readString();
+          return new RegularExpression(expression == null ? "" : expression);
+        default:
+          return readAutomaton(kind);
+      }
+    }
+
+    private Automaton readAutomaton(int kind) {
+      Automaton automaton;
+      int tapes = 1;
+      switch (kind) {
+        case FSA:
+          automaton = new FiniteStateAutomaton();
+          break;
+        case PDA:
+          automaton = new PushdownAutomaton();
+          break;
+        case MEALY:
+          automaton = new MealyMachine();
+          break;
+        case MOORE:
+          automaton = new MooreMachine();
+          break;
+        case TM:
+          tapes = readVarint();
+          automaton = new TuringMachine(tapes);
+          break;
+        case TM_BLOCKS:
+          tapes = readVarint();
+          automaton = new TuringMachineBuildingBlocks(tapes);
+          break;
+        default:
+          throw new ParseException("Unknown structure kind " + kind + " in binary file!");
+      }
+
+      int count = readCount();
+      int[] ids = new int[count];
+      for (int i = 0; i < count; i++) {
+        ids[i] = readVarint();
+      }
+      String[] names = new String[count];
+      for (int i = 0; i < count; i++) {
+        names[i] = readString();
+      }
+      String[] labels = new String[count];
+      for (int i = 0; i < count; i++) {
+        labels[i] = readString();
+      }
+      int[] xs = new int[count];
+      for (int i = 0; i < count; i++) {
+        xs[i] = readSigned();
+      }
+      int[] ys = new int[count];
+      for (int i = 0; i < count; i++) {
+        ys[i] = readSigned();
+      }
+      byte[] flags = new byte[count];
+      in.get(flags);
+      String[] outputs = null;
+      if (kind == MOORE) {
+        outputs = new String[count];
+        for (int i = 0; i < count; i++) {
+          outputs[i] = readString();
+        }
+      }
+
+      State[] states = new State[count];
+      if (kind == TM_BLOCKS) {
+        String[] tags = new String[count];
+        for (int i = 0; i < count; i++) {
+          tags[i] = readString();
+        }
+        TuringMachineBuildingBlocks blocks = (TuringMachineBuildingBlocks) automaton;
+        for (int i = 0; i < count; i++) {
+          Point point = new Point(xs[i], ys[i]);
+          if (in.get() != 0) {
+            if (in.get() != TM_BLOCKS) {
+              throw new ParseException("A building block in the binary file is not a Turing machine!");
+            }
+            Automaton inner = readAutomaton(TM_BLOCKS);
+            states[i] = blocks.createInnerTM(point, inner, tags[i], ids[i]);
+          } else {
+            states[i] = blocks.createTMStateWithID(point, ids[i]);
+          }
+        }
+      } else {
+        for (int i = 0; i < count; i++) {
+          Point point = new Point(xs[i], ys[i]);
+          states[i] = automaton instanceof TuringMachine
+            ? ((TuringMachine) automaton).createTMStateWithID(point, ids[i])
+            : automaton.createStateWithId(point, ids[i]);
+        }
+      }
+      for (int i = 0; i < count; i++) {
+        states[i].setName(names[i]);
+        states[i].setLabel(labels[i]);
+        if ((flags[i] & FINAL) != 0) {
+          automaton.addFinalState(states[i]);
+        }
+        if ((flags[i] & INITIAL) != 0) {
+          automaton.setInitialState(states[i]);
+        }
+        if (outputs != null) {
+          ((MooreMachine) automaton).setOutput(states[i], outputs[i]);
+        }
+      }
+
+      int transitions = readCount();
+      State[] from = new State[transitions];
+      for (int i = 0; i < transitions; i++) {
+        from[i] = states[readVarint()];
+      }
+      State[] to = new State[transitions];
+      for (int i = 0; i < transitions; i++) {
+        to[i] = states[readVarint()];
+      }
+      Transition[] built = new Transition[transitions];
+      switch (kind) {
+        case FSA: {
+          String[] label = readStrings(transitions);
+          for (int i = 0; i < transitions; i++) {
+            built[i] = new FSATransition(from[i], to[i], label[i]);
+          }
+          break;
+        }
+        case PDA: {
+          String[] read = readStrings(transitions);
+          String[] pop = readStrings(transitions);
+          String[] push = readStrings(transitions);
+          for (int i = 0; i < transitions; i++) {
+            built[i] = new PDATransition(from[i], to[i], read[i], pop[i], push[i]);
+          }
+          break;
+        }
+        case MEALY: {
+          String[] label = readStrings(transitions);
+          String[] output = readStrings(transitions);
+          for (int i = 0; i < transitions; i++) {
+            built[i] = new MealyTransition(from[i], to[i], label[i], output[i]);
+          }
+          break;
+        }
+        case MOORE: {
+          String[] label = readStrings(transitions);
+          for (int i = 0; i < transitions; i++) {
+            built[i] = new MooreTransition(from[i], to[i], label[i]);
+          }
+          break;
+        }
+        default: {
+          String[][] read = new String[transitions][tapes];
+          String[][] write = new String[transitions][tapes];
+          String[][] move = new String[transitions][tapes];
+          for (int tape = 0; tape < tapes; tape++) {
+            for (int i = 0; i < transitions; i++) {
+              read[i][tape] = readRequiredString();
+            }
+            for (int i = 0; i < transitions; i++) {
+              write[i][tape] = readRequiredString();
+            }
+            for (int i = 0; i < transitions; i++) {
+              move[i][tape] = readRequiredString();
+            }
+          }
+          for (int i = 0; i < transitions; i++) {
+            built[i] = new TMTransition(from[i], to[i], read[i], write[i], move[i]);
+          }
+          break;
+        }
+      }
+      byte[] transitionFlags = new byte[transitions];
+      in.get(transitionFlags);
+      for (int i = 0; i < transitions; i++) {
+        if ((transitionFlags[i] & BLOCK_TRANSITION) != 0 && built[i] instanceof TMTransition) {
+          ((TMTransition) built[i]).setBlockTransition(true);
+        }
+        automaton.addTransition(built[i]);
+      }
+      for (int i = 0; i < transitions; i++) {
+        if ((transitionFlags[i] & CONTROL) != 0) {
+          built[i].setControl(new Point(readSigned(), readSigned()));
+        } else {
+          built[i].setControl(null);
+        }
+      }
+
+      int notes = readCount();
+      for (int i = 0; i < notes; i++) {
+        String text = readRequiredString();
+        automaton.addNote(new Note(new Point(readSigned(), readSigned()), text));
+      }
+      return automaton;
+    }
+
+    private String[] readStrings(int count) {
+      String[] values = new String[count];
+      for (int i = 0; i < count; i++) {
+        values[i] = readRequiredString();
+      }
+      return values;
+    }
+
+    private String readString() {
+      int index = readVarint();
+      return index == 0 ? null : table[index - 1];
+    }
+
+    /**
+     * Reads a string that is never written as {@code null}: a transition's fields and a note's
+     * text, which JFLAP would fail on later.
+     */
+    private String readRequiredString() {
+      String value = readString();
+      if (value == null) {
+        throw new ParseException("The file leaves out a string it needs!");
+      }
+      return value;
+    }
+
+    private int readVarint() {
+      int value = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        int b = in.get();
+        value |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new ParseException("A number in the binary file is too long!");
+    }
+
+    /**
+     * Reads a length, which cannot be more than the bytes left in the file.
+     */
+    private int readCount() {
+      int count = readVarint();
+      if (count < 0 || count > in.remaining()) {
+        throw new ParseException("The file ends before the structure does!");
+      }
+      return count;
+    }
+
+    private int readSigned() {
+      int value = readVarint();
+      return (value >>> 1) ^ -(value & 1);
+    }
+  }
+}
@@ -0,0 +1,944 @@
+package file.xml;
+
+import automata.Automaton;
+import automata.Note;
+import automata.State;
+import automata.Transition;
+import automata.graph.AutomatonGraph;
+import automata.graph.LayoutAlgorithm;
+import automata.graph.layout.GEMLayoutAlgorithm;
+import automata.mealy.MooreMachine;
+import automata.turing.TMState;
+import automata.turing.TuringMachine;
+import automata.turing.TuringMachineBuildingBlocks;
+import file.DataException;
+import file.EncodeException;
+import file.ParseException;
+import grammar.Grammar;
+import grammar.Production;
+import grammar.UnboundGrammar;
+import gui.action.OpenAction;
+import gui.pumping.PumpingLemmaChooser;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import regular.RegularExpression;
+
+import javax.swing.SwingUtilities;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Streaming reader and writer for the {@code .jff} files of finite automata, pushdown automata,
+ * Turing machines (with or without building blocks), Mealy and Moore machines, grammars and
+ * regular expressions.
+ *
+ * <p>{@code XMLCodec} parses a whole file into a DOM before a transducer walks it, and on save
+ * builds a DOM, re-walks it in {@code DOMPrettier} and serializes it, so a machine costs several
+ * times its file size in nodes on the way in and out. It is patched at build time (see
+ * {@code tools-src/patch/XMLCodecPatcher.java}) to come here first:</p>
+ * <ul>
+ *   <li>reading pulls events from an {@link XMLStreamReader}. States are kept as small records
+ *   until the first transition and then created in id order, as the transducers do; every
+ *   transition after that is added to the automaton as soon as it is read;</li>
+ *   <li>writing has the transducer build one state or transition element at a time and streams it
+ *   through an {@link XMLStreamWriter} with {@code DOMPrettier}'s layout, so saved files are the
+ *   same as before.</li>
+ * </ul>
+ *
+ * <p>A building block names a machine that is defined further down the file, so files with blocks
+ * are read into records and built at the end. Pumping lemmas, L-systems and files out of the usual
+ * order (anything before the {@code type} tag, or a {@code block} or {@code tapes} tag after the
+ * first transition) are left to the DOM path, as is a plain {@code turing} file read off the event
+ * thread, since JFLAP asks which kind of Turing machine to open it as. Disable with
+ * {@code -Djflap.streamingXml=false}.</p>
+ */
+public final class StreamingCodec {
+  private static final String ENABLED_PROPERTY = "jflap.streamingXml";
+  private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+  private static final Set<String> AUTOMATON_TYPES =
+    new HashSet<>(Arrays.asList("fa", "pda", "turing", "turingbb", "mealy", "moore"));
+  /** Thrown to hand a file to the DOM path. */
+  private static final Unsupported UNSUPPORTED = new Unsupported();
+
+  // Files are decoded in parallel, and StAX factories are not promised to be thread safe.
+  private static final ThreadLocal<XMLInputFactory> INPUT = new ThreadLocal<XMLInputFactory>() {
+    @Override
+    protected XMLInputFactory initialValue() {
+      return XMLInputFactory.newInstance();
+    }
+  };
+  private static final ThreadLocal<XMLOutputFactory> OUTPUT = new ThreadLocal<XMLOutputFactory>() {
+    @Override
+    protected XMLOutputFactory initialValue() {
+      return XMLOutputFactory.newInstance();
+    }
+  };
+  private static final ThreadLocal<DocumentBuilder> BUILDER = new ThreadLocal<DocumentBuilder>() {
+    @Override
+    protected DocumentBuilder initialValue() {
+      try {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder();
+      } catch (ParserConfigurationException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  };
+
+  private StreamingCodec() {
+  }
+
+  public static boolean isEnabled() {
+    return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+  }
+
+  /**
+   * Replaces the body of {@code XMLCodec.decode}: returns what {@code file} holds, or {@code null}
+   * if only the DOM path can read it.
+   */
+  public static Serializable decode(File file) {
+    return decode(file, false);
+  }
+
+  /**
+   * Like {@link #decode(File)}; with {@code plainTuring}, a Turing machine file with neither a
+   * {@code tapes} nor a {@code block} tag opens as a standard Turing machine instead of asking which
+   * kind it is.
+   */
+  public static Serializable decode(File file, boolean plainTuring) {
+    return decode(file, plainTuring, false);
+  }
+
+  /**
+   * Like {@link #decode(File, boolean)}, but also returns {@code null} for a Turing machine file
+   * with neither a {@code tapes} nor a {@code block} tag unless {@code plainTuring} is set: which
+   * kind of machine such a file opens as depends on how it is opened, not only on what it holds.
+   */
+  public static Serializable decodeUnambiguous(File file, boolean plainTuring) {
+    return decode(file, plainTuring, true);
+  }
+
+  private static Serializable decode(File file, boolean plainTuring, boolean unambiguous) {
+    if (!isEnabled()) {
+      return null;
+    }
+    InputStream in = null;
+    XMLStreamReader reader = null;
+    try {
+      in = new BufferedInputStream(new FileInputStream(file));
+      reader = INPUT.get().createXMLStreamReader(file.toURI().toString(), in);
+      return new Reading(reader, plainTuring, unambiguous).read();
+    } catch (Unsupported e) {
+      return null;
+    } catch (IOException e) {
+      throw new ParseException("Could not open file to read!");
+    } catch (XMLStreamException e) {
+      throw new ParseException("Could not parse XML!\n" + e.getMessage());
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (XMLStreamException ignored) {
+        }
+      }
+      close(in);
+    }
+  }
+
+  /**
+   * Replaces the body of {@code XMLCodec.encode}: writes {@code structure} to {@code file} and
+   * returns {@code true}, or returns {@code false} if only the DOM path can write it.
+   */
+  public static boolean encode(Serializable structure, File file) {
+    if (!isEnabled() || structure instanceof PumpingLemmaChooser) {
+      return false;
+    }
+    Transducer transducer;
+    try {
+      transducer = TransducerFactory.getTransducer(structure);
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    if (!(transducer instanceof AutomatonTransducer || transducer instanceof GrammarTransducer
+      || transducer instanceof RETransducer)) {
+      return false;
+    }
+
+    OutputStream out = null;
+    try {
+      out = new BufferedOutputStream(new FileOutputStream(file));
+      Writer text = new OutputStreamWriter(out, "UTF-8");
+      // XMLStreamWriter has no standalone="no"; the declaration is written as the Transformer does.
+      text.write(DECLARATION);
+      XMLStreamWriter writer = OUTPUT.get().createXMLStreamWriter(text);
+      new Writing(writer, transducer).write(structure);
+      writer.close();
+      text.flush();
+      return true;
+    } catch (Unsupported e) {
+      // The DOM path writes the file over again.
+      return false;
+    } catch (IOException e) {
+      throw new EncodeException("Could not open file to write!");
+    } catch (XMLStreamException e) {
+      throw new EncodeException("Could not open file to write!");
+    } finally {
+      close(out);
+    }
+  }
+
+  private static void close(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  /**
+   * Reads one file. Mirrors {@code TransducerFactory.getTransducer(Document)} and
+   * {@code AutomatonTransducer.fromDOM}, with the same defaults and error messages.
+   */
+  private static final class Reading {
+    private final XMLStreamReader in;
+    private final boolean plainTuring;
+    private final boolean unambiguous;
+
+    private String rootName;
+    private String type;
+    /** The last {@code tapes} tag directly under the root, as {@code TMTransducer} reads it. */
+    private String tapes;
+    private boolean sawTapes;
+    private boolean sawBlock;
+    /** Set once the transducer is picked; a {@code block} or {@code tapes} tag after that could change it. */
+    private boolean committed;
+
+    /** Elements that a block's {@code tag} may name, by element name; the first one wins. */
+    private final Map<String, Content> definitions = new HashMap<>();
+    /** States and transitions directly under the root, for files without an {@code automaton} tag. */
+    private final Content loose = new Content();
+    private Content main;
+
+    private Document skeleton;
+    private AutomatonTransducer transducer;
+    /** The main automaton, once transitions are added to it as they are read. */
+    private Automaton automaton;
+    private Set<Object> placed;
+
+    Reading(XMLStreamReader in, boolean plainTuring, boolean unambiguous) {
+      this.in = in;
+      this.plainTuring = plainTuring;
+      this.unambiguous = unambiguous;
+    }
+
+    Serializable read() throws XMLStreamException {
+      int event = in.next();
+      while (event != XMLStreamConstants.START_ELEMENT) {
+        event = in.next();
+      }
+      rootName = name();
+      // Everything is decided by the type, so it has to come first.
+      if (nextElement() != XMLStreamConstants.START_ELEMENT || !"type".equals(name())) {
+        throw UNSUPPORTED;
+      }
+      type = read(false).text;
+      if (type == null) {
+        type = "";
+      }
+
+      Serializable result;
+      if ("grammar".equals(type)) {
+        committed = true;
+        Grammar grammar = new UnboundGrammar();
+        readProductions(grammar);
+        result = grammar;
+      } else if ("re".equals(type)) {
+        committed = true;
+        result = readExpression();
+      } else if (AUTOMATON_TYPES.contains(type)) {
+        result = readAutomaton();
+      } else {
+        throw UNSUPPORTED;
+      }
+      // Let the parser report anything malformed after the root, as the DOM path would.
+      while (in.hasNext()) {
+        in.next();
+      }
+      return result;
+    }
+
+    private Serializable readAutomaton() throws XMLStreamException {
+      for (int event = next(); event != XMLStreamConstants.END_ELEMENT; event = next()) {
+        if (event != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        String name = name();
+        if ("automaton".equals(name) && main == null) {
+          main = new Content();
+          readContent(main, true);
+        } else if ("tapes".equals(name)) {
+          tapes = read(false).text;
+        } else {
+          readItem(loose, name, false);
+        }
+      }
+      if (automaton != null) {
+        return automaton;
+      }
+      transducer = transducer();
+      return build(main == null ? loose : main);
+    }
+
+    /**
+     * Reads the children of the current element as the content of an automaton.
+     */
+    private void readContent(Content content, boolean isMain) throws XMLStreamException {
+      for (int event = next(); event != XMLStreamConstants.END_ELEMENT; event = next()) {
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          readItem(content, name(), isMain);
+        }
+      }
+      if (isMain && automaton != null) {
+        addNotes(automaton, content.notes);
+        layout(automaton, placed);
+      }
+    }
+
+    private void readItem(Content content, String name, boolean isMain) throws XMLStreamException {
+      if ("state".equals(name) || "block".equals(name)) {
+        if (isMain && automaton != null) {
+          // A state after the first transition: the states are already created in id order.
+          throw UNSUPPORTED;
+        }
+        ("state".equals(name) ? content.states : content.blocks).add(read(true));
+      } else if ("transition".equals(name)) {
+        Item transition = read(true);
+        if (isMain && automaton == null && !sawBlock) {
+          begin(content);
+        }
+        if (isMain && automaton != null) {
+          addTransition(automaton, transition);
+        } else {
+          content.transitions.add(transition);
+        }
+      } else if ("note".equals(name)) {
+        content.notes.add(read(true));
+      } else {
+        // The machine of a building block, or something the transducers ignore.
+        Content inner = new Content();
+        if (!definitions.containsKey(name)) {
+          definitions.put(name, inner);
+        }
+        readContent(inner, false);
+      }
+    }
+
+    /**
+     * Picks the transducer and creates the main automaton's states, so the transitions that follow
+     * go straight into it.
+     */
+    private void begin(Content content) {
+      transducer = transducer();
+      automaton = transducer.createEmptyAutomaton(skeleton);
+      placed = new HashSet<>();
+      createStates(automaton, content.states, placed);
+      content.states.clear();
+    }
+
+    private Automaton build(Content content) {
+      Automaton built = transducer.createEmptyAutomaton(skeleton);
+      Set<Object> fixed = new HashSet<>();
+      createStates(built, content.blocks, fixed);
+      createStates(built, content.states, fixed);
+      for (Item transition : content.transitions) {
+        addTransition(built, transition);
+      }
+      addNotes(built, content.notes);
+      layout(built, fixed);
+      return built;
+    }
+
+    /**
+     * Asks {@code TransducerFactory} with a document holding only the tags it looks at.
+     */
+    private AutomatonTransducer transducer() {
+      committed = true;
+      skeleton = BUILDER.get().newDocument();
+      Element root = skeleton.createElement(rootName);
+      skeleton.appendChild(root);
+      root.appendChild(AbstractTransducer.createElement(skeleton, "type", null, type));
+      if (sawTapes) {
+        root.appendChild(AbstractTransducer.createElement(skeleton, "tapes", null, tapes));
+      }
+      if (sawBlock) {
+        root.appendChild(AbstractTransducer.createElement(skeleton, "block", null, null));
+      }
+      boolean plain = "turing".equals(type.trim()) && !sawTapes && !sawBlock;
+      if (plain && !plainTuring && "turing".equals(type)
+        && (unambiguous || !OpenAction.openOrRead && !SwingUtilities.isEventDispatchThread())) {
+        // TransducerFactory would ask which kind of Turing machine this is; only the event thread may ask.
+        throw UNSUPPORTED;
+      }
+      Transducer picked = plain && plainTuring ? new TMTransducer() : TransducerFactory.getTransducer(skeleton);
+      if (!(picked instanceof AutomatonTransducer)) {
+        throw UNSUPPORTED;
+      }
+      return (AutomatonTransducer) picked;
+    }
+
+    /**
+     * {@code AutomatonTransducer.createState}: states are created in id order, those without
+     * coordinates are left for {@link #layout}.
+     */
+    private void createStates(Automaton target, List<Item> items, Set<Object> fixed) {
+      Map<Integer, Item> byId = new TreeMap<>();
+      for (Item item : items) {
+        Integer id = AutomatonTransducer.parseID(item.attribute("id"));
+        if (byId.put(id, item) != null) {
+          throw new DataException("The state ID " + id + " appears twice!");
+        }
+      }
+      for (Map.Entry<Integer, Item> entry : byId.entrySet()) {
+        int id = entry.getKey();
+        Item item = entry.getValue();
+        Map<String, String> texts = item.texts();
+        Double x = coordinate(texts, "x", "state " + id);
+        Double y = coordinate(texts, "y", "state " + id);
+        Point point = new Point();
+        point.setLocation(x == null ? 0 : x, y == null ? 0 : y);
+
+        State state;
+        if (!(target instanceof TuringMachine)) {
+          state = target.createStateWithId(point, id);
+        } else if (texts.get("tag") != null) {
+          String tag = texts.get("tag");
+          Content definition = definitions.get(tag);
+          Automaton inner = definition == null ? transducer.createEmptyAutomaton(skeleton) : build(definition);
+          state = ((TuringMachine) target).createInnerTM(point, inner, tag, id);
+        } else {
+          state = ((TuringMachine) target).createTMStateWithID(point, id);
+        }
+        if (x != null && y != null) {
+          fixed.add(state);
+        }
+
+        String name = item.attribute("name");
+        state.setName(name.isEmpty() ? "q" + id : name);
+        if (texts.containsKey("name")) {
+          state.setName(texts.get("name"));
+        }
+        if (texts.containsKey("label")) {
+          state.setLabel(texts.get("label"));
+        }
+        if (texts.containsKey("final")) {
+          target.addFinalState(state);
+        }
+        if (texts.containsKey("initial")) {
+          target.setInitialState(state);
+        }
+        if (target instanceof MooreMachine && texts.containsKey("output")) {
+          ((MooreMachine) target).setOutput(state, texts.get("output"));
+        }
+      }
+    }
+
+    /**
+     * {@code AutomatonTransducer.readTransitions}, for one transition.
+     */
+    private void addTransition(Automaton target, Item item) {
+      Map<String, String> texts = item.texts();
+      State from = endpoint(target, texts.get("from"), "from");
+      State to = endpoint(target, texts.get("to"), "to");
+      // Only the Turing machine transducers read the element itself, for the tape attributes.
+      Element element = target instanceof TuringMachine ? item.toElement(skeleton) : null;
+      Transition transition =
+        transducer.createTransition(from, to, element, texts, "true".equals(item.attribute("block")));
+      target.addTransition(transition);
+
+      String controlX = texts.get("controlx");
+      String controlY = texts.get("controly");
+      if (controlX != null && controlY != null) {
+        transition.setControl(new Point(Integer.parseInt(controlX), Integer.parseInt(controlY)));
+      } else {
+        transition.setControl(null);
+      }
+    }
+
+    private static State endpoint(Automaton target, String id, String end) {
+      if (id == null) {
+        throw new DataException("A transition has no " + end + " state!");
+      }
+      int parsed = AutomatonTransducer.parseID(id);
+      State state = target.getStateWithID(parsed);
+      if (state == null) {
+        throw new DataException("A transition is defined " + end + " non-existent state " + parsed + "!");
+      }
+      return state;
+    }
+
+    private static void addNotes(Automaton target, List<Item> items) {
+      for (Item item : items) {
+        Map<String, String> texts = item.texts();
+        String text = texts.get("text");
+        if (text == null) {
+          continue;
+        }
+        Double x = coordinate(texts, "x", "the note with text " + text);
+        Double y = coordinate(texts, "y", "the note with text " + text);
+        Point point = new Point();
+        point.setLocation(x == null ? 0 : x, y == null ? 0 : y);
+        target.addNote(new Note(point, text));
+      }
+    }
+
+    /**
+     * The coordinate in {@code texts}, or {@code null} if it is missing.
+     */
+    private static Double coordinate(Map<String, String> texts, String axis, String owner) {
+      String value = texts.get(axis);
+      if (value == null) {
+        return null;
+      }
+      try {
+        return Double.parseDouble(value);
+      } catch (NumberFormatException e) {
+        throw new DataException("The " + axis + " coordinate " + value + " could not be read for " + owner + ".");
+      }
+    }
+
+    /**
+     * {@code AutomatonTransducer.performLayout}: places the states that had no coordinates.
+     */
+    private static void layout(Automaton target, Set<Object> fixed) {
+      if (fixed.size() == target.getStates().length) {
+        return;
+      }
+      AutomatonGraph graph = new AutomatonGraph(target);
+      LayoutAlgorithm algorithm = new GEMLayoutAlgorithm();
+      for (int i = 0; i < 3; i++) {
+        algorithm.layout(graph, fixed);
+      }
+      if (fixed.size() < 2) {
+        graph.moveWithinFrame(new Rectangle(20, 20, 425, 260));
+      }
+      graph.moveAutomatonStates();
+    }
+
+    /**
+     * {@code GrammarTransducer.fromDOM}: every {@code production} tag in the file, in order.
+     */
+    private void readProductions(Grammar grammar) throws XMLStreamException {
+      for (int event = next(); event != XMLStreamConstants.END_ELEMENT; event = next()) {
+        if (event != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        if ("production".equals(name())) {
+          Map<String, String> texts = read(true).texts();
+          String left = texts.get("left");
+          String right = texts.get("right");
+          grammar.addProduction(new Production(left == null ? "" : left, right == null ? "" : right));
+        } else {
+          readProductions(grammar);
+        }
+      }
+    }
+
+    /**
+     * {@code RETransducer.fromDOM}.
+     */
+    private RegularExpression readExpression() throws XMLStreamException {
+      boolean tagged = false;
+      String expression = null;
+      for (int event = next(); event != XMLStreamConstants.END_ELEMENT; event = next()) {
+        if (event != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        boolean isExpression = "expression".equals(name());
+        Item item = read(false);
+        if (isExpression) {
+          tagged = true;
+          expression = item.text;
+        }
+      }
+      if (expression == null) {
+        if (tagged) {
+          throw new ParseException("Regular expression structure has no expression tag!");
+        }
+        expression = "";
+      }
+      return new RegularExpression(expression);
+    }
+
+    /**
+     * Reads the current element up to its end tag: its attributes, its first run of text (as
+     * {@code AbstractTransducer.containedText} takes the first text node) and, with
+     * {@code children}, the same for each child element.
+     */
+    private Item read(boolean children) throws XMLStreamException {
+      int count = in.getAttributeCount();
+      String[] attributes = new String[2 * count];
+      for (int i = 0; i < count; i++) {
+        String prefix = in.getAttributePrefix(i);
+        String local = in.getAttributeLocalName(i);
+        attributes[2 * i] = prefix == null || prefix.isEmpty() ? local : prefix + ":" + local;
+        attributes[2 * i + 1] = in.getAttributeValue(i);
+      }
+      Item item = new Item(name(), attributes);
+      String text = null;
+      boolean textEnded = false;
+      for (int event = next(); event != XMLStreamConstants.END_ELEMENT; event = next()) {
+        switch (event) {
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.SPACE:
+            if (!textEnded) {
+              text = text == null ? in.getText() : text + in.getText();
+            }
+            break;
+          case XMLStreamConstants.START_ELEMENT:
+            textEnded |= text != null;
+            Item child = read(false);
+            if (children) {
+              item.children.add(child);
+            }
+            break;
+          default:
+            // Comments and CDATA sections are separate DOM nodes, which end the first text node.
+            textEnded |= text != null;
+            break;
+        }
+      }
+      item.text = text;
+      return item;
+    }
+
+    /**
+     * The next event, noting the {@code block} and {@code tapes} tags that
+     * {@code TransducerFactory} looks for anywhere in the file.
+     */
+    private int next() throws XMLStreamException {
+      int event = in.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        String local = in.getLocalName();
+        boolean block = "block".equals(local);
+        if (block || "tapes".equals(local)) {
+          if (committed) {
+            throw UNSUPPORTED;
+          }
+          sawBlock |= block;
+          sawTapes |= !block;
+        }
+      }
+      return event;
+    }
+
+    private int nextElement() throws XMLStreamException {
+      int event = next();
+      while (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) {
+        event = next();
+      }
+      return event;
+    }
+
+    private String name() {
+      String prefix = in.getPrefix();
+      return prefix == null || prefix.isEmpty() ? in.getLocalName() : prefix + ":" + in.getLocalName();
+    }
+  }
+
+  /**
+   * The direct children of an automaton element, before they are built.
+   */
+  private static final class Content {
+    final List<Item> states = new ArrayList<>();
+    final List<Item> blocks = new ArrayList<>();
+    final List<Item> transitions = new ArrayList<>();
+    final List<Item> notes = new ArrayList<>();
+  }
+
+  /**
+   * An element read off the stream: its attributes, first text and child elements.
+   */
+  private static final class Item {
+    final String name;
+    /** Name, value pairs. */
+    final String[] attributes;
+    final List<Item> children = new ArrayList<>(4);
+    String text;
+
+    Item(String name, String[] attributes) {
+      this.name = name;
+      this.attributes = attributes;
+    }
+
+    /** Like {@code Element.getAttribute}, the empty string if there is none. */
+    String attribute(String attribute) {
+      for (int i = 0; i < attributes.length; i += 2) {
+        if (attributes[i].equals(attribute)) {
+          return attributes[i + 1];
+        }
+      }
+      return "";
+    }
+
+    /** {@code AbstractTransducer.elementsToText}: each child's text by name, the last one winning. */
+    Map<String, String> texts() {
+      Map<String, String> texts = new HashMap<>();
+      for (Item child : children) {
+        texts.put(child.name, child.text);
+      }
+      return texts;
+    }
+
+    Element toElement(Document document) {
+      Element element = document.createElement(name);
+      for (int i = 0; i < attributes.length; i += 2) {
+        element.setAttribute(attributes[i], attributes[i + 1]);
+      }
+      if (text != null) {
+        element.appendChild(document.createTextNode(text));
+      }
+      for (Item child : children) {
+        element.appendChild(child.toElement(document));
+      }
+      return element;
+    }
+  }
+
+  /**
+   * Writes one structure. Mirrors the transducers' {@code toDOM} followed by
+   * {@code DOMPrettier.makePretty} and the default {@code Transformer}.
+   */
+  private static final class Writing {
+    private static final String LINE = System.getProperty("line.separator");
+
+    private final XMLStreamWriter out;
+    private final Transducer transducer;
+    /** Owns the elements the transducers build; each is dropped once written. */
+    private final Document scratch = BUILDER.get().newDocument();
+
+    Writing(XMLStreamWriter out, Transducer transducer) {
+      this.out = out;
+      this.transducer = transducer;
+    }
+
+    void write(Serializable structure) throws XMLStreamException {
+      out.writeComment("Created with JFLAP 7.1.");
+      out.writeStartElement("structure");
+      indent(1);
+      write(AbstractTransducer.createElement(scratch, "type", null, transducer.getType()), 1);
+      if (structure instanceof Automaton) {
+        Automaton automaton = (Automaton) structure;
+        if (automaton instanceof TuringMachine && ((TuringMachine) automaton).tapes() > 1) {
+          indent(1);
+          write(AbstractTransducer.createElement(scratch, "tapes", null, "" + ((TuringMachine) automaton).tapes()), 1);
+        }
+        indent(1);
+        writeAutomaton("automaton", automaton, 1);
+      } else if (structure instanceof Grammar) {
+        Production[] productions = ((Grammar) structure).getProductions();
+        if (productions.length > 0) {
+          indent(1);
+          out.writeComment("The list of productions.");
+        }
+        for (int i = 0; i < productions.length; i++) {
+          indent(1);
+          write(GrammarTransducer.createProductionElement(scratch, productions[i]), 1);
+        }
+      } else {
+        indent(1);
+        out.writeComment("The regular expression.");
+        indent(1);
+        String expression = ((RegularExpression) structure).asString();
+        write(AbstractTransducer.createElement(scratch, "expression", null, expression), 1);
+      }
+      indent(0);
+      out.writeEndElement();
+      out.flush();
+    }
+
+    /**
+     * {@code AutomatonTransducer.createAutomatonElement}.
+     */
+    private void writeAutomaton(String tag, Automaton automaton, int depth) throws XMLStreamException {
+      AutomatonTransducer automata = (AutomatonTransducer) transducer;
+      String name = AbstractTransducer.createElement(scratch, tag, null, null).getTagName();
+      State[] states = automaton.getStates();
+      Transition[] transitions = automaton.getTransitions();
+      Map<String, TuringMachineBuildingBlocks> blocks = automaton instanceof TuringMachineBuildingBlocks
+        ? ((TuringMachineBuildingBlocks) automaton).getTMBBBlockMap()
+        : Collections.<String, TuringMachineBuildingBlocks>emptyMap();
+      List<Note> notes = automaton.getNotes();
+      if (states.length == 0 && transitions.length == 0 && blocks.isEmpty() && notes.isEmpty()) {
+        out.writeEmptyElement(name);
+        return;
+      }
+
+      out.writeStartElement(name);
+      if (states.length > 0) {
+        indent(depth + 1);
+        out.writeComment("The list of states.");
+      }
+      for (int i = 0; i < states.length; i++) {
+        Element element;
+        if (automaton instanceof TuringMachineBuildingBlocks) {
+          element = automata.createBlockElement(scratch, (TMState) states[i], automaton);
+        } else if (automaton instanceof TuringMachine) {
+          element = automata.createTMStateElement(scratch, (TMState) states[i], automaton);
+        } else {
+          element = automata.createStateElement(scratch, states[i], automaton);
+        }
+        indent(depth + 1);
+        write(element, depth + 1);
+      }
+      if (transitions.length > 0) {
+        indent(depth + 1);
+        out.writeComment("The list of transitions.");
+      }
+      for (int i = 0; i < transitions.length; i++) {
+        indent(depth + 1);
+        write(automata.createTransitionElement(scratch, transitions[i]), depth + 1);
+      }
+      if (!blocks.isEmpty()) {
+        indent(depth + 1);
+        out.writeComment("The list of automata");
+      }
+      for (String block : blocks.keySet()) {
+        indent(depth + 1);
+        writeAutomaton(block, blocks.get(block), depth + 1);
+      }
+      for (int i = 0; i < notes.size(); i++) {
+        Note note = notes.get(i);
+        Element element = AbstractTransducer.createElement(scratch, "note", null, null);
+        element.appendChild(AbstractTransducer.createElement(scratch, "text", null, note.getText()));
+        element.appendChild(AbstractTransducer.createElement(scratch, "x", null, "" + note.getLocation().getX()));
+        element.appendChild(AbstractTransducer.createElement(scratch, "y", null, "" + note.getLocation().getY()));
+        indent(depth + 1);
+        write(element, depth + 1);
+      }
+      indent(depth);
+      out.writeEndElement();
+    }
+
+    /**
+     * Writes {@code node} as {@code DOMPrettier} lays it out: each child element on its own line,
+     * elements holding only text on one line, and empty elements self-closed.
+     */
+    private void write(Node node, int depth) throws XMLStreamException {
+      if (node.getNodeType() == Node.COMMENT_NODE) {
+        out.writeComment(node.getNodeValue());
+        return;
+      }
+      if (node.getNodeType() == Node.TEXT_NODE) {
+        characters(node.getNodeValue());
+        return;
+      }
+      Element element = (Element) node;
+      NodeList children = element.getChildNodes();
+      boolean onlyText = true;
+      boolean empty = true;
+      for (int i = 0; i < children.getLength(); i++) {
+        Node child = children.item(i);
+        if (child.getNodeType() != Node.TEXT_NODE) {
+          onlyText = false;
+          empty = false;
+        } else if (!child.getNodeValue().isEmpty()) {
+          empty = false;
+        }
+      }
+      if (empty) {
+        out.writeEmptyElement(element.getTagName());
+        writeAttributes(element);
+        return;
+      }
+      out.writeStartElement(element.getTagName());
+      writeAttributes(element);
+      for (int i = 0; i < children.getLength(); i++) {
+        Node child = children.item(i);
+        if (child.getNodeType() != Node.TEXT_NODE) {
+          indent(depth + 1);
+        }
+        write(child, depth + 1);
+      }
+      if (!onlyText) {
+        indent(depth);
+      }
+      out.writeEndElement();
+    }
+
+    private void writeAttributes(Element element) throws XMLStreamException {
+      NamedNodeMap attributes = element.getAttributes();
+      for (int i = 0; i < attributes.getLength(); i++) {
+        Node attribute = attributes.item(i);
+        String value = attribute.getNodeValue();
+        // The Transformer keeps these as character references; XMLStreamWriter would write them
+        // raw, and they would read back as spaces.
+        if (value.indexOf('\t') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+          throw UNSUPPORTED;
+        }
+        out.writeAttribute(attribute.getNodeName(), value);
+      }
+    }
+
+    private void indent(int depth) throws XMLStreamException {
+      StringBuilder indent = new StringBuilder(LINE);
+      for (int i = 0; i < depth; i++) {
+        indent.append('\t');
+      }
+      characters(indent.toString());
+    }
+
+    /**
+     * Writes text, with carriage returns as character references like the Transformer.
+     */
+    private void characters(String text) throws XMLStreamException {
+      int start = 0;
+      for (int cr = text.indexOf('\r'); cr >= 0; cr = text.indexOf('\r', start)) {
+        out.writeCharacters(text.substring(start, cr));
+        out.writeEntityRef("#13");
+        start = cr + 1;
+      }
+      out.writeCharacters(text.substring(start));
+    }
+  }
+
+  private static final class Unsupported extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    Unsupported() {
+      super(null, null, false, false);
+    }
+  }
+}
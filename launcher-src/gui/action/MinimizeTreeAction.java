@@ -0,0 +1,89 @@
+package gui.action;
+
+import automata.AutomatonChecker;
+import automata.fsa.FiniteStateAutomaton;
+import gui.environment.Environment;
+import gui.environment.Universe;
+import gui.environment.tag.CriticalTag;
+import gui.minimize.MinimizePane;
+import launcher.BackgroundConversions;
+
+import javax.swing.JOptionPane;
+import java.awt.event.ActionEvent;
+
+/**
+ * Replacement for JFLAP's {@code MinimizeTreeAction}.
+ *
+ * <p>Small DFAs still open the step-by-step {@link MinimizePane}. For DFAs with more than
+ * {@link #TREE_STATE_LIMIT} states the user may instead minimize directly with
+ * {@link automata.fsa.HopcroftMinimizer} on a background thread, which opens the minimal DFA in a
+ * new window without building the distinguishable-groups tree.</p>
+ */
+public class MinimizeTreeAction extends FSAAction {
+  private static final long serialVersionUID = 1L;
+
+  /** Above this many states, offer direct minimization instead of the tree. */
+  public static final int TREE_STATE_LIMIT = 40;
+
+  private static final String DIRECT_OPTION = "Minimize Directly";
+  private static final String TREE_OPTION = "Show Tree";
+
+  private FiniteStateAutomaton automaton;
+  private Environment environment;
+
+  public MinimizeTreeAction(FiniteStateAutomaton automaton, Environment environment) {
+    super("Miniminize DFA", null);
+    this.automaton = automaton;
+    this.environment = environment;
+  }
+
+  @Override
+  public void actionPerformed(ActionEvent e) {
+    if (automaton.getInitialState() == null) {
+      JOptionPane.showMessageDialog(
+        Universe.frameForEnvironment(environment),
+        "The automaton should have an initial state."
+      );
+      return;
+    }
+
+    AutomatonChecker ac = new AutomatonChecker();
+    if (ac.isNFA(automaton)) {
+      JOptionPane.showMessageDialog(Universe.frameForEnvironment(environment), "This isn't a DFA!");
+      return;
+    }
+
+    FiniteStateAutomaton dfa = (FiniteStateAutomaton) automaton.clone();
+
+    int stateCount = dfa.getStates().length;
+    if (stateCount > TREE_STATE_LIMIT) {
+      Object[] options = {DIRECT_OPTION, TREE_OPTION};
+      int choice = JOptionPane.showOptionDialog(
+        Universe.frameForEnvironment(environment),
+        "This DFA has " + stateCount + " states. The step-by-step tree can be very slow at this size.",
+        "Minimize DFA",
+        JOptionPane.YES_NO_CANCEL_OPTION,
+        JOptionPane.QUESTION_MESSAGE,
+        null,
+        options,
+        options[0]
+      );
+      if (choice == JOptionPane.CLOSED_OPTION) {
+        return;
+      }
+      if (choice == 0) {
+        minimizeDirectly(dfa);
+        return;
+      }
+    }
+
+    MinimizePane pane = new MinimizePane(dfa, environment);
+    environment.add(pane, "Minimization", new CriticalTag() {
+    });
+    environment.setActive(pane);
+  }
+
+  private void minimizeDirectly(FiniteStateAutomaton dfa) {
+    BackgroundConversions.minimize(environment, dfa);
+  }
+}
@@ -0,0 +1,277 @@
+package gui.viewer;
+
+import launcher.CanvasColors;
+import launcher.HitIndex;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Cached arrowheads and label glyphs for {@link CurvedArrow}.
+ *
+ * <p>Each frame {@code CurvedArrow.draw} works out the arrowhead with {@code atan2}, {@code sin} and
+ * {@code cos}, and {@code drawText} copies the graphics, measures the label and then each four
+ * character chunk of it, and lays the chunks out again. The arrow is patched at build time (see
+ * {@code tools-src/patch/CurvedArrowPatcher.java}) to draw through here instead: the arrowhead is
+ * kept per arrow until its end or control point moves, and the label's glyph vectors and offsets
+ * until its text, font, or placement ({@code affineToText}, set by {@code refreshCurve()} from the
+ * endpoints and curvature) change. Laid out labels are also shared between arrows with the same
+ * text, font and angle, so rebuilt arrows find them too. A static frame draws the curve, two lines
+ * and the cached glyphs.</p>
+ *
+ * <p>The label box {@code drawText} leaves in {@code bounds} for {@code isNear} is kept as before;
+ * when it changes {@link HitIndex} is told to file the arrow again. Disable with
+ * {@code -Djflap.arrowCache=false}.</p>
+ */
+public final class ArrowDrawCache {
+  private static final String ENABLED_PROPERTY = "jflap.arrowCache";
+  /** {@code drawText} draws labels in chunks of this many characters. */
+  private static final int CHARS_PER_STEP = 4;
+  private static final int LABEL_LIMIT = 4096;
+  /** Same as {@code CurvedArrow.ARROW_ANGLE}. */
+  private static final double ARROW_ANGLE = 0.3141592653589793;
+  /** Same as {@code CurvedArrow.ARROW_LENGTH}. */
+  private static final double ARROW_LENGTH = 15;
+
+  private static final Map<CurvedArrow, Entry> ENTRIES =
+    Collections.synchronizedMap(new WeakHashMap<CurvedArrow, Entry>());
+  private static final Map<LabelKey, Label> LABELS = Collections.synchronizedMap(
+    new LinkedHashMap<LabelKey, Label>(256, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<LabelKey, Label> eldest) {
+        return size() > LABEL_LIMIT;
+      }
+    }
+  );
+
+  private ArrowDrawCache() {
+  }
+
+  public static boolean isEnabled() {
+    return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+  }
+
+  /**
+   * Hook prepended to {@code CurvedArrow.draw(Graphics2D)}.
+   *
+   * @return {@code true} if the arrow was drawn, {@code false} to run the original
+   */
+  public static boolean draw(CurvedArrow arrow, Graphics2D g) {
+    if (!isEnabled()) {
+      return false;
+    }
+    if (arrow.needsRefresh) {
+      arrow.refreshCurve();
+    }
+    Entry entry = entry(arrow);
+    g.setColor(CurvedArrow.ARROW_COLOR);
+    g.draw(arrow.curve);
+    int[] head = entry.arrowhead(arrow.end, arrow.control);
+    g.drawLine(head[0], head[1], head[2], head[3]);
+    g.drawLine(head[0], head[1], head[4], head[5]);
+    if (arrow.affineToText != null && arrow.label != null) {
+      drawLabel(arrow, entry, g);
+    }
+    return true;
+  }
+
+  /**
+   * Hook prepended to {@code CurvedArrow.drawText(Graphics2D)}.
+   *
+   * @return {@code true} if the label was drawn, {@code false} to run the original
+   */
+  public static boolean drawText(CurvedArrow arrow, Graphics2D g) {
+    if (!isEnabled() || arrow.affineToText == null || arrow.label == null) {
+      return false;
+    }
+    drawLabel(arrow, entry(arrow), g);
+    return true;
+  }
+
+  private static void drawLabel(CurvedArrow arrow, Entry entry, Graphics2D g) {
+    AffineTransform saved = g.getTransform();
+    Object antialiasing = g.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+    Color color = g.getColor();
+    g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    g.transform(arrow.affineToText);
+    try {
+      Label label = entry.label(arrow, g);
+      if (arrow.bounds != entry.bounds) {
+        Rectangle2D old = arrow.bounds;
+        arrow.bounds = entry.bounds;
+        if (old == null || old.getWidth() != entry.bounds.getWidth() || old.getHeight() != entry.bounds.getHeight()) {
+          HitIndex.curveChanged(arrow);
+        }
+      }
+      g.setColor(CanvasColors.canvasLineColor());
+      for (int i = 0; i < label.chunks.length; i++) {
+        g.drawGlyphVector(label.chunks[i], label.x[i], entry.y);
+      }
+    } finally {
+      g.setTransform(saved);
+      g.setColor(color);
+      if (antialiasing != null) {
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialiasing);
+      }
+    }
+  }
+
+  private static Entry entry(CurvedArrow arrow) {
+    synchronized (ENTRIES) {
+      Entry entry = ENTRIES.get(arrow);
+      if (entry == null) {
+        entry = new Entry();
+        ENTRIES.put(arrow, entry);
+      }
+      return entry;
+    }
+  }
+
+  private static final class Entry {
+    private int endX;
+    private int endY;
+    private int controlX;
+    private int controlY;
+    /** The tip, then the ends of the two strokes; {@code null} until first drawn. */
+    private int[] head;
+
+    private final AffineTransform toText = new AffineTransform();
+    /** The {@code affineToText} last matched against {@link #toText}; each refresh replaces it. */
+    private AffineTransform seen;
+    private String text;
+    private Font font;
+    private FontRenderContext context;
+    private boolean flipped;
+    private Label label;
+    /** The label box, as {@code drawText} leaves it in {@code CurvedArrow.bounds}. */
+    Rectangle2D bounds;
+    /** The label's baseline. */
+    float y;
+
+    int[] arrowhead(Point end, Point control) {
+      if (head != null && end.x == endX && end.y == endY && control.x == controlX && control.y == controlY) {
+        return head;
+      }
+      endX = end.x;
+      endY = end.y;
+      controlX = control.x;
+      controlY = control.y;
+      // As CurvedArrow.drawArrow.
+      double angle = Math.atan2(control.x - end.x, control.y - end.y) + ARROW_ANGLE;
+      int x1 = (int) (Math.sin(angle) * ARROW_LENGTH) + end.x;
+      int y1 = (int) (Math.cos(angle) * ARROW_LENGTH) + end.y;
+      angle -= 2 * ARROW_ANGLE;
+      int x2 = (int) (Math.sin(angle) * ARROW_LENGTH) + end.x;
+      int y2 = (int) (Math.cos(angle) * ARROW_LENGTH) + end.y;
+      head = new int[] {end.x, end.y, x1, y1, x2, y2};
+      return head;
+    }
+
+    /**
+     * Returns the laid out label for {@code g}, already transformed to the label's placement.
+     */
+    Label label(CurvedArrow arrow, Graphics2D g) {
+      Font font = g.getFont();
+      FontRenderContext context = g.getFontRenderContext();
+      boolean flipped = (arrow.curvy < 0) ^ (arrow.end.x < arrow.start.x);
+      if (label != null
+        && arrow.label.equals(text)
+        && flipped == this.flipped
+        && (arrow.affineToText == seen || arrow.affineToText.equals(toText))
+        && font.equals(this.font)
+        && context.equals(this.context)) {
+        seen = arrow.affineToText;
+        return label;
+      }
+      LabelKey key = new LabelKey(arrow.label, font, context);
+      Label laidOut = LABELS.get(key);
+      if (laidOut == null) {
+        laidOut = new Label(arrow.label, g);
+        LABELS.put(key, laidOut);
+      }
+      // As CurvedArrow.drawText, which moves the measured box onto the drawn label.
+      y = flipped ? laidOut.ascent : -laidOut.descent;
+      Rectangle2D box = (Rectangle2D) laidOut.bounds.clone();
+      box.setRect(box.getX() - laidOut.halfWidth, box.getY() + y, box.getWidth(), box.getHeight());
+      bounds = box;
+      label = laidOut;
+      text = arrow.label;
+      this.font = font;
+      this.context = context;
+      this.flipped = flipped;
+      toText.setTransform(arrow.affineToText);
+      seen = arrow.affineToText;
+      return label;
+    }
+  }
+
+  /**
+   * A label measured and split into glyph vectors the way {@code CurvedArrow.drawText} draws it.
+   */
+  private static final class Label {
+    final Rectangle2D bounds;
+    final float halfWidth;
+    final int ascent;
+    final int descent;
+    final GlyphVector[] chunks;
+    final float[] x;
+
+    Label(String text, Graphics2D g) {
+      FontMetrics metrics = g.getFontMetrics();
+      Font font = g.getFont();
+      FontRenderContext context = g.getFontRenderContext();
+      bounds = metrics.getStringBounds(text, g);
+      halfWidth = (float) bounds.getWidth() / 2;
+      ascent = metrics.getAscent();
+      descent = metrics.getDescent();
+      int count = (text.length() + CHARS_PER_STEP - 1) / CHARS_PER_STEP;
+      chunks = new GlyphVector[count];
+      x = new float[count];
+      float offset = halfWidth;
+      for (int i = 0; i < count; i++) {
+        String chunk = text.substring(i * CHARS_PER_STEP, Math.min(i * CHARS_PER_STEP + CHARS_PER_STEP, text.length()));
+        chunks[i] = font.createGlyphVector(context, chunk);
+        x[i] = -offset;
+        offset = (float) (offset - metrics.getStringBounds(chunk, g).getWidth());
+      }
+    }
+  }
+
+  private static final class LabelKey {
+    private final String text;
+    private final Font font;
+    private final FontRenderContext context;
+
+    LabelKey(String text, Font font, FontRenderContext context) {
+      this.text = text;
+      this.font = font;
+      this.context = context;
+    }
+
+    @Override
+    public int hashCode() {
+      return (text.hashCode() * 31 + font.hashCode()) * 31 + context.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof LabelKey)) {
+        return false;
+      }
+      LabelKey key = (LabelKey) other;
+      return text.equals(key.text) && font.equals(key.font) && context.equals(key.context);
+    }
+  }
+}
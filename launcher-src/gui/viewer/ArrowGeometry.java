@@ -0,0 +1,28 @@
+package gui.viewer;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+
+/**
+ * Read access to the parts of a {@link CurvedArrow}'s layout that JFLAP keeps in protected fields.
+ */
+public final class ArrowGeometry {
+  private ArrowGeometry() {
+  }
+
+  /**
+   * Returns the bounds of the label box that {@link CurvedArrow#isNear} tests, in canvas
+   * coordinates, or {@code null} if the arrow has no label box.
+   */
+  public static Rectangle labelBounds(CurvedArrow arrow) {
+    if (arrow.needsRefresh) {
+      arrow.refreshCurve();
+    }
+    if (arrow.bounds == null || arrow.affineToText == null) {
+      return null;
+    }
+    Area label = new Area(arrow.bounds);
+    label.transform(arrow.affineToText);
+    return label.getBounds();
+  }
+}
@@ -0,0 +1,234 @@
+package gui.viewer;
+
+import automata.State;
+import automata.mealy.MooreMachine;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Viewport culling and level of detail for {@link AutomatonDrawer#drawAutomaton}.
+ *
+ * <p>The drawer paints every state and every arrow, label layout included, whatever part of the
+ * canvas the scroll viewport shows and however far {@code AutomatonPane} is zoomed out. It is
+ * patched at build time (see {@code tools-src/patch/AutomatonDrawerPatcher.java} and
+ * {@code StateDrawerPatcher.java}) to draw through here, which:</p>
+ * <ul>
+ *   <li>skips states and arrows whose bounds miss the clip, so a repaint costs what is on screen;</li>
+ *   <li>skips transition labels, state names and state label boxes below {@value #LABEL_SCALE}x;</li>
+ *   <li>draws arrows between two states as straight lines below {@value #STRAIGHT_SCALE}x.</li>
+ * </ul>
+ *
+ * <p>At the default zoom nothing visible changes. Disable with
+ * {@code -Djflap.viewportCulling=false}.</p>
+ */
+public final class CanvasDetail {
+  private static final String ENABLED_PROPERTY = "jflap.viewportCulling";
+  /** Below this scale transition labels and state names are a few pixels high and are skipped. */
+  private static final double LABEL_SCALE = 0.45;
+  /** Below this scale arrows between two states are drawn as straight lines. */
+  private static final double STRAIGHT_SCALE = 0.3;
+  /** Room for the arrowhead ({@code ARROW_LENGTH}) and stroke around an arrow's curve. */
+  private static final int ARROW_MARGIN = 17;
+  /** Same as {@code CurvedArrow.ARROW_ANGLE}. */
+  private static final double ARROW_ANGLE = 0.3141592653589793;
+  /** Same as {@code CurvedArrow.ARROW_LENGTH}. */
+  private static final double ARROW_LENGTH = 15;
+
+  private CanvasDetail() {
+  }
+
+  public static boolean isEnabled() {
+    return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+  }
+
+  /**
+   * Replaces the {@code drawState(g, state)} call in {@code AutomatonDrawer.drawAutomaton}.
+   */
+  public static void drawState(AutomatonDrawer drawer, Graphics g, State state) {
+    if (isEnabled() && !stateHitsClip(drawer, g, state)) {
+      return;
+    }
+    drawer.drawState(g, state);
+  }
+
+  /**
+   * Replaces the {@code arrow.draw(g)} call in {@code AutomatonDrawer.drawTransitions}.
+   */
+  public static void drawArrow(CurvedArrow arrow, Graphics2D g) {
+    if (!isEnabled()) {
+      arrow.draw(g);
+      return;
+    }
+    double scale = scale(g);
+    boolean labels = scale >= LABEL_SCALE;
+    boolean invisible = arrow instanceof InvisibleCurvedArrow;
+    if (invisible && !labels) {
+      return;
+    }
+    if (!arrowHitsClip(arrow, g, labels, invisible)) {
+      return;
+    }
+    if (labels) {
+      arrow.draw(g);
+      return;
+    }
+
+    g.setColor(CurvedArrow.ARROW_COLOR);
+    if (scale < STRAIGHT_SCALE && !isLoop(arrow)) {
+      g.drawLine(arrow.start.x, arrow.start.y, arrow.end.x, arrow.end.y);
+      drawArrowhead(g, arrow.end, arrow.start);
+    } else {
+      g.draw(arrow.curve);
+      drawArrowhead(g, arrow.end, arrow.control);
+    }
+  }
+
+  /**
+   * Replaces the {@code drawString} call that writes a state's name in {@code StateDrawer}.
+   */
+  public static void drawStateName(Graphics g, String name, int x, int y) {
+    if (drawsLabels(g)) {
+      g.drawString(name, x, y);
+    }
+  }
+
+  /**
+   * Whether labels drawn on {@code g} are large enough to read.
+   */
+  public static boolean drawsLabels(Graphics g) {
+    return drawsLabels(scale(g));
+  }
+
+  private static boolean stateHitsClip(AutomatonDrawer drawer, Graphics g, State state) {
+    Rectangle extent = stateExtent(drawer, state, g.getFont().getSize());
+    return g.hitClip(extent.x, extent.y, extent.width, extent.height);
+  }
+
+  private static boolean arrowHitsClip(CurvedArrow arrow, Graphics g, boolean labels, boolean invisible) {
+    Rectangle extent = arrowExtent(arrow, labels, invisible);
+    if (labels && arrow.bounds == null && arrow.label != null && !arrow.label.isEmpty()) {
+      // Only drawText measures the label box, so a label that was never drawn could be anywhere.
+      return true;
+    }
+    return extent != null && g.hitClip(extent.x, extent.y, extent.width, extent.height);
+  }
+
+  /**
+   * The canvas area {@code state} may paint on: its disc, the initial state's triangle, its name,
+   * its label box and a Moore machine's output box, for text in a font of {@code fontSize}.
+   */
+  static Rectangle stateExtent(AutomatonDrawer drawer, State state, int fontSize) {
+    Point point = state.getPoint();
+    int radius = drawer.getStateDrawer().getRadius();
+    String name = state.getName();
+    // Twice the radius leaves room for the initial state's triangle; no glyph is wider than the font size.
+    int half = Math.max(2 * radius, (name == null) ? 0 : name.length() * fontSize / 2) + 2;
+    Rectangle extent = new Rectangle(point.x - half, point.y - half, 2 * half, 2 * half);
+    String[] labels = drawer.doesDrawStateLabels() ? state.getLabels() : null;
+    if (labels != null && labels.length > 0) {
+      // StateDrawer.drawStateLabel puts the box 17 pixels below the centre, 3 pixels between lines.
+      int chars = 0;
+      for (int i = 0; i < labels.length; i++) {
+        chars = Math.max(chars, labels[i].length());
+      }
+      int labelHalf = chars * fontSize / 2 + 5;
+      extent.add(new Rectangle(point.x - labelHalf, point.y + 16, 2 * labelHalf, labels.length * (fontSize + 3) + 8));
+    }
+    String output = mooreOutput(drawer, state);
+    if (output != null) {
+      // MooreStateDrawer centres a box 6 pixels wider and taller than the output on (x + 20, y - 20).
+      int outputHalf = output.length() * fontSize / 2 + 5;
+      int outputRise = fontSize / 2 + 5;
+      extent.add(new Rectangle(point.x + 20 - outputHalf, point.y - 20 - outputRise, 2 * outputHalf, 2 * outputRise));
+    }
+    return extent;
+  }
+
+  /**
+   * The output {@link MooreStateDrawer} paints next to {@code state}, or {@code null} if the drawer
+   * paints none.
+   */
+  static String mooreOutput(AutomatonDrawer drawer, State state) {
+    if (!(drawer.getStateDrawer() instanceof MooreStateDrawer) || !(state.getAutomaton() instanceof MooreMachine)) {
+      return null;
+    }
+    return ((MooreMachine) state.getAutomaton()).getStateDescription(state);
+  }
+
+  /**
+   * The canvas area {@code arrow} may paint on, or {@code null} if it draws nothing.
+   */
+  static Rectangle arrowExtent(CurvedArrow arrow, boolean labels, boolean invisible) {
+    if (arrow.needsRefresh) {
+      arrow.refreshCurve();
+    }
+    Rectangle extent = null;
+    if (!invisible) {
+      Rectangle2D curve = arrow.curve.getBounds2D();
+      extent = new Rectangle(
+        (int) Math.floor(curve.getX()) - ARROW_MARGIN,
+        (int) Math.floor(curve.getY()) - ARROW_MARGIN,
+        (int) Math.ceil(curve.getWidth()) + 2 * ARROW_MARGIN + 1,
+        (int) Math.ceil(curve.getHeight()) + 2 * ARROW_MARGIN + 1
+      );
+    }
+    if (!labels || arrow.affineToText == null || arrow.bounds == null || arrow.label == null
+      || arrow.label.isEmpty()) {
+      return extent;
+    }
+    // The label box is rotated about the text origin and resized on each drawText with the drawing
+    // font; a circle about the origin as wide as the box and as high as two lines covers it.
+    Rectangle2D box = arrow.bounds;
+    double reach = Math.hypot(
+      Math.max(Math.abs(box.getMinX()), Math.abs(box.getMaxX())),
+      Math.max(Math.abs(box.getMinY()), Math.abs(box.getMaxY())) + box.getHeight()
+    ) + 2;
+    int radius = (int) Math.ceil(reach);
+    int x = (int) Math.floor(arrow.affineToText.getTranslateX());
+    int y = (int) Math.floor(arrow.affineToText.getTranslateY());
+    Rectangle label = new Rectangle(x - radius, y - radius, 2 * radius + 1, 2 * radius + 1);
+    if (extent == null) {
+      return label;
+    }
+    extent.add(label);
+    return extent;
+  }
+
+  /**
+   * Whether arrows and labels are drawn on {@code g} at full detail.
+   */
+  static boolean drawsLabels(double scale) {
+    return !isEnabled() || scale >= LABEL_SCALE;
+  }
+
+  private static boolean isLoop(CurvedArrow arrow) {
+    return arrow.myTransition != null && arrow.myTransition.getFromState() == arrow.myTransition.getToState();
+  }
+
+  /**
+   * The two strokes of {@code CurvedArrow}'s arrowhead at {@code tip}, pointing away from
+   * {@code from}.
+   */
+  private static void drawArrowhead(Graphics g, Point tip, Point from) {
+    double angle = Math.atan2(from.x - tip.x, from.y - tip.y) + ARROW_ANGLE;
+    g.drawLine(tip.x, tip.y, (int) (Math.sin(angle) * ARROW_LENGTH) + tip.x, (int) (Math.cos(angle) * ARROW_LENGTH) + tip.y);
+    angle -= 2 * ARROW_ANGLE;
+    g.drawLine(tip.x, tip.y, (int) (Math.sin(angle) * ARROW_LENGTH) + tip.x, (int) (Math.cos(angle) * ARROW_LENGTH) + tip.y);
+  }
+
+  /**
+   * How many device pixels a canvas unit covers on {@code g}.
+   */
+  private static double scale(Graphics g) {
+    if (!(g instanceof Graphics2D)) {
+      return 1;
+    }
+    AffineTransform transform = ((Graphics2D) g).getTransform();
+    return Math.sqrt(Math.abs(transform.getDeterminant()));
+  }
+}
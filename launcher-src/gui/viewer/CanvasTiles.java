@@ -0,0 +1,436 @@
+package gui.viewer;
+
+import automata.Automaton;
+import automata.State;
+import automata.Transition;
+import launcher.CanvasColors;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offscreen tiles of what {@link AutomatonDrawer#drawAutomaton} paints in an {@link AutomatonPane}.
+ *
+ * <p>The pane repaints the whole automaton for every repaint, including those for a cursor change, a
+ * tool tip or each step of a selection box drag. {@code AutomatonPane.paintComponent} is patched at
+ * build time (see {@code tools-src/patch/AutomatonPanePatcher.java}) to draw through
+ * {@link #drawAutomaton}, and {@code drawAutomaton} (see {@code AutomatonDrawerPatcher.java}) to
+ * then paint from {@value #TILE} pixel tiles in device space: the states and arrows, over the canvas
+ * fill, rendered once and copied to the screen on later repaints. The selection box is drawn over
+ * the tiles each time, and the editor tools draw their previews after {@code paintComponent}.</p>
+ *
+ * <p>Each repaint compares every state and arrow with what the tiles show: position, name, label,
+ * Moore output, initial, final and selected for a state, and endpoints, control point, label and
+ * selected for an arrow. Only the tiles under an item that changed, where it was and where it is,
+ * are rendered again, so a repaint with no changes costs a pass over the automaton and a copy per
+ * visible tile.
+ * Tiles are kept for one transform (zoom and sub-pixel offset, scrolling keeps them), font, set
+ * of canvas colors and state label setting. Only plain {@link AutomatonDrawer}s and
+ * {@link SelectionDrawer}s are cached; exports and printing draw as before. The tiles belong to
+ * the pane, as a client property, and are dropped when the pane stops being displayable. Disable
+ * with {@code -Djflap.canvasTiles=false}.</p>
+ */
+public final class CanvasTiles {
+  private static final String ENABLED_PROPERTY = "jflap.canvasTiles";
+  private static final int TILE = 256;
+  /** Tiles kept beyond those on screen, so scrolling back does not render them again. */
+  private static final int SPARE_TILES = 48;
+  /** Above this many tiles on screen, the pane draws directly. */
+  private static final int MAX_VISIBLE_TILES = 512;
+  /** {@code drawAutomaton} draws with this font size. */
+  private static final float FONT_SIZE = 12f;
+
+  /** The pane's drawer and tiles while {@link #drawAutomaton} paints it. */
+  private static final ThreadLocal<Painting> PAINTING = new ThreadLocal<>();
+
+  private Automaton automaton;
+  /** The device transform without its whole pixel translation, which scrolling changes. */
+  private final AffineTransform transform = new AffineTransform();
+  private Font font;
+  private int style;
+  private boolean stateLabels;
+
+  private final LinkedHashMap<Long, BufferedImage> tiles = new LinkedHashMap<>(64, 0.75f, true);
+  private final Map<Object, Item> items = new IdentityHashMap<>();
+  private int frame;
+
+  private CanvasTiles() {
+  }
+
+  public static boolean isEnabled() {
+    return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+  }
+
+  /**
+   * Replaces the {@code drawer.drawAutomaton(g)} call in {@code AutomatonPane.paintComponent}.
+   */
+  public static void drawAutomaton(AutomatonDrawer drawer, Graphics g, AutomatonPane pane) {
+    if (!isEnabled() || (drawer.getClass() != AutomatonDrawer.class && drawer.getClass() != SelectionDrawer.class)) {
+      drawer.drawAutomaton(g);
+      return;
+    }
+    PAINTING.set(new Painting(drawer, tilesOf(pane)));
+    try {
+      drawer.drawAutomaton(g);
+    } finally {
+      PAINTING.remove();
+    }
+  }
+
+  /**
+   * Hook inserted in {@code AutomatonDrawer.drawAutomaton(Graphics)} after the arrow maps are
+   * refreshed.
+   *
+   * @return {@code true} if the automaton was painted, {@code false} to draw it directly
+   */
+  public static boolean paint(AutomatonDrawer drawer, Graphics g) {
+    Painting painting = PAINTING.get();
+    if (painting == null || painting.drawer != drawer || !(g instanceof Graphics2D) || drawer.getAutomaton() == null) {
+      return false;
+    }
+    PAINTING.remove();
+    return painting.tiles.paint(drawer, (Graphics2D) g);
+  }
+
+  /**
+   * The tiles of {@code pane}, made on its first paint. They hold its states and arrows, so they
+   * live on the pane rather than in a map that would keep them, and the drawer, reachable.
+   */
+  private static CanvasTiles tilesOf(final AutomatonPane pane) {
+    CanvasTiles tiles = (CanvasTiles) pane.getClientProperty(CanvasTiles.class);
+    if (tiles == null) {
+      tiles = new CanvasTiles();
+      pane.putClientProperty(CanvasTiles.class, tiles);
+      pane.addHierarchyListener(new HierarchyListener() {
+        @Override
+        public void hierarchyChanged(HierarchyEvent e) {
+          // What removeNotify does: the pane left its window, which may be closing.
+          if ((e.getChangeFlags() & HierarchyEvent.DISPLAYABILITY_CHANGED) != 0 && !pane.isDisplayable()) {
+            pane.putClientProperty(CanvasTiles.class, null);
+            pane.removeHierarchyListener(this);
+          }
+        }
+      });
+    }
+    return tiles;
+  }
+
+  private boolean paint(AutomatonDrawer drawer, Graphics2D g) {
+    AffineTransform device = g.getTransform();
+    Rectangle clip = g.getClipBounds();
+    if (clip == null || device.getDeterminant() == 0) {
+      return false;
+    }
+    double originX = Math.floor(device.getTranslateX());
+    double originY = Math.floor(device.getTranslateY());
+    AffineTransform toTiles = new AffineTransform(device);
+    toTiles.preConcatenate(AffineTransform.getTranslateInstance(-originX, -originY));
+
+    Rectangle visible = toTiles.createTransformedShape(clip).getBounds();
+    int fromX = Math.floorDiv(visible.x, TILE);
+    int fromY = Math.floorDiv(visible.y, TILE);
+    int toX = Math.floorDiv(visible.x + visible.width - 1, TILE);
+    int toY = Math.floorDiv(visible.y + visible.height - 1, TILE);
+    long count = (long) (toX - fromX + 1) * (toY - fromY + 1);
+    if (count > MAX_VISIBLE_TILES) {
+      return false;
+    }
+
+    Font drawingFont = g.getFont();
+    int colors = style();
+    if (automaton != drawer.getAutomaton() || !toTiles.equals(transform) || !drawingFont.equals(font) || colors != style
+      || stateLabels != drawer.doesDrawStateLabels()) {
+      automaton = drawer.getAutomaton();
+      stateLabels = drawer.doesDrawStateLabels();
+      transform.setTransform(toTiles);
+      font = drawingFont;
+      style = colors;
+      tiles.clear();
+      items.clear();
+    }
+    invalidateChanged(drawer, toTiles);
+
+    List<Long> missing = new ArrayList<>();
+    for (int y = fromY; y <= toY; y++) {
+      for (int x = fromX; x <= toX; x++) {
+        if (!tiles.containsKey(key(x, y))) {
+          missing.add(key(x, y));
+        }
+      }
+    }
+    if (!missing.isEmpty()) {
+      render(drawer, g, missing, toTiles);
+    }
+
+    Graphics2D screen = (Graphics2D) g.create();
+    try {
+      screen.setTransform(AffineTransform.getTranslateInstance(originX, originY));
+      for (int y = fromY; y <= toY; y++) {
+        for (int x = fromX; x <= toX; x++) {
+          screen.drawImage(tiles.get(key(x, y)), x * TILE, y * TILE, null);
+        }
+      }
+    } finally {
+      screen.dispose();
+    }
+    evict((int) count + SPARE_TILES);
+
+    Graphics2D overlay = (Graphics2D) g.create();
+    try {
+      // As drawAutomaton sets up its graphics before drawing the selection box.
+      overlay.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+      overlay.setFont(overlay.getFont().deriveFont(FONT_SIZE));
+      overlay.setColor(Color.black);
+      drawer.drawSelectionBox(overlay);
+    } finally {
+      overlay.dispose();
+    }
+    return true;
+  }
+
+  /**
+   * Compares every state and arrow with the last repaint and drops the tiles under those that
+   * changed, appeared or went away.
+   */
+  private void invalidateChanged(AutomatonDrawer drawer, AffineTransform toTiles) {
+    frame++;
+    List<Rectangle> dirty = new ArrayList<>();
+    Automaton automaton = drawer.getAutomaton();
+    State initial = automaton.getInitialState();
+    SelectionDrawer selection = (drawer instanceof SelectionDrawer) ? (SelectionDrawer) drawer : null;
+    int fontSize = Math.round(FONT_SIZE);
+    State[] states = automaton.getStates();
+    for (int i = 0; i < states.length; i++) {
+      State state = states[i];
+      long signature = mix(state.getPoint().x, state.getPoint().y);
+      signature = mix(signature, hash(state.getName()));
+      signature = mix(signature, hash(state.getLabel()));
+      signature = mix(signature, hash(CanvasDetail.mooreOutput(drawer, state)));
+      signature = mix(signature, (state == initial ? 1 : 0)
+        | (automaton.isFinalState(state) ? 2 : 0)
+        | (state.isSelected() ? 4 : 0)
+        | (selection != null && selection.isSelected(state) ? 8 : 0));
+      Item item = items.get(state);
+      if (item != null && item.signature == signature) {
+        item.frame = frame;
+      } else {
+        changed(state, item, signature, CanvasDetail.stateExtent(drawer, state, fontSize), null, dirty);
+      }
+    }
+    boolean labels = CanvasDetail.drawsLabels(Math.sqrt(Math.abs(toTiles.getDeterminant())));
+    for (Map.Entry<Transition, CurvedArrow> entry : drawer.transitionToArrowMap.entrySet()) {
+      Transition transition = entry.getKey();
+      CurvedArrow arrow = entry.getValue();
+      if (arrow.needsRefresh) {
+        arrow.refreshCurve();
+      }
+      boolean invisible = arrow instanceof InvisibleCurvedArrow;
+      long signature = mix(arrow.start.x, arrow.start.y);
+      signature = mix(signature, mix(arrow.end.x, arrow.end.y));
+      signature = mix(signature, mix(arrow.control.x, arrow.control.y));
+      signature = mix(signature, hash(arrow.label));
+      signature = mix(signature, (invisible ? 1 : 0)
+        | (transition.isSelected ? 2 : 0)
+        | (selection != null && selection.isSelected(transition) ? 4 : 0));
+      Item item = items.get(transition);
+      if (item != null && item.signature == signature && item.labelBox == arrow.bounds) {
+        item.frame = frame;
+      } else if (item != null && item.signature == signature) {
+        // Drawn the same; the label box is only measured once the arrow has been drawn.
+        item.extent = CanvasDetail.arrowExtent(arrow, labels, invisible);
+        item.labelBox = arrow.bounds;
+        item.frame = frame;
+      } else {
+        changed(transition, item, signature, CanvasDetail.arrowExtent(arrow, labels, invisible), arrow.bounds, dirty);
+      }
+    }
+    Iterator<Item> gone = items.values().iterator();
+    while (gone.hasNext()) {
+      Item item = gone.next();
+      if (item.frame != frame) {
+        if (item.extent != null) {
+          dirty.add(item.extent);
+        }
+        gone.remove();
+      }
+    }
+
+    for (Rectangle extent : dirty) {
+      if (tiles.isEmpty()) {
+        return;
+      }
+      Rectangle area = toTiles.createTransformedShape(extent).getBounds();
+      area.grow(2, 2);
+      int fromX = Math.floorDiv(area.x, TILE);
+      int fromY = Math.floorDiv(area.y, TILE);
+      int toX = Math.floorDiv(area.x + area.width - 1, TILE);
+      int toY = Math.floorDiv(area.y + area.height - 1, TILE);
+      if ((long) (toX - fromX + 1) * (toY - fromY + 1) > tiles.size()) {
+        Iterator<Long> keys = tiles.keySet().iterator();
+        while (keys.hasNext()) {
+          long key = keys.next();
+          int x = (int) (key >> 32);
+          int y = (int) key;
+          if (x >= fromX && x <= toX && y >= fromY && y <= toY) {
+            keys.remove();
+          }
+        }
+        continue;
+      }
+      for (int y = fromY; y <= toY; y++) {
+        for (int x = fromX; x <= toX; x++) {
+          tiles.remove(key(x, y));
+        }
+      }
+    }
+  }
+
+  private void changed(Object key, Item item, long signature, Rectangle extent, Rectangle2D labelBox, List<Rectangle> dirty) {
+    if (item == null) {
+      item = new Item();
+      items.put(key, item);
+    } else if (item.extent != null) {
+      dirty.add(item.extent);
+    }
+    if (extent != null) {
+      dirty.add(extent);
+    }
+    item.signature = signature;
+    item.extent = extent;
+    item.labelBox = labelBox;
+    item.frame = frame;
+  }
+
+  /**
+   * Renders the {@code missing} tiles in one pass over the automaton, clipped to those tiles.
+   */
+  private void render(AutomatonDrawer drawer, Graphics2D g, List<Long> missing, AffineTransform toTiles) {
+    int fromX = Integer.MAX_VALUE;
+    int fromY = Integer.MAX_VALUE;
+    int toX = Integer.MIN_VALUE;
+    int toY = Integer.MIN_VALUE;
+    for (long key : missing) {
+      fromX = Math.min(fromX, (int) (key >> 32));
+      toX = Math.max(toX, (int) (key >> 32));
+      fromY = Math.min(fromY, (int) key);
+      toY = Math.max(toY, (int) key);
+    }
+    int width = (toX - fromX + 1) * TILE;
+    int height = (toY - fromY + 1) * TILE;
+    BufferedImage block = g.getDeviceConfiguration().createCompatibleImage(width, height, Transparency.OPAQUE);
+    Graphics2D canvas = block.createGraphics();
+    try {
+      canvas.setColor(CanvasColors.canvasFillColor());
+      canvas.fillRect(0, 0, width, height);
+      Area clip = new Area();
+      for (long key : missing) {
+        clip.add(new Area(new Rectangle(((int) (key >> 32) - fromX) * TILE, ((int) key - fromY) * TILE, TILE, TILE)));
+      }
+      canvas.setClip(clip);
+      canvas.setRenderingHints(g.getRenderingHints());
+      canvas.setFont(g.getFont());
+      AffineTransform toBlock = AffineTransform.getTranslateInstance(-fromX * TILE, -fromY * TILE);
+      toBlock.concatenate(toTiles);
+      canvas.setTransform(toBlock);
+      drawContents(drawer, canvas);
+    } finally {
+      canvas.dispose();
+    }
+    for (long key : missing) {
+      BufferedImage tile = g.getDeviceConfiguration().createCompatibleImage(TILE, TILE, Transparency.OPAQUE);
+      tile.getRaster().setRect(-((int) (key >> 32) - fromX) * TILE, -((int) key - fromY) * TILE, block.getRaster());
+      tiles.put(key, tile);
+    }
+  }
+
+  /**
+   * What {@code drawAutomaton} draws after refreshing the arrows, without the selection box.
+   */
+  private void drawContents(AutomatonDrawer drawer, Graphics2D g) {
+    Graphics2D g2 = (Graphics2D) g.create();
+    try {
+      g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+      g2.setFont(g2.getFont().deriveFont(FONT_SIZE));
+      g2.setColor(Color.black);
+      drawer.drawTransitions(g2);
+      State[] states = drawer.getAutomaton().getStates();
+      for (int i = 0; i < states.length; i++) {
+        CanvasDetail.drawState(drawer, g2, states[i]);
+      }
+    } finally {
+      g2.dispose();
+    }
+  }
+
+  private void evict(int keep) {
+    Iterator<Long> eldest = tiles.keySet().iterator();
+    while (tiles.size() > keep && eldest.hasNext()) {
+      eldest.next();
+      eldest.remove();
+    }
+  }
+
+  /**
+   * The canvas colors the tiles were rendered with.
+   */
+  private static int style() {
+    int style = CanvasColors.canvasFillColor().getRGB();
+    style = style * 31 + CanvasColors.canvasLineColor().getRGB();
+    style = style * 31 + CanvasColors.nodeColor().getRGB();
+    style = style * 31 + CanvasColors.selectedNodeColor().getRGB();
+    style = style * 31 + CanvasColors.finalRingColor().getRGB();
+    style = style * 31 + CanvasColors.startTriangleColor().getRGB();
+    style = style * 31 + CanvasColors.startTriangleFillColor().getRGB();
+    style = style * 31 + CurvedArrow.ARROW_COLOR.getRGB();
+    style = style * 31 + StateDrawer.STATE_COLOR.getRGB();
+    return style;
+  }
+
+  private static long key(int x, int y) {
+    return ((long) x << 32) | (y & 0xffffffffL);
+  }
+
+  private static long mix(long a, long b) {
+    return (a * 0x9E3779B97F4A7C15L) ^ b;
+  }
+
+  private static int hash(String text) {
+    return (text == null) ? 0 : text.hashCode() * 31 + text.length();
+  }
+
+  private static final class Painting {
+    final AutomatonDrawer drawer;
+    final CanvasTiles tiles;
+
+    Painting(AutomatonDrawer drawer, CanvasTiles tiles) {
+      this.drawer = drawer;
+      this.tiles = tiles;
+    }
+  }
+
+  private static final class Item {
+    long signature;
+    /** The canvas area the item painted on when the tiles were last checked, if any. */
+    Rectangle extent;
+    /** The arrow's {@code bounds} when {@link #extent} was worked out. */
+    Rectangle2D labelBox;
+    int frame;
+  }
+}
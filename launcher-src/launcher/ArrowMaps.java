@@ -0,0 +1,304 @@
+package launcher;
+
+import automata.Automaton;
+import automata.State;
+import automata.StateVersions;
+import automata.Transition;
+import automata.event.AutomataStateEvent;
+import automata.event.AutomataTransitionEvent;
+import gui.viewer.AutomatonDrawer;
+import gui.viewer.CurvedArrow;
+import gui.viewer.InvisibleCurvedArrow;
+
+import java.awt.Point;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Incremental upkeep of {@link AutomatonDrawer}'s arrow maps.
+ *
+ * <p>{@code AutomatonDrawer.refreshArrowMap()} rebuilds every arrow after any edit, asking the
+ * automaton for the transitions between every pair of states, which is O(states^2) per click. The
+ * drawer is patched at build time (see {@code tools-src/patch/AutomatonDrawerPatcher.java}) so that
+ * its transition and state listeners report the states an edit touched here, and the next refresh
+ * only rebuilds the arrows between those states and their neighbours. Arrows are laid out exactly
+ * as {@code refreshArrowMap()} does, and {@link HitIndex} is told which arrows changed. Any other
+ * {@code invalidate()} call still rebuilds everything. Disable with
+ * {@code -Djflap.incrementalIndexes=false}.</p>
+ */
+public final class ArrowMaps {
+  /** The angle between the two ends of a pair of opposite arrows, as in {@code refreshArrowMap()}. */
+  private static final double PAIR_SPREAD = 0.12566370614359174;
+  private static final double LOOP_FROM = -1.046150353645401;
+  private static final double LOOP_TO = -2.0954422999443922;
+  private static final double LOOP_SPREAD = 0.5215043804959056;
+
+  private ArrowMaps() {
+  }
+
+  /**
+   * Hook prepended to {@code AutomatonDrawer.refreshArrowMap()}.
+   *
+   * @return {@code true} if the arrow maps are up to date, {@code false} to run the original refresh
+   */
+  public static boolean refresh(AutomatonDrawer drawer) {
+    Automaton automaton = drawer.getAutomaton();
+    if (automaton == null || !StateVersions.isEnabled()) {
+      HitIndex.discard(drawer);
+      return false;
+    }
+    Entry entry = entry(drawer);
+    State[] states = automaton.getStates();
+    HitIndex hits = null;
+    if (entry.automaton != automaton || entry.full || entry.dirty.size() * 2 > states.length) {
+      drawer.arrowToTransitionMap.clear();
+      drawer.transitionToArrowMap.clear();
+      HitIndex.discard(drawer);
+      entry.dirty.clear();
+      Collections.addAll(entry.dirty, states);
+    } else {
+      hits = HitIndex.peek(drawer);
+      entry.dirty.addAll(entry.newLoops);
+      removeArrows(drawer, entry.dirty, hits);
+    }
+    entry.newLoops.clear();
+    for (State state : entry.dirty) {
+      if (automaton.isState(state)) {
+        layOut(drawer, automaton, state, entry, hits);
+      }
+    }
+    entry.automaton = automaton;
+    entry.full = false;
+    entry.dirty.clear();
+    return true;
+  }
+
+  /**
+   * Hook prepended to {@code AutomatonDrawer.invalidate()}: unless called for an edit reported to
+   * {@link #invalidateForEdit}, the next refresh rebuilds every arrow.
+   */
+  public static void invalidated(AutomatonDrawer drawer) {
+    Entry entry = entry(drawer);
+    if (!entry.editing) {
+      entry.full = true;
+    }
+  }
+
+  /**
+   * Replaces the {@code invalidate()} call in {@code AutomatonDrawer.transitionChange}.
+   */
+  public static void invalidateForEdit(AutomatonDrawer drawer, AutomataTransitionEvent e) {
+    Transition transition = e.getTransition();
+    Entry entry = entry(drawer);
+    if (transition != null) {
+      entry.touch(transition.getFromState());
+      entry.touch(transition.getToState());
+    } else {
+      entry.full = true;
+    }
+    invalidate(drawer, entry);
+  }
+
+  /**
+   * Replaces the {@code invalidate()} call in {@code AutomatonDrawer.stateChange}, made when a state
+   * moves.
+   */
+  public static void invalidateForEdit(AutomatonDrawer drawer, AutomataStateEvent e) {
+    Entry entry = entry(drawer);
+    if (e.getState() != null) {
+      entry.touch(e.getState());
+    } else {
+      entry.full = true;
+    }
+    invalidate(drawer, entry);
+  }
+
+  private static void invalidate(AutomatonDrawer drawer, Entry entry) {
+    entry.editing = true;
+    try {
+      drawer.invalidate();
+    } finally {
+      entry.editing = false;
+    }
+  }
+
+  /**
+   * The upkeep of {@code drawer}, kept on the drawer (see {@link DrawerMaps}): its states reach the
+   * drawer through the automaton's listeners, so a static map would never let the drawer go.
+   */
+  private static Entry entry(AutomatonDrawer drawer) {
+    DrawerMaps maps = DrawerMaps.of(drawer);
+    synchronized (maps) {
+      if (maps.arrows == null) {
+        maps.arrows = new Entry();
+      }
+      return maps.arrows;
+    }
+  }
+
+  /**
+   * Drops the arrows of every transition from or to a state in {@code dirty}, including transitions
+   * the automaton no longer has.
+   */
+  private static void removeArrows(AutomatonDrawer drawer, Set<State> dirty, HitIndex hits) {
+    Iterator<Map.Entry<Transition, CurvedArrow>> arrows = drawer.transitionToArrowMap.entrySet().iterator();
+    while (arrows.hasNext()) {
+      Map.Entry<Transition, CurvedArrow> arrow = arrows.next();
+      Transition transition = arrow.getKey();
+      if (dirty.contains(transition.getFromState()) || dirty.contains(transition.getToState())) {
+        drawer.arrowToTransitionMap.remove(arrow.getValue());
+        arrows.remove();
+        if (hits != null) {
+          hits.arrowRemoved(arrow.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * Lays out the self loops of {@code state} and the arrows between it and each neighbour, skipping
+   * pairs that the other state, also dirty, lays out.
+   */
+  private static void layOut(AutomatonDrawer drawer, Automaton automaton, State state, Entry entry, HitIndex hits) {
+    Set<State> neighbours = Collections.newSetFromMap(new IdentityHashMap<State, Boolean>());
+    Transition[] from = automaton.getTransitionsFromState(state);
+    for (int i = 0; i < from.length; i++) {
+      neighbours.add(from[i].getToState());
+    }
+    Transition[] to = automaton.getTransitionsToState(state);
+    for (int i = 0; i < to.length; i++) {
+      neighbours.add(to[i].getFromState());
+    }
+    for (State neighbour : neighbours) {
+      if (neighbour == state || !automaton.isState(neighbour)) {
+        continue;
+      }
+      boolean first = before(state, neighbour);
+      if (entry.dirty.contains(neighbour) && !first) {
+        continue;
+      }
+      if (first) {
+        layOutPair(drawer, automaton, state, neighbour, hits);
+      } else {
+        layOutPair(drawer, automaton, neighbour, state, hits);
+      }
+    }
+    if (layOutLoops(drawer, automaton, state, hits)) {
+      entry.newLoops.add(state);
+    }
+  }
+
+  /**
+   * The order {@code refreshArrowMap()} visits states in: {@code Automaton.getStates()} sorts by ID.
+   */
+  private static boolean before(State a, State b) {
+    if (a.getID() != b.getID()) {
+      return a.getID() < b.getID();
+    }
+    return System.identityHashCode(a) < System.identityHashCode(b);
+  }
+
+  private static void layOutPair(AutomatonDrawer drawer, Automaton automaton, State a, State b, HitIndex hits) {
+    Transition[] forward = automaton.getTransitionsFromStateToState(a, b);
+    Transition[] backward = automaton.getTransitionsFromStateToState(b, a);
+    if (forward.length + backward.length == 0) {
+      return;
+    }
+    float forwardCurve = (backward.length > 0) ? 0.5f : 0;
+    float backwardCurve = (forward.length > 0) ? 0.5f : 0;
+    Point pa = a.getPoint();
+    Point pb = b.getPoint();
+    double angle = Math.atan2(pb.y - pa.y, pb.x - pa.x);
+
+    Point start = drawer.pointOnState(a, angle - PAIR_SPREAD);
+    Point end = drawer.pointOnState(b, angle + Math.PI + PAIR_SPREAD);
+    for (int k = 0; k < forward.length; k++) {
+      Float curve = drawer.curveTransitionMap.get(forward[k]);
+      if (curve != null) {
+        forwardCurve = curve;
+      }
+      put(drawer, forward[k], arrow(start, end, forwardCurve + k, forward[k], k), hits);
+    }
+
+    start = drawer.pointOnState(a, angle + PAIR_SPREAD);
+    end = drawer.pointOnState(b, angle + Math.PI - PAIR_SPREAD);
+    for (int k = 0; k < backward.length; k++) {
+      Float curve = drawer.curveTransitionMap.get(backward[k]);
+      if (curve != null) {
+        backwardCurve = curve;
+      }
+      put(drawer, backward[k], arrow(end, start, backwardCurve + k, backward[k], k), hits);
+    }
+  }
+
+  /**
+   * Lays out the self loops of {@code state}.
+   *
+   * @return whether a loop had no angle yet and was given {@code refreshArrowMap()}'s default ends,
+   *     which differ by a pixel from those the next refresh derives from the angle it stores
+   */
+  private static boolean layOutLoops(AutomatonDrawer drawer, Automaton automaton, State state, HitIndex hits) {
+    Transition[] loops = automaton.getTransitionsFromStateToState(state, state);
+    boolean newLoop = false;
+    Point start = drawer.pointOnState(state, LOOP_FROM);
+    Point end = drawer.pointOnState(state, LOOP_TO);
+    for (int k = 0; k < loops.length; k++) {
+      Double angle = drawer.selfTransitionMap.get(loops[k]);
+      CurvedArrow arrow;
+      if (angle != null) {
+        arrow = arrow(
+          drawer.pointOnState(state, angle + LOOP_SPREAD),
+          drawer.pointOnState(state, angle - LOOP_SPREAD),
+          -2f - k,
+          loops[k],
+          k
+        );
+      } else {
+        drawer.selfTransitionMap.put(loops[k], -Math.PI / 2);
+        arrow = arrow(start, end, -2f - k, loops[k], k);
+        newLoop = true;
+      }
+      put(drawer, loops[k], arrow, hits);
+    }
+    return newLoop;
+  }
+
+  /**
+   * Only the first arrow between two states is drawn; the rest carry their labels.
+   */
+  private static CurvedArrow arrow(Point start, Point end, float curvature, Transition transition, int k) {
+    return (k == 0)
+      ? new CurvedArrow(start, end, curvature, transition)
+      : new InvisibleCurvedArrow(start, end, curvature, transition);
+  }
+
+  private static void put(AutomatonDrawer drawer, Transition transition, CurvedArrow arrow, HitIndex hits) {
+    arrow.setLabel(transition.getDescription());
+    drawer.arrowToTransitionMap.put(arrow, transition);
+    drawer.transitionToArrowMap.put(transition, arrow);
+    if (hits != null) {
+      hits.arrowAdded(arrow);
+    }
+  }
+
+  static final class Entry {
+    /** The automaton the maps were last built for. */
+    Automaton automaton;
+    /** Whether the next refresh must rebuild every arrow. */
+    boolean full = true;
+    /** Whether {@code invalidate()} is being called for an edit already recorded in {@link #dirty}. */
+    boolean editing;
+    final Set<State> dirty = Collections.newSetFromMap(new IdentityHashMap<State, Boolean>());
+    /** States whose loops the next refresh lays out again, as the full rebuild would. */
+    final Set<State> newLoops = Collections.newSetFromMap(new IdentityHashMap<State, Boolean>());
+
+    void touch(State state) {
+      if (state != null) {
+        dirty.add(state);
+      }
+    }
+  }
+}
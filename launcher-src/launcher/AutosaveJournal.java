@@ -0,0 +1,975 @@
+package launcher;
+
+import automata.Automaton;
+import automata.Note;
+import automata.State;
+import automata.StateVersions;
+import automata.Transition;
+import automata.event.AutomataNoteEvent;
+import automata.event.AutomataNoteListener;
+import automata.event.AutomataStateEvent;
+import automata.event.AutomataStateListener;
+import automata.event.AutomataTransitionEvent;
+import automata.event.AutomataTransitionListener;
+import automata.fsa.FSATransition;
+import automata.mealy.MealyTransition;
+import automata.mealy.MooreMachine;
+import automata.pda.PDATransition;
+import automata.turing.TMTransition;
+import automata.turing.TuringMachine;
+import automata.turing.TuringMachineBuildingBlocks;
+import file.BinaryCodec;
+import file.Encoder;
+import file.XMLCodec;
+import gui.environment.Environment;
+import gui.environment.EnvironmentFrame;
+import gui.environment.FileChangeEvent;
+import gui.environment.FileChangeListener;
+import gui.environment.FrameFactory;
+
+import java.awt.Point;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Crash protection for open automata as an append-only journal of edits, one per
+ * {@link EnvironmentFrame}, under {@code ~/.jflap-modern/autosave}.
+ *
+ * <p>Saving rewrites the whole file, which on a large machine takes long enough that doing it
+ * every few seconds would stall the editor. Instead, the journal listens to the automaton's state,
+ * transition and note events, and a second after an edit asks {@link StateVersions} which states
+ * were touched. For those only it appends one batch: each state's position, name, label, final
+ * flag and outgoing transitions (or that it was removed), with the initial state and the notes
+ * when they changed. A batch costs what the edit touched, and it is written by a background thread
+ * through a {@link FileChannel}, framed with its length and a CRC so that a batch cut short by a
+ * crash is dropped on recovery.</p>
+ *
+ * <p>Every {@code -Djflap.autosaveSeconds} (60 by default) with edits pending, a copy of the
+ * automaton is compacted on the background thread into the real file (then marked saved if nothing
+ * changed meanwhile), or, for an untitled machine, into a {@code .jffb} snapshot next to the
+ * journal; the journal then starts over. Only the copy, and the rename of the finished file over
+ * the real one, are done on the event thread; the rename is skipped, and a snapshot written
+ * instead, if the file was saved or changed on disk since the copy. Saving starts the journal
+ * over too, and closing the window deletes it.</p>
+ *
+ * <p>A journal left behind by a session that did not close is offered for recovery at startup:
+ * the base file or snapshot is read and the batches are replayed onto it. Batches hold whole
+ * states, so replaying one that is already in the base changes nothing.</p>
+ *
+ * <p>{@code Universe} is patched at build time (see {@code tools-src/patch/AutosavePatcher.java})
+ * to attach a journal to each registered frame. Moore machines, whose outputs change without
+ * events, and Turing machines with building blocks are not journaled. Disable with
+ * {@code -Djflap.autosave=false}.</p>
+ */
+public final class AutosaveJournal
+  implements AutomataStateListener, AutomataTransitionListener, AutomataNoteListener, FileChangeListener, ActionListener {
+  private static final String ENABLED_PROPERTY = "jflap.autosave";
+  private static final String INTERVAL_PROPERTY = "jflap.autosaveSeconds";
+  private static final long DEFAULT_INTERVAL_SECONDS = 60;
+  private static final int FLUSH_DELAY_MS = 1000;
+
+  private static final int MAGIC = 0x4A464A4C; // "JFJL"
+  private static final int VERSION = 1;
+  private static final int BASE_FILE = 0;
+  private static final int BASE_SNAPSHOT = 1;
+  private static final String SUFFIX = ".journal";
+
+  private static final int FSA = 1;
+  private static final int PDA = 2;
+  private static final int MEALY = 3;
+  private static final int TM = 4;
+
+  private static final Map<EnvironmentFrame, AutosaveJournal> OPEN =
+    Collections.synchronizedMap(new IdentityHashMap<EnvironmentFrame, AutosaveJournal>());
+  private static final AtomicInteger COUNTER = new AtomicInteger();
+
+  private final Environment environment;
+  private final Automaton automaton;
+  private final StateVersions versions;
+  private final File journal;
+  private final File snapshot;
+  private final Timer timer;
+
+  /** Event thread only: what the journal holds so far. */
+  private long flushedVersion;
+  private State flushedInitial;
+  private NoteRecord[] flushedNotes;
+  private long edits;
+  private long editsAtCompaction;
+  private long lastCompaction;
+  private boolean rebasePending;
+  /** How many times the environment's file was saved or replaced. */
+  private int saves;
+
+  /** Writer thread only. */
+  private FileChannel channel;
+  private FileLock lock;
+
+  private AutosaveJournal(Environment environment, Automaton automaton, File journal) {
+    this.environment = environment;
+    this.automaton = automaton;
+    this.versions = StateVersions.of(automaton);
+    this.journal = journal;
+    this.snapshot = new File(journal.getPath() + BinaryCodec.SUFFIX);
+    this.timer = new Timer(FLUSH_DELAY_MS, this);
+    timer.setRepeats(false);
+    lastCompaction = System.currentTimeMillis();
+  }
+
+  public static boolean isEnabled() {
+    return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY)) && directory() != null;
+  }
+
+  /**
+   * Hook appended to {@code Universe.registerFrame(EnvironmentFrame)}.
+   */
+  public static void attach(EnvironmentFrame frame) {
+    if (!isEnabled() || frame == null || OPEN.containsKey(frame)) {
+      return;
+    }
+    Environment environment = frame.getEnvironment();
+    Serializable object = environment == null ? null : environment.getObject();
+    if (!(object instanceof Automaton) || object instanceof MooreMachine
+      || object instanceof TuringMachineBuildingBlocks) {
+      return;
+    }
+    File journal = new File(directory(), System.currentTimeMillis() + "-" + COUNTER.incrementAndGet() + SUFFIX);
+    final AutosaveJournal autosave = new AutosaveJournal(environment, (Automaton) object, journal);
+    OPEN.put(frame, autosave);
+    autosave.automaton.addStateListener(autosave);
+    autosave.automaton.addTransitionListener(autosave);
+    autosave.automaton.addNoteListener(autosave);
+    environment.addFileChangeListener(autosave);
+    // OpenAction sets the file after the frame is made; the base is picked once it has.
+    autosave.scheduleRebase();
+  }
+
+  /**
+   * Hook prepended to {@code Universe.unregisterFrame(EnvironmentFrame)}: the window is closing,
+   * saved or not, so its journal goes.
+   */
+  public static void detach(EnvironmentFrame frame) {
+    final AutosaveJournal autosave = OPEN.remove(frame);
+    if (autosave == null) {
+      return;
+    }
+    autosave.timer.stop();
+    autosave.automaton.removeStateListener(autosave);
+    autosave.automaton.removeTransitionListener(autosave);
+    autosave.automaton.removeNoteListener(autosave);
+    autosave.environment.removeFileChangeListener(autosave);
+    Holder.WRITER.execute(new Runnable() {
+      @Override
+      public void run() {
+        autosave.closeChannel();
+        autosave.journal.delete();
+        autosave.snapshot.delete();
+      }
+    });
+  }
+
+  @Override
+  public void automataStateChange(AutomataStateEvent e) {
+    edited();
+  }
+
+  @Override
+  public void automataTransitionChange(AutomataTransitionEvent e) {
+    edited();
+  }
+
+  @Override
+  public void automataNoteChange(AutomataNoteEvent e) {
+    edited();
+  }
+
+  @Override
+  public void fileChanged(FileChangeEvent e) {
+    saves++;
+    scheduleRebase();
+  }
+
+  private void edited() {
+    edits++;
+    if (!timer.isRunning()) {
+      timer.start();
+    }
+  }
+
+  private void scheduleRebase() {
+    if (rebasePending) {
+      return;
+    }
+    rebasePending = true;
+    SwingUtilities.invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        rebasePending = false;
+        if (OPEN.containsValue(AutosaveJournal.this)) {
+          rebase();
+        }
+      }
+    });
+  }
+
+  /**
+   * Starts the journal over from the file, if what is open is what it holds, or else from a
+   * snapshot of the automaton.
+   */
+  private void rebase() {
+    markFlushed();
+    final File file = environment.getFile();
+    final String path = file == null ? "" : file.getAbsolutePath();
+    if (file != null && !environment.isDirty()) {
+      Holder.WRITER.execute(new Runnable() {
+        @Override
+        public void run() {
+          restart(path, BASE_FILE);
+          snapshot.delete();
+        }
+      });
+    } else {
+      final Automaton copy = (Automaton) automaton.clone();
+      Holder.WRITER.execute(new Runnable() {
+        @Override
+        public void run() {
+          compactIntoSnapshot(copy, path);
+        }
+      });
+    }
+  }
+
+  private void markFlushed() {
+    flushedVersion = versions.getVersion();
+    flushedInitial = automaton.getInitialState();
+    flushedNotes = notes(automaton);
+    editsAtCompaction = edits;
+    lastCompaction = System.currentTimeMillis();
+  }
+
+  /**
+   * The flush timer: appends the states touched since the last batch, and compacts when it is
+   * time to.
+   */
+  @Override
+  public void actionPerformed(ActionEvent e) {
+    if (!OPEN.containsValue(this) || rebasePending) {
+      return;
+    }
+    final byte[] batch = batch();
+    if (batch != null) {
+      Holder.WRITER.execute(new Runnable() {
+        @Override
+        public void run() {
+          append(batch);
+        }
+      });
+    }
+    if (edits != editsAtCompaction && System.currentTimeMillis() - lastCompaction >= intervalMillis()) {
+      compact();
+    }
+  }
+
+  private void compact() {
+    final Automaton copy = (Automaton) automaton.clone();
+    final long editsAtCopy = edits;
+    final int savesAtCopy = saves;
+    final File file = environment.getFile();
+    final long modifiedAtCopy = file == null ? 0 : file.lastModified();
+    Encoder encoder = environment.getEncoder();
+    if (encoder == null && file != null) {
+      encoder = file.getName().endsWith(BinaryCodec.SUFFIX) ? new BinaryCodec() : new XMLCodec();
+    }
+    final Encoder target = encoder;
+    editsAtCompaction = editsAtCopy;
+    lastCompaction = System.currentTimeMillis();
+    Holder.WRITER.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (file == null || target == null || !compactIntoFile(copy, file, target, editsAtCopy, savesAtCopy, modifiedAtCopy)) {
+          compactIntoSnapshot(copy, file == null ? "" : file.getAbsolutePath());
+        }
+      }
+    });
+  }
+
+  /**
+   * The states touched since the last batch, with the initial state and notes if they changed,
+   * or {@code null} if nothing did.
+   */
+  private byte[] batch() {
+    Set<State> touched = versions.changedSince(flushedVersion);
+    if (touched == null) {
+      // Too many edits to have been logged; write every state, and the removed ones are in no
+      // batch. A snapshot puts that right.
+      touched = Collections.newSetFromMap(new IdentityHashMap<State, Boolean>());
+      Collections.addAll(touched, automaton.getStates());
+      editsAtCompaction = -1;
+      lastCompaction = 0;
+    }
+    flushedVersion = versions.getVersion();
+    State initial = automaton.getInitialState();
+    NoteRecord[] notes = notes(automaton);
+    boolean initialChanged = initial != flushedInitial;
+    boolean notesChanged = !NoteRecord.same(flushedNotes, notes);
+    if (touched.isEmpty() && !initialChanged && !notesChanged) {
+      return null;
+    }
+    flushedInitial = initial;
+    flushedNotes = notes;
+    return writeBatch(automaton, touched, initialChanged, notesChanged ? notes : null);
+  }
+
+  /**
+   * Writes one batch for {@code touched}, with the initial state if {@code initialChanged} and
+   * {@code notes} unless {@code null}. The removed states come first, and one is left out if a
+   * present state has taken its ID, so replaying the batch cannot remove a state added in the
+   * same batch.
+   */
+  static byte[] writeBatch(Automaton automaton, Collection<State> touched, boolean initialChanged, NoteRecord[] notes) {
+    List<State> removed = new ArrayList<>();
+    List<State> present = new ArrayList<>();
+    Set<Integer> presentIds = new HashSet<>();
+    for (State state : touched) {
+      if (automaton.isState(state)) {
+        present.add(state);
+        presentIds.add(state.getID());
+      } else {
+        removed.add(state);
+      }
+    }
+    for (Iterator<State> i = removed.iterator(); i.hasNext();) {
+      if (presentIds.contains(i.next().getID())) {
+        i.remove();
+      }
+    }
+
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + present.size() * 48);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(removed.size() + present.size());
+      for (State state : removed) {
+        out.writeInt(state.getID());
+        out.writeBoolean(false);
+      }
+      for (State state : present) {
+        out.writeInt(state.getID());
+        out.writeBoolean(true);
+        writeState(out, automaton, state);
+      }
+      out.writeBoolean(initialChanged);
+      if (initialChanged) {
+        State initial = automaton.getInitialState();
+        out.writeInt(initial == null ? -1 : initial.getID());
+      }
+      out.writeBoolean(notes != null);
+      if (notes != null) {
+        out.writeInt(notes.length);
+        for (int i = 0; i < notes.length; i++) {
+          out.writeBoolean(notes[i].point != null);
+          if (notes[i].point != null) {
+            out.writeInt(notes[i].point.x);
+            out.writeInt(notes[i].point.y);
+          }
+          writeString(out, notes[i].text);
+        }
+      }
+      out.flush();
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      // A ByteArrayOutputStream does not throw.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void writeState(DataOutputStream out, Automaton automaton, State state) throws IOException {
+    Point point = state.getPoint();
+    out.writeInt(point.x);
+    out.writeInt(point.y);
+    writeString(out, state.getName());
+    writeString(out, state.getLabel());
+    out.writeBoolean(automaton.isFinalState(state));
+    Transition[] from = automaton.getTransitionsFromState(state);
+    out.writeInt(from.length);
+    for (int i = 0; i < from.length; i++) {
+      out.writeInt(from[i].getToState().getID());
+      if (from[i] instanceof TMTransition) {
+        TMTransition transition = (TMTransition) from[i];
+        out.writeByte(TM);
+        out.writeInt(transition.tapes());
+        for (int tape = 0; tape < transition.tapes(); tape++) {
+          writeString(out, transition.getRead(tape));
+          writeString(out, transition.getWrite(tape));
+          writeString(out, transition.getDirection(tape));
+        }
+        out.writeBoolean(transition.isBlockTransition());
+      } else if (from[i] instanceof PDATransition) {
+        PDATransition transition = (PDATransition) from[i];
+        out.writeByte(PDA);
+        writeString(out, transition.getInputToRead());
+        writeString(out, transition.getStringToPop());
+        writeString(out, transition.getStringToPush());
+      } else if (from[i] instanceof MealyTransition) {
+        out.writeByte(MEALY);
+        writeString(out, ((MealyTransition) from[i]).getLabel());
+        writeString(out, ((MealyTransition) from[i]).getOutput());
+      } else {
+        out.writeByte(FSA);
+        writeString(out, ((FSATransition) from[i]).getLabel());
+      }
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(utf8.length);
+    out.write(utf8);
+  }
+
+  // Writer thread.
+
+  /**
+   * Appends {@code batch} framed as length, bytes, CRC-32.
+   */
+  private void append(byte[] batch) {
+    if (channel == null) {
+      return;
+    }
+    CRC32 crc = new CRC32();
+    crc.update(batch, 0, batch.length);
+    ByteBuffer buffer = ByteBuffer.allocate(batch.length + 8);
+    buffer.putInt(batch.length).put(batch).putInt((int) crc.getValue());
+    buffer.flip();
+    try {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } catch (IOException e) {
+      closeChannel();
+    }
+  }
+
+  /**
+   * Writes {@code copy} over {@code file} through a temporary file next to it, and starts the
+   * journal over from the file. Returns {@code false}, leaving the file alone, if writing fails or
+   * the file was saved or changed since the copy.
+   */
+  private boolean compactIntoFile(Automaton copy, File file, Encoder encoder, long editsAtCopy, int savesAtCopy,
+    long modifiedAtCopy) {
+    File temporary = null;
+    try {
+      File directory = file.getAbsoluteFile().getParentFile();
+      temporary = File.createTempFile(file.getName() + ".autosave", ".tmp", directory);
+      encoder.encode(copy, temporary, null);
+      if (!moveUnlessSaved(temporary, file, editsAtCopy, savesAtCopy, modifiedAtCopy)) {
+        return false;
+      }
+    } catch (IOException e) {
+      return false;
+    } catch (RuntimeException e) {
+      return false;
+    } finally {
+      if (temporary != null) {
+        temporary.delete();
+      }
+    }
+    restart(file.getAbsolutePath(), BASE_FILE);
+    snapshot.delete();
+    return true;
+  }
+
+  /**
+   * Renames {@code temporary} over {@code file} on the event thread, where saving happens, so a
+   * save cannot come between the check and the rename. The writer thread waits, so batches queued
+   * meanwhile are appended after the journal starts over.
+   */
+  private boolean moveUnlessSaved(final File temporary, final File file, final long editsAtCopy,
+    final int savesAtCopy, final long modifiedAtCopy) throws IOException {
+    final boolean[] moved = new boolean[1];
+    final IOException[] failure = new IOException[1];
+    try {
+      SwingUtilities.invokeAndWait(new Runnable() {
+        @Override
+        public void run() {
+          if (saves != savesAtCopy || file.lastModified() != modifiedAtCopy
+            || !OPEN.containsValue(AutosaveJournal.this)) {
+            return;
+          }
+          try {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+          } catch (IOException e) {
+            failure[0] = e;
+            return;
+          }
+          moved[0] = true;
+          if (edits == editsAtCopy) {
+            environment.clearDirty();
+          }
+        }
+      });
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (InvocationTargetException e) {
+      return false;
+    }
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+    return moved[0];
+  }
+
+  private void compactIntoSnapshot(Automaton copy, String path) {
+    File directory = journal.getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      return;
+    }
+    File temporary = null;
+    try {
+      temporary = File.createTempFile("snapshot", ".tmp", directory);
+      new BinaryCodec().encode(copy, temporary, null);
+      Files.move(temporary.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      return;
+    } catch (RuntimeException e) {
+      return;
+    } finally {
+      if (temporary != null) {
+        temporary.delete();
+      }
+    }
+    restart(path, BASE_SNAPSHOT);
+  }
+
+  /**
+   * Empties the journal, opening it on first use, and writes its header.
+   */
+  private void restart(String path, int base) {
+    try {
+      if (channel == null) {
+        File directory = journal.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+          return;
+        }
+        channel = FileChannel.open(journal.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Held while the window is open, so that recovery can tell a live journal from a stray one.
+        lock = channel.tryLock();
+      }
+      byte[] utf8 = path.getBytes(StandardCharsets.UTF_8);
+      ByteBuffer header = ByteBuffer.allocate(10 + utf8.length);
+      header.putInt(MAGIC).put((byte) VERSION).put((byte) base).putInt(utf8.length).put(utf8);
+      header.flip();
+      channel.truncate(0);
+      channel.position(0);
+      while (header.hasRemaining()) {
+        channel.write(header);
+      }
+      // Batches may be lost to a crash, but not the base they apply to.
+      channel.force(false);
+    } catch (IOException e) {
+      closeChannel();
+    }
+  }
+
+  private void closeChannel() {
+    try {
+      if (lock != null) {
+        lock.release();
+      }
+      if (channel != null) {
+        channel.close();
+      }
+    } catch (IOException ignored) {
+      // The journal is deleted or left for recovery either way.
+    }
+    lock = null;
+    channel = null;
+  }
+
+  // Recovery.
+
+  /**
+   * Offers to recover every journal that no open window holds, on the event thread. Called by
+   * {@link ModernMain} once JFLAP has started.
+   */
+  public static void offerRecovery() {
+    if (!isEnabled()) {
+      return;
+    }
+    SwingUtilities.invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        File[] files = directory().listFiles();
+        if (files == null) {
+          return;
+        }
+        Arrays.sort(files);
+        for (int i = 0; i < files.length; i++) {
+          if (files[i].getName().endsWith(SUFFIX) && !isHeld(files[i])) {
+            offerRecovery(files[i]);
+          }
+        }
+      }
+    });
+  }
+
+  private static boolean isHeld(File file) {
+    synchronized (OPEN) {
+      for (AutosaveJournal open : OPEN.values()) {
+        if (open.journal.equals(file)) {
+          return true;
+        }
+      }
+    }
+    FileChannel channel = null;
+    try {
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+      FileLock probe = channel.tryLock();
+      if (probe == null) {
+        return true;
+      }
+      probe.release();
+      return false;
+    } catch (OverlappingFileLockException e) {
+      return true;
+    } catch (IOException e) {
+      return true;
+    } finally {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+  }
+
+  private static void offerRecovery(File file) {
+    File snapshot = new File(file.getPath() + BinaryCodec.SUFFIX);
+    Journal read = Journal.read(file);
+    if (read == null || read.batches.isEmpty() && read.base == BASE_FILE) {
+      // Nothing that is not in the file already.
+      file.delete();
+      snapshot.delete();
+      return;
+    }
+    String name = read.path.isEmpty() ? "an untitled machine" : new File(read.path).getName();
+    int choice = JOptionPane.showConfirmDialog(
+      null,
+      "JFLAP did not close normally while editing " + name + ".\nRecover the unsaved edits?",
+      "Recover Autosave",
+      JOptionPane.YES_NO_OPTION
+    );
+    if (choice == JOptionPane.YES_OPTION) {
+      try {
+        Automaton recovered = read.replay(snapshot);
+        EnvironmentFrame frame = FrameFactory.createFrame(recovered);
+        if (frame != null && !read.path.isEmpty()) {
+          frame.getEnvironment().setFile(new File(read.path));
+          frame.getEnvironment().setDirty();
+        }
+      } catch (RuntimeException e) {
+        JOptionPane.showMessageDialog(null, "The autosave could not be recovered:\n" + e.getMessage(),
+          "Recover Autosave", JOptionPane.ERROR_MESSAGE);
+        return;
+      }
+    }
+    file.delete();
+    snapshot.delete();
+  }
+
+  /**
+   * A journal as read back: its header and every batch whose CRC holds, up to the first that does not.
+   */
+  private static final class Journal {
+    final int base;
+    final String path;
+    final List<ByteBuffer> batches = new ArrayList<>();
+
+    private Journal(int base, String path) {
+      this.base = base;
+      this.path = path;
+    }
+
+    static Journal read(File file) {
+      ByteBuffer buffer;
+      try {
+        buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+      } catch (IOException e) {
+        return null;
+      }
+      if (buffer.remaining() < 10 || buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+        return null;
+      }
+      int base = buffer.get();
+      int length = buffer.getInt();
+      if (length < 0 || length > buffer.remaining()) {
+        return null;
+      }
+      byte[] utf8 = new byte[length];
+      buffer.get(utf8);
+      Journal journal = new Journal(base, new String(utf8, StandardCharsets.UTF_8));
+      while (buffer.remaining() >= 8) {
+        int size = buffer.getInt();
+        if (size < 0 || size > buffer.remaining() - 4) {
+          break;
+        }
+        byte[] batch = new byte[size];
+        buffer.get(batch);
+        CRC32 crc = new CRC32();
+        crc.update(batch, 0, size);
+        if (buffer.getInt() != (int) crc.getValue()) {
+          break;
+        }
+        journal.batches.add(ByteBuffer.wrap(batch));
+      }
+      return journal;
+    }
+
+    Automaton replay(File snapshot) {
+      File from = base == BASE_SNAPSHOT ? snapshot : new File(path);
+      Serializable structure = BulkImport.sniff(from) == BulkImport.Format.BINARY
+        ? new BinaryCodec().decode(from, null)
+        : new XMLCodec().decode(from, null);
+      if (!(structure instanceof Automaton)) {
+        throw new IllegalStateException(from.getName() + " does not hold an automaton.");
+      }
+      Automaton automaton = (Automaton) structure;
+      for (ByteBuffer batch : batches) {
+        apply(automaton, batch);
+      }
+      return automaton;
+    }
+
+    /**
+     * Puts the states of one batch into {@code automaton}: first every state, then their transitions,
+     * so that a transition finds its target whichever order the states came in. Both ends of a
+     * transition are looked up by ID once every state is in place.
+     */
+    private static void apply(Automaton automaton, ByteBuffer in) {
+      int count = in.getInt();
+      int[] ids = new int[count];
+      int[] transitionsAt = new int[count];
+      for (int i = 0; i < count; i++) {
+        int id = in.getInt();
+        ids[i] = id;
+        State state = automaton.getStateWithID(id);
+        if (in.get() == 0) {
+          if (state != null) {
+            automaton.removeState(state);
+          }
+          transitionsAt[i] = -1;
+          continue;
+        }
+        Point point = new Point(in.getInt(), in.getInt());
+        if (state == null) {
+          state = automaton instanceof TuringMachine
+            ? ((TuringMachine) automaton).createTMStateWithID(point, id)
+            : automaton.createStateWithId(point, id);
+        } else {
+          state.setPoint(point);
+        }
+        state.setName(readString(in));
+        state.setLabel(readString(in));
+        if (in.get() != 0) {
+          automaton.addFinalState(state);
+        } else if (automaton.isFinalState(state)) {
+          automaton.removeFinalState(state);
+        }
+        transitionsAt[i] = in.position();
+        skipTransitions(in);
+      }
+      int end = in.position();
+      for (int i = 0; i < count; i++) {
+        State state = transitionsAt[i] < 0 ? null : automaton.getStateWithID(ids[i]);
+        if (state == null) {
+          continue;
+        }
+        Transition[] from = automaton.getTransitionsFromState(state);
+        for (int j = 0; j < from.length; j++) {
+          automaton.removeTransition(from[j]);
+        }
+        in.position(transitionsAt[i]);
+        int transitions = in.getInt();
+        for (int j = 0; j < transitions; j++) {
+          Transition transition = readTransition(in, state, automaton.getStateWithID(in.getInt()));
+          if (transition != null) {
+            automaton.addTransition(transition);
+          }
+        }
+      }
+      in.position(end);
+      if (in.get() != 0) {
+        int initial = in.getInt();
+        automaton.setInitialState(initial < 0 ? null : automaton.getStateWithID(initial));
+      }
+      if (in.get() != 0) {
+        List<Note> current = new ArrayList<>(automaton.getNotes());
+        for (Note note : current) {
+          automaton.deleteNote(note);
+        }
+        int notes = in.getInt();
+        for (int i = 0; i < notes; i++) {
+          Point point = in.get() != 0 ? new Point(in.getInt(), in.getInt()) : null;
+          automaton.addNote(new Note(point, readString(in)));
+        }
+      }
+    }
+
+    private static void skipTransitions(ByteBuffer in) {
+      int transitions = in.getInt();
+      for (int j = 0; j < transitions; j++) {
+        in.getInt();
+        readTransition(in, null, null);
+      }
+    }
+
+    /**
+     * Reads one transition; {@code null} if {@code to} is, as when only skipping.
+     */
+    private static Transition readTransition(ByteBuffer in, State from, State to) {
+      int kind = in.get();
+      Transition transition;
+      if (kind == TM) {
+        int tapes = in.getInt();
+        String[] read = new String[tapes];
+        String[] write = new String[tapes];
+        String[] move = new String[tapes];
+        for (int tape = 0; tape < tapes; tape++) {
+          read[tape] = readString(in);
+          write[tape] = readString(in);
+          move[tape] = readString(in);
+        }
+        boolean block = in.get() != 0;
+        if (to == null) {
+          return null;
+        }
+        TMTransition tm = new TMTransition(from, to, read, write, move);
+        tm.setBlockTransition(block);
+        transition = tm;
+      } else if (kind == PDA) {
+        String read = readString(in);
+        String pop = readString(in);
+        String push = readString(in);
+        transition = to == null ? null : new PDATransition(from, to, read, pop, push);
+      } else if (kind == MEALY) {
+        String label = readString(in);
+        String output = readString(in);
+        transition = to == null ? null : new MealyTransition(from, to, label, output);
+      } else {
+        String label = readString(in);
+        transition = to == null ? null : new FSATransition(from, to, label);
+      }
+      return transition;
+    }
+
+    private static String readString(ByteBuffer in) {
+      int length = in.getInt();
+      if (length < 0) {
+        return null;
+      }
+      byte[] utf8 = new byte[length];
+      in.get(utf8);
+      return new String(utf8, StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Replays one batch written by {@link #writeBatch} onto {@code automaton}.
+   */
+  static void replayBatch(Automaton automaton, byte[] batch) {
+    Journal.apply(automaton, ByteBuffer.wrap(batch));
+  }
+
+  private static NoteRecord[] notes(Automaton automaton) {
+    List<Note> notes = automaton.getNotes();
+    NoteRecord[] records = new NoteRecord[notes.size()];
+    for (int i = 0; i < records.length; i++) {
+      records[i] = new NoteRecord(notes.get(i));
+    }
+    return records;
+  }
+
+  /**
+   * A note's text and place, to tell whether the notes changed since the last batch.
+   */
+  private static final class NoteRecord {
+    final Point point;
+    final String text;
+
+    NoteRecord(Note note) {
+      Point at = note.getAutoPoint();
+      point = (at == null) ? null : new Point(at);
+      text = note.getText();
+    }
+
+    static boolean same(NoteRecord[] a, NoteRecord[] b) {
+      if (a == null || a.length != b.length) {
+        return false;
+      }
+      for (int i = 0; i < a.length; i++) {
+        if ((a[i].text == null ? b[i].text != null : !a[i].text.equals(b[i].text))
+          || (a[i].point == null ? b[i].point != null : !a[i].point.equals(b[i].point))) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static long intervalMillis() {
+    long seconds = DEFAULT_INTERVAL_SECONDS;
+    try {
+      seconds = Long.parseLong(System.getProperty(INTERVAL_PROPERTY, String.valueOf(DEFAULT_INTERVAL_SECONDS)).trim());
+    } catch (NumberFormatException ignored) {
+      // keep the default
+    }
+    return Math.max(1, seconds) * 1000;
+  }
+
+  private static File directory() {
+    String home = System.getProperty("user.home");
+    if (home == null || home.trim().isEmpty()) {
+      return null;
+    }
+    return new File(new File(home, ".jflap-modern"), "autosave");
+  }
+
+  private static final class Holder {
+    static final ExecutorService WRITER = Daemons.single("jflap-autosave", Thread.NORM_PRIORITY);
+  }
+}
@@ -0,0 +1,285 @@
+package launcher;
+
+import automata.Automaton;
+import automata.AutomatonChecker;
+import automata.fsa.FSAToRegularExpressionConverter;
+import automata.fsa.FiniteStateAutomaton;
+import automata.fsa.HopcroftMinimizer;
+import automata.fsa.NFAToDFA;
+import automata.pda.PDAToCFGConverter;
+import automata.pda.PushdownAutomaton;
+import grammar.CNFConverter;
+import grammar.Grammar;
+import grammar.LambdaProductionRemover;
+import grammar.Production;
+import grammar.UnitProductionRemover;
+import grammar.UselessProductionRemover;
+import grammar.cfg.ContextFreeGrammar;
+import gui.environment.Environment;
+import gui.environment.EnvironmentFrame;
+import gui.environment.FrameFactory;
+import gui.environment.GrammarEnvironment;
+import gui.environment.Universe;
+import regular.RegularExpression;
+
+import javax.swing.JMenu;
+import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One-shot conversions that run on {@link BackgroundTasks} and open their result in a new window.
+ *
+ * <p>These skip JFLAP's step-by-step panes, which keep the conversion on the EDT. Each conversion
+ * works on a copy of the environment's automaton or grammar, taken on the EDT before the task
+ * starts, so the user may keep editing while it runs.</p>
+ */
+public final class BackgroundConversions {
+  private BackgroundConversions() {
+  }
+
+  /**
+   * Returns a "Convert in Background" submenu with the conversions that apply to
+   * {@code frame}'s environment, or {@code null} if none do.
+   */
+  public static JMenu createMenu(final EnvironmentFrame frame) {
+    final Environment environment = frame.getEnvironment();
+    Serializable object = environment.getObject();
+    JMenu menu = new JMenu("Convert in Background");
+
+    if (object instanceof FiniteStateAutomaton) {
+      menu.add(item("Convert to DFA", new ActionListener() {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+          convertToDfa(environment);
+        }
+      }));
+      menu.add(item("Minimize DFA", new ActionListener() {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+          minimize(environment, (FiniteStateAutomaton) ((Automaton) environment.getObject()).clone());
+        }
+      }));
+      menu.add(item("Convert FA to RE", new ActionListener() {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+          convertToRegularExpression(environment);
+        }
+      }));
+    } else if (object instanceof PushdownAutomaton) {
+      menu.add(item("Convert PDA to CFG", new ActionListener() {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+          convertToGrammar(environment);
+        }
+      }));
+    } else if (environment instanceof GrammarEnvironment) {
+      menu.add(item("Transform to CNF", new ActionListener() {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+          convertToChomsky((GrammarEnvironment) environment);
+        }
+      }));
+    }
+
+    return (menu.getItemCount() == 0) ? null : menu;
+  }
+
+  public static void convertToDfa(final Environment environment) {
+    final FiniteStateAutomaton nfa = (FiniteStateAutomaton) ((Automaton) environment.getObject()).clone();
+    if (!checkInitialState(environment, nfa)) {
+      return;
+    }
+    if (!new AutomatonChecker().isNFA(nfa)) {
+      message(environment, "This is not an NFA!", "Not an NFA");
+      return;
+    }
+    BackgroundTasks.submit(frame(environment), new OpenResultTask<FiniteStateAutomaton>("Convert to DFA") {
+      @Override
+      protected FiniteStateAutomaton compute() {
+        return new NFAToDFA().convertToDFA(nfa);
+      }
+    });
+  }
+
+  /**
+   * Minimizes {@code dfa}, which the caller has already copied from {@code environment}.
+   */
+  public static void minimize(final Environment environment, final FiniteStateAutomaton dfa) {
+    if (!checkInitialState(environment, dfa)) {
+      return;
+    }
+    if (new AutomatonChecker().isNFA(dfa)) {
+      message(environment, "This isn't a DFA!", "Not a DFA");
+      return;
+    }
+    BackgroundTasks.submit(frame(environment), new OpenResultTask<FiniteStateAutomaton>("Minimize DFA") {
+      @Override
+      protected FiniteStateAutomaton compute() {
+        return new HopcroftMinimizer().getMinimumDfa(dfa);
+      }
+    });
+  }
+
+  public static void convertToRegularExpression(final Environment environment) {
+    final Automaton automaton = (Automaton) ((Automaton) environment.getObject()).clone();
+    if (!checkInitialState(environment, automaton)) {
+      return;
+    }
+    if (automaton.getFinalStates().length == 0) {
+      message(environment, "Conversion requires at least\none final state!", "No Final States");
+      return;
+    }
+    BackgroundTasks.submit(frame(environment), new OpenResultTask<RegularExpression>("Convert FA to RE") {
+      @Override
+      protected RegularExpression compute() {
+        BackgroundTasks.setPhase("Creating a single final state");
+        FSAToRegularExpressionConverter.convertToSimpleAutomaton(automaton);
+        BackgroundTasks.setPhase("Removing states");
+        String expression = FSAToRegularExpressionConverter.convertToRegularExpression(automaton);
+        if (expression == null) {
+          throw new IllegalArgumentException("The automaton could not be converted.");
+        }
+        return new RegularExpression(expression);
+      }
+    });
+  }
+
+  public static void convertToGrammar(final Environment environment) {
+    final PushdownAutomaton pda = (PushdownAutomaton) ((Automaton) environment.getObject()).clone();
+    if (!checkInitialState(environment, pda)) {
+      return;
+    }
+    final PDAToCFGConverter converter = new PDAToCFGConverter();
+    if (!converter.isInCorrectFormForConversion(pda)) {
+      message(
+        environment,
+        "The PDA must have exactly one final state, transitions to it must pop only 'Z',\n"
+          + "and every transition must pop 1 and push 0 or 2.",
+        "Convert PDA to CFG"
+      );
+      return;
+    }
+    BackgroundTasks.submit(frame(environment), new OpenResultTask<ContextFreeGrammar>("Convert PDA to CFG") {
+      @Override
+      protected ContextFreeGrammar compute() {
+        converter.initializeConverter();
+        return converter.convertToContextFreeGrammar(pda);
+      }
+    });
+  }
+
+  public static void convertToChomsky(final GrammarEnvironment environment) {
+    final Grammar grammar = environment.getGrammar(ContextFreeGrammar.class);
+    if (grammar == null) {
+      return;
+    }
+    BackgroundTasks.submit(frame(environment), new OpenResultTask<Grammar>("Transform to CNF") {
+      @Override
+      protected Grammar compute() throws Exception {
+        return chomskyNormalForm(grammar);
+      }
+    });
+  }
+
+  /**
+   * Removes lambda, unit and useless productions, then splits the remaining productions into
+   * Chomsky normal form, as the Transform Grammar panes do one step at a time.
+   */
+  static Grammar chomskyNormalForm(Grammar grammar) throws Exception {
+    // The removers build new grammars without a start variable; carry it over after each step.
+    String start = grammar.getStartVariable();
+    Grammar g = grammar;
+
+    BackgroundTasks.setPhase("Removing lambda productions");
+    LambdaProductionRemover lambda = new LambdaProductionRemover();
+    Set<String> lambdaSet = lambda.getCompleteLambdaSet(g);
+    if (!lambdaSet.isEmpty()) {
+      g = lambda.getLambdaProductionlessGrammar(g, lambdaSet);
+      g.setStartVariable(start);
+    }
+
+    BackgroundTasks.checkpoint();
+    BackgroundTasks.setPhase("Removing unit productions");
+    UnitProductionRemover unit = new UnitProductionRemover();
+    if (unit.getUnitProductions(g).length > 0) {
+      g = unit.getUnitProductionlessGrammar(g, unit.getVariableDependencyGraph(g));
+      g.setStartVariable(start);
+    }
+
+    BackgroundTasks.checkpoint();
+    BackgroundTasks.setPhase("Removing useless productions");
+    g = UselessProductionRemover.getUselessProductionlessGrammar(g);
+    g.setStartVariable(start);
+    if (g.getProductions().length == 0) {
+      throw new IllegalArgumentException("This grammar does not accept any Strings.");
+    }
+
+    BackgroundTasks.setPhase("Converting to Chomsky normal form");
+    CNFConverter converter = new CNFConverter(g);
+    List<Production> done = new ArrayList<>();
+    List<Production> pending = new ArrayList<>();
+    Production[] productions = g.getProductions();
+    for (int i = 0; i < productions.length; i++) {
+      pending.add(productions[i]);
+    }
+    while (!pending.isEmpty()) {
+      Production p = pending.remove(pending.size() - 1);
+      if (converter.isChomsky(p)) {
+        done.add(p);
+        continue;
+      }
+      Production[] replacements = converter.replacements(p);
+      for (int i = 0; i < replacements.length; i++) {
+        pending.add(replacements[i]);
+      }
+    }
+
+    Production[] renamed = CNFConverter.convert(done.toArray(new Production[0]));
+    Grammar result = grammar.getClass().newInstance();
+    result.addProductions(renamed);
+    result.setStartVariable(start);
+    return result;
+  }
+
+  private static boolean checkInitialState(Environment environment, Automaton automaton) {
+    if (automaton.getInitialState() != null) {
+      return true;
+    }
+    message(environment, "The automaton needs an initial state.", "No Initial State");
+    return false;
+  }
+
+  private static void message(Environment environment, String text, String title) {
+    JOptionPane.showMessageDialog(frame(environment), text, title, JOptionPane.ERROR_MESSAGE);
+  }
+
+  private static EnvironmentFrame frame(Environment environment) {
+    return Universe.frameForEnvironment(environment);
+  }
+
+  private static JMenuItem item(String text, ActionListener listener) {
+    JMenuItem item = new JMenuItem(text);
+    item.addActionListener(listener);
+    return item;
+  }
+
+  /**
+   * Opens the result of the conversion in a new environment window.
+   */
+  private abstract static class OpenResultTask<T extends Serializable> extends BackgroundTasks.Task<T> {
+    OpenResultTask(String title) {
+      super(title);
+    }
+
+    @Override
+    protected void succeeded(T result) {
+      FrameFactory.createFrame(result);
+    }
+  }
+}
@@ -0,0 +1,312 @@
+package launcher;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.FlowLayout;
+import java.awt.Window;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Shared executor for long-running conversions started from the GUI.
+ *
+ * <p>A {@link Task} computes on a pooled daemon thread and hands its result back on the EDT. If it
+ * is still running after {@link #DIALOG_DELAY_MS}, a small non-modal dialog shows the current phase,
+ * the number of checkpoints passed and a Cancel button. Cancelling interrupts the worker; the
+ * algorithms notice at their next checkpoint.</p>
+ *
+ * <p>JFLAP's own converters ({@code NFAToDFA}, {@code Minimizer}, {@code FSAToRegularExpressionConverter},
+ * {@code PDAToCFGConverter}, {@code CNFConverter}) are patched at build time to call
+ * {@link #checkpoint()} from the methods their main loops repeat (see
+ * {@code tools-src/patch/ConversionCheckpointPatcher.java}). The checkpoint does nothing outside a
+ * task, so the step-by-step views on the EDT are unaffected.</p>
+ */
+public final class BackgroundTasks {
+  /** Tasks that finish faster than this never show a progress dialog. */
+  public static final int DIALOG_DELAY_MS = 400;
+
+  private static final int REFRESH_MS = 200;
+  private static final ThreadLocal<Running> CURRENT = new ThreadLocal<>();
+
+  private BackgroundTasks() {
+  }
+
+  /**
+   * A unit of background work.
+   *
+   * @param <T> the result type
+   */
+  public abstract static class Task<T> {
+    private final String title;
+
+    protected Task(String title) {
+      this.title = title;
+    }
+
+    public String getTitle() {
+      return title;
+    }
+
+    /**
+     * Runs on a worker thread. Must not touch Swing components.
+     */
+    protected abstract T compute() throws Exception;
+
+    /**
+     * Runs on the EDT with the result of {@link #compute()}.
+     */
+    protected abstract void succeeded(T result);
+
+    /**
+     * Runs on the EDT if {@link #compute()} threw. Shows an error dialog by default.
+     */
+    protected void failed(Component parent, Throwable error) {
+      String message = error.getMessage();
+      if (message == null || message.trim().isEmpty()) {
+        message = error.getClass().getSimpleName();
+      }
+      JOptionPane.showMessageDialog(parent, message, title + " Failed", JOptionPane.ERROR_MESSAGE);
+    }
+
+    /**
+     * Runs on the EDT after the user cancelled the task. Does nothing by default.
+     */
+    protected void cancelled() {
+    }
+  }
+
+  /**
+   * Starts {@code task} on the shared executor. Must be called on the EDT.
+   *
+   * @param parent component the progress and error dialogs are placed relative to
+   */
+  public static <T> void submit(final Component parent, final Task<T> task) {
+    final Running running = new Running(task.getTitle());
+    Holder.EXECUTOR.execute(new Runnable() {
+      @Override
+      public void run() {
+        T result = null;
+        Throwable error = null;
+        if (running.attach()) {
+          CURRENT.set(running);
+          try {
+            result = task.compute();
+            checkpoint();
+          } catch (Throwable t) {
+            error = t;
+          } finally {
+            CURRENT.remove();
+            running.detach();
+          }
+        }
+        deliver(parent, task, running, result, error);
+      }
+    });
+    running.showDialogLater(parent);
+  }
+
+  /**
+   * Cancellation checkpoint for conversion loops. Throws {@link CancellationException} if the
+   * current task was cancelled; does nothing when called outside a task.
+   */
+  public static void checkpoint() {
+    Running running = CURRENT.get();
+    if (running == null) {
+      return;
+    }
+    running.steps++;
+    if (running.cancelled || Thread.currentThread().isInterrupted()) {
+      throw new CancellationException();
+    }
+  }
+
+  /**
+   * Sets the phase text shown in the progress dialog of the current task.
+   */
+  public static void setPhase(String phase) {
+    Running running = CURRENT.get();
+    if (running != null) {
+      running.phase = phase;
+    }
+  }
+
+  private static <T> void deliver(
+    final Component parent,
+    final Task<T> task,
+    final Running running,
+    final T result,
+    final Throwable error
+  ) {
+    SwingUtilities.invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        running.finish();
+        if (running.cancelled || error instanceof CancellationException || error instanceof InterruptedException) {
+          task.cancelled();
+          return;
+        }
+        if (error != null) {
+          task.failed(parent, error);
+          return;
+        }
+        task.succeeded(result);
+      }
+    });
+  }
+
+  /**
+   * Progress state shared between the worker and the EDT.
+   */
+  private static final class Running {
+    final String title;
+    private Thread worker;
+    volatile boolean cancelled;
+    volatile boolean finished;
+    volatile String phase;
+    /** Written only by the worker; read racily by the dialog timer. */
+    volatile long steps;
+    final long startNanos = System.nanoTime();
+
+    private Timer timer;
+    private JDialog dialog;
+    private JLabel status;
+
+    Running(String title) {
+      this.title = title;
+    }
+
+    void showDialogLater(final Component parent) {
+      timer = new Timer(DIALOG_DELAY_MS, new ActionListener() {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+          if (finished) {
+            timer.stop();
+            return;
+          }
+          if (dialog == null) {
+            openDialog(parent);
+            timer.setDelay(REFRESH_MS);
+          }
+          refresh();
+        }
+      });
+      timer.setInitialDelay(DIALOG_DELAY_MS);
+      timer.start();
+    }
+
+    /**
+     * Binds this task to the calling worker thread.
+     *
+     * @return {@code false} if the task was cancelled before it started
+     */
+    synchronized boolean attach() {
+      if (cancelled) {
+        return false;
+      }
+      worker = Thread.currentThread();
+      return true;
+    }
+
+    synchronized void detach() {
+      worker = null;
+      // Clear a pending interrupt so it does not leak into the next task on this thread.
+      Thread.interrupted();
+    }
+
+    void cancel() {
+      synchronized (this) {
+        cancelled = true;
+        if (worker != null) {
+          worker.interrupt();
+        }
+      }
+      if (status != null) {
+        status.setText("Cancelling...");
+      }
+    }
+
+    void finish() {
+      finished = true;
+      if (timer != null) {
+        timer.stop();
+      }
+      if (dialog != null) {
+        dialog.dispose();
+        dialog = null;
+      }
+    }
+
+    private void openDialog(Component parent) {
+      Window owner = (parent == null) ? null : SwingUtilities.getWindowAncestor(parent);
+      if (owner == null && parent instanceof Window) {
+        owner = (Window) parent;
+      }
+      dialog = new JDialog(owner, title);
+      dialog.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+      dialog.addWindowListener(new WindowAdapter() {
+        @Override
+        public void windowClosing(WindowEvent e) {
+          cancel();
+        }
+      });
+
+      JProgressBar bar = new JProgressBar();
+      bar.setIndeterminate(true);
+      status = new JLabel(" ");
+      JButton cancelButton = new JButton("Cancel");
+      cancelButton.addActionListener(new ActionListener() {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+          cancel();
+        }
+      });
+
+      JPanel content = new JPanel(new BorderLayout(0, 8));
+      content.setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
+      content.add(status, BorderLayout.NORTH);
+      content.add(bar, BorderLayout.CENTER);
+      JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 0, 0));
+      buttons.add(cancelButton);
+      content.add(buttons, BorderLayout.SOUTH);
+
+      dialog.setContentPane(content);
+      dialog.pack();
+      dialog.setSize(Math.max(dialog.getWidth(), 340), dialog.getHeight());
+      dialog.setLocationRelativeTo(owner);
+      dialog.setVisible(true);
+    }
+
+    private void refresh() {
+      if (status == null || cancelled) {
+        return;
+      }
+      long seconds = (System.nanoTime() - startNanos) / 1000000000L;
+      StringBuilder text = new StringBuilder();
+      text.append((phase == null) ? "Working" : phase);
+      long count = steps;
+      if (count > 0) {
+        text.append(" (").append(count).append(" steps)");
+      }
+      text.append(" - ").append(seconds).append(" s");
+      status.setText(text.toString());
+    }
+  }
+
+  private static final class Holder {
+    static final ExecutorService EXECUTOR = Daemons.pool("jflap-conversion",
+      Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors())), Thread.NORM_PRIORITY - 1);
+  }
+}
@@ -0,0 +1,783 @@
+package launcher;
+
+import automata.Automaton;
+import automata.SimulatorFactory;
+import automata.fsa.CompiledFSA;
+import automata.fsa.FSABitsetSimulator;
+import automata.fsa.FiniteStateAutomaton;
+import automata.mealy.MealyConfiguration;
+import automata.mealy.MealyMachine;
+import automata.pda.PDAAcceptance;
+import automata.pda.PDABudgetedSimulator;
+import automata.pda.PushdownAutomaton;
+import automata.turing.CompiledTM;
+import automata.turing.NDTMSearchSimulator;
+import automata.turing.NDTMSimulator;
+import automata.turing.TuringMachine;
+import file.BinaryCodec;
+import file.Codec;
+import file.XMLCodec;
+import file.xml.StreamingCodec;
+import file.xml.TMTransducer;
+import file.xml.Transducer;
+import file.xml.TransducerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless batch grader: runs every {@code .jff} (or {@code .jffb}) machine in a directory against a file of test
+ * cases and writes one result row per (machine, case) as CSV or JSON.
+ *
+ * <p>Run with: {@code java -jar JFLAP7.1-modern.jar --grade <dir-or-file.jff> <cases.txt> [options]}.
+ * {@link ModernMain} dispatches here before any look and feel or AWT setup, and the grader runs
+ * with {@code java.awt.headless=true}.</p>
+ *
+ * <p>Each line of the cases file holds tab-separated input columns followed by the expected
+ * result: {@code accept}/{@code reject} for acceptors, or the expected output for Mealy and Moore
+ * machines. A multi-tape Turing machine takes one input column per tape. A line with no expected
+ * column is run and reported without a verdict. Empty lines and lines starting with {@code #} are
+ * skipped.</p>
+ *
+ * <p>Deterministic Turing machines run on a {@link CompiledTM} under {@code --max-steps} rather than
+ * {@code --max-configs}, and the summary reports their step rate. Nondeterministic finite automata
+ * run on an {@link FSABitsetSimulator}, which steps the whole set of active states at once.</p>
+ */
+public final class BatchGrader {
+  /** The {@link ModernMain} option that selects the grader; must be the first argument. */
+  public static final String OPTION = "--grade";
+
+  private static final int DEFAULT_MAX_CONFIGURATIONS = 100000;
+  private static final int DEFAULT_MAX_STEPS = 100000000;
+
+  private static final String STATUS_PASS = "pass";
+  private static final String STATUS_FAIL = "fail";
+  private static final String STATUS_ERROR = "error";
+  private static final String STATUS_NONE = "none";
+
+  private BatchGrader() {
+  }
+
+  /**
+   * @return 0 if every case with an expected result passed, 1 if any failed or errored, 2 on a
+   *   usage or I/O error
+   */
+  public static int run(String[] args) {
+    if (System.getProperty("java.awt.headless") == null) {
+      System.setProperty("java.awt.headless", "true");
+    }
+
+    Options options;
+    try {
+      options = Options.parse(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println("[JFLAP Grader] " + e.getMessage());
+      printHelp();
+      return 2;
+    }
+    if (options == null) {
+      printHelp();
+      return 0;
+    }
+
+    long start = System.nanoTime();
+    List<File> machines = listMachines(options.machines);
+    if (machines.isEmpty()) {
+      System.err.println("[JFLAP Grader] No .jff or .jffb files found at " + options.machines);
+      return 2;
+    }
+
+    List<Case> cases;
+    try {
+      cases = readCases(options.cases);
+    } catch (IOException e) {
+      System.err.println("[JFLAP Grader] Could not read " + options.cases + ": " + e.getMessage());
+      return 2;
+    }
+
+    ExecutorService executor = Daemons.pool("jflap-grader", options.threads);
+    List<Result> results;
+    TuringStats turing = new TuringStats();
+    try {
+      Decoded[] decoded = decodeAll(machines, options.decodeCache);
+      results = gradeAll(executor, decoded, cases, options, turing);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return 2;
+    } finally {
+      executor.shutdownNow();
+    }
+
+    try {
+      write(options, results);
+    } catch (IOException e) {
+      System.err.println("[JFLAP Grader] Could not write " + options.out + ": " + e.getMessage());
+      return 2;
+    }
+
+    int passed = 0;
+    int failed = 0;
+    for (int i = 0; i < results.size(); i++) {
+      String status = results.get(i).status;
+      if (STATUS_PASS.equals(status)) {
+        passed++;
+      } else if (!STATUS_NONE.equals(status)) {
+        failed++;
+      }
+    }
+    System.err.println(
+      "[JFLAP Grader] " + machines.size() + " machines x " + cases.size() + " cases: " + passed + " passed, "
+        + failed + " failed or errored (" + (System.nanoTime() - start) / 1000000L + " ms)"
+    );
+    if (turing.steps.get() > 0) {
+      System.err.println(
+        "[JFLAP Grader] Compiled Turing machines: " + turing.steps.get() + " steps at "
+          + String.format(Locale.ROOT, "%.0f", turing.stepsPerSecond()) + " steps/s per thread"
+      );
+    }
+    return (failed == 0) ? 0 : 1;
+  }
+
+  private static void printHelp() {
+    System.out.println("JFLAP batch grader:");
+    System.out.println("  --grade <dir-or-file.jff> <cases.txt> [options]");
+    System.out.println("");
+    System.out.println("Options:");
+    System.out.println("  --out=<file>              (default: standard output)");
+    System.out.println("  --format=csv|json         (default: from --out extension, else csv)");
+    System.out.println("  --threads=<n>             (default: number of processors)");
+    System.out.println("  --max-configs=<n>         (default: " + DEFAULT_MAX_CONFIGURATIONS + "; reported as \"limit\")");
+    System.out.println("  --max-steps=<n>           (deterministic Turing machines; default: " + DEFAULT_MAX_STEPS + ")");
+    System.out.println("  --pda-accept=final|empty  (PDA acceptance; default: final)");
+    System.out.println("  --tm-search=bfs|dfs|iddfs (nondeterministic Turing machines; default: bfs)");
+    System.out.println("  --decode-cache            (read and fill the decode cache in ~/.jflap-modern; default: off)");
+    System.out.println("");
+    System.out.println("Each cases line: <input>[<TAB><input>...]<TAB><expected>");
+    System.out.println("  expected is accept|reject, or the output of a Mealy/Moore machine.");
+  }
+
+  private static List<File> listMachines(File path) {
+    List<File> files = new ArrayList<>();
+    if (path.isFile()) {
+      files.add(path);
+      return files;
+    }
+    File[] children = path.listFiles();
+    if (children == null) {
+      return files;
+    }
+    for (int i = 0; i < children.length; i++) {
+      String name = children[i].getName().toLowerCase(Locale.ROOT);
+      if (children[i].isFile() && (name.endsWith(XMLCodec.SUFFIX) || name.endsWith(BinaryCodec.SUFFIX))) {
+        files.add(children[i]);
+      }
+    }
+    Collections.sort(files);
+    return files;
+  }
+
+  static List<Case> readCases(File file) throws IOException {
+    List<Case> cases = new ArrayList<>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    try {
+      String line;
+      int number = 0;
+      while ((line = reader.readLine()) != null) {
+        number++;
+        if (line.trim().isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        cases.add(new Case(number, line.split("\t", -1)));
+      }
+    } finally {
+      reader.close();
+    }
+    return cases;
+  }
+
+  /**
+   * Reads {@code files} on {@link BulkImport}'s pool, which has one thread per core.
+   */
+  private static Decoded[] decodeAll(List<File> files, final boolean cached) {
+    BulkImport.Imported[] imported = BulkImport.importFiles(
+      files.toArray(new File[0]),
+      new Codec[] {new BinaryCodec(), new XMLCodec()},
+      new BulkImport.Reader() {
+        @Override
+        public Serializable read(File file, BulkImport.Format format) throws Exception {
+          return decode(file, cached);
+        }
+      }
+    );
+    Decoded[] decoded = new Decoded[imported.length];
+    for (int i = 0; i < decoded.length; i++) {
+      File file = files.get(i);
+      if (imported[i] != null && imported[i].error != null) {
+        decoded[i] = new Decoded(file, null, message(imported[i].error));
+      } else if (imported[i] == null || !(imported[i].structure instanceof Automaton)) {
+        decoded[i] = new Decoded(file, null, "not an automaton");
+      } else {
+        decoded[i] = new Decoded(file, (Automaton) imported[i].structure, null);
+      }
+    }
+
+    // Fill the automata's lazy caches here, so the grading threads only read them.
+    Set<Automaton> prepared = Collections.newSetFromMap(new IdentityHashMap<Automaton, Boolean>());
+    for (int i = 0; i < decoded.length; i++) {
+      if (decoded[i].automaton != null) {
+        ParallelSimulation.prepare(decoded[i].automaton, prepared);
+        decoded[i] = withFacts(decoded[i]);
+      }
+    }
+    return decoded;
+  }
+
+  /**
+   * Adds what the grader can work out once for a finite automaton: an {@link FSABitsetSimulator}
+   * for an NFA, and what the decode cache recorded: its alphabet and, for a DFA, its minimal DFA,
+   * compiled. Only machines read through the cache ({@code --decode-cache}) have the latter two.
+   */
+  private static Decoded withFacts(Decoded machine) {
+    FSABitsetSimulator nfa = null;
+    if (CompiledFSA.canCompile(machine.automaton)) {
+      nfa = new FSABitsetSimulator(machine.automaton);
+      if (nfa.isDeterministic()) {
+        nfa = null;
+      }
+    }
+    DecodeCache.Facts facts = DecodeCache.facts(machine.automaton);
+    if (facts == null && nfa == null) {
+      return machine;
+    }
+    FiniteStateAutomaton minimal = (facts == null) ? null : facts.minimalDfa();
+    return new Decoded(
+      machine.file,
+      machine.automaton,
+      (facts == null) ? null : facts.alphabet,
+      (minimal == null) ? null : CompiledFSA.compile(minimal),
+      nfa
+    );
+  }
+
+  /**
+   * Decodes like {@link XMLCodec}, except that a Turing machine file with neither a {@code tapes}
+   * nor a {@code block} tag opens as a standard Turing machine instead of asking which kind it is.
+   * Binary {@code .jffb} files are read by {@link BulkImport} before this. {@link DecodeCache} is
+   * only used with {@code --decode-cache}, so grading does not write to the user's home directory.
+   */
+  private static Serializable decode(File file, boolean cached) throws Exception {
+    Serializable streamed = cached ? DecodeCache.decode(file, true) : StreamingCodec.decode(file, true);
+    if (streamed != null) {
+      return streamed;
+    }
+    Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+    Element root = document.getDocumentElement();
+    NodeList type = root.getElementsByTagName("type");
+    boolean plainTuring = type.getLength() > 0
+      && "turing".equals(type.item(0).getTextContent().trim())
+      && root.getElementsByTagName("tapes").getLength() == 0
+      && root.getElementsByTagName("block").getLength() == 0;
+    Transducer transducer = plainTuring ? new TMTransducer() : TransducerFactory.getTransducer(document);
+    return transducer.fromDOM(document);
+  }
+
+  private static List<Result> gradeAll(
+    ExecutorService executor,
+    Decoded[] decoded,
+    List<Case> cases,
+    final Options options,
+    final TuringStats turing
+  ) throws InterruptedException {
+    final ParallelSimulation.Budget budget = new ParallelSimulation.Budget(null) {
+      @Override
+      boolean confirmContinue(int row, int generated) {
+        return generated < options.maxConfigurations;
+      }
+
+      @Override
+      long stepAllowance(int row, long steps) {
+        return Math.max(0L, options.maxSteps - steps);
+      }
+    };
+
+    List<Callable<Result>> tasks = new ArrayList<>();
+    for (int m = 0; m < decoded.length; m++) {
+      final Decoded machine = decoded[m];
+      for (int c = 0; c < cases.size(); c++) {
+        final Case testCase = cases.get(c);
+        tasks.add(new Callable<Result>() {
+          @Override
+          public Result call() {
+            return grade(machine, testCase, budget, options, turing);
+          }
+        });
+      }
+    }
+
+    List<Future<Result>> futures = executor.invokeAll(tasks);
+    List<Result> results = new ArrayList<>(futures.size());
+    for (int i = 0; i < futures.size(); i++) {
+      results.add(get(futures.get(i)));
+    }
+    return results;
+  }
+
+  private static Result grade(
+    Decoded machine,
+    Case testCase,
+    ParallelSimulation.Budget budget,
+    Options options,
+    TuringStats turing
+  ) {
+    String name = machine.file.getName();
+    if (machine.automaton == null) {
+      return new Result(name, testCase.line, join(testCase.columns), "", machine.error, STATUS_ERROR);
+    }
+
+    Automaton automaton = machine.automaton;
+    int tapes = (automaton instanceof TuringMachine) ? Math.max(1, ((TuringMachine) automaton).tapes) : 1;
+    String[] columns = testCase.columns;
+    if (columns.length != tapes && columns.length != tapes + 1) {
+      return new Result(
+        name,
+        testCase.line,
+        join(columns),
+        "",
+        "expected " + tapes + " input column(s)",
+        STATUS_ERROR
+      );
+    }
+    String[] input = Arrays.copyOf(columns, tapes);
+    String expected = (columns.length > tapes) ? columns[tapes] : null;
+    String shownInput = join(input);
+    String shownExpected = (expected == null) ? "" : expected;
+
+    String actual;
+    try {
+      if (machine.alphabet != null && !inAlphabet(input[0], machine.alphabet)) {
+        actual = "reject";
+      } else if (machine.minimal != null) {
+        actual = machine.minimal.accepts(input[0]) ? "accept" : "reject";
+      } else if (machine.nfa != null) {
+        actual = machine.nfa.accepts(input[0]) ? "accept" : "reject";
+      } else if (automaton instanceof PushdownAutomaton) {
+        actual = gradePda((PushdownAutomaton) automaton, input[0], options);
+      } else if (SimulatorFactory.getSimulator(automaton) instanceof NDTMSimulator) {
+        actual = gradeNdtm(automaton, input, options);
+      } else {
+        actual = gradeWithSimulator(automaton, input, testCase.line, budget, turing);
+      }
+    } catch (Throwable t) {
+      return new Result(name, testCase.line, shownInput, shownExpected, message(t), STATUS_ERROR);
+    }
+
+    String status;
+    if (expected == null) {
+      status = STATUS_NONE;
+    } else if (automaton instanceof MealyMachine) {
+      status = expected.equals(actual) ? STATUS_PASS : STATUS_FAIL;
+    } else {
+      status = normalizeVerdict(expected).equals(actual) ? STATUS_PASS : STATUS_FAIL;
+    }
+    return new Result(name, testCase.line, shownInput, shownExpected, actual, status);
+  }
+
+  /**
+   * PDAs run under {@link PDABudgetedSimulator}: a lambda push loop that never accepts ends at the
+   * configuration budget and is graded "limit", not "reject".
+   */
+  private static String gradePda(PushdownAutomaton automaton, String input, Options options) {
+    PDABudgetedSimulator simulator = new PDABudgetedSimulator(automaton, options.pdaAcceptance);
+    simulator.setConfigurationBudget(options.maxConfigurations);
+    PDABudgetedSimulator.Result result = simulator.run(input);
+    if (result.getVerdict() == PDABudgetedSimulator.Verdict.ACCEPTED) {
+      return "accept";
+    }
+    return (result.getVerdict() == PDABudgetedSimulator.Verdict.REJECTED) ? "reject" : "limit";
+  }
+
+  /**
+   * Nondeterministic Turing machines run under {@link NDTMSearchSimulator}, which merges branches
+   * that reach the same configuration, with the {@code --tm-search} strategy.
+   */
+  private static String gradeNdtm(Automaton automaton, String[] input, Options options) {
+    NDTMSearchSimulator simulator = new NDTMSearchSimulator(automaton);
+    simulator.setStrategy(options.tmSearch);
+    simulator.setConfigurationBudget(options.maxConfigurations);
+    NDTMSearchSimulator.Result result = simulator.run(input);
+    if (result.getVerdict() == NDTMSearchSimulator.Verdict.ACCEPTED) {
+      return "accept";
+    }
+    return (result.getVerdict() == NDTMSearchSimulator.Verdict.REJECTED) ? "reject" : "limit";
+  }
+
+  private static String gradeWithSimulator(
+    Automaton automaton,
+    String[] input,
+    int line,
+    ParallelSimulation.Budget budget,
+    TuringStats turing
+  ) {
+    ParallelSimulation.Outcome outcome =
+      ParallelSimulation.simulate(automaton, ParallelSimulation.NO_ACCEPTANCE_MODE, input, line, budget);
+    if (outcome.run != null) {
+      turing.add(outcome.run);
+    }
+    if (outcome.result == ParallelSimulation.CANCELLED) {
+      return "limit";
+    }
+    if (automaton instanceof MealyMachine) {
+      return (outcome.result == ParallelSimulation.ACCEPT)
+        ? ((MealyConfiguration) outcome.configuration).getOutput()
+        : "reject";
+    }
+    return (outcome.result == ParallelSimulation.ACCEPT) ? "accept" : "reject";
+  }
+
+  private static boolean inAlphabet(String input, String alphabet) {
+    for (int i = 0; i < input.length(); i++) {
+      if (alphabet.indexOf(input.charAt(i)) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String normalizeVerdict(String expected) {
+    String value = expected.trim().toLowerCase(Locale.ROOT);
+    if (value.equals("accept") || value.equals("a") || value.equals("1") || value.equals("true") || value.equals("yes")) {
+      return "accept";
+    }
+    if (value.equals("reject") || value.equals("r") || value.equals("0") || value.equals("false") || value.equals("no")) {
+      return "reject";
+    }
+    return value;
+  }
+
+  private static void write(Options options, List<Result> results) throws IOException {
+    PrintWriter writer = (options.out == null)
+      ? new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+      : new PrintWriter(new OutputStreamWriter(new FileOutputStream(options.out), StandardCharsets.UTF_8));
+    try {
+      if (options.json) {
+        writeJson(writer, results);
+      } else {
+        writeCsv(writer, results);
+      }
+    } finally {
+      if (options.out == null) {
+        writer.flush();
+      } else {
+        writer.close();
+      }
+    }
+    if (writer.checkError()) {
+      throw new IOException("write failed");
+    }
+  }
+
+  private static void writeCsv(PrintWriter writer, List<Result> results) {
+    writer.print("file,line,input,expected,actual,status\n");
+    for (int i = 0; i < results.size(); i++) {
+      Result r = results.get(i);
+      writer.print(csv(r.file) + "," + r.line + "," + csv(r.input) + "," + csv(r.expected) + "," + csv(r.actual) + "," + r.status + "\n");
+    }
+  }
+
+  private static void writeJson(PrintWriter writer, List<Result> results) {
+    writer.print("[\n");
+    for (int i = 0; i < results.size(); i++) {
+      Result r = results.get(i);
+      writer.print("  {\"file\": " + json(r.file) + ", \"line\": " + r.line + ", \"input\": " + json(r.input)
+        + ", \"expected\": " + json(r.expected) + ", \"actual\": " + json(r.actual) + ", \"status\": "
+        + json(r.status) + "}" + ((i + 1 < results.size()) ? "," : "") + "\n");
+    }
+    writer.print("]\n");
+  }
+
+  private static String csv(String value) {
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+      return value;
+    }
+    return "\"" + value.replace("\"", "\"\"") + "\"";
+  }
+
+  private static String json(String value) {
+    StringBuilder out = new StringBuilder(value.length() + 2);
+    out.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          out.append("\\\"");
+          break;
+        case '\\':
+          out.append("\\\\");
+          break;
+        case '\n':
+          out.append("\\n");
+          break;
+        case '\r':
+          out.append("\\r");
+          break;
+        case '\t':
+          out.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            out.append(String.format("\\u%04x", (int) c));
+          } else {
+            out.append(c);
+          }
+      }
+    }
+    return out.append('"').toString();
+  }
+
+  private static String join(String[] columns) {
+    StringBuilder out = new StringBuilder();
+    for (int i = 0; i < columns.length; i++) {
+      if (i > 0) {
+        out.append('\t');
+      }
+      out.append(columns[i]);
+    }
+    return out.toString();
+  }
+
+  private static String message(Throwable t) {
+    String message = t.getMessage();
+    if (message == null || message.trim().isEmpty()) {
+      return t.getClass().getSimpleName();
+    }
+    return message.trim().replaceAll("\\s*[\\r\\n]+\\s*", " ");
+  }
+
+  private static <T> T get(Future<T> future) throws InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      // The tasks catch everything themselves.
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Steps and stepping time of the compiled Turing machine runs, summed over all threads.
+   */
+  private static final class TuringStats {
+    final AtomicLong steps = new AtomicLong();
+    final AtomicLong nanos = new AtomicLong();
+
+    void add(CompiledTM.Run run) {
+      steps.addAndGet(run.getSteps());
+      nanos.addAndGet(run.getElapsedNanos());
+    }
+
+    double stepsPerSecond() {
+      long elapsed = nanos.get();
+      return (elapsed == 0) ? 0.0 : steps.get() * 1e9 / elapsed;
+    }
+  }
+
+  private static final class Options {
+    final File machines;
+    final File cases;
+    final File out;
+    final boolean json;
+    final int threads;
+    final int maxConfigurations;
+    final int maxSteps;
+    final int pdaAcceptance;
+    final NDTMSearchSimulator.Strategy tmSearch;
+    final boolean decodeCache;
+
+    private Options(
+      File machines,
+      File cases,
+      File out,
+      boolean json,
+      int threads,
+      int maxConfigurations,
+      int maxSteps,
+      int pdaAcceptance,
+      NDTMSearchSimulator.Strategy tmSearch,
+      boolean decodeCache
+    ) {
+      this.machines = machines;
+      this.cases = cases;
+      this.out = out;
+      this.json = json;
+      this.threads = threads;
+      this.maxConfigurations = maxConfigurations;
+      this.maxSteps = maxSteps;
+      this.pdaAcceptance = pdaAcceptance;
+      this.tmSearch = tmSearch;
+      this.decodeCache = decodeCache;
+    }
+
+    /**
+     * @return the options, or {@code null} if help was requested
+     */
+    static Options parse(String[] args) {
+      List<String> paths = new ArrayList<>();
+      File out = null;
+      String format = null;
+      int threads = Runtime.getRuntime().availableProcessors();
+      int maxConfigurations = DEFAULT_MAX_CONFIGURATIONS;
+      int maxSteps = DEFAULT_MAX_STEPS;
+      int pdaAcceptance = PDAAcceptance.FINAL_STATE;
+      NDTMSearchSimulator.Strategy tmSearch = NDTMSearchSimulator.Strategy.BREADTH_FIRST;
+      boolean decodeCache = false;
+      for (String arg : args) {
+        if (arg == null) {
+          continue;
+        }
+        if (arg.equals("-h") || arg.equals("--help")) {
+          return null;
+        } else if (arg.startsWith("--out=")) {
+          out = new File(arg.substring("--out=".length()));
+        } else if (arg.startsWith("--format=")) {
+          format = arg.substring("--format=".length()).trim().toLowerCase(Locale.ROOT);
+        } else if (arg.startsWith("--threads=")) {
+          threads = positive(arg, "--threads=");
+        } else if (arg.startsWith("--max-configs=")) {
+          maxConfigurations = positive(arg, "--max-configs=");
+        } else if (arg.startsWith("--max-steps=")) {
+          maxSteps = positive(arg, "--max-steps=");
+        } else if (arg.equals("--pda-accept=final")) {
+          pdaAcceptance = PDAAcceptance.FINAL_STATE;
+        } else if (arg.equals("--pda-accept=empty")) {
+          pdaAcceptance = PDAAcceptance.EMPTY_STACK;
+        } else if (arg.equals("--tm-search=bfs")) {
+          tmSearch = NDTMSearchSimulator.Strategy.BREADTH_FIRST;
+        } else if (arg.equals("--tm-search=dfs")) {
+          tmSearch = NDTMSearchSimulator.Strategy.DEPTH_FIRST;
+        } else if (arg.equals("--tm-search=iddfs")) {
+          tmSearch = NDTMSearchSimulator.Strategy.ITERATIVE_DEEPENING;
+        } else if (arg.equals("--decode-cache")) {
+          decodeCache = true;
+        } else if (arg.startsWith("--")) {
+          throw new IllegalArgumentException("Unknown option: " + arg);
+        } else {
+          paths.add(arg);
+        }
+      }
+      if (paths.size() != 2) {
+        throw new IllegalArgumentException("Expected a machine directory (or .jff file) and a cases file.");
+      }
+      if (format == null) {
+        format = (out != null && out.getName().toLowerCase(Locale.ROOT).endsWith(".json")) ? "json" : "csv";
+      }
+      if (!format.equals("csv") && !format.equals("json")) {
+        throw new IllegalArgumentException("Unknown format: " + format);
+      }
+      return new Options(
+        new File(paths.get(0)),
+        new File(paths.get(1)),
+        out,
+        format.equals("json"),
+        threads,
+        maxConfigurations,
+        maxSteps,
+        pdaAcceptance,
+        tmSearch,
+        decodeCache
+      );
+    }
+
+    private static int positive(String arg, String prefix) {
+      try {
+        int value = Integer.parseInt(arg.substring(prefix.length()).trim());
+        if (value > 0) {
+          return value;
+        }
+      } catch (NumberFormatException ignored) {
+        // fall through
+      }
+      throw new IllegalArgumentException("Expected a positive number: " + arg);
+    }
+  }
+
+  static final class Case {
+    final int line;
+    final String[] columns;
+
+    Case(int line, String[] columns) {
+      this.line = line;
+      this.columns = columns;
+    }
+  }
+
+  static final class Decoded {
+    final File file;
+    final Automaton automaton;
+    final String error;
+    /** The symbols on a finite automaton's transitions, from the decode cache; or {@code null}. */
+    final String alphabet;
+    /** The minimal DFA of a DFA, from the decode cache; or {@code null}. */
+    final CompiledFSA minimal;
+    /** The simulator for a nondeterministic finite automaton; or {@code null}. */
+    final FSABitsetSimulator nfa;
+
+    Decoded(File file, Automaton automaton, String error) {
+      this.file = file;
+      this.automaton = automaton;
+      this.error = error;
+      this.alphabet = null;
+      this.minimal = null;
+      this.nfa = null;
+    }
+
+    Decoded(File file, Automaton automaton, String alphabet, CompiledFSA minimal, FSABitsetSimulator nfa) {
+      this.file = file;
+      this.automaton = automaton;
+      this.error = null;
+      this.alphabet = alphabet;
+      this.minimal = minimal;
+      this.nfa = nfa;
+    }
+  }
+
+  static final class Result {
+    final String file;
+    final int line;
+    final String input;
+    final String expected;
+    final String actual;
+    final String status;
+
+    Result(String file, int line, String input, String expected, String actual, String status) {
+      this.file = file;
+      this.line = line;
+      this.input = input;
+      this.expected = expected;
+      this.actual = actual;
+      this.status = status;
+    }
+  }
+}
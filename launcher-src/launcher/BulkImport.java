@@ -0,0 +1,334 @@
+package launcher;
+
+import file.BinaryCodec;
+import file.Codec;
+import file.ParseException;
+import file.SerializedCodec;
+import file.XMLCodec;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads many machine files at once.
+ *
+ * <p>JFLAP hands each file to every registered decoder in turn until one accepts it. Here the format
+ * is told from the first bytes of the file, and only the codec for that format reads it. Files are
+ * read on a shared pool with one thread per core, and a file that cannot be read is reported with
+ * its error rather than stopping the others.</p>
+ *
+ * <p>Only the binary codec and the streaming XML reader (through {@link DecodeCache}) run on the
+ * pool. Anything else (other codecs, files only the DOM path reads, and Turing machine files that
+ * make JFLAP ask which kind of machine they are) is read afterwards on the calling thread, as
+ * before.</p>
+ *
+ * <p>{@code OpenAction} and {@code TestAction} are patched at build time (see
+ * {@code tools-src/patch/BulkImportPatcher.java}): both try the sniffed codec first, and the
+ * multiple-file picker of {@code TestAction} reads its whole selection through
+ * {@link #prefetch(File[], Codec[])} before it opens the files one by one. {@link BatchGrader}
+ * reads its machines on the same pool, with its own reader for XML files.</p>
+ */
+public final class BulkImport {
+  private static final byte[] BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+  /** Files read by the last {@link #prefetch}, until {@link #decode} takes them. */
+  private static final Map<File, Prefetched> PREFETCHED = Collections.synchronizedMap(new HashMap<File, Prefetched>());
+
+  private BulkImport() {
+  }
+
+  /** A file format, as told by its first bytes. */
+  public enum Format {
+    XML,
+    BINARY,
+    SERIALIZED,
+    UNKNOWN
+  }
+
+  /**
+   * What one file held, or why it could not be read.
+   */
+  public static final class Imported {
+    public final File file;
+    /** The codec for the file's format; {@code null} if none of the codecs matched it. */
+    public final Codec codec;
+    public final Serializable structure;
+    public final RuntimeException error;
+
+    Imported(File file, Codec codec, Serializable structure, RuntimeException error) {
+      this.file = file;
+      this.codec = codec;
+      this.structure = structure;
+      this.error = error;
+    }
+
+    public boolean isRead() {
+      return error == null;
+    }
+  }
+
+  /**
+   * Tells the format of {@code file} from its first bytes.
+   */
+  public static Format sniff(File file) {
+    byte[] head = new byte[64];
+    int length = 0;
+    InputStream in = null;
+    try {
+      in = new FileInputStream(file);
+      int read;
+      while (length < head.length && (read = in.read(head, length, head.length - length)) > 0) {
+        length += read;
+      }
+    } catch (IOException e) {
+      return Format.UNKNOWN;
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+    return sniff(head, length);
+  }
+
+  static Format sniff(byte[] head, int length) {
+    if (length >= 4 && (((head[0] & 0xFF) << 24) | ((head[1] & 0xFF) << 16) | ((head[2] & 0xFF) << 8)
+      | (head[3] & 0xFF)) == BinaryCodec.MAGIC) {
+      return Format.BINARY;
+    }
+    if (length >= 2 && (head[0] & 0xFF) == 0xAC && (head[1] & 0xFF) == 0xED) {
+      return Format.SERIALIZED;
+    }
+    int start = length >= 3 && head[0] == BOM[0] && head[1] == BOM[1] && head[2] == BOM[2] ? 3 : 0;
+    for (int i = start; i < length; i++) {
+      if (head[i] == '<') {
+        return Format.XML;
+      }
+      if (!Character.isWhitespace(head[i])) {
+        break;
+      }
+    }
+    return Format.UNKNOWN;
+  }
+
+  /**
+   * Reads one file that is not in the binary format.
+   */
+  interface Reader {
+    /**
+     * @return what {@code file} holds, or {@code null} to leave it to the caller
+     */
+    Serializable read(File file, Format format) throws Exception;
+  }
+
+  /** The pool's own reader: the streaming XML reader, through {@link DecodeCache}. */
+  private static final Reader STREAMED = new Reader() {
+    @Override
+    public Serializable read(File file, Format format) {
+      return format == Format.XML ? DecodeCache.decode(file) : null;
+    }
+  };
+
+  /**
+   * Reads every file in {@code files} with the codecs in {@code codecs}. The result is in the order
+   * of {@code files}; it blocks until all are read.
+   */
+  public static Imported[] importFiles(File[] files, Codec[] codecs) {
+    Imported[] imported = importFiles(files, codecs, STREAMED);
+    for (int i = 0; i < imported.length; i++) {
+      if (imported[i] == null) {
+        imported[i] = readHere(files[i], codecs, indexOf(sniff(files[i]), codecs));
+      }
+    }
+    return imported;
+  }
+
+  /**
+   * Reads {@code files} on the pool: binary files with the binary codec in {@code codecs}, and the
+   * others with {@code reader}. The entries left {@code null} are those {@code reader} left.
+   */
+  static Imported[] importFiles(File[] files, final Codec[] codecs, final Reader reader) {
+    List<Callable<Imported>> tasks = new ArrayList<>(files.length);
+    for (int i = 0; i < files.length; i++) {
+      final File file = files[i];
+      tasks.add(new Callable<Imported>() {
+        @Override
+        public Imported call() {
+          Format format = sniff(file);
+          int index = indexOf(format, codecs);
+          Codec codec = index < 0 ? null : codecs[index];
+          try {
+            Serializable structure = codec instanceof BinaryCodec
+              ? codec.decode(file, null)
+              : reader.read(file, format);
+            return structure == null ? null : new Imported(file, codec, structure, null);
+          } catch (RuntimeException e) {
+            return new Imported(file, codec, null, e);
+          } catch (Exception e) {
+            String message = e.getMessage();
+            return new Imported(file, codec, null, new ParseException(
+              message == null ? e.getClass().getSimpleName() : message));
+          }
+        }
+      });
+    }
+
+    Imported[] imported = new Imported[files.length];
+    List<Future<Imported>> futures;
+    try {
+      futures = Holder.EXECUTOR.invokeAll(tasks);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return imported;
+    }
+    for (int i = 0; i < imported.length; i++) {
+      try {
+        imported[i] = futures.get(i).get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return imported;
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        imported[i] = new Imported(files[i], null, null, cause instanceof RuntimeException
+          ? (RuntimeException) cause
+          : new ParseException(String.valueOf(cause)));
+      }
+    }
+    return imported;
+  }
+
+  /**
+   * Reads {@code files} on the pool, so that {@link #decode} hands the results to the
+   * {@code openFile} loop of {@code TestAction}.
+   */
+  public static void prefetch(File[] files, Codec[] codecs) {
+    PREFETCHED.clear();
+    if (files == null || files.length < 2) {
+      return;
+    }
+    // Taken before reading, so a file saved while it is read does not match its result.
+    long[] modified = new long[files.length];
+    long[] lengths = new long[files.length];
+    for (int i = 0; i < files.length; i++) {
+      modified[i] = files[i].lastModified();
+      lengths[i] = files[i].length();
+    }
+    Imported[] imported = importFiles(files, codecs, STREAMED);
+    for (int i = 0; i < imported.length; i++) {
+      if (imported[i] != null) {
+        PREFETCHED.put(files[i], new Prefetched(imported[i], modified[i], lengths[i]));
+      }
+    }
+  }
+
+  /**
+   * Called in place of {@code codec.decode(file, parameters)}: returns the prefetched result of
+   * {@code file}, or throws its error, if {@code codec} is the one that read it and the file has not
+   * changed since.
+   */
+  public static Serializable decode(Codec codec, File file, Map<?, ?> parameters) {
+    Prefetched prefetched = PREFETCHED.remove(file);
+    if (prefetched == null || prefetched.imported.codec != codec || !prefetched.isCurrent()) {
+      return codec.decode(file, parameters);
+    }
+    Imported imported = prefetched.imported;
+    if (imported.error != null) {
+      throw imported.error;
+    }
+    return imported.structure;
+  }
+
+  /**
+   * Returns {@code codecs} with the codec for the sniffed format of {@code file} first.
+   */
+  public static Codec[] order(File file, Codec[] codecs) {
+    if (codecs == null || codecs.length < 2) {
+      return codecs;
+    }
+    int index = indexOf(sniff(file), codecs);
+    if (index <= 0) {
+      return codecs;
+    }
+    Codec[] ordered = new Codec[codecs.length];
+    ordered[0] = codecs[index];
+    System.arraycopy(codecs, 0, ordered, 1, index);
+    System.arraycopy(codecs, index + 1, ordered, index + 1, codecs.length - index - 1);
+    return ordered;
+  }
+
+  private static int indexOf(Format format, Codec[] codecs) {
+    for (int i = 0; i < codecs.length; i++) {
+      boolean matches = format == Format.XML && codecs[i] instanceof XMLCodec
+        || format == Format.BINARY && codecs[i] instanceof BinaryCodec
+        || format == Format.SERIALIZED && codecs[i] instanceof SerializedCodec;
+      if (matches) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Tries the codec at {@code sniffed} (if any), then the others in turn, as {@code OpenAction.openFile}
+   * does. The error kept is the sniffed codec's, which says more than that no codec could read it.
+   */
+  private static Imported readHere(File file, Codec[] codecs, int sniffed) {
+    RuntimeException error = null;
+    for (int i = -1; i < codecs.length; i++) {
+      int index = i < 0 ? sniffed : i;
+      if (index < 0 || i == sniffed) {
+        continue;
+      }
+      try {
+        return new Imported(file, codecs[index], codecs[index].decode(file, null), null);
+      } catch (RuntimeException e) {
+        if (error == null || sniffed < 0) {
+          error = e;
+        }
+      }
+    }
+    if (error == null || sniffed < 0 && codecs.length != 1) {
+      error = new ParseException("No format could read the file!");
+    }
+    return new Imported(file, null, null, error);
+  }
+
+  /**
+   * A prefetched result, with the file's modification time and length when it was read.
+   */
+  private static final class Prefetched {
+    final Imported imported;
+    final long modified;
+    final long length;
+
+    Prefetched(Imported imported, long modified, long length) {
+      this.imported = imported;
+      this.modified = modified;
+      this.length = length;
+    }
+
+    boolean isCurrent() {
+      File file = imported.file;
+      return file.lastModified() == modified && file.length() == length;
+    }
+  }
+
+  private static final class Holder {
+    static final ExecutorService EXECUTOR = Daemons.pool("jflap-import",
+      Math.max(1, Runtime.getRuntime().availableProcessors()));
+  }
+}
@@ -0,0 +1,58 @@
+package launcher;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for the launcher's background work. Their threads are daemons, so an idle pool never
+ * keeps JFLAP from exiting, and named after the work they do, so they are easy to tell apart in a
+ * thread dump.
+ */
+public final class Daemons {
+  private Daemons() {
+  }
+
+  /**
+   * Returns a fixed pool of {@code size} threads named {@code name-1}, {@code name-2} and so on.
+   */
+  public static ExecutorService pool(String name, int size) {
+    return pool(name, size, Thread.NORM_PRIORITY);
+  }
+
+  /**
+   * As {@link #pool(String, int)}, with threads of the given priority; work that must not slow
+   * down the user interface runs just below {@link Thread#NORM_PRIORITY}.
+   */
+  public static ExecutorService pool(final String name, int size, final int priority) {
+    return Executors.newFixedThreadPool(size, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        return daemon(r, name + "-" + count.incrementAndGet(), priority);
+      }
+    });
+  }
+
+  /**
+   * Returns a single thread named {@code name} that runs its tasks in the order they were
+   * submitted.
+   */
+  public static ExecutorService single(final String name, final int priority) {
+    return Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        return daemon(r, name, priority);
+      }
+    });
+  }
+
+  private static Thread daemon(Runnable r, String name, int priority) {
+    Thread thread = new Thread(r, name);
+    thread.setDaemon(true);
+    thread.setPriority(priority);
+    return thread;
+  }
+}
@@ -0,0 +1,396 @@
+package launcher;
+
+import automata.Automaton;
+import automata.StateVersions;
+import automata.fsa.CompiledFSA;
+import automata.fsa.FiniteStateAutomaton;
+import automata.fsa.HopcroftMinimizer;
+import file.BinaryCodec;
+import file.xml.StreamingCodec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * On-disk cache of decoded {@code .jff} files, keyed by the SHA-256 of their content, under
+ * {@code ~/.jflap-modern/decode-cache}.
+ *
+ * <p>Each entry is the decoded structure in the binary {@code .jffb} format, written after the
+ * streaming reader has parsed the file and laid out the states that had no coordinates. Opening a
+ * file with the same bytes again reads the entry instead, so it skips both the XML and the layout,
+ * and comes back with the same layout as the first time.</p>
+ *
+ * <p>A finite automaton's entry also has derived {@link Facts}: whether the machine is
+ * deterministic, its alphabet and, for DFAs, the minimal DFA. They are computed from the entry the
+ * first time {@link #facts(Automaton)} asks for them, and kept next to it.</p>
+ *
+ * <p>Reading an entry marks it as used; once the entries pass the size limit
+ * ({@code -Djflap.decodeCacheMB}, 64 MB by default), the least recently used ones are deleted.
+ * Files that only the DOM path reads, and Turing machine files that make JFLAP ask which kind of
+ * machine they are, are not cached. Disable with {@code -Djflap.decodeCache=false}.</p>
+ */
+public final class DecodeCache {
+  private static final String ENABLED_PROPERTY = "jflap.decodeCache";
+  private static final String LIMIT_PROPERTY = "jflap.decodeCacheMB";
+  private static final long DEFAULT_LIMIT_MB = 64;
+  /** Part of every key, so entries written by an older layout of this cache are not read. */
+  private static final byte[] FORMAT = {'j', 'f', 'f', 'b', '1'};
+  private static final String ENTRY = ".jffb";
+  private static final String FACTS = ".facts";
+  private static final String MINIMAL = ".min.jffb";
+
+  private static final BinaryCodec CODEC = new BinaryCodec();
+  private static final AtomicBoolean EVICTING = new AtomicBoolean();
+  /**
+   * The entry each finite automaton read through here came from, by its {@link StateVersions},
+   * which lives as long as the automaton; {@code Automaton.hashCode()} changes with every edit.
+   */
+  private static final Map<StateVersions, Origin> ORIGINS =
+    Collections.synchronizedMap(new WeakHashMap<StateVersions, Origin>());
+
+  private DecodeCache() {
+  }
+
+  public static boolean isEnabled() {
+    return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY)) && directory() != null;
+  }
+
+  /**
+   * What a finite automaton's cache entry records besides the automaton.
+   */
+  public static final class Facts {
+    public final boolean deterministic;
+    /** The input symbols on the transitions, in order. */
+    public final String alphabet;
+    private final String key;
+
+    Facts(boolean deterministic, String alphabet, String key) {
+      this.deterministic = deterministic;
+      this.alphabet = alphabet;
+      this.key = key;
+    }
+
+    /**
+     * The minimal DFA for a deterministic automaton, or {@code null}. It is computed on the first
+     * call for the entry; each call returns a new copy.
+     */
+    public FiniteStateAutomaton minimalDfa() {
+      if (!deterministic) {
+        return null;
+      }
+      File minimal = new File(directory(), key + MINIMAL);
+      if (minimal.isFile()) {
+        try {
+          return (FiniteStateAutomaton) CODEC.decode(minimal, null);
+        } catch (RuntimeException e) {
+          minimal.delete();
+        }
+      }
+      Automaton automaton = readEntry(key);
+      if (automaton == null) {
+        return null;
+      }
+      FiniteStateAutomaton computed = new HopcroftMinimizer().getMinimumDfa(automaton);
+      write(computed, minimal);
+      return computed;
+    }
+  }
+
+  /**
+   * Replaces the body of {@code XMLCodec.decode}: returns what {@code file} holds, or {@code null}
+   * if only the DOM path can read it.
+   */
+  public static Serializable decode(File file) {
+    return decode(file, false);
+  }
+
+  /**
+   * Like {@link #decode(File)}, with {@code plainTuring} as in {@link StreamingCodec#decode(File, boolean)}.
+   */
+  public static Serializable decode(File file, boolean plainTuring) {
+    if (!isEnabled()) {
+      return StreamingCodec.decode(file, plainTuring);
+    }
+    String key = key(file, plainTuring);
+    if (key != null) {
+      File entry = new File(directory(), key + ENTRY);
+      if (entry.isFile()) {
+        try {
+          Serializable cached = CODEC.decode(entry, null);
+          entry.setLastModified(System.currentTimeMillis());
+          remember(key, cached);
+          return cached;
+        } catch (RuntimeException e) {
+          // A damaged entry is written again below.
+          entry.delete();
+        }
+      }
+      Serializable decoded = StreamingCodec.decodeUnambiguous(file, plainTuring);
+      if (decoded != null) {
+        store(key, decoded);
+        remember(key, decoded);
+        return decoded;
+      }
+    }
+    return StreamingCodec.decode(file, plainTuring);
+  }
+
+  /**
+   * The facts of the entry {@code automaton} was read from, or {@code null} if it was not read
+   * through the cache, is not a finite automaton, or was edited since.
+   */
+  public static Facts facts(Automaton automaton) {
+    if (!(automaton instanceof FiniteStateAutomaton) || !StateVersions.isEnabled() || !isEnabled()) {
+      return null;
+    }
+    StateVersions versions = StateVersions.of(automaton);
+    Origin origin = ORIGINS.get(versions);
+    if (origin == null || versions.getVersion() != origin.version) {
+      return null;
+    }
+    return facts(origin.key);
+  }
+
+  private static void remember(String key, Serializable structure) {
+    if (structure instanceof FiniteStateAutomaton && StateVersions.isEnabled()) {
+      StateVersions versions = StateVersions.of((Automaton) structure);
+      ORIGINS.put(versions, new Origin(key, versions.getVersion()));
+    }
+  }
+
+  /**
+   * Reads the facts of the entry {@code key}, computing and writing them if they are not there yet.
+   */
+  private static Facts facts(String key) {
+    File facts = new File(directory(), key + FACTS);
+    if (facts.isFile()) {
+      DataInputStream in = null;
+      try {
+        in = new DataInputStream(new FileInputStream(facts));
+        boolean deterministic = in.readBoolean();
+        return new Facts(deterministic, in.readUTF(), key);
+      } catch (IOException e) {
+        // Computed again below.
+      } finally {
+        close(in);
+      }
+    }
+
+    Automaton automaton = readEntry(key);
+    if (automaton == null || !CompiledFSA.canCompile(automaton)) {
+      return null;
+    }
+    CompiledFSA compiled = CompiledFSA.compile(automaton);
+    Facts computed = new Facts(compiled.isDeterministic(), new String(compiled.getSymbols()), key);
+    DataOutputStream out = null;
+    File temporary = null;
+    try {
+      temporary = File.createTempFile("facts", ".tmp", facts.getParentFile());
+      out = new DataOutputStream(new FileOutputStream(temporary));
+      out.writeBoolean(computed.deterministic);
+      out.writeUTF(computed.alphabet);
+      out.close();
+      out = null;
+      Files.move(temporary.toPath(), facts.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException ignored) {
+      // The facts are only an extra; they are computed again next time.
+    } finally {
+      close(out);
+      if (temporary != null) {
+        temporary.delete();
+      }
+    }
+    return computed;
+  }
+
+  /**
+   * The finite automaton in the entry {@code key}, or {@code null} if it is gone or holds something
+   * else. The facts are computed from the entry, not from a structure the editor may be changing.
+   */
+  private static Automaton readEntry(String key) {
+    try {
+      Serializable structure = CODEC.decode(new File(directory(), key + ENTRY), null);
+      return structure instanceof FiniteStateAutomaton ? (Automaton) structure : null;
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  private static void store(String key, Serializable structure) {
+    final File directory = directory();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      return;
+    }
+    if (!write(structure, new File(directory, key + ENTRY))) {
+      return;
+    }
+    Holder.WRITER.execute(new Runnable() {
+      @Override
+      public void run() {
+        evict(directory);
+      }
+    });
+  }
+
+  /**
+   * Writes {@code structure} next to {@code target} and moves it in place, so readers never see a
+   * partly written entry.
+   */
+  private static boolean write(Serializable structure, File target) {
+    File temporary = null;
+    try {
+      temporary = File.createTempFile("entry", ".tmp", target.getParentFile());
+      CODEC.encode(structure, temporary, null);
+      Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      return true;
+    } catch (IOException e) {
+      return false;
+    } catch (RuntimeException e) {
+      return false;
+    } finally {
+      if (temporary != null) {
+        temporary.delete();
+      }
+    }
+  }
+
+  /**
+   * Deletes the least recently used entries, with their facts, until the cache fits its limit.
+   */
+  private static void evict(File directory) {
+    if (!EVICTING.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      File[] files = directory.listFiles();
+      if (files == null) {
+        return;
+      }
+      long total = 0;
+      List<File> entries = new ArrayList<>();
+      for (int i = 0; i < files.length; i++) {
+        total += files[i].length();
+        String name = files[i].getName();
+        if (name.endsWith(ENTRY) && !name.endsWith(MINIMAL)) {
+          entries.add(files[i]);
+        }
+      }
+      long limit = limitBytes();
+      if (total <= limit) {
+        return;
+      }
+      Collections.sort(entries, new Comparator<File>() {
+        @Override
+        public int compare(File a, File b) {
+          return Long.compare(a.lastModified(), b.lastModified());
+        }
+      });
+      for (int i = 0; i < entries.size() && total > limit; i++) {
+        String key = entries.get(i).getName();
+        key = key.substring(0, key.length() - ENTRY.length());
+        String[] suffixes = {ENTRY, FACTS, MINIMAL};
+        for (int s = 0; s < suffixes.length; s++) {
+          File file = new File(directory, key + suffixes[s]);
+          long length = file.length();
+          if (file.delete()) {
+            total -= length;
+          }
+        }
+      }
+    } finally {
+      EVICTING.set(false);
+    }
+  }
+
+  /**
+   * The SHA-256 of the bytes of {@code file}, in hex; {@code null} if it cannot be read.
+   */
+  private static String key(File file, boolean plainTuring) {
+    InputStream in = null;
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(FORMAT);
+      // A plain Turing machine file reads differently with plainTuring.
+      digest.update((byte) (plainTuring ? 1 : 0));
+      // Read rather than mapped: a mapping stays open until collected, which locks the file on Windows.
+      in = new FileInputStream(file);
+      byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+      byte[] hash = digest.digest();
+      StringBuilder hex = new StringBuilder(hash.length * 2);
+      for (int i = 0; i < hash.length; i++) {
+        hex.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+      }
+      return hex.toString();
+    } catch (IOException e) {
+      return null;
+    } catch (NoSuchAlgorithmException e) {
+      return null;
+    } finally {
+      close(in);
+    }
+  }
+
+  private static long limitBytes() {
+    long megabytes = DEFAULT_LIMIT_MB;
+    try {
+      megabytes = Long.parseLong(System.getProperty(LIMIT_PROPERTY, String.valueOf(DEFAULT_LIMIT_MB)).trim());
+    } catch (NumberFormatException ignored) {
+      // keep the default
+    }
+    return Math.max(0, megabytes) * 1024 * 1024;
+  }
+
+  private static File directory() {
+    String home = System.getProperty("user.home");
+    if (home == null || home.trim().isEmpty()) {
+      return null;
+    }
+    return new File(new File(home, ".jflap-modern"), "decode-cache");
+  }
+
+  private static void close(java.io.Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  private static final class Origin {
+    final String key;
+    /** The automaton's {@link StateVersions#getVersion()} when it was read. */
+    final long version;
+
+    Origin(String key, long version) {
+      this.key = key;
+      this.version = version;
+    }
+  }
+
+  private static final class Holder {
+    static final ExecutorService WRITER = Daemons.single("jflap-decode-cache", Thread.NORM_PRIORITY - 1);
+  }
+}
@@ -0,0 +1,49 @@
+package launcher;
+
+import automata.Transition;
+import gui.viewer.AutomatonDrawer;
+import gui.viewer.CurvedArrow;
+
+import java.util.HashMap;
+
+/**
+ * The arrow-to-transition map of an {@link AutomatonDrawer}, carrying the drawer's
+ * {@link ArrowMaps} upkeep and {@link HitIndex} as well.
+ *
+ * <p>Both hold the drawer's states and arrows, and they reach the drawer through the automaton's
+ * listeners, so a static map from drawers to either would never let a drawer go. Only the drawer's
+ * constructor assigns {@code arrowToTransitionMap}, so the map is swapped for this one on first use
+ * and both live exactly as long as the drawer.</p>
+ */
+final class DrawerMaps extends HashMap<CurvedArrow, Transition> {
+  private static final long serialVersionUID = 1L;
+
+  ArrowMaps.Entry arrows;
+  HitIndex hits;
+
+  private DrawerMaps(HashMap<CurvedArrow, Transition> arrows) {
+    super(arrows);
+  }
+
+  /**
+   * Returns the maps of {@code drawer}, installing them if needed.
+   */
+  static DrawerMaps of(AutomatonDrawer drawer) {
+    synchronized (DrawerMaps.class) {
+      DrawerMaps maps = peek(drawer);
+      if (maps == null) {
+        maps = new DrawerMaps(drawer.arrowToTransitionMap);
+        drawer.arrowToTransitionMap = maps;
+      }
+      return maps;
+    }
+  }
+
+  /**
+   * Returns the maps of {@code drawer}, or {@code null} if they were never installed.
+   */
+  static DrawerMaps peek(AutomatonDrawer drawer) {
+    HashMap<CurvedArrow, Transition> arrows = drawer.arrowToTransitionMap;
+    return arrows instanceof DrawerMaps ? (DrawerMaps) arrows : null;
+  }
+}
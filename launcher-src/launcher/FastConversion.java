@@ -0,0 +1,48 @@
+package launcher;
+
+import automata.Automaton;
+import automata.fsa.FiniteStateAutomaton;
+import automata.fsa.SubsetConstructor;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Fast replacements for JFLAP's headless conversions.
+ *
+ * <p>{@code automata.fsa.NFAToDFA.convertToDFA(Automaton)} is patched at build time (see
+ * {@code tools-src/patch/NFAToDFAPatcher.java}) to call {@link #convertToDfa(Automaton)} first.
+ * The interactive steps of the NFA to DFA view still use {@code NFAToDFA} itself. Disable with
+ * {@code -Djflap.fastConversion=false}.</p>
+ */
+public final class FastConversion {
+  private static final String ENABLED_PROPERTY = "jflap.fastConversion";
+
+  private FastConversion() {
+  }
+
+  public static boolean isEnabled() {
+    return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+  }
+
+  /**
+   * Hook for {@code NFAToDFA.convertToDFA(Automaton)}.
+   *
+   * @return the converted DFA, or {@code null} if the caller should run JFLAP's original conversion
+   */
+  public static FiniteStateAutomaton convertToDfa(Automaton automaton) {
+    if (!isEnabled()) {
+      return null;
+    }
+    SubsetConstructor constructor = new SubsetConstructor();
+    if (!constructor.canConvert(automaton)) {
+      return null;
+    }
+    try {
+      return constructor.convertToDFA(automaton);
+    } catch (CancellationException e) {
+      throw e;
+    } catch (RuntimeException ignored) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,249 @@
+package launcher;
+
+import automata.Automaton;
+import automata.AutomatonSimulator;
+import automata.Configuration;
+import automata.event.AutomataStateEvent;
+import automata.event.AutomataStateListener;
+import automata.event.AutomataTransitionEvent;
+import automata.event.AutomataTransitionListener;
+import automata.fsa.CompiledFSA;
+import automata.turing.CompiledTM;
+import automata.turing.TuringMachine;
+
+import java.lang.ref.ReferenceQueue;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fast acceptance checks for JFLAP simulators that do not need step-by-step configurations.
+ *
+ * <p>{@code automata.fsa.FSAStepByStateSimulator.simulateInput(String)} is patched at build time
+ * (see {@code tools-src/patch/FSASimulatorPatcher.java}) to call {@link #simulateFsa(Automaton, String)}
+ * first and to leave {@link #configurations(AutomatonSimulator, String, int)} in
+ * {@code myConfigurations} when that answers, and {@link ParallelSimulation} runs deterministic Turing machines on
+ * {@link #compiledTm(Automaton)}. Compiled tables are cached per automaton instance and dropped
+ * whenever a state or transition listener reports anything but a move (final and initial state
+ * changes arrive as label events), including edits inside a Turing machine's building blocks.
+ * Disable with {@code -Djflap.fastSimulation=false}.</p>
+ */
+public final class FastSimulation {
+  /** Returned by the hooks when the caller should run JFLAP's original simulation. */
+  public static final int FALLBACK = -1;
+  public static final int REJECTED = 0;
+  public static final int ACCEPTED = 1;
+
+  private static final String ENABLED_PROPERTY = "jflap.fastSimulation";
+
+  private static final Map<IdentityKey<Automaton>, CacheEntry> CACHE = new HashMap<>();
+  private static final ReferenceQueue<Automaton> STALE = new ReferenceQueue<>();
+
+  private FastSimulation() {
+  }
+
+  public static boolean isEnabled() {
+    return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+  }
+
+  /**
+   * Hook for {@code FSAStepByStateSimulator.simulateInput(String)}.
+   *
+   * @return {@link #ACCEPTED}, {@link #REJECTED} or {@link #FALLBACK}
+   */
+  public static int simulateFsa(Automaton automaton, String input) {
+    if (input == null || !isEnabled()) {
+      return FALLBACK;
+    }
+    try {
+      CompiledFSA compiled = compiledFsa(automaton);
+      if (compiled == null) {
+        return FALLBACK;
+      }
+      return compiled.accepts(input) ? ACCEPTED : REJECTED;
+    } catch (RuntimeException ignored) {
+      return FALLBACK;
+    }
+  }
+
+  /**
+   * Returns what {@code FSAStepByStateSimulator.simulateInput(String)} leaves in
+   * {@code myConfigurations} once {@link #simulateFsa(Automaton, String)} has answered
+   * {@code result}: no configurations after a rejection, and after an acceptance the configurations
+   * of the step that reached the first accepting one. JFLAP's step loop only runs to find those when
+   * the set is first read, on the automaton as it is then.
+   */
+  public static Set<Configuration> configurations(AutomatonSimulator simulator, String input, int result) {
+    if (result == ACCEPTED) {
+      return new AcceptedConfigurations(simulator, input);
+    }
+    return new HashSet<>();
+  }
+
+  /**
+   * Returns the cached compiled form of {@code automaton}, compiling it on first use, or
+   * {@code null} if the automaton cannot be compiled.
+   */
+  public static CompiledFSA compiledFsa(Automaton automaton) {
+    if (!CompiledFSA.canCompile(automaton)) {
+      return null;
+    }
+
+    CacheEntry entry = entryFor(automaton);
+    CompiledFSA compiled = entry.fsa;
+    if (compiled == null) {
+      compiled = CompiledFSA.compile(automaton);
+      entry.fsa = compiled;
+    }
+    return compiled;
+  }
+
+  /**
+   * Returns the cached compiled form of the Turing machine {@code automaton}, compiling it on first
+   * use, or {@code null} if it cannot be compiled or fast simulation is disabled.
+   */
+  public static CompiledTM compiledTm(Automaton automaton) {
+    if (!isEnabled() || !CompiledTM.canCompile(automaton)) {
+      return null;
+    }
+
+    CacheEntry entry = entryFor(automaton);
+    CompiledTM compiled = entry.tm;
+    if (compiled == null) {
+      compiled = CompiledTM.compile(automaton);
+      // An edit inside a building block only notifies the block's own machine.
+      List<TuringMachine> machines = compiled.getFlatMachine().getMachines();
+      for (int i = 1; i < machines.size(); i++) {
+        machines.get(i).addStateListener(entry);
+        machines.get(i).addTransitionListener(entry);
+      }
+      entry.tm = compiled;
+    }
+    return compiled;
+  }
+
+  private static CacheEntry entryFor(Automaton automaton) {
+    synchronized (CACHE) {
+      purgeStaleEntries();
+
+      IdentityKey<Automaton> key = new IdentityKey<Automaton>(automaton, null);
+      CacheEntry entry = CACHE.get(key);
+      if (entry == null) {
+        entry = new CacheEntry();
+        CACHE.put(new IdentityKey<Automaton>(automaton, STALE), entry);
+        automaton.addStateListener(entry);
+        automaton.addTransitionListener(entry);
+      }
+      return entry;
+    }
+  }
+
+  private static void purgeStaleEntries() {
+    Object stale;
+    while ((stale = STALE.poll()) != null) {
+      CACHE.remove(stale);
+    }
+  }
+
+  /**
+   * The configurations of an accepted input, computed on first use as
+   * {@code FSAStepByStateSimulator.simulateInput(String)} would have.
+   */
+  private static final class AcceptedConfigurations extends AbstractSet<Configuration> {
+    private AutomatonSimulator simulator;
+    private String input;
+    private Set<Configuration> configurations;
+
+    AcceptedConfigurations(AutomatonSimulator simulator, String input) {
+      this.simulator = simulator;
+      this.input = input;
+    }
+
+    private Set<Configuration> configurations() {
+      if (configurations == null) {
+        configurations = step(simulator, input);
+        simulator = null;
+        input = null;
+      }
+      return configurations;
+    }
+
+    private static Set<Configuration> step(AutomatonSimulator simulator, String input) {
+      Set<Configuration> current = new HashSet<>(Arrays.asList(simulator.getInitialConfigurations(input)));
+      while (!current.isEmpty()) {
+        for (Configuration configuration : current) {
+          if (configuration.isAccept()) {
+            return current;
+          }
+        }
+        List<Configuration> next = new ArrayList<>();
+        for (Configuration configuration : current) {
+          next.addAll(simulator.stepConfiguration(configuration));
+        }
+        current = new HashSet<>(next);
+      }
+      return current;
+    }
+
+    @Override
+    public Iterator<Configuration> iterator() {
+      return configurations().iterator();
+    }
+
+    @Override
+    public int size() {
+      return configurations().size();
+    }
+
+    @Override
+    public boolean contains(Object configuration) {
+      return configurations().contains(configuration);
+    }
+
+    @Override
+    public boolean add(Configuration configuration) {
+      return configurations().add(configuration);
+    }
+
+    @Override
+    public boolean remove(Object configuration) {
+      return configurations().remove(configuration);
+    }
+
+    @Override
+    public void clear() {
+      // The next simulation starts by clearing the set; no need to step this one first.
+      configurations = new HashSet<>();
+      simulator = null;
+      input = null;
+    }
+  }
+
+  private static final class CacheEntry implements AutomataStateListener, AutomataTransitionListener {
+    volatile CompiledFSA fsa;
+    volatile CompiledTM tm;
+
+    @Override
+    public void automataStateChange(AutomataStateEvent e) {
+      // Label events also report addFinalState, removeFinalState and setInitialState, so only a
+      // move leaves the compiled machine as it was.
+      if (e.isMove()) {
+        return;
+      }
+      fsa = null;
+      tm = null;
+    }
+
+    @Override
+    public void automataTransitionChange(AutomataTransitionEvent e) {
+      fsa = null;
+      tm = null;
+    }
+  }
+}
@@ -0,0 +1,366 @@
+package launcher;
+
+import automata.Automaton;
+import automata.State;
+import automata.StateVersions;
+import automata.Transition;
+import automata.event.AutomataStateEvent;
+import gui.viewer.ArrowGeometry;
+import gui.viewer.AutomatonDrawer;
+import gui.viewer.CurvedArrow;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.QuadCurve2D;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * A uniform grid over an {@link AutomatonDrawer}'s state discs and arrows, for hit testing.
+ *
+ * <p>{@code AutomatonDrawer.stateAtPoint(Point)} and {@code transitionAtPoint(Point)} test every
+ * state and every arrow, and the editor tools and tool tips call them on each mouse move. The drawer
+ * is patched at build time (see {@code tools-src/patch/AutomatonDrawerPatcher.java}) to answer both
+ * from this grid instead, which only holds the cells near the pointer. States are reindexed from the
+ * drawer's state events, arrows as {@link ArrowMaps} rebuilds them and when {@code ArrowTool} drags
+ * a curve ({@code CurvedArrow.refreshCurve()} is patched to report it). Candidates are still
+ * confirmed with the original tests, {@code Point.distance} and {@code CurvedArrow.isNear}.</p>
+ *
+ * <p>The grid is built on the first query and kept on the drawer (see {@link DrawerMaps}). It is
+ * only used along with {@link ArrowMaps}, so it is disabled by
+ * {@code -Djflap.incrementalIndexes=false} as well.</p>
+ */
+public final class HitIndex {
+  private static final int CELL = 128;
+  /** A piece of curve is split further while its bounds cover more cells than this. */
+  private static final int PIECE_CELLS = 4;
+  private static final int MAX_DEPTH = 16;
+  /** {@code AutomatonDrawer}'s state radius and the tolerance it passes to {@code isNear}. */
+  private static final int STATE_RADIUS = 20;
+  private static final int ARROW_NEAR = 2;
+
+  /** The index each arrow is filed in, held weakly: the index holds the arrow. */
+  private static final Map<CurvedArrow, WeakReference<HitIndex>> OWNERS =
+    Collections.synchronizedMap(new WeakHashMap<CurvedArrow, WeakReference<HitIndex>>());
+
+  private final AutomatonDrawer drawer;
+  private final Automaton automaton;
+
+  private final Map<Long, List<State>> stateCells = new HashMap<>();
+  private final Map<State, Long> stateKeys = new IdentityHashMap<>();
+  private final Set<State> movedStates = Collections.newSetFromMap(new IdentityHashMap<State, Boolean>());
+
+  private final Map<Long, List<CurvedArrow>> arrowCells = new HashMap<>();
+  private final Map<CurvedArrow, Rectangle> arrowAreas = new IdentityHashMap<>();
+  private final Map<CurvedArrow, Set<Long>> arrowKeys = new IdentityHashMap<>();
+  private final List<CurvedArrow> unfiledArrows = new ArrayList<>();
+  private final Set<CurvedArrow> movedArrows = Collections.newSetFromMap(new IdentityHashMap<CurvedArrow, Boolean>());
+
+  private HitIndex(AutomatonDrawer drawer, Automaton automaton) {
+    this.drawer = drawer;
+    this.automaton = automaton;
+    State[] states = automaton.getStates();
+    for (int i = 0; i < states.length; i++) {
+      addState(states[i]);
+    }
+    for (CurvedArrow arrow : drawer.arrowToTransitionMap.keySet()) {
+      addArrow(arrow);
+    }
+  }
+
+  /**
+   * Returns whether the patched {@code stateAtPoint} and {@code transitionAtPoint} of
+   * {@code drawer} should use this index.
+   */
+  public static boolean isEnabled(AutomatonDrawer drawer) {
+    return StateVersions.isEnabled() && drawer.getAutomaton() != null;
+  }
+
+  /**
+   * Hook for {@code AutomatonDrawer.stateAtPoint(Point)}: the last state in
+   * {@code Automaton.getStates()} order whose center is within the state radius of {@code point}.
+   */
+  public static State stateAt(AutomatonDrawer drawer, Point point) {
+    return index(drawer).stateAt(point);
+  }
+
+  /**
+   * Hook for {@code AutomatonDrawer.transitionAtPoint(Point)}, called once the arrow maps are
+   * valid. Where arrows overlap, either may be returned, as in the original.
+   */
+  public static Transition transitionAt(AutomatonDrawer drawer, Point point) {
+    return index(drawer).transitionAt(point);
+  }
+
+  /**
+   * Hook prepended to {@code AutomatonDrawer.stateChange}: a state was added, removed, moved or
+   * relabelled.
+   */
+  public static void stateChanged(AutomatonDrawer drawer, AutomataStateEvent e) {
+    HitIndex index = peek(drawer);
+    if (index != null && e.getState() != null) {
+      index.movedStates.add(e.getState());
+    }
+  }
+
+  /**
+   * Hook appended to {@code CurvedArrow.refreshCurve()}, which {@code ArrowTool} calls after moving
+   * a transition's control point.
+   */
+  public static void curveChanged(CurvedArrow arrow) {
+    WeakReference<HitIndex> owner = OWNERS.get(arrow);
+    HitIndex index = owner == null ? null : owner.get();
+    if (index != null) {
+      index.movedArrows.add(arrow);
+    }
+  }
+
+  /**
+   * Returns the index of {@code drawer} if one was built, for {@link ArrowMaps} to report arrows to.
+   */
+  static HitIndex peek(AutomatonDrawer drawer) {
+    DrawerMaps maps = DrawerMaps.peek(drawer);
+    return maps == null ? null : maps.hits;
+  }
+
+  /**
+   * Drops the index of {@code drawer}; the next query builds it again.
+   */
+  static void discard(AutomatonDrawer drawer) {
+    DrawerMaps maps = DrawerMaps.peek(drawer);
+    if (maps != null) {
+      maps.hits = null;
+    }
+  }
+
+  void arrowAdded(CurvedArrow arrow) {
+    movedArrows.add(arrow);
+    OWNERS.put(arrow, new WeakReference<>(this));
+  }
+
+  void arrowRemoved(CurvedArrow arrow) {
+    movedArrows.remove(arrow);
+    removeArrow(arrow);
+    OWNERS.remove(arrow);
+  }
+
+  private static HitIndex index(AutomatonDrawer drawer) {
+    DrawerMaps maps = DrawerMaps.of(drawer);
+    synchronized (maps) {
+      HitIndex index = maps.hits;
+      if (index == null || index.automaton != drawer.getAutomaton()) {
+        index = new HitIndex(drawer, drawer.getAutomaton());
+        maps.hits = index;
+      }
+      return index;
+    }
+  }
+
+  private State stateAt(Point point) {
+    if (!movedStates.isEmpty()) {
+      for (State state : movedStates) {
+        removeState(state);
+        if (automaton.isState(state)) {
+          addState(state);
+        }
+      }
+      movedStates.clear();
+    }
+
+    State found = null;
+    int x0 = cell(point.x - STATE_RADIUS);
+    int x1 = cell(point.x + STATE_RADIUS);
+    int y0 = cell(point.y - STATE_RADIUS);
+    int y1 = cell(point.y + STATE_RADIUS);
+    for (int cx = x0; cx <= x1; cx++) {
+      for (int cy = y0; cy <= y1; cy++) {
+        List<State> states = stateCells.get(key(cx, cy));
+        if (states == null) {
+          continue;
+        }
+        for (int i = 0; i < states.size(); i++) {
+          State state = states.get(i);
+          if (point.distance(state.getPoint()) <= STATE_RADIUS && (found == null || later(state, found))) {
+            found = state;
+          }
+        }
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Whether {@code a} comes after {@code b} in {@code Automaton.getStates()}, which sorts by ID.
+   */
+  private static boolean later(State a, State b) {
+    if (a.getID() != b.getID()) {
+      return a.getID() > b.getID();
+    }
+    return System.identityHashCode(a) > System.identityHashCode(b);
+  }
+
+  private Transition transitionAt(Point point) {
+    if (!movedArrows.isEmpty()) {
+      for (CurvedArrow arrow : movedArrows) {
+        removeArrow(arrow);
+        if (drawer.arrowToTransitionMap.containsKey(arrow)) {
+          addArrow(arrow);
+        }
+      }
+      movedArrows.clear();
+    }
+
+    List<CurvedArrow> arrows = arrowCells.get(key(cell(point.x), cell(point.y)));
+    if (arrows != null) {
+      for (int i = 0; i < arrows.size(); i++) {
+        Transition transition = hit(arrows.get(i), point);
+        if (transition != null) {
+          return transition;
+        }
+      }
+    }
+    for (int i = 0; i < unfiledArrows.size(); i++) {
+      Transition transition = hit(unfiledArrows.get(i), point);
+      if (transition != null) {
+        return transition;
+      }
+    }
+    return null;
+  }
+
+  private Transition hit(CurvedArrow arrow, Point point) {
+    Rectangle area = arrowAreas.get(arrow);
+    if (area != null && !area.contains(point)) {
+      return null;
+    }
+    return arrow.isNear(point, ARROW_NEAR) ? drawer.arrowToTransitionMap.get(arrow) : null;
+  }
+
+  private void addState(State state) {
+    Point point = state.getPoint();
+    Long key = key(cell(point.x), cell(point.y));
+    List<State> states = stateCells.get(key);
+    if (states == null) {
+      states = new ArrayList<>(4);
+      stateCells.put(key, states);
+    }
+    states.add(state);
+    stateKeys.put(state, key);
+  }
+
+  private void removeState(State state) {
+    Long key = stateKeys.remove(state);
+    if (key == null) {
+      return;
+    }
+    List<State> states = stateCells.get(key);
+    states.remove(state);
+    if (states.isEmpty()) {
+      stateCells.remove(key);
+    }
+  }
+
+  /**
+   * Files {@code arrow} under the cells its label box or its curve comes within the hit tolerance
+   * of. The curve is split the way {@code CurvedArrow.isNear} splits it, at the midpoint, until a
+   * piece is flat or covers a few cells; each piece lies inside the bounds of its control points.
+   * An arrow whose bounds cannot be computed is tested on every query.
+   */
+  private void addArrow(CurvedArrow arrow) {
+    OWNERS.put(arrow, new WeakReference<>(this));
+    Set<Long> keys = new HashSet<>();
+    Rectangle area;
+    try {
+      area = arrow.getBounds().getBounds();
+      area.grow(ARROW_NEAR + 1, ARROW_NEAR + 1);
+      Rectangle label = ArrowGeometry.labelBounds(arrow);
+      if (label != null) {
+        label.grow(1, 1);
+        addCells(keys, label);
+      }
+      QuadCurve2D curve = arrow.getCurve();
+      fileCurve(keys, new QuadCurve2D.Float(
+        (float) curve.getX1(), (float) curve.getY1(),
+        (float) curve.getCtrlX(), (float) curve.getCtrlY(),
+        (float) curve.getX2(), (float) curve.getY2()
+      ), 0);
+    } catch (RuntimeException e) {
+      arrowAreas.put(arrow, null);
+      unfiledArrows.add(arrow);
+      return;
+    }
+    arrowAreas.put(arrow, area);
+    arrowKeys.put(arrow, keys);
+    for (Long key : keys) {
+      List<CurvedArrow> arrows = arrowCells.get(key);
+      if (arrows == null) {
+        arrows = new ArrayList<>(4);
+        arrowCells.put(key, arrows);
+      }
+      arrows.add(arrow);
+    }
+  }
+
+  private static void fileCurve(Set<Long> keys, QuadCurve2D.Float piece, int depth) {
+    Rectangle hull = piece.getBounds();
+    hull.grow(ARROW_NEAR + 1, ARROW_NEAR + 1);
+    if (depth >= MAX_DEPTH || piece.getFlatness() < ARROW_NEAR || cells(hull) <= PIECE_CELLS) {
+      addCells(keys, hull);
+      return;
+    }
+    QuadCurve2D.Float left = new QuadCurve2D.Float();
+    QuadCurve2D.Float right = new QuadCurve2D.Float();
+    piece.subdivide(left, right);
+    fileCurve(keys, left, depth + 1);
+    fileCurve(keys, right, depth + 1);
+  }
+
+  private static long cells(Rectangle area) {
+    return (long) (cell(area.x + area.width) - cell(area.x) + 1) * (cell(area.y + area.height) - cell(area.y) + 1);
+  }
+
+  private static void addCells(Set<Long> keys, Rectangle area) {
+    for (int cx = cell(area.x); cx <= cell(area.x + area.width); cx++) {
+      for (int cy = cell(area.y); cy <= cell(area.y + area.height); cy++) {
+        keys.add(key(cx, cy));
+      }
+    }
+  }
+
+  private void removeArrow(CurvedArrow arrow) {
+    if (!arrowAreas.containsKey(arrow)) {
+      return;
+    }
+    arrowAreas.remove(arrow);
+    Set<Long> keys = arrowKeys.remove(arrow);
+    if (keys == null) {
+      unfiledArrows.remove(arrow);
+      return;
+    }
+    for (Long key : keys) {
+      List<CurvedArrow> arrows = arrowCells.get(key);
+      if (arrows != null) {
+        arrows.remove(arrow);
+        if (arrows.isEmpty()) {
+          arrowCells.remove(key);
+        }
+      }
+    }
+  }
+
+  private static int cell(int coordinate) {
+    return Math.floorDiv(coordinate, CELL);
+  }
+
+  private static Long key(int cx, int cy) {
+    return ((long) cx << 32) | (cy & 0xffffffffL);
+  }
+}
@@ -0,0 +1,38 @@
+package launcher;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * Weak, identity-based map key, for objects such as {@code Automaton} whose {@code hashCode()}
+ * depends on mutable content.
+ *
+ * <p>Look entries up with a key made without a queue, and store them under one made with the
+ * map's {@link ReferenceQueue}; once the referent is collected, that key turns up in the queue and
+ * can be removed from the map. A cleared key equals only itself.</p>
+ */
+public final class IdentityKey<T> extends WeakReference<T> {
+  private final int hash;
+
+  public IdentityKey(T referent, ReferenceQueue<? super T> queue) {
+    super(referent, queue);
+    this.hash = System.identityHashCode(referent);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof IdentityKey)) {
+      return false;
+    }
+    Object referent = get();
+    return referent != null && referent == ((IdentityKey<?>) other).get();
+  }
+}
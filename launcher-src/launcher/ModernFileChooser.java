@@ -235,6 +235,10 @@ final class ModernFileChooser extends JFileChooser {
       return new String[] {"jff"};
     }
 
+    if (ff instanceof file.BinaryCodec) {
+      return new String[] {"jffb"};
+    }
+
     if (ff instanceof javax.swing.filechooser.FileNameExtensionFilter) {
       javax.swing.filechooser.FileNameExtensionFilter nef = (javax.swing.filechooser.FileNameExtensionFilter) ff;
       return normalizeExtensions(nef.getExtensions());
@@ -1,10 +1,21 @@
 package launcher;
 
+import file.BinaryCodec;
+import gui.environment.Universe;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public final class ModernMain {
   public static void main(String[] args) {
+    // The grader must not touch FlatLaf, preferences or AWT, so it is dispatched before anything else.
+    if (args.length > 0 && BatchGrader.OPTION.equals(args[0])) {
+      int exitCode = BatchGrader.run(Arrays.copyOfRange(args, 1, args.length));
+      System.exit(exitCode);
+      return;
+    }
+
     ParsedArgs parsed = ParsedArgs.parse(args);
     if (parsed.showHelp) {
       printHelp();
@@ -18,6 +29,7 @@ public final class ModernMain {
     ThemeManager.applyInitialTheme(parsed.theme);
     UiEnhancements.install();
     ModernFileDialogs.install();
+    registerCodecs();
 
     if (parsed.selfTest) {
       int exitCode = SelfTest.run();
@@ -30,6 +42,7 @@ public final class ModernMain {
     }
 
     delegateToJflap(parsed.remainingArgs);
+    AutosaveJournal.offerRecovery();
   }
 
   private static void printHelp() {
@@ -38,6 +51,7 @@ public final class ModernMain {
     System.out.println("  --uiScale=<number>        (e.g. 1.25)");
     System.out.println("  --light | --dark | --intellij | --darcula");
     System.out.println("  --selftest               (diagnose crashes / window creation)");
+    System.out.println("  --grade <dir> <cases>    (headless batch grading; --grade --help for details)");
     System.out.println("  --help");
     System.out.println("");
     System.out.println("In-app:");
@@ -46,6 +60,11 @@ public final class ModernMain {
     System.out.println("  View > Customize Theme... sets accent/background/canvas");
   }
 
+  private static void registerCodecs() {
+    // After the XML codec, so .jff stays the default when saving a new file.
+    Universe.CODEC_REGISTRY.add(new BinaryCodec());
+  }
+
   private static void enableSmootherText() {
     System.setProperty("awt.useSystemAAFontSettings", "on");
     System.setProperty("swing.aatext", "true");
@@ -0,0 +1,427 @@
+package launcher;
+
+import automata.Automaton;
+import automata.AutomatonSimulator;
+import automata.Configuration;
+import automata.State;
+import automata.SimulatorFactory;
+import automata.mealy.MealyMachine;
+import automata.pda.PDAAcceptance;
+import automata.pda.PDAStepByStateSimulator;
+import automata.pda.PushdownAutomaton;
+import automata.turing.CompiledTM;
+import automata.turing.NDTMSearchSimulator;
+import automata.turing.NDTMSimulator;
+import automata.turing.TMConfiguration;
+import automata.turing.TMSimulator;
+import automata.turing.TMState;
+import automata.turing.TuringMachine;
+import gui.environment.Environment;
+import gui.environment.Universe;
+import gui.sim.multiple.InputTableModel;
+
+import javax.swing.JOptionPane;
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.table.TableCellEditor;
+import java.awt.Component;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the rows of a multiple-run table in parallel.
+ *
+ * <p>The "Run Inputs" buttons of {@code MultipleSimulateAction} and {@code BatchMultipleSimulateAction}
+ * are patched at build time (see {@code tools-src/patch/MultipleSimulatePatcher.java}) to call
+ * {@link #runInputs(JTable, Object, Environment)} first. Each row is simulated
+ * on a pooled thread with its own {@link AutomatonSimulator}, breadth first exactly like
+ * {@code handleInput}, and its result is written to the table as soon as it is known. The whole run
+ * is a {@link BackgroundTasks} task, so large batches show progress and can be cancelled.</p>
+ *
+ * <p>Deterministic Turing machines that {@link FastSimulation#compiledTm(Automaton)} can compile run
+ * on a {@link CompiledTM} instead, and first ask to continue after {@link #COMPILED_WARNING_STEP}
+ * steps. Nondeterministic Turing machines drop branches that reach a configuration another branch
+ * already reached.</p>
+ *
+ * <p>Grammars, Mealy and Moore machines and single-row tables keep JFLAP's loop on the EDT. Disable
+ * with {@code -Djflap.parallelSimulation=false}.</p>
+ */
+public final class ParallelSimulation {
+  private static final String ENABLED_PROPERTY = "jflap.parallelSimulation";
+
+  /** Result labels, in the order of {@code MultipleSimulateAction.RESULT}. */
+  private static final String[] RESULT = {"Accept", "Reject", "Cancelled"};
+  static final int ACCEPT = 0;
+  static final int REJECT = 1;
+  static final int CANCELLED = 2;
+
+  /** Same first warning threshold as {@code NoInteractionSimulateAction.WARNING_STEP}. */
+  private static final int WARNING_STEP = 500;
+  /** First warning threshold for a {@link CompiledTM}, about a second of stepping. */
+  static final long COMPILED_WARNING_STEP = 1L << 24;
+
+  static final int NO_ACCEPTANCE_MODE = -1;
+
+  /** Latest run per table, so a restarted run discards the rows of the one it replaced. EDT only. */
+  private static final Map<InputTableModel, Object> RUNS = new WeakHashMap<>();
+
+  private ParallelSimulation() {
+  }
+
+  public static boolean isEnabled() {
+    return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+  }
+
+  /**
+   * Hook for the "Run Inputs" action of the multiple-run panes. Must be called on the EDT.
+   *
+   * @param table the action's input table
+   * @param object the action's automaton or grammar
+   * @return {@code true} if the run was started here, {@code false} if the caller should run
+   *   JFLAP's original loop
+   */
+  public static boolean runInputs(JTable table, Object object, final Environment environment) {
+    if (!isEnabled() || !(object instanceof Automaton) || object instanceof MealyMachine) {
+      return false;
+    }
+    if (!(table.getModel() instanceof InputTableModel)) {
+      return false;
+    }
+
+    final InputTableModel model = (InputTableModel) table.getModel();
+    final String[][] inputs = model.getInputs();
+    if (inputs.length < 2) {
+      return false;
+    }
+
+    int perMachine = inputs.length;
+    int tapes = 1;
+    if (model.isMultiple) {
+      if (object instanceof TuringMachine) {
+        tapes = ((TuringMachine) object).tapes;
+      }
+      perMachine = environment.myTestStrings.size() / tapes;
+    }
+    if (perMachine <= 0) {
+      return false;
+    }
+
+    // Row i runs on machine i / perMachine, as in the original loop.
+    final Automaton[] machines = new Automaton[(inputs.length + perMachine - 1) / perMachine];
+    machines[0] = (Automaton) object;
+    for (int m = 1; m < machines.length; m++) {
+      Object machine = environment.myObjects.get(m);
+      if (!(machine instanceof Automaton) || machine instanceof MealyMachine) {
+        return false;
+      }
+      machines[m] = (Automaton) machine;
+    }
+    Set<Automaton> prepared = Collections.newSetFromMap(new IdentityHashMap<Automaton, Boolean>());
+    final int[] acceptance = new int[machines.length];
+    for (int m = 0; m < machines.length; m++) {
+      if (machines[m].getInitialState() == null) {
+        return false;
+      }
+      prepare(machines[m], prepared);
+      // Ask for each PDA's acceptance mode here, once per machine as the original loop does.
+      acceptance[m] = (machines[m] instanceof PushdownAutomaton)
+        ? PDAAcceptance.modeOf((PDAStepByStateSimulator) SimulatorFactory.getSimulator(machines[m]))
+        : NO_ACCEPTANCE_MODE;
+    }
+
+    TableCellEditor editor = table.getCellEditor();
+    if (editor != null) {
+      editor.stopCellEditing();
+    }
+
+    final Object run = new Object();
+    RUNS.put(model, run);
+    final Component parent = Universe.frameForEnvironment(environment);
+    final int rows = perMachine;
+    final int offsetStep = tapes + 1;
+    BackgroundTasks.submit(parent, new BackgroundTasks.Task<Void>("Run Inputs") {
+      @Override
+      protected Void compute() throws Exception {
+        simulateRows(machines, acceptance, rows, inputs, new Budget(parent), new Sink() {
+          @Override
+          public void publish(final int row, final Outcome outcome) {
+            SwingUtilities.invokeLater(new Runnable() {
+              @Override
+              public void run() {
+                if (RUNS.get(model) != run) {
+                  return;
+                }
+                model.setResult(
+                  row,
+                  RESULT[outcome.result],
+                  outcome.configuration,
+                  environment.myTransducerStrings,
+                  (row % rows) * offsetStep
+                );
+              }
+            });
+          }
+        });
+        return null;
+      }
+
+      @Override
+      protected void succeeded(Void result) {
+      }
+    });
+    return true;
+  }
+
+  /**
+   * Receives each row's outcome on the worker thread that finished it.
+   */
+  interface Sink {
+    void publish(int row, Outcome outcome);
+  }
+
+  /**
+   * Simulates every row of {@code inputs} on the simulation pool and publishes outcomes as they
+   * complete. Blocks until all rows are done.
+   *
+   * @throws CancellationException if the calling thread is interrupted
+   */
+  static void simulateRows(
+    final Automaton[] machines,
+    final int[] acceptance,
+    final int perMachine,
+    final String[][] inputs,
+    final Budget budget,
+    Sink sink
+  ) throws InterruptedException {
+    CompletionService<Outcome> completion = new ExecutorCompletionService<>(Holder.EXECUTOR);
+    List<Future<Outcome>> futures = new ArrayList<>(inputs.length);
+    try {
+      for (int i = 0; i < inputs.length; i++) {
+        final int row = i;
+        futures.add(completion.submit(new Callable<Outcome>() {
+          @Override
+          public Outcome call() {
+            int machine = row / perMachine;
+            return simulate(machines[machine], acceptance[machine], inputs[row], row, budget);
+          }
+        }));
+      }
+      BackgroundTasks.setPhase("Running " + inputs.length + " inputs");
+      for (int done = 0; done < inputs.length; done++) {
+        Outcome outcome;
+        try {
+          outcome = completion.take().get();
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw new IllegalStateException(cause);
+        }
+        sink.publish(outcome.row, outcome);
+        BackgroundTasks.checkpoint();
+      }
+    } finally {
+      for (int i = 0; i < futures.size(); i++) {
+        futures.get(i).cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Runs one row breadth first, as {@code MultipleSimulateAction.handleInput} does.
+   *
+   * @param acceptance the {@link PDAAcceptance} mode for a PDA, else {@link #NO_ACCEPTANCE_MODE}
+   */
+  static Outcome simulate(Automaton machine, int acceptance, String[] input, int row, Budget budget) {
+    if (acceptance != NO_ACCEPTANCE_MODE) {
+      PDAAcceptance.presetNext(machine, acceptance);
+    }
+    AutomatonSimulator simulator = SimulatorFactory.getSimulator(machine);
+    if (simulator instanceof TMSimulator) {
+      CompiledTM compiled = FastSimulation.compiledTm(machine);
+      if (compiled != null) {
+        return simulate(compiled, input, row, budget);
+      }
+    }
+    Configuration[] configurations;
+    if (machine instanceof TuringMachine) {
+      configurations = (simulator instanceof NDTMSimulator)
+        ? ((NDTMSimulator) simulator).getInitialConfigurations(input)
+        : ((TMSimulator) simulator).getInitialConfigurations(input);
+    } else {
+      configurations = simulator.getInitialConfigurations(input[0]);
+    }
+
+    // Branches of a nondeterministic Turing machine that meet in the same configuration are merged.
+    Set<Object> seen = null;
+    if (simulator instanceof NDTMSimulator) {
+      seen = new HashSet<>();
+      for (int i = 0; i < configurations.length; i++) {
+        seen.add(NDTMSearchSimulator.fingerprint((TMConfiguration) configurations[i]));
+      }
+    }
+
+    int generated = 0;
+    int warning = WARNING_STEP;
+    Configuration last = (configurations.length == 0) ? null : configurations[configurations.length - 1];
+    while (configurations.length > 0) {
+      if (Thread.currentThread().isInterrupted()) {
+        throw new CancellationException();
+      }
+      generated += configurations.length;
+      if (generated >= warning) {
+        if (!budget.confirmContinue(row, generated)) {
+          return new Outcome(row, CANCELLED, last);
+        }
+        while (generated >= warning) {
+          warning *= 2;
+        }
+      }
+      ArrayList<Configuration> next = new ArrayList<>();
+      for (int i = 0; i < configurations.length; i++) {
+        last = configurations[i];
+        if (last.isAccept()) {
+          return new Outcome(row, ACCEPT, last);
+        }
+        if (seen == null) {
+          next.addAll(simulator.stepConfiguration(last));
+          continue;
+        }
+        List<Configuration> successors = simulator.stepConfiguration(last);
+        for (int s = 0; s < successors.size(); s++) {
+          if (seen.add(NDTMSearchSimulator.fingerprint((TMConfiguration) successors.get(s)))) {
+            next.add(successors.get(s));
+          }
+        }
+      }
+      configurations = next.toArray(new Configuration[0]);
+    }
+    return new Outcome(row, REJECT, last);
+  }
+
+  /**
+   * Runs one row of a deterministic Turing machine to halt on its compiled table.
+   */
+  static Outcome simulate(CompiledTM compiled, String[] input, int row, Budget budget) {
+    CompiledTM.Run run = compiled.start(input);
+    long allowance;
+    while ((allowance = budget.stepAllowance(row, run.getSteps())) > 0) {
+      CompiledTM.Status status = run.advance(allowance);
+      if (status != CompiledTM.Status.RUNNING) {
+        int result = (status == CompiledTM.Status.ACCEPTED) ? ACCEPT : REJECT;
+        return new Outcome(row, result, run.toConfiguration(), run);
+      }
+    }
+    return new Outcome(row, CANCELLED, run.toConfiguration(), run);
+  }
+
+  /**
+   * Fills the lazily built state and transition caches of {@code automaton} and of any Turing
+   * machine building blocks inside it, so the worker threads only read them.
+   */
+  static void prepare(Automaton automaton, Set<Automaton> prepared) {
+    if (automaton == null || !prepared.add(automaton)) {
+      return;
+    }
+    State[] states = automaton.getStates();
+    automaton.getFinalStates();
+    automaton.getTransitions();
+    for (int i = 0; i < states.length; i++) {
+      automaton.getTransitionsFromState(states[i]);
+      automaton.getTransitionsToState(states[i]);
+      if (states[i] instanceof TMState) {
+        prepare(((TMState) states[i]).getInnerTM(), prepared);
+      }
+    }
+  }
+
+  /**
+   * The outcome of one row: an index into {@link #RESULT} and the configuration to associate.
+   */
+  static final class Outcome {
+    final int row;
+    final int result;
+    final Configuration configuration;
+    /** The compiled run that produced this outcome, or {@code null}. */
+    final CompiledTM.Run run;
+
+    Outcome(int row, int result, Configuration configuration) {
+      this(row, result, configuration, null);
+    }
+
+    Outcome(int row, int result, Configuration configuration, CompiledTM.Run run) {
+      this.row = row;
+      this.result = result;
+      this.configuration = configuration;
+      this.run = run;
+    }
+  }
+
+  /**
+   * Asks on the EDT whether a row that has generated many configurations should continue, one
+   * question at a time.
+   */
+  static class Budget {
+    private final Component parent;
+
+    Budget(Component parent) {
+      this.parent = parent;
+    }
+
+    synchronized boolean confirmContinue(final int row, final int generated) {
+      final boolean[] answer = new boolean[1];
+      try {
+        SwingUtilities.invokeAndWait(new Runnable() {
+          @Override
+          public void run() {
+            int choice = JOptionPane.showConfirmDialog(
+              parent,
+              "Input " + (row + 1) + ": " + generated + " configurations have been generated. Should we continue?"
+            );
+            answer[0] = (choice == JOptionPane.YES_OPTION);
+          }
+        });
+      } catch (InterruptedException e) {
+        throw new CancellationException();
+      } catch (InvocationTargetException e) {
+        return false;
+      }
+      return answer[0];
+    }
+
+    /**
+     * Returns how many more steps a compiled Turing machine that has run {@code steps} steps may
+     * take before asking again, or 0 to stop.
+     */
+    long stepAllowance(int row, long steps) {
+      if (steps == 0) {
+        return COMPILED_WARNING_STEP;
+      }
+      int generated = (int) Math.min(steps, Integer.MAX_VALUE);
+      return confirmContinue(row, generated) ? steps : 0;
+    }
+  }
+
+  private static final class Holder {
+    static final ExecutorService EXECUTOR = Daemons.pool("jflap-simulation",
+      Math.max(1, Runtime.getRuntime().availableProcessors()), Thread.NORM_PRIORITY - 1);
+  }
+}
@@ -1,14 +1,29 @@
 package launcher;
 
+import automata.Automaton;
+import automata.Configuration;
+import automata.State;
+import automata.Transition;
+import automata.fsa.FSABitsetSimulator;
+import automata.fsa.FSAStepWithClosureSimulator;
+import automata.fsa.FSATransition;
+import automata.fsa.FiniteStateAutomaton;
+
 import javax.swing.SwingUtilities;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Container;
 import java.awt.GraphicsEnvironment;
+import java.awt.Point;
 import javax.swing.JEditorPane;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * Minimal smoke tests that can be run on a user's machine to diagnose crashes.
@@ -30,6 +45,8 @@ public final class SelfTest {
         public void run() {
           try {
             testReplacementClasses(failures);
+            testAutosaveReplay(failures);
+            testBitsetSimulator(failures);
             if (!GraphicsEnvironment.isHeadless()) {
               testPumpingLemmaChooserHtmlContrast(failures);
               testBasicUiDefaultsContrast(failures);
@@ -79,6 +96,110 @@ public final class SelfTest {
     } catch (Throwable t) {
       failures.add("ArrowTool$EmptyMenu replacement check failed: " + t);
     }
+
+    try {
+      Class<?> fsa = Class.forName("automata.fsa.FiniteStateAutomaton");
+      Class<?> environment = Class.forName("gui.environment.Environment");
+      Class.forName("gui.action.MinimizeTreeAction").getConstructor(fsa, environment);
+      Class.forName("automata.graph.FSAEqualityChecker").getMethod("equals", fsa, fsa);
+    } catch (Throwable t) {
+      failures.add("Minimizer replacement check failed: " + t);
+    }
+  }
+
+  private static void testAutosaveReplay(List<String> failures) {
+    // A state removed and another added with its ID in one batch, listed new state first.
+    try {
+      FiniteStateAutomaton edited = new FiniteStateAutomaton();
+      State q0 = edited.createState(new Point(0, 0));
+      State q1 = edited.createState(new Point(100, 0));
+      edited.addTransition(new FSATransition(q0, q1, "a"));
+      edited.addTransition(new FSATransition(q1, q0, "b"));
+      Automaton replayed = (Automaton) edited.clone();
+      edited.removeState(q1);
+      State added = edited.createState(new Point(50, 50));
+      edited.addTransition(new FSATransition(q0, added, "c"));
+      edited.addFinalState(added);
+      AutosaveJournal.replayBatch(replayed, AutosaveJournal.writeBatch(edited, Arrays.asList(added, q0, q1), false, null));
+      String expected = describe(edited);
+      String actual = describe(replayed);
+      if (!expected.equals(actual)) {
+        failures.add("Autosave replay of a removed and re-added state ID gave " + actual + " instead of " + expected);
+      }
+    } catch (Throwable t) {
+      failures.add("Autosave replay check failed: " + t);
+    }
+  }
+
+  private static void testBitsetSimulator(List<String> failures) {
+    // An NFA with lambda moves, a lambda cycle and a multi-character label.
+    try {
+      FiniteStateAutomaton nfa = new FiniteStateAutomaton();
+      State q0 = nfa.createState(new Point(0, 0));
+      State q1 = nfa.createState(new Point(100, 0));
+      State q2 = nfa.createState(new Point(200, 0));
+      State q3 = nfa.createState(new Point(300, 0));
+      nfa.setInitialState(q0);
+      nfa.addFinalState(q3);
+      nfa.addTransition(new FSATransition(q0, q0, "a"));
+      nfa.addTransition(new FSATransition(q0, q0, "b"));
+      nfa.addTransition(new FSATransition(q0, q1, "a"));
+      nfa.addTransition(new FSATransition(q1, q2, ""));
+      nfa.addTransition(new FSATransition(q2, q1, ""));
+      nfa.addTransition(new FSATransition(q2, q3, "ba"));
+      nfa.addTransition(new FSATransition(q3, q0, ""));
+      FSABitsetSimulator bitset = new FSABitsetSimulator(nfa);
+      FSAStepWithClosureSimulator closure = new FSAStepWithClosureSimulator(nfa);
+      for (int length = 0; length <= 6; length++) {
+        for (int bits = 0; bits < (1 << length); bits++) {
+          StringBuilder input = new StringBuilder();
+          for (int i = 0; i < length; i++) {
+            input.append(((bits >> i) & 1) == 0 ? 'a' : 'b');
+          }
+          boolean expected = acceptsStepwise(closure, input.toString());
+          if (bitset.accepts(input) != expected || bitset.simulateInput(input.toString()) != expected) {
+            failures.add("FSABitsetSimulator " + (expected ? "rejected" : "accepted") + " \"" + input + "\"");
+            return;
+          }
+        }
+      }
+    } catch (Throwable t) {
+      failures.add("Bitset simulator check failed: " + t);
+    }
+  }
+
+  /**
+   * Steps every configuration of {@code simulator}, without the compiled fast path that
+   * {@code simulateInput} takes.
+   */
+  private static boolean acceptsStepwise(FSAStepWithClosureSimulator simulator, String input) {
+    Set<Configuration> current = new LinkedHashSet<>(Arrays.asList(simulator.getInitialConfigurations(input)));
+    while (!current.isEmpty()) {
+      Set<Configuration> next = new LinkedHashSet<>();
+      for (Configuration configuration : current) {
+        if (configuration.isAccept()) {
+          return true;
+        }
+        next.addAll(simulator.stepConfiguration(configuration));
+      }
+      current = next;
+    }
+    return false;
+  }
+
+  private static String describe(Automaton automaton) {
+    TreeMap<Integer, String> states = new TreeMap<>();
+    State[] all = automaton.getStates();
+    for (int i = 0; i < all.length; i++) {
+      List<String> transitions = new ArrayList<>();
+      Transition[] from = automaton.getTransitionsFromState(all[i]);
+      for (int j = 0; j < from.length; j++) {
+        transitions.add(from[j].getDescription() + "->" + from[j].getToState().getID());
+      }
+      Collections.sort(transitions);
+      states.put(all[i].getID(), all[i].getPoint() + (automaton.isFinalState(all[i]) ? " final " : " ") + transitions);
+    }
+    return states.toString();
   }
 
   private static void testPumpingLemmaChooserHtmlContrast(List<String> failures) {
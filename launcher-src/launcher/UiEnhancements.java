@@ -1,5 +1,6 @@
 package launcher;
 
+import gui.environment.EnvironmentFrame;
 import gui.viewer.AutomatonPane;
 
 import javax.swing.AbstractAction;
@@ -59,6 +60,7 @@ public final class UiEnhancements {
   private static final String ROOTPANE_BINDING_KEY = "launcher.modern.commandPaletteBinding";
   private static final String FAST_RUN_BINDING_KEY = "launcher.modern.fastRunBinding";
   private static final String FILE_EXPORT_INJECTED_KEY = "launcher.modern.fileExportInjected";
+  private static final String BACKGROUND_CONVERT_INJECTED_KEY = "launcher.modern.backgroundConvertInjected";
   private static final String MENUBAR_WATCHER_KEY = "launcher.modern.menuBarWatcher";
   private static final String MENUBAR_CLOSE_WATCHER_KEY = "launcher.modern.menuBarCloseWatcher";
   private static final String ENVFRAME_CLOSE_FIX_KEY = "launcher.modern.envFrameCloseFix";
@@ -210,6 +212,7 @@ public final class UiEnhancements {
       injectViewMenu(frame);
       injectHelpMenu(frame);
       injectFileExportMenu(frame);
+      injectBackgroundConversionMenu(frame);
       annotateFastRunMenuItem(frame);
       installMenuBarWatcher(frame);
       installAutomatonCopyPasteBindings(frame);
@@ -263,6 +266,7 @@ public final class UiEnhancements {
           // JFrame uses "JMenuBar" as the property name, but accept a few variants defensively.
           if ("JMenuBar".equals(name) || "menuBar".equalsIgnoreCase(name)) {
             removeLegacyCloseButton(frame);
+            injectBackgroundConversionMenu(frame);
           }
         }
       });
@@ -1216,6 +1220,38 @@ public final class UiEnhancements {
     fileMenu.add(exportSvg);
   }
 
+  private static void injectBackgroundConversionMenu(JFrame frame) {
+    if (!(frame instanceof EnvironmentFrame)) {
+      return;
+    }
+
+    JMenuBar menuBar = frame.getJMenuBar();
+    if (menuBar == null) {
+      return;
+    }
+
+    JMenu convertMenu = findMenu(menuBar, "Convert");
+    if (convertMenu == null) {
+      return;
+    }
+
+    if (Boolean.TRUE.equals(convertMenu.getClientProperty(BACKGROUND_CONVERT_INJECTED_KEY))) {
+      return;
+    }
+    convertMenu.putClientProperty(BACKGROUND_CONVERT_INJECTED_KEY, Boolean.TRUE);
+
+    try {
+      JMenu backgroundMenu = BackgroundConversions.createMenu((EnvironmentFrame) frame);
+      if (backgroundMenu == null) {
+        return;
+      }
+      convertMenu.add(new JSeparator());
+      convertMenu.add(backgroundMenu);
+    } catch (Throwable ignored) {
+      // best-effort only
+    }
+  }
+
   private static void annotateFastRunMenuItem(JFrame frame) {
     if (frame == null) {
       return;
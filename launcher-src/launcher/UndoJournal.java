@@ -0,0 +1,453 @@
+package launcher;
+
+import automata.Automaton;
+import automata.Note;
+import automata.State;
+import automata.StateVersions;
+import automata.Transition;
+import automata.mealy.MooreMachine;
+import automata.turing.TuringMachine;
+import gui.editor.UndoKeeper;
+import gui.environment.EnvironmentFrame;
+import gui.viewer.AutomatonPane;
+
+import java.awt.Point;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Undo history for {@link UndoKeeper} as a log of edits rather than copies of the automaton.
+ *
+ * <p>{@code UndoKeeper.saveStatus()} runs on every mouse press in the editor and pushes a full
+ * {@code Automaton.clone()}, then hashes the two newest copies to drop it again if nothing changed;
+ * undo and redo copy the automaton once more and rebuild it with {@code Automaton.become}. On a
+ * large machine that is several passes over every state and transition per click, and the history
+ * holds up to {@code Profile.undo_num} whole copies. {@code UndoKeeper} is patched at build time
+ * (see {@code tools-src/patch/UndoKeeperPatcher.java}) to keep its history here instead.</p>
+ *
+ * <p>The journal keeps what each state looked like at the last save: position, name, label,
+ * whether it is final, and its outgoing transitions. A save asks {@link StateVersions} which
+ * states were touched since and records, for those only, the before and after of each as one step,
+ * together with the initial state and the notes. Undo puts the before back into the same
+ * {@link State} and {@link Transition} objects, and redo the after, so a step costs what the edit
+ * touched. Steps are applied in place and never replayed from a base copy. Moore machines, whose
+ * outputs change without events, and Turing machines, whose building blocks hold machines of their
+ * own, keep the original copies. Disable with {@code -Djflap.undoJournal=false}.</p>
+ */
+public final class UndoJournal {
+  private static final String ENABLED_PROPERTY = "jflap.undoJournal";
+
+  private static final Map<UndoKeeper, UndoJournal> JOURNALS =
+    Collections.synchronizedMap(new WeakHashMap<UndoKeeper, UndoJournal>());
+
+  private final Automaton automaton;
+  private final StateVersions versions;
+  /** Each state as of the last save, undo or redo. */
+  private final Map<State, StateRecord> saved = new IdentityHashMap<>();
+  private State savedInitial;
+  private NoteRecord[] savedNotes;
+  private long savedVersion;
+
+  private final ArrayDeque<Step> undo = new ArrayDeque<>();
+  private final ArrayDeque<Step> redo = new ArrayDeque<>();
+
+  private UndoJournal(Automaton automaton) {
+    this.automaton = automaton;
+    this.versions = StateVersions.of(automaton);
+    savedVersion = versions.getVersion();
+    State[] states = automaton.getStates();
+    for (int i = 0; i < states.length; i++) {
+      saved.put(states[i], new StateRecord(automaton, states[i]));
+    }
+    savedInitial = automaton.getInitialState();
+    savedNotes = notes(automaton);
+  }
+
+  public static boolean isEnabled() {
+    return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+  }
+
+  /**
+   * Hook inserted in {@code UndoKeeper.saveStatus()} after its {@code setWait()} check.
+   *
+   * @return {@code true} if the status was saved, {@code false} to push a copy as before
+   */
+  public static boolean saveStatus(UndoKeeper keeper, Automaton master, int limit) {
+    UndoJournal journal = journal(keeper, master);
+    if (journal == null) {
+      return false;
+    }
+    synchronized (journal) {
+      Step step = journal.record();
+      if (step != null) {
+        journal.undo.push(step);
+        journal.redo.clear();
+        while (journal.undo.size() > Math.max(limit, 1)) {
+          journal.undo.removeLast();
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Hook prepended to {@code UndoKeeper.restoreStatus()}.
+   *
+   * @return {@code true} if the journal handled the undo, {@code false} to restore a copy as before
+   */
+  public static boolean restoreStatus(UndoKeeper keeper, Automaton master) {
+    UndoJournal journal = journal(keeper, master);
+    if (journal == null) {
+      return false;
+    }
+    synchronized (journal) {
+      // Edits since the last save were made without one; they are what this undo takes back, and
+      // the redo steps no longer follow on from them.
+      Step pending = journal.record();
+      if (pending != null) {
+        journal.undo.push(pending);
+        journal.redo.clear();
+      }
+      if (journal.undo.isEmpty()) {
+        return true;
+      }
+      Step step = journal.undo.pop();
+      journal.apply(keeper, step, false);
+      journal.redo.push(step);
+    }
+    repaint(master);
+    return true;
+  }
+
+  /**
+   * Hook prepended to {@code UndoKeeper.redo()}.
+   *
+   * @return {@code true} if the journal handled the redo, {@code false} to restore a copy as before
+   */
+  public static boolean redo(UndoKeeper keeper, Automaton master) {
+    UndoJournal journal = journal(keeper, master);
+    if (journal == null) {
+      return false;
+    }
+    synchronized (journal) {
+      Step pending = journal.record();
+      if (pending != null) {
+        // The automaton moved on from what the redo steps were recorded against.
+        journal.undo.push(pending);
+        journal.redo.clear();
+        return true;
+      }
+      if (journal.redo.isEmpty()) {
+        return true;
+      }
+      Step step = journal.redo.pop();
+      journal.apply(keeper, step, true);
+      journal.undo.push(step);
+    }
+    repaint(master);
+    return true;
+  }
+
+  private static UndoJournal journal(UndoKeeper keeper, Automaton master) {
+    if (!isEnabled() || keeper == null || master == null
+      || master instanceof TuringMachine || master instanceof MooreMachine) {
+      return null;
+    }
+    synchronized (JOURNALS) {
+      UndoJournal journal = JOURNALS.get(keeper);
+      if (journal == null || journal.automaton != master) {
+        journal = new UndoJournal(master);
+        JOURNALS.put(keeper, journal);
+      }
+      return journal;
+    }
+  }
+
+  private static void repaint(Automaton master) {
+    EnvironmentFrame frame = master.getEnvironmentFrame();
+    if (frame != null) {
+      frame.repaint();
+    }
+  }
+
+  /**
+   * Records what changed since the last save as a step and saves the current automaton, or returns
+   * {@code null} if nothing changed.
+   */
+  private Step record() {
+    Set<State> touched = versions.changedSince(savedVersion);
+    if (touched == null) {
+      // Too many edits to have been logged; compare every state.
+      touched = Collections.newSetFromMap(new IdentityHashMap<State, Boolean>());
+      touched.addAll(saved.keySet());
+      Collections.addAll(touched, automaton.getStates());
+    }
+    savedVersion = versions.getVersion();
+
+    List<State> states = new ArrayList<>();
+    List<StateRecord> before = new ArrayList<>();
+    List<StateRecord> after = new ArrayList<>();
+    for (State state : touched) {
+      StateRecord was = saved.get(state);
+      StateRecord now = automaton.isState(state) ? new StateRecord(automaton, state) : null;
+      if (was == null ? now == null : was.sameAs(now)) {
+        continue;
+      }
+      states.add(state);
+      before.add(was);
+      after.add(now);
+      if (now == null) {
+        saved.remove(state);
+      } else {
+        saved.put(state, now);
+      }
+    }
+    State initial = automaton.getInitialState();
+    NoteRecord[] notes = notes(automaton);
+    boolean notesChanged = !NoteRecord.same(savedNotes, notes);
+    if (states.isEmpty() && initial == savedInitial && !notesChanged) {
+      return null;
+    }
+    Step step = new Step(
+      states.toArray(new State[0]),
+      before.toArray(new StateRecord[0]),
+      after.toArray(new StateRecord[0]),
+      savedInitial,
+      initial,
+      notesChanged ? savedNotes : null,
+      notesChanged ? notes : null
+    );
+    savedInitial = initial;
+    savedNotes = notes;
+    return step;
+  }
+
+  /**
+   * Puts the automaton back to before {@code step}, or forward to after it, and saves that.
+   */
+  private void apply(UndoKeeper keeper, Step step, boolean forward) {
+    StateRecord[] target = forward ? step.after : step.before;
+    State[] states = step.states;
+    keeper.sensitive = true;
+    try {
+      for (int i = 0; i < states.length; i++) {
+        if (target[i] != null && !automaton.isState(states[i])) {
+          automaton.addState(states[i]);
+        }
+      }
+      // Drop transitions first, so states going away and transitions coming back find the rest in place.
+      for (int i = 0; i < states.length; i++) {
+        if (!automaton.isState(states[i])) {
+          continue;
+        }
+        Transition[] from = automaton.getTransitionsFromState(states[i]);
+        for (int j = 0; j < from.length; j++) {
+          if (target[i] == null || !contains(target[i].from, from[j])) {
+            automaton.removeTransition(from[j]);
+          }
+        }
+      }
+      for (int i = 0; i < states.length; i++) {
+        if (target[i] == null && automaton.isState(states[i])) {
+          automaton.removeState(states[i]);
+        }
+      }
+      for (int i = 0; i < states.length; i++) {
+        if (target[i] != null) {
+          target[i].applyTo(automaton, states[i]);
+        }
+      }
+      State initial = forward ? step.initialAfter : step.initialBefore;
+      if (automaton.getInitialState() != initial) {
+        automaton.setInitialState(initial);
+      }
+      NoteRecord[] notes = forward ? step.notesAfter : step.notesBefore;
+      if (notes != null) {
+        NoteRecord.restore(automaton, notes);
+      }
+    } finally {
+      keeper.sensitive = false;
+    }
+
+    for (int i = 0; i < states.length; i++) {
+      if (target[i] == null) {
+        saved.remove(states[i]);
+      } else {
+        saved.put(states[i], target[i]);
+      }
+    }
+    savedInitial = automaton.getInitialState();
+    savedNotes = notes(automaton);
+    savedVersion = versions.getVersion();
+  }
+
+  private static boolean contains(Transition[] transitions, Transition transition) {
+    for (int i = 0; i < transitions.length; i++) {
+      if (transitions[i] == transition) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static NoteRecord[] notes(Automaton automaton) {
+    List<Note> notes = automaton.getNotes();
+    NoteRecord[] records = new NoteRecord[notes.size()];
+    for (int i = 0; i < records.length; i++) {
+      records[i] = new NoteRecord(notes.get(i));
+    }
+    return records;
+  }
+
+  /**
+   * One saved edit: the states it touched, each before and after ({@code null} where the state did
+   * not exist), and the initial state and notes if they changed.
+   */
+  private static final class Step {
+    final State[] states;
+    final StateRecord[] before;
+    final StateRecord[] after;
+    final State initialBefore;
+    final State initialAfter;
+    final NoteRecord[] notesBefore;
+    final NoteRecord[] notesAfter;
+
+    Step(
+      State[] states,
+      StateRecord[] before,
+      StateRecord[] after,
+      State initialBefore,
+      State initialAfter,
+      NoteRecord[] notesBefore,
+      NoteRecord[] notesAfter
+    ) {
+      this.states = states;
+      this.before = before;
+      this.after = after;
+      this.initialBefore = initialBefore;
+      this.initialAfter = initialAfter;
+      this.notesBefore = notesBefore;
+      this.notesAfter = notesAfter;
+    }
+  }
+
+  /**
+   * A state as part of the automaton at one point: what {@code Automaton.become} would copy of it.
+   */
+  private static final class StateRecord {
+    final Point point;
+    final String name;
+    final String label;
+    final boolean isFinal;
+    final Transition[] from;
+
+    StateRecord(Automaton automaton, State state) {
+      point = new Point(state.getPoint());
+      name = state.getName();
+      label = state.getLabel();
+      isFinal = automaton.isFinalState(state);
+      from = automaton.getTransitionsFromState(state).clone();
+    }
+
+    boolean sameAs(StateRecord other) {
+      if (other == null || isFinal != other.isFinal || !point.equals(other.point)
+        || !equal(name, other.name) || !equal(label, other.label) || from.length != other.from.length) {
+        return false;
+      }
+      for (int i = 0; i < from.length; i++) {
+        if (!contains(other.from, from[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Sets {@code state}, already in {@code automaton} and without transitions this record lacks,
+     * to this record.
+     */
+    void applyTo(Automaton automaton, State state) {
+      if (!state.getPoint().equals(point)) {
+        state.setPoint(new Point(point));
+      }
+      if (!equal(state.getName(), name)) {
+        state.setName(name);
+      }
+      if (!equal(state.getLabel(), label)) {
+        state.setLabel(label);
+      }
+      if (automaton.isFinalState(state) != isFinal) {
+        if (isFinal) {
+          automaton.addFinalState(state);
+        } else {
+          automaton.removeFinalState(state);
+        }
+      }
+      Transition[] current = automaton.getTransitionsFromState(state);
+      for (int i = 0; i < from.length; i++) {
+        if (!contains(current, from[i])) {
+          automaton.addTransition(from[i]);
+        }
+      }
+    }
+
+    private static boolean equal(String a, String b) {
+      return (a == null) ? b == null : a.equals(b);
+    }
+  }
+
+  /**
+   * A note's text and place; notes are put back by making them again, as {@code Automaton.become}
+   * does.
+   */
+  private static final class NoteRecord {
+    final Point point;
+    final String text;
+    final AutomatonPane view;
+
+    NoteRecord(Note note) {
+      Point at = note.getAutoPoint();
+      point = (at == null) ? null : new Point(at);
+      text = note.getText();
+      view = note.getView();
+    }
+
+    static boolean same(NoteRecord[] a, NoteRecord[] b) {
+      if (a.length != b.length) {
+        return false;
+      }
+      for (int i = 0; i < a.length; i++) {
+        if (!StateRecord.equal(a[i].text, b[i].text)
+          || (a[i].point == null ? b[i].point != null : !a[i].point.equals(b[i].point))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    static void restore(Automaton automaton, NoteRecord[] records) {
+      List<Note> current = new ArrayList<>(automaton.getNotes());
+      for (Note note : current) {
+        AutomatonPane view = note.getView();
+        if (view != null) {
+          view.remove(note);
+          view.repaint();
+        }
+        automaton.deleteNote(note);
+      }
+      for (int i = 0; i < records.length; i++) {
+        Note note = new Note(records[i].point, records[i].text);
+        automaton.addNote(note);
+        if (records[i].view != null) {
+          note.initializeForView(records[i].view);
+        }
+      }
+    }
+  }
+}
@@ -3,6 +3,7 @@ package patch;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
@@ -10,9 +11,58 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
+/**
+ * Patches {@code AutomatonDrawer} to draw the selection box in the configured color, to keep its
+ * arrow maps up to date incrementally (see {@code launcher.ArrowMaps}), to hit test through a grid
+ * (see {@code launcher.HitIndex}), to cull what lies outside the clip (see
+ * {@code gui.viewer.CanvasDetail}) and to paint panes from offscreen tiles (see
+ * {@code gui.viewer.CanvasTiles}):
+ *
+ * <pre>
+ * void refreshArrowMap() {
+ *   if (launcher.ArrowMaps.refresh(this)) { valid = true; return; }
+ *   // original full rebuild
+ * }
+ * public void invalidate() {
+ *   launcher.ArrowMaps.invalidated(this);
+ *   // original
+ * }
+ * protected void transitionChange(AutomataTransitionEvent e) {
+ *   launcher.ArrowMaps.invalidateForEdit(this, e);  // was invalidate()
+ * }
+ * protected void stateChange(AutomataStateEvent e) {
+ *   launcher.HitIndex.stateChanged(this, e);
+ *   // original, with invalidate() replaced as above
+ * }
+ * public State stateAtPoint(Point point) {
+ *   if (launcher.HitIndex.isEnabled(this)) return launcher.HitIndex.stateAt(this, point);
+ *   // original scan of every state
+ * }
+ * public Transition transitionAtPoint(Point point) {
+ *   if (!valid) refreshArrowMap();
+ *   if (launcher.HitIndex.isEnabled(this)) return launcher.HitIndex.transitionAt(this, point);
+ *   // original scan of every arrow
+ * }
+ * public void drawAutomaton(Graphics g) {
+ *   if (!valid) refreshArrowMap();
+ *   if (gui.viewer.CanvasTiles.paint(this, g)) return;
+ *   // rest of the original, with drawState(g2, state) replaced by
+ *   gui.viewer.CanvasDetail.drawState(this, g2, state);
+ * }
+ * protected void drawTransitions(Graphics g) {
+ *   // original, with arrow.draw(g2) replaced by
+ *   gui.viewer.CanvasDetail.drawArrow(arrow, g2);
+ * }
+ * </pre>
+ */
 public final class AutomatonDrawerPatcher {
   private static final String TARGET_METHOD = "drawSelectionBox";
   private static final String TARGET_DESC = "(Ljava/awt/Graphics;)V";
+  private static final String DRAWER = "gui/viewer/AutomatonDrawer";
+  private static final String ARROW_MAPS = "launcher/ArrowMaps";
+  private static final String HIT_INDEX = "launcher/HitIndex";
+  private static final String CANVAS_DETAIL = "gui/viewer/CanvasDetail";
+  private static final String CANVAS_TILES = "gui/viewer/CanvasTiles";
 
   private AutomatonDrawerPatcher() {
   }
@@ -61,6 +111,170 @@ public final class AutomatonDrawerPatcher {
             }
           };
         }
+        if ("refreshArrowMap".equals(name) && "()V".equals(descriptor)) {
+          return new MethodVisitor(Opcodes.ASM9, mv) {
+            @Override
+            public void visitCode() {
+              super.visitCode();
+
+              Label fallback = new Label();
+              super.visitVarInsn(Opcodes.ALOAD, 0);
+              super.visitMethodInsn(Opcodes.INVOKESTATIC, ARROW_MAPS, "refresh", "(L" + DRAWER + ";)Z", false);
+              super.visitJumpInsn(Opcodes.IFEQ, fallback);
+              super.visitVarInsn(Opcodes.ALOAD, 0);
+              super.visitInsn(Opcodes.ICONST_1);
+              super.visitFieldInsn(Opcodes.PUTFIELD, DRAWER, "valid", "Z");
+              super.visitInsn(Opcodes.RETURN);
+              super.visitLabel(fallback);
+              super.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+            }
+          };
+        }
+        if ("invalidate".equals(name) && "()V".equals(descriptor)) {
+          return new MethodVisitor(Opcodes.ASM9, mv) {
+            @Override
+            public void visitCode() {
+              super.visitCode();
+              super.visitVarInsn(Opcodes.ALOAD, 0);
+              super.visitMethodInsn(Opcodes.INVOKESTATIC, ARROW_MAPS, "invalidated", "(L" + DRAWER + ";)V", false);
+            }
+          };
+        }
+        if (("transitionChange".equals(name) && "(Lautomata/event/AutomataTransitionEvent;)V".equals(descriptor))
+          || ("stateChange".equals(name) && "(Lautomata/event/AutomataStateEvent;)V".equals(descriptor))) {
+          final String eventDesc = descriptor.substring(1, descriptor.indexOf(')'));
+          final boolean stateChange = "stateChange".equals(name);
+          return new MethodVisitor(Opcodes.ASM9, mv) {
+            @Override
+            public void visitCode() {
+              super.visitCode();
+              if (stateChange) {
+                super.visitVarInsn(Opcodes.ALOAD, 0);
+                super.visitVarInsn(Opcodes.ALOAD, 1);
+                super.visitMethodInsn(
+                  Opcodes.INVOKESTATIC,
+                  HIT_INDEX,
+                  "stateChanged",
+                  "(L" + DRAWER + ";" + eventDesc + ")V",
+                  false
+                );
+              }
+            }
+
+            @Override
+            public void visitMethodInsn(int opcode, String owner, String methodName, String methodDesc, boolean isInterface) {
+              if (opcode == Opcodes.INVOKEVIRTUAL
+                && DRAWER.equals(owner)
+                && "invalidate".equals(methodName)
+                && "()V".equals(methodDesc)) {
+                super.visitVarInsn(Opcodes.ALOAD, 1);
+                super.visitMethodInsn(
+                  Opcodes.INVOKESTATIC,
+                  ARROW_MAPS,
+                  "invalidateForEdit",
+                  "(L" + DRAWER + ";" + eventDesc + ")V",
+                  false
+                );
+                return;
+              }
+              super.visitMethodInsn(opcode, owner, methodName, methodDesc, isInterface);
+            }
+          };
+        }
+        if ("stateAtPoint".equals(name) && "(Ljava/awt/Point;)Lautomata/State;".equals(descriptor)) {
+          return new MethodVisitor(Opcodes.ASM9, mv) {
+            @Override
+            public void visitCode() {
+              super.visitCode();
+              hitIndexLookup(mv, "stateAt", descriptor);
+            }
+          };
+        }
+        if ("transitionAtPoint".equals(name) && "(Ljava/awt/Point;)Lautomata/Transition;".equals(descriptor)) {
+          return new MethodVisitor(Opcodes.ASM9, mv) {
+            @Override
+            public void visitCode() {
+              super.visitCode();
+
+              Label valid = new Label();
+              super.visitVarInsn(Opcodes.ALOAD, 0);
+              super.visitFieldInsn(Opcodes.GETFIELD, DRAWER, "valid", "Z");
+              super.visitJumpInsn(Opcodes.IFNE, valid);
+              super.visitVarInsn(Opcodes.ALOAD, 0);
+              super.visitMethodInsn(Opcodes.INVOKESPECIAL, DRAWER, "refreshArrowMap", "()V", false);
+              super.visitLabel(valid);
+              super.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+              hitIndexLookup(mv, "transitionAt", descriptor);
+            }
+          };
+        }
+        if ("drawAutomaton".equals(name) && "(Ljava/awt/Graphics;)V".equals(descriptor)) {
+          return new MethodVisitor(Opcodes.ASM9, mv) {
+            private boolean tilesHooked;
+
+            @Override
+            public void visitMethodInsn(int opcode, String owner, String methodName, String methodDesc, boolean isInterface) {
+              if (!tilesHooked
+                && opcode == Opcodes.INVOKEVIRTUAL
+                && "java/awt/Graphics".equals(owner)
+                && "create".equals(methodName)
+                && "()Ljava/awt/Graphics;".equals(methodDesc)) {
+                // g is on the stack for create(); the arrow maps have just been refreshed.
+                tilesHooked = true;
+                Label draw = new Label();
+                super.visitVarInsn(Opcodes.ALOAD, 0);
+                super.visitVarInsn(Opcodes.ALOAD, 1);
+                super.visitMethodInsn(
+                  Opcodes.INVOKESTATIC,
+                  CANVAS_TILES,
+                  "paint",
+                  "(L" + DRAWER + ";Ljava/awt/Graphics;)Z",
+                  false
+                );
+                super.visitJumpInsn(Opcodes.IFEQ, draw);
+                super.visitInsn(Opcodes.POP);
+                super.visitInsn(Opcodes.RETURN);
+                super.visitLabel(draw);
+                super.visitFrame(Opcodes.F_SAME1, 0, null, 1, new Object[] {"java/awt/Graphics"});
+              }
+              if (opcode == Opcodes.INVOKEVIRTUAL
+                && DRAWER.equals(owner)
+                && "drawState".equals(methodName)
+                && "(Ljava/awt/Graphics;Lautomata/State;)V".equals(methodDesc)) {
+                super.visitMethodInsn(
+                  Opcodes.INVOKESTATIC,
+                  CANVAS_DETAIL,
+                  "drawState",
+                  "(L" + DRAWER + ";Ljava/awt/Graphics;Lautomata/State;)V",
+                  false
+                );
+                return;
+              }
+              super.visitMethodInsn(opcode, owner, methodName, methodDesc, isInterface);
+            }
+          };
+        }
+        if ("drawTransitions".equals(name) && "(Ljava/awt/Graphics;)V".equals(descriptor)) {
+          return new MethodVisitor(Opcodes.ASM9, mv) {
+            @Override
+            public void visitMethodInsn(int opcode, String owner, String methodName, String methodDesc, boolean isInterface) {
+              if (opcode == Opcodes.INVOKEVIRTUAL
+                && "gui/viewer/CurvedArrow".equals(owner)
+                && "draw".equals(methodName)
+                && "(Ljava/awt/Graphics2D;)V".equals(methodDesc)) {
+                super.visitMethodInsn(
+                  Opcodes.INVOKESTATIC,
+                  CANVAS_DETAIL,
+                  "drawArrow",
+                  "(Lgui/viewer/CurvedArrow;Ljava/awt/Graphics2D;)V",
+                  false
+                );
+                return;
+              }
+              super.visitMethodInsn(opcode, owner, methodName, methodDesc, isInterface);
+            }
+          };
+        }
         return mv;
       }
     };
@@ -70,4 +284,20 @@ public final class AutomatonDrawerPatcher {
 
     Files.write(classFile, patched);
   }
+
+  /**
+   * Emits {@code if (HitIndex.isEnabled(this)) return HitIndex.<method>(this, point);}.
+   */
+  private static void hitIndexLookup(MethodVisitor mv, String method, String descriptor) {
+    Label fallback = new Label();
+    mv.visitVarInsn(Opcodes.ALOAD, 0);
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, HIT_INDEX, "isEnabled", "(L" + DRAWER + ";)Z", false);
+    mv.visitJumpInsn(Opcodes.IFEQ, fallback);
+    mv.visitVarInsn(Opcodes.ALOAD, 0);
+    mv.visitVarInsn(Opcodes.ALOAD, 1);
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, HIT_INDEX, method, "(L" + DRAWER + ";" + descriptor.substring(1), false);
+    mv.visitInsn(Opcodes.ARETURN);
+    mv.visitLabel(fallback);
+    mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+  }
 }
\ No newline at end of file
@@ -27,7 +27,7 @@ public final class AutomatonPanePatcher {
     byte[] original = Files.readAllBytes(classFile);
 
     ClassReader reader = new ClassReader(original);
-    ClassWriter writer = new ClassWriter(reader, 0);
+    ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
     ClassVisitor visitor = new ClassVisitor(Opcodes.ASM9, writer) {
       @Override
       public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
@@ -53,7 +53,30 @@ public final class AutomatonPanePatcher {
 
         if (TARGET_METHOD_DESC.equals(descriptor)
           && ("paintComponent".equals(name) || "printComponent".equals(name))) {
+          final boolean paint = "paintComponent".equals(name);
           return new MethodVisitor(Opcodes.ASM9, mv) {
+            @Override
+            public void visitMethodInsn(int opcode, String owner, String methodName, String methodDesc, boolean isInterface) {
+              if (paint
+                && opcode == Opcodes.INVOKEVIRTUAL
+                && "gui/viewer/AutomatonDrawer".equals(owner)
+                && "drawAutomaton".equals(methodName)
+                && TARGET_METHOD_DESC.equals(methodDesc)) {
+                // Screen paints go through the pane's tile cache; printing draws directly.
+                super.visitVarInsn(Opcodes.ALOAD, 0);
+                super.visitMethodInsn(
+                  Opcodes.INVOKESTATIC,
+                  "gui/viewer/CanvasTiles",
+                  "drawAutomaton",
+                  "(Lgui/viewer/AutomatonDrawer;Ljava/awt/Graphics;Lgui/viewer/AutomatonPane;)V",
+                  false
+                );
+                return;
+              }
+
+              super.visitMethodInsn(opcode, owner, methodName, methodDesc, isInterface);
+            }
+
             @Override
             public void visitFieldInsn(int opcode, String owner, String fieldName, String fieldDesc) {
               if (opcode == Opcodes.GETSTATIC
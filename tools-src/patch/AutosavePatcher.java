@@ -0,0 +1,84 @@
+package patch;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Patches {@code Universe} to keep an autosave journal for each open window (see
+ * {@code launcher.AutosaveJournal}):
+ *
+ * <pre>
+ * public static int registerFrame(EnvironmentFrame frame) {
+ *   // original, up to its return
+ *   launcher.AutosaveJournal.attach(frame);
+ *   return numberRegistered;
+ * }
+ * public static void unregisterFrame(EnvironmentFrame frame) {
+ *   launcher.AutosaveJournal.detach(frame);
+ *   // original
+ * }
+ * </pre>
+ */
+public final class AutosavePatcher {
+  private static final String AUTOSAVE_JOURNAL = "launcher/AutosaveJournal";
+  private static final String FRAME_HOOK = "(Lgui/environment/EnvironmentFrame;)V";
+
+  private AutosavePatcher() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Usage: patch.AutosavePatcher <path-to-Universe.class>");
+      System.exit(2);
+      return;
+    }
+
+    Path classFile = Paths.get(args[0]);
+    byte[] original = Files.readAllBytes(classFile);
+
+    ClassReader reader = new ClassReader(original);
+    ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+    ClassVisitor visitor = new ClassVisitor(Opcodes.ASM9, writer) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if ("registerFrame".equals(name) && "(Lgui/environment/EnvironmentFrame;)I".equals(descriptor)) {
+          return new MethodVisitor(Opcodes.ASM9, mv) {
+            @Override
+            public void visitInsn(int opcode) {
+              if (opcode == Opcodes.IRETURN) {
+                // The frame is in the maps by now, with the count on the stack.
+                super.visitVarInsn(Opcodes.ALOAD, 0);
+                super.visitMethodInsn(Opcodes.INVOKESTATIC, AUTOSAVE_JOURNAL, "attach", FRAME_HOOK, false);
+              }
+              super.visitInsn(opcode);
+            }
+          };
+        }
+        if ("unregisterFrame".equals(name) && FRAME_HOOK.equals(descriptor)) {
+          return new MethodVisitor(Opcodes.ASM9, mv) {
+            @Override
+            public void visitCode() {
+              super.visitCode();
+              super.visitVarInsn(Opcodes.ALOAD, 0);
+              super.visitMethodInsn(Opcodes.INVOKESTATIC, AUTOSAVE_JOURNAL, "detach", FRAME_HOOK, false);
+            }
+          };
+        }
+        return mv;
+      }
+    };
+
+    reader.accept(visitor, 0);
+    byte[] patched = writer.toByteArray();
+
+    Files.write(classFile, patched);
+  }
+}
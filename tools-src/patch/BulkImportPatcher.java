@@ -0,0 +1,113 @@
+package patch;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Patches {@code OpenAction} and {@code TestAction} to read files through
+ * {@code launcher.BulkImport}:
+ *
+ * <pre>
+ * public static ... openFile(File file, Codec[] codecs, ...) {
+ *   codecs = launcher.BulkImport.order(file, codecs);
+ *   // original; in TestAction, codecs[i].decode(file, null) becomes
+ *   // launcher.BulkImport.decode(codecs[i], file, null)
+ * }
+ * public ArrayList chooseFile(Component source, boolean open) {      // TestAction
+ *   ...
+ *   File[] files = fileChooser.getSelectedFiles();
+ *   launcher.BulkImport.prefetch(files, codecs);
+ *   ...
+ * }
+ * </pre>
+ */
+public final class BulkImportPatcher {
+  private static final String BULK_IMPORT = "launcher/BulkImport";
+  private static final String CODECS = "[Lfile/Codec;";
+  private static final String TEST_ACTION = "gui/action/TestAction";
+
+  private BulkImportPatcher() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Usage: patch.BulkImportPatcher <path-to-OpenAction.class|TestAction.class>");
+      System.exit(2);
+      return;
+    }
+
+    Path classFile = Paths.get(args[0]);
+    byte[] original = Files.readAllBytes(classFile);
+
+    ClassReader reader = new ClassReader(original);
+    final boolean testAction = TEST_ACTION.equals(reader.getClassName());
+    ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+    ClassVisitor visitor = new ClassVisitor(Opcodes.ASM9, writer) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if ("openFile".equals(name) && descriptor.startsWith("(Ljava/io/File;" + CODECS)) {
+          return new MethodVisitor(Opcodes.ASM9, mv) {
+            @Override
+            public void visitCode() {
+              super.visitCode();
+              super.visitVarInsn(Opcodes.ALOAD, 0);
+              super.visitVarInsn(Opcodes.ALOAD, 1);
+              super.visitMethodInsn(
+                Opcodes.INVOKESTATIC,
+                BULK_IMPORT,
+                "order",
+                "(Ljava/io/File;" + CODECS + ")" + CODECS,
+                false
+              );
+              super.visitVarInsn(Opcodes.ASTORE, 1);
+            }
+
+            @Override
+            public void visitMethodInsn(int opcode, String owner, String method, String desc, boolean isInterface) {
+              if (testAction && opcode == Opcodes.INVOKEVIRTUAL && "file/Codec".equals(owner) && "decode".equals(method)) {
+                // Same arguments on the stack: the codec, the file and the parameter map.
+                super.visitMethodInsn(
+                  Opcodes.INVOKESTATIC,
+                  BULK_IMPORT,
+                  "decode",
+                  "(Lfile/Codec;Ljava/io/File;Ljava/util/Map;)Ljava/io/Serializable;",
+                  false
+                );
+                return;
+              }
+              super.visitMethodInsn(opcode, owner, method, desc, isInterface);
+            }
+          };
+        }
+        if (testAction && "chooseFile".equals(name)) {
+          return new MethodVisitor(Opcodes.ASM9, mv) {
+            @Override
+            public void visitMethodInsn(int opcode, String owner, String method, String desc, boolean isInterface) {
+              super.visitMethodInsn(opcode, owner, method, desc, isInterface);
+              if ("javax/swing/JFileChooser".equals(owner) && "getSelectedFiles".equals(method)) {
+                // The codecs from OpenAction.makeFilters() are in local 4.
+                super.visitInsn(Opcodes.DUP);
+                super.visitVarInsn(Opcodes.ALOAD, 4);
+                super.visitMethodInsn(Opcodes.INVOKESTATIC, BULK_IMPORT, "prefetch", "([Ljava/io/File;" + CODECS + ")V", false);
+              }
+            }
+          };
+        }
+        return mv;
+      }
+    };
+
+    reader.accept(visitor, 0);
+    byte[] patched = writer.toByteArray();
+
+    Files.write(classFile, patched);
+  }
+}
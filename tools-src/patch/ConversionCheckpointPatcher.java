@@ -0,0 +1,88 @@
+package patch;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inserts {@code launcher.BackgroundTasks.checkpoint()} at the start of the methods that JFLAP's
+ * converters call once per loop iteration, so conversions running as background tasks can be
+ * cancelled and report progress. The patched methods are chosen by the class being patched.
+ */
+public final class ConversionCheckpointPatcher {
+  private static final Map<String, Set<String>> METHODS = new HashMap<>();
+
+  static {
+    methods("automata/fsa/NFAToDFA", "expandState", "getStatesOnTerminal");
+    methods("automata/fsa/Minimizer", "split", "splitOnTerminal", "getTransitionsForState");
+    methods(
+      "automata/fsa/FSAToRegularExpressionConverter",
+      "removeState",
+      "getExpressionBetweenStates",
+      "combineToSingleTransition"
+    );
+    methods("automata/pda/PDAToCFGConverter", "createProductionsForTransition", "getSimplifiedProduction");
+    methods("grammar/CNFConverter", "replacements", "determinalize");
+  }
+
+  private ConversionCheckpointPatcher() {
+  }
+
+  private static void methods(String owner, String... names) {
+    METHODS.put(owner, new HashSet<>(Arrays.asList(names)));
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Usage: patch.ConversionCheckpointPatcher <path-to-converter.class>");
+      System.exit(2);
+      return;
+    }
+
+    Path classFile = Paths.get(args[0]);
+    byte[] original = Files.readAllBytes(classFile);
+
+    ClassReader reader = new ClassReader(original);
+    final Set<String> targets = METHODS.get(reader.getClassName());
+    if (targets == null) {
+      System.err.println("No checkpoint methods configured for " + reader.getClassName());
+      System.exit(1);
+      return;
+    }
+
+    ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+    ClassVisitor visitor = new ClassVisitor(Opcodes.ASM9, writer) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if (!targets.contains(name) || (access & Opcodes.ACC_ABSTRACT) != 0) {
+          return mv;
+        }
+
+        return new MethodVisitor(Opcodes.ASM9, mv) {
+          @Override
+          public void visitCode() {
+            super.visitCode();
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, "launcher/BackgroundTasks", "checkpoint", "()V", false);
+          }
+        };
+      }
+    };
+
+    reader.accept(visitor, 0);
+    byte[] patched = writer.toByteArray();
+
+    Files.write(classFile, patched);
+  }
+}
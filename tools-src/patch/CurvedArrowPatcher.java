@@ -3,6 +3,7 @@ package patch;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
@@ -10,7 +11,31 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
+/**
+ * Patches {@code CurvedArrow} to draw labels in the canvas line color, to report moved curves to
+ * {@code launcher.HitIndex} and to draw from cached arrowheads and label glyphs (see
+ * {@code gui.viewer.ArrowDrawCache}):
+ *
+ * <pre>
+ * public void draw(Graphics2D g) {
+ *   if (gui.viewer.ArrowDrawCache.draw(this, g)) return;
+ *   // original
+ * }
+ * public void drawText(Graphics2D g) {
+ *   if (gui.viewer.ArrowDrawCache.drawText(this, g)) return;
+ *   // original, with the label color replaced by CanvasColors.canvasLineColor()
+ * }
+ * public void refreshCurve() {
+ *   // original
+ *   launcher.HitIndex.curveChanged(this);
+ * }
+ * </pre>
+ */
 public final class CurvedArrowPatcher {
+  private static final String ARROW = "gui/viewer/CurvedArrow";
+  private static final String ARROW_DRAW_CACHE = "gui/viewer/ArrowDrawCache";
+  private static final String DRAW_DESC = "(Ljava/awt/Graphics2D;)V";
+
   private CurvedArrowPatcher() {
   }
 
@@ -32,7 +57,37 @@ public final class CurvedArrowPatcher {
       public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
         MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
 
-        if (!"drawText".equals(name) || !"(Ljava/awt/Graphics2D;)V".equals(descriptor)) {
+        if ("refreshCurve".equals(name) && "()V".equals(descriptor)) {
+          // Let launcher.HitIndex re-file an arrow whose control point ArrowTool has dragged.
+          return new MethodVisitor(Opcodes.ASM9, mv) {
+            @Override
+            public void visitInsn(int opcode) {
+              if (opcode == Opcodes.RETURN) {
+                super.visitVarInsn(Opcodes.ALOAD, 0);
+                super.visitMethodInsn(
+                  Opcodes.INVOKESTATIC,
+                  "launcher/HitIndex",
+                  "curveChanged",
+                  "(Lgui/viewer/CurvedArrow;)V",
+                  false
+                );
+              }
+              super.visitInsn(opcode);
+            }
+          };
+        }
+
+        if ("draw".equals(name) && DRAW_DESC.equals(descriptor)) {
+          return new MethodVisitor(Opcodes.ASM9, mv) {
+            @Override
+            public void visitCode() {
+              super.visitCode();
+              cacheHook(mv, "draw");
+            }
+          };
+        }
+
+        if (!"drawText".equals(name) || !DRAW_DESC.equals(descriptor)) {
           return mv;
         }
 
@@ -41,6 +96,12 @@ public final class CurvedArrowPatcher {
           private boolean sawGraphicsCast = false;
           private boolean patched = false;
 
+          @Override
+          public void visitCode() {
+            super.visitCode();
+            cacheHook(mv, "drawText");
+          }
+
           @Override
           public void visitTypeInsn(int opcode, String type) {
             super.visitTypeInsn(opcode, type);
@@ -107,5 +168,19 @@ public final class CurvedArrowPatcher {
 
     Files.write(classFile, patched);
   }
+
+  /**
+   * Emits {@code if (ArrowDrawCache.<method>(this, g)) return;}.
+   */
+  private static void cacheHook(MethodVisitor mv, String method) {
+    Label fallback = new Label();
+    mv.visitVarInsn(Opcodes.ALOAD, 0);
+    mv.visitVarInsn(Opcodes.ALOAD, 1);
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, ARROW_DRAW_CACHE, method, "(L" + ARROW + ";Ljava/awt/Graphics2D;)Z", false);
+    mv.visitJumpInsn(Opcodes.IFEQ, fallback);
+    mv.visitInsn(Opcodes.RETURN);
+    mv.visitLabel(fallback);
+    mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+  }
 }
 
@@ -0,0 +1,96 @@
+package patch;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Prepends a compiled fast path to {@code FSAStepByStateSimulator.simulateInput(String)}:
+ *
+ * <pre>
+ * int r = launcher.FastSimulation.simulateFsa(myAutomaton, input);
+ * if (r &gt;= 0) {
+ *   myConfigurations = launcher.FastSimulation.configurations(this, input, r);
+ *   return r != 0;
+ * }
+ * // original configuration-based simulation
+ * </pre>
+ */
+public final class FSASimulatorPatcher {
+  private FSASimulatorPatcher() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Usage: patch.FSASimulatorPatcher <path-to-FSAStepByStateSimulator.class>");
+      System.exit(2);
+      return;
+    }
+
+    Path classFile = Paths.get(args[0]);
+    byte[] original = Files.readAllBytes(classFile);
+
+    ClassReader reader = new ClassReader(original);
+    ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+    ClassVisitor visitor = new ClassVisitor(Opcodes.ASM9, writer) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if (!"simulateInput".equals(name) || !"(Ljava/lang/String;)Z".equals(descriptor)) {
+          return mv;
+        }
+
+        return new MethodVisitor(Opcodes.ASM9, mv) {
+          @Override
+          public void visitCode() {
+            super.visitCode();
+
+            Label fallback = new Label();
+            super.visitVarInsn(Opcodes.ALOAD, 0);
+            super.visitFieldInsn(Opcodes.GETFIELD, "automata/AutomatonSimulator", "myAutomaton", "Lautomata/Automaton;");
+            super.visitVarInsn(Opcodes.ALOAD, 1);
+            super.visitMethodInsn(
+              Opcodes.INVOKESTATIC,
+              "launcher/FastSimulation",
+              "simulateFsa",
+              "(Lautomata/Automaton;Ljava/lang/String;)I",
+              false
+            );
+            super.visitInsn(Opcodes.DUP);
+            super.visitJumpInsn(Opcodes.IFLT, fallback);
+            super.visitVarInsn(Opcodes.ISTORE, 2);
+            super.visitVarInsn(Opcodes.ALOAD, 0);
+            super.visitVarInsn(Opcodes.ALOAD, 0);
+            super.visitVarInsn(Opcodes.ALOAD, 1);
+            super.visitVarInsn(Opcodes.ILOAD, 2);
+            super.visitMethodInsn(
+              Opcodes.INVOKESTATIC,
+              "launcher/FastSimulation",
+              "configurations",
+              "(Lautomata/AutomatonSimulator;Ljava/lang/String;I)Ljava/util/Set;",
+              false
+            );
+            super.visitFieldInsn(Opcodes.PUTFIELD, "automata/AutomatonSimulator", "myConfigurations", "Ljava/util/Set;");
+            super.visitVarInsn(Opcodes.ILOAD, 2);
+            super.visitInsn(Opcodes.IRETURN);
+            super.visitLabel(fallback);
+            super.visitFrame(Opcodes.F_SAME1, 0, null, 1, new Object[] {Opcodes.INTEGER});
+            super.visitInsn(Opcodes.POP);
+          }
+        };
+      }
+    };
+
+    reader.accept(visitor, 0);
+    byte[] patched = writer.toByteArray();
+
+    Files.write(classFile, patched);
+  }
+}
@@ -0,0 +1,86 @@
+package patch;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Patches {@code GEMLayoutAlgorithm} to lay out large graphs with a Barnes-Hut quadtree (see
+ * {@code automata.graph.layout.BarnesHutLayout}):
+ *
+ * <pre>
+ * public void layout(Graph graph, Set notMoving) {
+ *   if (automata.graph.layout.BarnesHutLayout.layout(graph, notMoving, size, vertexDim)) {
+ *     return;
+ *   }
+ *   // original
+ * }
+ * </pre>
+ */
+public final class GEMLayoutPatcher {
+  private static final String BARNES_HUT_LAYOUT = "automata/graph/layout/BarnesHutLayout";
+  private static final String LAYOUT_ALGORITHM = "automata/graph/LayoutAlgorithm";
+  private static final String DIMENSION = "Ljava/awt/Dimension;";
+
+  private GEMLayoutPatcher() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Usage: patch.GEMLayoutPatcher <path-to-GEMLayoutAlgorithm.class>");
+      System.exit(2);
+      return;
+    }
+
+    Path classFile = Paths.get(args[0]);
+    byte[] original = Files.readAllBytes(classFile);
+
+    ClassReader reader = new ClassReader(original);
+    ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+    ClassVisitor visitor = new ClassVisitor(Opcodes.ASM9, writer) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if (!"layout".equals(name) || !"(Lautomata/graph/Graph;Ljava/util/Set;)V".equals(descriptor)) {
+          return mv;
+        }
+        return new MethodVisitor(Opcodes.ASM9, mv) {
+          @Override
+          public void visitCode() {
+            super.visitCode();
+            Label original = new Label();
+            super.visitVarInsn(Opcodes.ALOAD, 1);
+            super.visitVarInsn(Opcodes.ALOAD, 2);
+            super.visitVarInsn(Opcodes.ALOAD, 0);
+            super.visitFieldInsn(Opcodes.GETFIELD, LAYOUT_ALGORITHM, "size", DIMENSION);
+            super.visitVarInsn(Opcodes.ALOAD, 0);
+            super.visitFieldInsn(Opcodes.GETFIELD, LAYOUT_ALGORITHM, "vertexDim", DIMENSION);
+            super.visitMethodInsn(
+              Opcodes.INVOKESTATIC,
+              BARNES_HUT_LAYOUT,
+              "layout",
+              "(Lautomata/graph/Graph;Ljava/util/Set;" + DIMENSION + DIMENSION + ")Z",
+              false
+            );
+            super.visitJumpInsn(Opcodes.IFEQ, original);
+            super.visitInsn(Opcodes.RETURN);
+            super.visitLabel(original);
+            super.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+          }
+        };
+      }
+    };
+
+    reader.accept(visitor, 0);
+    byte[] patched = writer.toByteArray();
+
+    Files.write(classFile, patched);
+  }
+}
@@ -0,0 +1,87 @@
+package patch;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Prepends the parallel runner to the "Run Inputs" action ({@code MultipleSimulateAction$2} and
+ * {@code BatchMultipleSimulateAction$2}):
+ *
+ * <pre>
+ * if (launcher.ParallelSimulation.runInputs(this$0.table, this$0.getObject(), this$0.getEnvironment())) return;
+ * // original row-by-row loop
+ * </pre>
+ */
+public final class MultipleSimulatePatcher {
+  private MultipleSimulatePatcher() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Usage: patch.MultipleSimulatePatcher <path-to-MultipleSimulateAction$2.class>");
+      System.exit(2);
+      return;
+    }
+
+    Path classFile = Paths.get(args[0]);
+    byte[] original = Files.readAllBytes(classFile);
+
+    ClassReader reader = new ClassReader(original);
+    final String owner = reader.getClassName();
+    final String outer = owner.substring(0, owner.lastIndexOf('$'));
+    final String outerDescriptor = "L" + outer + ";";
+
+    ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+    ClassVisitor visitor = new ClassVisitor(Opcodes.ASM9, writer) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if (!"actionPerformed".equals(name) || !"(Ljava/awt/event/ActionEvent;)V".equals(descriptor)) {
+          return mv;
+        }
+
+        return new MethodVisitor(Opcodes.ASM9, mv) {
+          @Override
+          public void visitCode() {
+            super.visitCode();
+
+            Label fallback = new Label();
+            super.visitVarInsn(Opcodes.ALOAD, 0);
+            super.visitFieldInsn(Opcodes.GETFIELD, owner, "this$0", outerDescriptor);
+            super.visitFieldInsn(Opcodes.GETFIELD, outer, "table", "Ljavax/swing/JTable;");
+            super.visitVarInsn(Opcodes.ALOAD, 0);
+            super.visitFieldInsn(Opcodes.GETFIELD, owner, "this$0", outerDescriptor);
+            super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, outer, "getObject", "()Ljava/lang/Object;", false);
+            super.visitVarInsn(Opcodes.ALOAD, 0);
+            super.visitFieldInsn(Opcodes.GETFIELD, owner, "this$0", outerDescriptor);
+            super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, outer, "getEnvironment", "()Lgui/environment/Environment;", false);
+            super.visitMethodInsn(
+              Opcodes.INVOKESTATIC,
+              "launcher/ParallelSimulation",
+              "runInputs",
+              "(Ljavax/swing/JTable;Ljava/lang/Object;Lgui/environment/Environment;)Z",
+              false
+            );
+            super.visitJumpInsn(Opcodes.IFEQ, fallback);
+            super.visitInsn(Opcodes.RETURN);
+            super.visitLabel(fallback);
+            super.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+          }
+        };
+      }
+    };
+
+    reader.accept(visitor, 0);
+    byte[] patched = writer.toByteArray();
+
+    Files.write(classFile, patched);
+  }
+}
@@ -0,0 +1,77 @@
+package patch;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Prepends the worklist subset construction to {@code NFAToDFA.convertToDFA(Automaton)}:
+ *
+ * <pre>
+ * FiniteStateAutomaton dfa = launcher.FastConversion.convertToDfa(automaton);
+ * if (dfa != null) return dfa;
+ * // original State[]-based conversion
+ * </pre>
+ */
+public final class NFAToDFAPatcher {
+  private NFAToDFAPatcher() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Usage: patch.NFAToDFAPatcher <path-to-NFAToDFA.class>");
+      System.exit(2);
+      return;
+    }
+
+    Path classFile = Paths.get(args[0]);
+    byte[] original = Files.readAllBytes(classFile);
+
+    ClassReader reader = new ClassReader(original);
+    ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+    ClassVisitor visitor = new ClassVisitor(Opcodes.ASM9, writer) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if (!"convertToDFA".equals(name) || !"(Lautomata/Automaton;)Lautomata/fsa/FiniteStateAutomaton;".equals(descriptor)) {
+          return mv;
+        }
+
+        return new MethodVisitor(Opcodes.ASM9, mv) {
+          @Override
+          public void visitCode() {
+            super.visitCode();
+
+            Label fallback = new Label();
+            super.visitVarInsn(Opcodes.ALOAD, 1);
+            super.visitMethodInsn(
+              Opcodes.INVOKESTATIC,
+              "launcher/FastConversion",
+              "convertToDfa",
+              "(Lautomata/Automaton;)Lautomata/fsa/FiniteStateAutomaton;",
+              false
+            );
+            super.visitInsn(Opcodes.DUP);
+            super.visitJumpInsn(Opcodes.IFNULL, fallback);
+            super.visitInsn(Opcodes.ARETURN);
+            super.visitLabel(fallback);
+            super.visitFrame(Opcodes.F_SAME1, 0, null, 1, new Object[] {"automata/fsa/FiniteStateAutomaton"});
+            super.visitInsn(Opcodes.POP);
+          }
+        };
+      }
+    };
+
+    reader.accept(visitor, 0);
+    byte[] patched = writer.toByteArray();
+
+    Files.write(classFile, patched);
+  }
+}
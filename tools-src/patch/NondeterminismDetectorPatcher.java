@@ -0,0 +1,80 @@
+package patch;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Prepends an incremental path to {@code NondeterminismDetector.getNondeterministicStates(Automaton)}:
+ *
+ * <pre>
+ * State[] r = automata.StateVersions.nondeterministicStates(this, automaton);
+ * if (r != null) return r;
+ * // original check of every state
+ * </pre>
+ */
+public final class NondeterminismDetectorPatcher {
+  private static final String STATES = "[Lautomata/State;";
+
+  private NondeterminismDetectorPatcher() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Usage: patch.NondeterminismDetectorPatcher <path-to-NondeterminismDetector.class>");
+      System.exit(2);
+      return;
+    }
+
+    Path classFile = Paths.get(args[0]);
+    byte[] original = Files.readAllBytes(classFile);
+
+    ClassReader reader = new ClassReader(original);
+    ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+    ClassVisitor visitor = new ClassVisitor(Opcodes.ASM9, writer) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if (!"getNondeterministicStates".equals(name) || !("(Lautomata/Automaton;)" + STATES).equals(descriptor)) {
+          return mv;
+        }
+
+        return new MethodVisitor(Opcodes.ASM9, mv) {
+          @Override
+          public void visitCode() {
+            super.visitCode();
+
+            Label fallback = new Label();
+            super.visitVarInsn(Opcodes.ALOAD, 0);
+            super.visitVarInsn(Opcodes.ALOAD, 1);
+            super.visitMethodInsn(
+              Opcodes.INVOKESTATIC,
+              "automata/StateVersions",
+              "nondeterministicStates",
+              "(Lautomata/NondeterminismDetector;Lautomata/Automaton;)" + STATES,
+              false
+            );
+            super.visitInsn(Opcodes.DUP);
+            super.visitJumpInsn(Opcodes.IFNULL, fallback);
+            super.visitInsn(Opcodes.ARETURN);
+            super.visitLabel(fallback);
+            super.visitFrame(Opcodes.F_SAME1, 0, null, 1, new Object[] {STATES});
+            super.visitInsn(Opcodes.POP);
+          }
+        };
+      }
+    };
+
+    reader.accept(visitor, 0);
+    byte[] patched = writer.toByteArray();
+
+    Files.write(classFile, patched);
+  }
+}
@@ -0,0 +1,66 @@
+package patch;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Replaces the body of {@code PDAStepByStateSimulator(Automaton)}, which always shows an
+ * "Accept by" dialog, with:
+ *
+ * <pre>
+ * super(automaton);
+ * myAcceptance = automata.pda.PDAAcceptance.chooseMode();
+ * </pre>
+ */
+public final class PDAAcceptancePatcher {
+  private PDAAcceptancePatcher() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Usage: patch.PDAAcceptancePatcher <path-to-PDAStepByStateSimulator.class>");
+      System.exit(2);
+      return;
+    }
+
+    Path classFile = Paths.get(args[0]);
+    byte[] original = Files.readAllBytes(classFile);
+
+    ClassReader reader = new ClassReader(original);
+    ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+    ClassVisitor visitor = new ClassVisitor(Opcodes.ASM9, writer) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if (!"<init>".equals(name) || !"(Lautomata/Automaton;)V".equals(descriptor)) {
+          return mv;
+        }
+
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "automata/AutomatonSimulator", "<init>", "(Lautomata/Automaton;)V", false);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "automata/pda/PDAAcceptance", "chooseMode", "()I", false);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, "automata/pda/PDAStepByStateSimulator", "myAcceptance", "I");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        // Drop the original body.
+        return null;
+      }
+    };
+
+    reader.accept(visitor, 0);
+    byte[] patched = writer.toByteArray();
+
+    Files.write(classFile, patched);
+  }
+}
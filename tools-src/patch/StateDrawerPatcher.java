@@ -3,6 +3,7 @@ package patch;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
@@ -13,6 +14,7 @@ import java.nio.file.Paths;
 public final class StateDrawerPatcher {
   private static final String TARGET_METHOD = "drawArea";
   private static final String TARGET_DESC = "(Ljava/awt/Graphics;Lautomata/Automaton;Lautomata/State;Ljava/awt/Point;Ljava/awt/Color;)V";
+  private static final String CANVAS_DETAIL = "gui/viewer/CanvasDetail";
 
   private StateDrawerPatcher() {
   }
@@ -33,6 +35,24 @@ public final class StateDrawerPatcher {
       @Override
       public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
         MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if ("drawStateLabel".equals(name)
+          && "(Ljava/awt/Graphics;Lautomata/State;Ljava/awt/Point;Ljava/awt/Color;)V".equals(descriptor)) {
+          // Skip label boxes when zoomed out too far to read them (gui.viewer.CanvasDetail).
+          return new MethodVisitor(Opcodes.ASM9, mv) {
+            @Override
+            public void visitCode() {
+              super.visitCode();
+
+              Label draw = new Label();
+              super.visitVarInsn(Opcodes.ALOAD, 1);
+              super.visitMethodInsn(Opcodes.INVOKESTATIC, CANVAS_DETAIL, "drawsLabels", "(Ljava/awt/Graphics;)Z", false);
+              super.visitJumpInsn(Opcodes.IFNE, draw);
+              super.visitInsn(Opcodes.RETURN);
+              super.visitLabel(draw);
+              super.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+            }
+          };
+        }
         if (!TARGET_METHOD.equals(name) || !TARGET_DESC.equals(descriptor)) {
           return mv;
         }
@@ -42,6 +62,20 @@ public final class StateDrawerPatcher {
 
           @Override
           public void visitMethodInsn(int opcode, String owner, String methodName, String methodDesc, boolean isInterface) {
+            if (opcode == Opcodes.INVOKEVIRTUAL
+              && "java/awt/Graphics".equals(owner)
+              && "drawString".equals(methodName)
+              && "(Ljava/lang/String;II)V".equals(methodDesc)) {
+              super.visitMethodInsn(
+                Opcodes.INVOKESTATIC,
+                CANVAS_DETAIL,
+                "drawStateName",
+                "(Ljava/awt/Graphics;Ljava/lang/String;II)V",
+                false
+              );
+              return;
+            }
+
             if (opcode == Opcodes.INVOKEVIRTUAL
               && "java/awt/Graphics".equals(owner)
               && "drawOval".equals(methodName)
@@ -0,0 +1,94 @@
+package patch;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Replaces the bodies of {@code TwoCircleLayoutAlgorithm.assignToCircles()} and
+ * {@code createOuterCircleChains()} with calls to {@code automata.graph.layout.TwoCircleAssignment}:
+ *
+ * <pre>
+ * protected void assignToCircles() {
+ *   automata.graph.layout.TwoCircleAssignment.assignToCircles(this);
+ * }
+ * protected void createOuterCircleChains() {
+ *   automata.graph.layout.TwoCircleAssignment.createOuterCircleChains(this, vertexDim, vertexBuffer);
+ * }
+ * </pre>
+ */
+public final class TwoCircleLayoutPatcher {
+  private static final String TWO_CIRCLE_LAYOUT = "automata/graph/layout/TwoCircleLayoutAlgorithm";
+  private static final String TWO_CIRCLE_ASSIGNMENT = "automata/graph/layout/TwoCircleAssignment";
+
+  private TwoCircleLayoutPatcher() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Usage: patch.TwoCircleLayoutPatcher <path-to-TwoCircleLayoutAlgorithm.class>");
+      System.exit(2);
+      return;
+    }
+
+    Path classFile = Paths.get(args[0]);
+    byte[] original = Files.readAllBytes(classFile);
+
+    ClassReader reader = new ClassReader(original);
+    ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+    ClassVisitor visitor = new ClassVisitor(Opcodes.ASM9, writer) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if ("assignToCircles".equals(name) && "()V".equals(descriptor)) {
+          mv.visitCode();
+          mv.visitVarInsn(Opcodes.ALOAD, 0);
+          mv.visitMethodInsn(
+            Opcodes.INVOKESTATIC,
+            TWO_CIRCLE_ASSIGNMENT,
+            "assignToCircles",
+            "(L" + TWO_CIRCLE_LAYOUT + ";)V",
+            false
+          );
+          mv.visitInsn(Opcodes.RETURN);
+          mv.visitMaxs(0, 0);
+          mv.visitEnd();
+          // Drop the original body.
+          return null;
+        }
+        if ("createOuterCircleChains".equals(name) && "()V".equals(descriptor)) {
+          mv.visitCode();
+          mv.visitVarInsn(Opcodes.ALOAD, 0);
+          mv.visitVarInsn(Opcodes.ALOAD, 0);
+          mv.visitFieldInsn(Opcodes.GETFIELD, "automata/graph/LayoutAlgorithm", "vertexDim", "Ljava/awt/Dimension;");
+          mv.visitVarInsn(Opcodes.ALOAD, 0);
+          mv.visitFieldInsn(Opcodes.GETFIELD, "automata/graph/LayoutAlgorithm", "vertexBuffer", "D");
+          mv.visitMethodInsn(
+            Opcodes.INVOKESTATIC,
+            TWO_CIRCLE_ASSIGNMENT,
+            "createOuterCircleChains",
+            "(L" + TWO_CIRCLE_LAYOUT + ";Ljava/awt/Dimension;D)V",
+            false
+          );
+          mv.visitInsn(Opcodes.RETURN);
+          mv.visitMaxs(0, 0);
+          mv.visitEnd();
+          // Drop the original body.
+          return null;
+        }
+        return mv;
+      }
+    };
+
+    reader.accept(visitor, 0);
+    byte[] patched = writer.toByteArray();
+
+    Files.write(classFile, patched);
+  }
+}
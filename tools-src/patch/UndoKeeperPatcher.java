@@ -0,0 +1,121 @@
+package patch;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Patches {@code UndoKeeper} to keep its history as a log of edits (see
+ * {@code launcher.UndoJournal}) instead of a deck of automaton copies:
+ *
+ * <pre>
+ * public void saveStatus() {
+ *   if (wait) { wait = false; return; }
+ *   if (launcher.UndoJournal.saveStatus(this, myMaster, numUndo)) return;
+ *   // rest of the original
+ * }
+ * public void restoreStatus() {
+ *   if (launcher.UndoJournal.restoreStatus(this, myMaster)) return;
+ *   // original
+ * }
+ * public void redo() {
+ *   if (launcher.UndoJournal.redo(this, myMaster)) return;
+ *   // original
+ * }
+ * </pre>
+ */
+public final class UndoKeeperPatcher {
+  private static final String KEEPER = "gui/editor/UndoKeeper";
+  private static final String AUTOMATON = "Lautomata/Automaton;";
+  private static final String UNDO_JOURNAL = "launcher/UndoJournal";
+
+  private UndoKeeperPatcher() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Usage: patch.UndoKeeperPatcher <path-to-UndoKeeper.class>");
+      System.exit(2);
+      return;
+    }
+
+    Path classFile = Paths.get(args[0]);
+    byte[] original = Files.readAllBytes(classFile);
+
+    ClassReader reader = new ClassReader(original);
+    ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+    ClassVisitor visitor = new ClassVisitor(Opcodes.ASM9, writer) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if (!"()V".equals(descriptor)) {
+          return mv;
+        }
+        if ("saveStatus".equals(name)) {
+          return new MethodVisitor(Opcodes.ASM9, mv) {
+            private boolean hooked;
+
+            @Override
+            public void visitFieldInsn(int opcode, String owner, String fieldName, String fieldDesc) {
+              if (!hooked && opcode == Opcodes.GETFIELD && KEEPER.equals(owner) && "myDeck".equals(fieldName)) {
+                // Past the setWait() check, with this on the stack for myDeck.
+                hooked = true;
+                Label push = new Label();
+                super.visitVarInsn(Opcodes.ALOAD, 0);
+                super.visitVarInsn(Opcodes.ALOAD, 0);
+                super.visitFieldInsn(Opcodes.GETFIELD, KEEPER, "myMaster", AUTOMATON);
+                super.visitVarInsn(Opcodes.ALOAD, 0);
+                super.visitFieldInsn(Opcodes.GETFIELD, KEEPER, "numUndo", "I");
+                super.visitMethodInsn(
+                  Opcodes.INVOKESTATIC,
+                  UNDO_JOURNAL,
+                  "saveStatus",
+                  "(L" + KEEPER + ";" + AUTOMATON + "I)Z",
+                  false
+                );
+                super.visitJumpInsn(Opcodes.IFEQ, push);
+                super.visitInsn(Opcodes.POP);
+                super.visitInsn(Opcodes.RETURN);
+                super.visitLabel(push);
+                super.visitFrame(Opcodes.F_SAME1, 0, null, 1, new Object[] {KEEPER});
+              }
+              super.visitFieldInsn(opcode, owner, fieldName, fieldDesc);
+            }
+          };
+        }
+        if ("restoreStatus".equals(name) || "redo".equals(name)) {
+          final String hook = name;
+          return new MethodVisitor(Opcodes.ASM9, mv) {
+            @Override
+            public void visitCode() {
+              super.visitCode();
+
+              Label fallback = new Label();
+              super.visitVarInsn(Opcodes.ALOAD, 0);
+              super.visitVarInsn(Opcodes.ALOAD, 0);
+              super.visitFieldInsn(Opcodes.GETFIELD, KEEPER, "myMaster", AUTOMATON);
+              super.visitMethodInsn(Opcodes.INVOKESTATIC, UNDO_JOURNAL, hook, "(L" + KEEPER + ";" + AUTOMATON + ")Z", false);
+              super.visitJumpInsn(Opcodes.IFEQ, fallback);
+              super.visitInsn(Opcodes.RETURN);
+              super.visitLabel(fallback);
+              super.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+            }
+          };
+        }
+        return mv;
+      }
+    };
+
+    reader.accept(visitor, 0);
+    byte[] patched = writer.toByteArray();
+
+    Files.write(classFile, patched);
+  }
+}
@@ -0,0 +1,113 @@
+package patch;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Patches {@code XMLCodec} to read and write {@code .jff} files through StAX streams (see
+ * {@code file.xml.StreamingCodec}), keeping the DOM code for what the streaming codec leaves to it.
+ * Reads go through {@code launcher.DecodeCache} first, which returns unchanged files from its cache:
+ *
+ * <pre>
+ * public Serializable decode(File file, Map parameters) {
+ *   Serializable read = launcher.DecodeCache.decode(file);
+ *   if (read != null) return read;
+ *   // original
+ * }
+ * public File encode(Serializable structure, File file, Map parameters) {
+ *   if (file.xml.StreamingCodec.encode(structure, file)) return file;
+ *   // original
+ * }
+ * </pre>
+ */
+public final class XMLCodecPatcher {
+  private static final String STREAMING_CODEC = "file/xml/StreamingCodec";
+  private static final String DECODE_CACHE = "launcher/DecodeCache";
+  private static final String SERIALIZABLE = "java/io/Serializable";
+
+  private XMLCodecPatcher() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Usage: patch.XMLCodecPatcher <path-to-XMLCodec.class>");
+      System.exit(2);
+      return;
+    }
+
+    Path classFile = Paths.get(args[0]);
+    byte[] original = Files.readAllBytes(classFile);
+
+    ClassReader reader = new ClassReader(original);
+    ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+    ClassVisitor visitor = new ClassVisitor(Opcodes.ASM9, writer) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if ("decode".equals(name) && "(Ljava/io/File;Ljava/util/Map;)Ljava/io/Serializable;".equals(descriptor)) {
+          return new MethodVisitor(Opcodes.ASM9, mv) {
+            @Override
+            public void visitCode() {
+              super.visitCode();
+
+              Label fallback = new Label();
+              super.visitVarInsn(Opcodes.ALOAD, 1);
+              super.visitMethodInsn(
+                Opcodes.INVOKESTATIC,
+                DECODE_CACHE,
+                "decode",
+                "(Ljava/io/File;)L" + SERIALIZABLE + ";",
+                false
+              );
+              super.visitInsn(Opcodes.DUP);
+              super.visitJumpInsn(Opcodes.IFNULL, fallback);
+              super.visitInsn(Opcodes.ARETURN);
+              super.visitLabel(fallback);
+              super.visitFrame(Opcodes.F_SAME1, 0, null, 1, new Object[] {SERIALIZABLE});
+              super.visitInsn(Opcodes.POP);
+            }
+          };
+        }
+        if ("encode".equals(name)
+          && "(Ljava/io/Serializable;Ljava/io/File;Ljava/util/Map;)Ljava/io/File;".equals(descriptor)) {
+          return new MethodVisitor(Opcodes.ASM9, mv) {
+            @Override
+            public void visitCode() {
+              super.visitCode();
+
+              Label fallback = new Label();
+              super.visitVarInsn(Opcodes.ALOAD, 1);
+              super.visitVarInsn(Opcodes.ALOAD, 2);
+              super.visitMethodInsn(
+                Opcodes.INVOKESTATIC,
+                STREAMING_CODEC,
+                "encode",
+                "(L" + SERIALIZABLE + ";Ljava/io/File;)Z",
+                false
+              );
+              super.visitJumpInsn(Opcodes.IFEQ, fallback);
+              super.visitVarInsn(Opcodes.ALOAD, 2);
+              super.visitInsn(Opcodes.ARETURN);
+              super.visitLabel(fallback);
+              super.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+            }
+          };
+        }
+        return mv;
+      }
+    };
+
+    reader.accept(visitor, 0);
+    byte[] patched = writer.toByteArray();
+
+    Files.write(classFile, patched);
+  }
+}